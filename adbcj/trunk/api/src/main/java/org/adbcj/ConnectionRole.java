@@ -0,0 +1,34 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * The role of the database a {@link ConnectionManager} added to a {@link DbSessionPool} connects to.
+ */
+public enum ConnectionRole {
+
+	/**
+	 * A database that accepts writes.  Updates and transactions are sent to primaries.
+	 */
+	PRIMARY,
+
+	/**
+	 * A read-only copy of a primary.  Queries issued outside of a transaction are sent to replicas.
+	 */
+	REPLICA
+
+}
@@ -0,0 +1,64 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Receives the outcome of a {@link DbFuture} directly from the thread that completes it.  Unlike a
+ * {@link DbListener}, a completion handler is handed the result or the original exception, so no {@link DbException}
+ * is created to report a failure.  This matches the shape of completable future implementations found in other
+ * asynchronous libraries, allowing such a future to register itself with {@link DbFuture#addCompletionHandler} and be
+ * completed without any intermediate objects or thread hand-offs.  For example:
+ * 
+ * <pre>
+ * class StageAdapter&lt;T&gt; extends CompletableFuture&lt;T&gt; implements DbCompletionHandler&lt;T&gt; {
+ *     private final DbFuture&lt;T&gt; future;
+ *     public void completed(T result) { complete(result); }
+ *     public void failed(Throwable cause) { completeExceptionally(cause); }
+ *     public void cancelled() { super.cancel(false); }
+ *     public boolean cancel(boolean mayInterruptIfRunning) {
+ *         future.cancel(mayInterruptIfRunning);
+ *         return super.cancel(mayInterruptIfRunning);
+ *     }
+ * }
+ * </pre>
+ * 
+ * <p>Exactly one of the methods is invoked, exactly once.
+ * 
+ * @param <T>  the result type of the future
+ */
+public interface DbCompletionHandler<T> {
+
+	/**
+	 * Invoked when the operation completes successfully.
+	 * 
+	 * @param result  the result of the operation
+	 */
+	void completed(T result);
+
+	/**
+	 * Invoked when the operation fails.
+	 * 
+	 * @param cause  the exception the operation failed with
+	 */
+	void failed(Throwable cause);
+
+	/**
+	 * Invoked when the operation is cancelled.
+	 */
+	void cancelled();
+
+}
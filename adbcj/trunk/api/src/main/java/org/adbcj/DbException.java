@@ -16,6 +16,8 @@
  */
 package org.adbcj;
 
+import java.sql.SQLException;
+
 public class DbException extends RuntimeException {
 
 	private static final long serialVersionUID = 1L;
@@ -64,4 +66,15 @@ public class DbException extends RuntimeException {
 		return session;
 	}
 	
+	/**
+	 * Returns the five character SQLSTATE code reported by the database for this error.  An error caused by a JDBC
+	 * {@link SQLException} reports the SQLSTATE of that exception.
+	 * 
+	 * @return  the SQLSTATE of the error or null if the error was not reported by the database
+	 */
+	public String getSqlState() {
+		Throwable cause = getCause();
+		return cause instanceof SQLException ? ((SQLException)cause).getSQLState() : null;
+	}
+	
 }
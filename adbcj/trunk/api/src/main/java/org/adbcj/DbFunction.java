@@ -0,0 +1,38 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * A function applied to the outcome of a {@link DbFuture} by one of the composition operators
+ * {@link DbFuture#map(DbFunction)}, {@link DbFuture#flatMap(DbFunction)} or {@link DbFuture#recover(DbFunction)}.
+ * Functions are invoked on the thread that completes the source future so they should not block.
+ * 
+ * @param <T>  the type of the function's argument
+ * @param <R>  the type of the function's result
+ */
+public interface DbFunction<T, R> {
+
+	/**
+	 * Applies this function to the given value.
+	 * 
+	 * @param value  the function argument
+	 * @return  the function result
+	 * @throws Exception  if the function fails; the derived future will complete with this exception
+	 */
+	R apply(T value) throws Exception;
+
+}
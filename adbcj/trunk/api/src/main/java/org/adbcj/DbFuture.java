@@ -57,6 +57,16 @@ public interface DbFuture<T> extends Future<T> {
 	 */
 	boolean removeListener(DbListener<T> listener);
 	
+	/**
+	 * Adds a {@link DbCompletionHandler} to this future.  The handler is invoked with the result or exception of the
+	 * database operation on the thread that completes this future, or immediately if this future has already
+	 * completed.
+	 * 
+	 * @param handler  the handler that will be invoked when this future completes
+	 * @return this <tt>DbFuture</tt> object.  Used for chained invocations.
+	 */
+	DbFuture<T> addCompletionHandler(DbCompletionHandler<? super T> handler);
+	
     /**
      * Waits if necessary for the database operation to complete, and then retrieves its result.
      *
@@ -96,4 +106,36 @@ public interface DbFuture<T> extends Future<T> {
      */
 	public T getUninterruptably() throws DbException;
 	
+	/**
+	 * Returns a future that completes with the result of applying {@code function} to the result of this future.  If
+	 * this future fails or is cancelled, the returned future fails or is cancelled in the same way and the function is
+	 * not invoked.  The function is invoked on the thread that completes this future.  Cancelling the returned future
+	 * cancels this future.
+	 * 
+	 * @param <R>  the result type of the returned future
+	 * @param function  the function to apply to this future's result
+	 * @return  a future representing the result of the function
+	 */
+	<R> DbFuture<R> map(DbFunction<? super T, ? extends R> function);
+	
+	/**
+	 * Returns a future that completes with the outcome of the future returned by applying {@code function} to the
+	 * result of this future.  This is used to chain one asynchronous database operation on to another without blocking
+	 * in a {@link DbListener}.  Cancelling the returned future cancels whichever of the two futures is pending.
+	 * 
+	 * @param <R>  the result type of the returned future
+	 * @param function  the function returning the next asynchronous operation
+	 * @return  a future representing the outcome of the chained operation
+	 */
+	<R> DbFuture<R> flatMap(DbFunction<? super T, ? extends DbFuture<R>> function);
+	
+	/**
+	 * Returns a future that completes with the result of this future or, if this future fails, with the result of
+	 * applying {@code function} to the exception.  Cancellation is not recovered from.
+	 * 
+	 * @param function  the function mapping a failure to a result
+	 * @return  a future representing the result of this future or of the recovery function
+	 */
+	DbFuture<T> recover(DbFunction<Throwable, ? extends T> function);
+	
 }
@@ -0,0 +1,61 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.adbcj.support.CompositeDbFuture;
+
+/**
+ * Static operators for combining groups of {@link DbFuture} objects without blocking.  Like the composition methods
+ * on {@link DbFuture}, the returned futures complete on the thread that completes the last (or first) future of the
+ * group.
+ */
+public final class DbFutures {
+
+	private DbFutures() {
+		// Make this class uninstantiable with a private constructor.
+	}
+
+	/**
+	 * Returns a future that completes with the results of all {@code futures}, in iteration order, once every one of
+	 * them has completed successfully.  The returned future fails as soon as any future fails, and is cancelled if any
+	 * future is cancelled.  Cancelling the returned future cancels all the futures in the group.
+	 * 
+	 * @param <T>  the result type of the futures
+	 * @param futures  the futures to wait for
+	 * @return  a future representing the results of all the futures
+	 */
+	public static <T> DbFuture<List<T>> allOf(Collection<? extends DbFuture<? extends T>> futures) {
+		return CompositeDbFuture.allOf(futures);
+	}
+
+	/**
+	 * Returns a future that completes with the result of the first of {@code futures} to complete successfully.  The
+	 * returned future fails only when every future has failed or been cancelled.  Cancelling the returned future
+	 * cancels all the futures in the group.
+	 * 
+	 * @param <T>  the result type of the futures
+	 * @param futures  the futures to wait for, must not be empty
+	 * @return  a future representing the first successful result
+	 */
+	public static <T> DbFuture<T> anyOf(Collection<? extends DbFuture<? extends T>> futures) {
+		return CompositeDbFuture.anyOf(futures);
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Thrown when a request is refused or shed because the database, or the pool in front of it, is overloaded.  The
+ * request was never sent to the database, so it is safe to retry once the load has subsided.
+ */
+public class DbOverloadedException extends DbException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DbOverloadedException(String message) {
+		super(message);
+	}
+
+	public DbOverloadedException(DbSession session, String message) {
+		super(session, message);
+	}
+
+}
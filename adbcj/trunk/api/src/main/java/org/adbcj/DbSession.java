@@ -16,6 +16,8 @@
  */
 package org.adbcj;
 
+import java.util.concurrent.TimeUnit;
+
 // TODO Add some way of registering a callback that gets invoked when the DbSession has been idle
 public interface DbSession {
 
@@ -25,14 +27,26 @@ public interface DbSession {
     void beginTransaction();
 
     /**
-     * Begin's a transaction with the specific transaction isolation level.
+     * Begin's a transaction with the specific transaction isolation level.  The isolation level is sent to the
+     * database along with the start of the transaction so it does not cost an additional round trip.
      *
-     * @param isolationLevel  the transaction isolation level to use in the new transaction
+     * @param isolationLevel  the transaction isolation level to use in the new transaction, null for the database's
+     *                        default isolation level
+     * @throws IllegalArgumentException  if the isolation level is {@link TransactionIsolationLevel#NONE}
      */
-    //void beginTransaction(TransactionIsolationLevel isolationLevel);
+    void beginTransaction(TransactionIsolationLevel isolationLevel);
 
     // Canceling a commit will cause the transaction to rollback - TODO Write a TCK test to test that canceling a commit converts it to a rollback
 	DbSessionFuture<Void> commit();
+	
+	/**
+	 * Commits the current transaction, failing the returned future with a {@link DbTimeoutException} if the commit
+	 * has not completed within {@code timeout}.  A commit that expires is still sent to the database so its outcome
+	 * is unknown to the caller.
+	 * 
+	 * @see #commit()
+	 */
+	DbSessionFuture<Void> commit(long timeout, TimeUnit unit);
 
 	// A rollback cannot be canceled
 	// Rolling back a transaction may cancel pending requests
@@ -47,18 +61,49 @@ public interface DbSession {
 
     /**
      * Returns the isolation level of the current transaction, returns null if the DbSession is not
-     * currently in a transaction.
+     * currently in a transaction or if the transaction uses the database's default isolation level.
      *
      * @return  the current transaction isolation level
      */
-    //TransactionIsolationLevel getTransactionIsolationLevel();
+    TransactionIsolationLevel getTransactionIsolationLevel();
 
 	DbSessionFuture<ResultSet> executeQuery(String sql);
 	
 	<T> DbSessionFuture<T> executeQuery(String sql, ResultEventHandler<T> eventHandler, T accumulator);
 	
+	/**
+	 * Executes a query and streams its rows to {@code subscriber} as they are received, subject to the demand the
+	 * subscriber signals.  Cancelling the subscription cancels the query.
+	 * 
+	 * @param sql  the query to execute
+	 * @param subscriber  the subscriber that will receive the query's rows
+	 */
+	void executeQuery(String sql, RowSubscriber subscriber);
+	
+	/**
+	 * Executes a query, failing the returned future with a {@link DbTimeoutException} if the query has not completed
+	 * within {@code timeout}.  A query that expires before it is sent to the database is discarded.
+	 * 
+	 * @param sql  the query to execute
+	 * @param timeout  the maximum time to wait for the query to complete
+	 * @param unit  the unit of {@code timeout}
+	 * @return  a future representing the result of the query
+	 */
+	DbSessionFuture<ResultSet> executeQuery(String sql, long timeout, TimeUnit unit);
+	
 	DbSessionFuture<Result> executeUpdate(String sql);
 	
+	/**
+	 * Executes an update, failing the returned future with a {@link DbTimeoutException} if the update has not
+	 * completed within {@code timeout}.  An update that expires before it is sent to the database is discarded.
+	 * 
+	 * @param sql  the update to execute
+	 * @param timeout  the maximum time to wait for the update to complete
+	 * @param unit  the unit of {@code timeout}
+	 * @return  a future representing the result of the update
+	 */
+	DbSessionFuture<Result> executeUpdate(String sql, long timeout, TimeUnit unit);
+	
 	DbSessionFuture<PreparedStatement> prepareStatement(String sql);
 	
 	DbSessionFuture<PreparedStatement> prepareStatement(Object key, String sql);
@@ -70,4 +115,38 @@ public interface DbSession {
 	boolean isPipeliningEnabled();
 	
 	void setPipeliningEnabled(boolean pipeliningEnabled);
+	
+	/**
+	 * Returns the maximum number of pipelined requests that may be waiting for a response from the database at once.
+	 * 
+	 * @return  the maximum pipeline depth
+	 */
+	int getMaxPipelineDepth();
+	
+	/**
+	 * Sets the maximum number of pipelined requests that may be waiting for a response from the database at once.
+	 * Requests beyond this limit are held in the session's local queue until earlier requests complete.
+	 * 
+	 * @param maxPipelineDepth  the maximum pipeline depth, must be at least 1
+	 */
+	void setMaxPipelineDepth(int maxPipelineDepth);
+	
+	/**
+	 * Indicates whether requests can be issued on this session without growing its local queue beyond the
+	 * maximum pipeline depth.  Callers producing requests faster than the database completes them should stop issuing
+	 * requests while this returns false and resume once the future returned by {@link #whenWritable()} completes.
+	 * Requests issued while the session is not writable are still accepted.
+	 * 
+	 * @return  true if the session is writable, false otherwise
+	 */
+	boolean isWritable();
+	
+	/**
+	 * Returns a future that completes once this session becomes writable again, that is once its local queue has
+	 * drained to half the maximum pipeline depth.  The returned future has already completed if the session is
+	 * writable.
+	 * 
+	 * @return  a future that completes when the session is writable
+	 */
+	DbSessionFuture<Void> whenWritable();
 }
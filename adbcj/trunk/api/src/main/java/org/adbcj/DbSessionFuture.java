@@ -23,4 +23,8 @@ public interface DbSessionFuture<T> extends DbFuture<T> {
 	
 	DbSession getSession();
 
+	<R> DbSessionFuture<R> map(DbFunction<? super T, ? extends R> function);
+
+	DbSessionFuture<T> recover(DbFunction<Throwable, ? extends T> function);
+
 }
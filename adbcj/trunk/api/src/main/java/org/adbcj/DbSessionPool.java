@@ -16,156 +16,2081 @@
  */
 package org.adbcj;
 
-import org.adbcj.support.DefaultDbFuture;
-import org.adbcj.support.DefaultDbSessionFuture;
-
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class DbSessionPool implements DbSessionProvider {
+import org.adbcj.support.AbstractDbSession;
+import org.adbcj.support.CoDelController;
+import org.adbcj.support.DefaultDbFuture;
+import org.adbcj.support.DefaultDbSessionFuture;
+import org.adbcj.support.DerivedDbFuture;
+import org.adbcj.support.FailoverConnectionManager;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.HedgeBudget;
+import org.adbcj.support.HedgedQuery;
+import org.adbcj.support.LatencyQuantile;
+import org.adbcj.support.PoolSizingPolicy;
+import org.adbcj.support.ReplicationLagTracker;
+import org.adbcj.support.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-	// Access must be synchronized on lock
-	private List<ConnectionManagerEntry> connectionManagers = null;
+/**
+ * A pool of database sessions spread across one or more {@link ConnectionManager}s.  The sessions handed out by
+ * {@link #connect()} are light-weight facades: statements issued outside of a transaction are sent to whichever of two
+ * sampled connections that are not leased has fewer outstanding requests, so the statements of many callers are
+ * pipelined over the pool's connections and a connection busy with a slow query is passed over.
+ * A transaction leases a connection for its exclusive use when its first statement is issued and returns it to the
+ * pool as soon as it is committed or rolled back.
+ * 
+ * <p>Connections are selected without taking any lock.  When every connection is leased, or no connection has been
+ * established yet, statements wait in a queue and are sent as soon as a connection becomes available.
+ */
+public class DbSessionPool implements DbSessionProvider {
 
-	private Iterator<ConnectionManagerEntry> iterator;
+	private static final Logger logger = LoggerFactory.getLogger(DbSessionPool.class);
 
 	private final Object lock = this;
 
+	/**
+	 * All connection managers regardless of role.  Copy-on-write, replaced while synchronized on lock.
+	 */
+	private volatile ConnectionManagerEntry[] entries = new ConnectionManagerEntry[0];
+
+	private final RoleGroup primaries = new RoleGroup();
+
+	private final RoleGroup replicas = new RoleGroup();
+
+	private volatile DefaultDbFuture<Void> closeFuture; // Set while synchronized on lock
+
+	/**
+	 * The number of connections that have yet to close once the pool is closed.
+	 */
+	private final AtomicInteger closing = new AtomicInteger();
+
+	private volatile boolean closeImmediately;
+
+	/**
+	 * The time constant with which latency samples and failure penalties lose their weight.
+	 */
+	private volatile long decayNanos = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * The latency charged to a connection manager for a request that failed without an answer from its server.
+	 */
+	private volatile long failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Runs the sizing loop and paced connection attempts, created when first needed.
+	 */
+	private HashedWheelTimer timer; // Access must be synchronized on lock
+
+	/**
+	 * Paces connection attempts so a restart does not open every connection to the database at once.
+	 */
+	private volatile TokenBucket connectBucket = new TokenBucket(50, TimeUnit.SECONDS, 10);
+
+	/**
+	 * Entries waiting for a token from the connect bucket, one element per connection to open.
+	 */
+	private final Queue<ConnectionManagerEntry> pendingConnects = new ConcurrentLinkedQueue<ConnectionManagerEntry>();
+
+	private final AtomicBoolean connectScheduled = new AtomicBoolean();
+
+	private volatile double readyFraction = 0.5;
+
+	private final PoolFuture<Void> readyFuture = new PoolFuture<Void>();
+
+	private final PoolSizingPolicy sizingPolicy = new PoolSizingPolicy();
+
+	/**
+	 * The priority of sessions returned by {@link #connect()}.
+	 */
+	public static final int DEFAULT_PRIORITY = 0;
+
+	/**
+	 * The number of statements admitted to the pool that have not completed.
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private volatile int maxQueuedRequests = 10000;
+
+	private volatile RejectionPolicy rejectionPolicy = RejectionPolicy.FAIL_FAST;
+
+	/**
+	 * Admitted statements outside of transactions by priority, oldest first.  Only maintained for
+	 * {@link RejectionPolicy#DROP_LOWEST_PRIORITY}, statements that have completed or been sent are discarded lazily.
+	 */
+	private final ConcurrentNavigableMap<Integer, Queue<DbFuture<?>>> droppable =
+		new ConcurrentSkipListMap<Integer, Queue<DbFuture<?>>>();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * The queueing delay target and interval of the CoDel controllers given to new connections.  Shedding is
+	 * disabled until a target is set.
+	 */
+	private volatile long queueDelayTargetNanos;
+
+	private volatile long queueDelayIntervalNanos;
+
+	/**
+	 * How often the replication lag of replicas is probed.
+	 */
+	private volatile long lagProbeIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+	private final HedgeBudget hedgeBudget = new HedgeBudget();
+
+	/**
+	 * Adds a connection manager whose connections are all opened immediately and kept open.
+	 */
 	public void addConnectionManager(ConnectionManager connectionManager, int connectionCount) {
-		ConnectionManagerEntry entry = new ConnectionManagerEntry(connectionManager, connectionCount);
+		addConnectionManager(connectionManager, connectionCount, connectionCount);
+	}
+
+	/**
+	 * Adds a primary connection manager with a variable number of connections.
+	 * 
+	 * @see #addConnectionManager(ConnectionManager, ConnectionRole, int, int)
+	 */
+	public void addConnectionManager(ConnectionManager connectionManager, int minConnections, int maxConnections) {
+		addConnectionManager(connectionManager, ConnectionRole.PRIMARY, minConnections, maxConnections);
+	}
+
+	/**
+	 * Adds a connection manager with a variable number of connections.  The minimum number of connections is opened
+	 * immediately.  Up to the maximum are opened while the pool's connections to this manager are busy, and
+	 * connections beyond the minimum are closed once they have been idle for the idle timeout.
+	 * 
+	 * <p>Queries issued outside of a transaction are sent to {@link ConnectionRole#REPLICA} connection managers, all
+	 * other statements to {@link ConnectionRole#PRIMARY} connection managers.  Without a replica, queries go to the
+	 * primaries.  A query from a session that has written is only sent to a replica whose connections implement
+	 * {@link ReplicationLagProbe} and that has been probed to have replicated the session's last write.
+	 * 
+	 * @param role  the role of the database the connection manager connects to
+	 */
+	public void addConnectionManager(ConnectionManager connectionManager, ConnectionRole role, int minConnections,
+			int maxConnections) {
+		if (role == null) {
+			throw new IllegalArgumentException("role can NOT be null");
+		}
+		if (minConnections < 0 || maxConnections < 1 || minConnections > maxConnections) {
+			throw new IllegalArgumentException(String.format("Invalid connection bounds: min %d, max %d",
+					minConnections, maxConnections));
+		}
+		RoleGroup group = role == ConnectionRole.PRIMARY ? primaries : replicas;
+		ConnectionManagerEntry entry = new ConnectionManagerEntry(group, connectionManager, minConnections,
+				maxConnections);
+		boolean startSizing = false;
+		boolean startProbing = false;
 		synchronized (lock) {
-			if (connectionManagers == null) {
-				connectionManagers = new ArrayList<ConnectionManagerEntry>(1);
-				connectionManagers.add(entry);
-			} else {
-				List<ConnectionManagerEntry> temp = new ArrayList<ConnectionManagerEntry>(connectionManagers.size() + 1);
-				temp.addAll(connectionManagers);
-				temp.add(entry);
-				connectionManagers = temp;
+			checkPoolClosed();
+			entries = append(entries, entry);
+			group.entries = append(group.entries, entry);
+			if (sizingPolicy.isActive(minConnections, maxConnections) && !sizing) {
+				sizing = true;
+				startSizing = true;
+			}
+			if (role == ConnectionRole.REPLICA && !probing) {
+				probing = true;
+				startProbing = true;
 			}
 		}
+		entry.open(minConnections);
+		if (startSizing) {
+			scheduleSizing();
+		}
+		if (startProbing) {
+			scheduleLagProbe();
+		}
+		checkReady();
 	}
 
-	public DbFuture<? extends DbSession> connect() {
-		final DefaultDbFuture<DbSession> future = new DefaultDbFuture<DbSession>();
-		future.setResult(new DbSession() {
+	/**
+	 * Returns a future that completes once the configured fraction of the minimum number of connections of every
+	 * added connection manager has been established.  Statements issued before then wait for a connection rather than
+	 * fail, this future lets an application hold back traffic until the pool has warmed up.
+	 * 
+	 * <p>If a connection attempt fails and no connection manager has an attempt left in flight before that fraction is
+	 * reached, the future fails with the last connect failure as its cause so callers are not blocked on unreachable
+	 * hosts.  Connections the pool opens later while sizing still serve statements.
+	 * 
+	 * @see #setReadyFraction(double)
+	 */
+	public DbFuture<Void> whenReady() {
+		return readyFuture;
+	}
 
-			private volatile boolean closed = false;
+	private void checkReady() {
+		checkReady(null);
+	}
 
-			public void beginTransaction() {
-				throw new IllegalStateException("Transactions not yet supported by connection pool");
-			}
+	/**
+	 * Completes the ready future once enough connections are established or, when {@code failure} is given, fails it
+	 * if no connection attempt is left that could still reach the ready fraction.
+	 */
+	private void checkReady(DbException failure) {
+		if (readyFuture.isDone()) {
+			return;
+		}
+		int target = 0;
+		int established = 0;
+		boolean connecting = false;
+		for (ConnectionManagerEntry entry : entries) {
+			target += entry.minConnections;
+			established += entry.connections.length;
+			connecting |= entry.connecting.get() > 0;
+		}
+		if (established >= Math.ceil(target * readyFraction)) {
+			readyFuture.setResult(null);
+		} else if (failure != null && !connecting) {
+			readyFuture.fail(new DbException(null, "Session pool failed to establish its connections", failure));
+		}
+	}
 
-			public DbSessionFuture<Void> commit() {
-				throw new IllegalStateException("Transactions not yet supported by connection pool");
-			}
+	private static ConnectionManagerEntry[] append(ConnectionManagerEntry[] current, ConnectionManagerEntry entry) {
+		ConnectionManagerEntry[] temp = new ConnectionManagerEntry[current.length + 1];
+		System.arraycopy(current, 0, temp, 0, current.length);
+		temp[current.length] = entry;
+		return temp;
+	}
+
+	public DbFuture<? extends PooledDbSession> connect() {
+		return connect(DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Returns a session whose statements have the given priority.  When the pool is full and uses
+	 * {@link RejectionPolicy#DROP_LOWEST_PRIORITY}, queued statements of lower priority sessions are dropped to make
+	 * room for statements of higher priority sessions.
+	 * 
+	 * @param priority  the priority of the session's statements, higher values are more important
+	 */
+	public DbFuture<? extends PooledDbSession> connect(int priority) {
+		checkPoolClosed();
+		if (entries.length == 0) {
+			throw new DbException("No ConnectionManager's have been registered with this pool");
+		}
+		DefaultDbFuture<PooledDbSession> future = new DefaultDbFuture<PooledDbSession>();
+		future.setResult(new PooledSession(priority));
+		return future;
+	}
 
-			public DbSessionFuture<Void> rollback() {
-				throw new IllegalStateException("Transactions not yet supported by connection pool");
+	/**
+	 * Closes the pool's connections.  A connection that is leased by a transaction is closed once the transaction
+	 * ends, connections closed without {@code immediate} complete their pending requests before closing.  Statements
+	 * waiting for a connection fail.
+	 * 
+	 * @param immediate  if true, close all the connections immediately cancelling their pending requests
+	 * @return  a future that completes once all the pool's connections have closed
+	 */
+	public DbFuture<Void> close(boolean immediate) {
+		List<PooledConnection> connections = new ArrayList<PooledConnection>();
+		DefaultDbFuture<Void> future;
+		synchronized (lock) {
+			if (closeFuture != null) {
+				return closeFuture;
+			}
+			closeImmediately = immediate;
+			for (ConnectionManagerEntry entry : entries) {
+				for (PooledConnection connection : entry.connections) {
+					connections.add(connection);
+				}
+			}
+			closing.set(connections.size() + 1);
+			future = new DefaultDbFuture<Void>();
+			closeFuture = future;
+			if (timer != null) {
+				timer.stop();
+			}
+		}
+		readyFuture.fail(new DbException("Session pool closed"));
+		primaries.failWaiters();
+		replicas.failWaiters();
+		for (PooledConnection connection : connections) {
+			if (immediate || connection.tryLease()) {
+				closeConnection(connection);
 			}
+		}
+		connectionClosed();
+		return future;
+	}
 
-			public boolean isInTransaction() {
-				return false;
+	public boolean isClosed() {
+		return closeFuture != null;
+	}
+
+	/**
+	 * Sets the fraction of the connections a pool opens up front that must be established before
+	 * {@link #whenReady()} completes.
+	 */
+	public void setReadyFraction(double readyFraction) {
+		if (readyFraction < 0 || readyFraction > 1) {
+			throw new IllegalArgumentException("readyFraction must be between 0 and 1");
+		}
+		this.readyFraction = readyFraction;
+	}
+
+	/**
+	 * Limits how quickly the pool opens connections.  Connection attempts beyond the burst are spread out at the
+	 * given rate, so restarting many applications at once does not flood the database with handshakes.
+	 * 
+	 * @param permits  the number of connection attempts allowed every {@code unit}
+	 * @param unit  the time unit of {@code permits}
+	 * @param burst  the number of connection attempts that may be made at once
+	 */
+	public void setConnectRate(long permits, TimeUnit unit, int burst) {
+		this.connectBucket = new TokenBucket(permits, unit, burst);
+	}
+
+	/**
+	 * Sets the maximum number of statements that may be queued on or sent by the pool's connections without having
+	 * completed.  Commits and rollbacks are always admitted so transactions can end.
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests) {
+		if (maxQueuedRequests < 1) {
+			throw new IllegalArgumentException("maxQueuedRequests must be greater than 0");
+		}
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	/**
+	 * Sets what happens to a statement that arrives while the pool holds its maximum number of queued requests.
+	 */
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		if (rejectionPolicy == null) {
+			throw new IllegalArgumentException("rejectionPolicy can NOT be null");
+		}
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Sets the queueing delay above which connections established after this call start shedding requests.  Once
+	 * the requests leaving a connection's queue have waited longer than {@code target} for a whole {@code interval},
+	 * requests outside of transactions fail with a {@link DbOverloadedException} until the delay falls back below the
+	 * target.  Requests are not shed unless a target is set.
+	 * 
+	 * @param target  the tolerated queueing delay, 0 to disable shedding
+	 * @param interval  how long the delay must stay above the target before requests are shed
+	 * @param unit  the time unit of {@code target} and {@code interval}
+	 * @see CoDelController
+	 */
+	public void setQueueDelayTarget(long target, long interval, TimeUnit unit) {
+		if (target < 0 || interval <= 0) {
+			throw new IllegalArgumentException("target can NOT be negative and interval must be greater than 0");
+		}
+		this.queueDelayTargetNanos = unit.toNanos(target);
+		this.queueDelayIntervalNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * Returns the number of statements the pool refused because it was full.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Returns the number of queued statements the pool dropped to make room for statements of a higher priority.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of requests shed by the pool's open connections because they waited too long.
+	 */
+	public long getShedCount() {
+		long count = 0;
+		for (ConnectionManagerEntry entry : entries) {
+			for (PooledConnection connection : entry.connections) {
+				CoDelController controller = connection.getQueueController();
+				if (controller != null) {
+					count += controller.getDropCount();
+				}
 			}
+		}
+		return count;
+	}
+
+	/**
+	 * Enables hedged queries.  A query issued outside of a transaction that has not completed within the 95th
+	 * percentile latency of queries of the same shape is sent a second time to another connection, and the first
+	 * attempt to succeed completes the query.  Only queries returning a {@link ResultSet} are hedged since a result
+	 * handler can not receive the rows of two attempts.
+	 * 
+	 * @param budget  the extra load hedges may add as a fraction of the queries issued, for example 0.05 for 5%, or 0
+	 *                to not hedge
+	 */
+	public void setHedgeBudget(double budget) {
+		hedgeBudget.setBudget(budget);
+	}
+
+	/**
+	 * Returns the number of hedged attempts sent.
+	 */
+	public long getHedgedCount() {
+		return hedgeBudget.getHedgedCount();
+	}
+
+	/**
+	 * Sets how often the pool checks whether connections should be opened or closed.
+	 */
+	public void setSizingInterval(long time, TimeUnit unit) {
+		sizingPolicy.setInterval(time, unit);
+	}
+
+	/**
+	 * Sets the average number of outstanding requests per connection at which another connection is opened.
+	 */
+	public void setQueueDepthThreshold(int queueDepthThreshold) {
+		sizingPolicy.setQueueDepthThreshold(queueDepthThreshold);
+	}
+
+	/**
+	 * Sets how long a statement may wait for a connection to be released before another connection is opened.
+	 */
+	public void setWaitTimeThreshold(long time, TimeUnit unit) {
+		sizingPolicy.setWaitTimeThreshold(time, unit);
+	}
+
+	/**
+	 * Sets how long a connection beyond the minimum must go unused before it is closed.
+	 */
+	public void setIdleTimeout(long time, TimeUnit unit) {
+		sizingPolicy.setIdleTimeout(time, unit);
+	}
+
+	/**
+	 * Sets how long a connection must go unused before the pool pings it, keeping it from being dropped by the
+	 * database or a firewall and detecting connections that were broken while idle.  A connection that fails its ping
+	 * is closed and replaced.  0, the default, disables keepalive pings.
+	 */
+	public void setKeepAliveInterval(long time, TimeUnit unit) {
+		sizingPolicy.setKeepAliveInterval(time, unit);
+		startSizing();
+	}
+
+	/**
+	 * Sets how long a connection may stay open before the pool replaces it, so connections follow a database
+	 * failover or load balancer change.  0, the default, disables rotation.
+	 */
+	public void setMaxLifetime(long time, TimeUnit unit) {
+		sizingPolicy.setMaxLifetime(time, unit);
+		startSizing();
+	}
+
+	/**
+	 * Sets how often the pool queries its replicas for their replication lag.
+	 */
+	public void setLagProbeInterval(long time, TimeUnit unit) {
+		if (time <= 0) {
+			throw new IllegalArgumentException("time must be greater than 0");
+		}
+		this.lagProbeIntervalNanos = unit.toNanos(time);
+	}
+
+	/**
+	 * Sets how quickly the latency measured for each connection manager follows new samples, and how quickly the
+	 * penalty charged for failures fades.  A connection manager that has been avoided because of failures receives
+	 * requests again once its penalty has decayed.
+	 */
+	public void setLatencyDecayTime(long time, TimeUnit unit) {
+		if (time <= 0) {
+			throw new IllegalArgumentException("time must be greater than 0");
+		}
+		this.decayNanos = unit.toNanos(time);
+	}
+
+	/**
+	 * Sets the latency charged to a connection manager each time a request sent to it fails without its server
+	 * answering, because the connection failed or the request timed out.
+	 */
+	public void setFailurePenalty(long time, TimeUnit unit) {
+		if (time < 0) {
+			throw new IllegalArgumentException("time can NOT be negative");
+		}
+		this.failurePenaltyNanos = unit.toNanos(time);
+	}
+
+	private void checkPoolClosed() {
+		if (isClosed()) {
+			throw new DbException("Session pool closed");
+		}
+	}
+
+	//*****************************************************************************************************************
+	//
+	//  Connection selection
+	//
+	//*****************************************************************************************************************
+
+	private static int nextIndex(AtomicInteger counter, int length) {
+		return (counter.getAndIncrement() & Integer.MAX_VALUE) % length;
+	}
+
+	/**
+	 * Spreads the bits of a counter value so consecutive values yield unrelated pairs of samples.
+	 */
+	private static int sampleHash(AtomicInteger counter) {
+		return counter.getAndIncrement() * 0x9E3779B9;
+	}
+
+	private static int firstSample(int hash, int length) {
+		return (hash >>> 1) % length;
+	}
+
+	/**
+	 * Returns an index other than {@code first}, length must be greater than 1.
+	 */
+	private static int secondSample(int hash, int first, int length) {
+		return (first + 1 + (hash & 0xFFFF) % (length - 1)) % length;
+	}
+
+	/**
+	 * Returns the group of connection managers that statements for {@code role} are sent to.
+	 */
+	private RoleGroup route(ConnectionRole role) {
+		RoleGroup preferred = role == ConnectionRole.REPLICA ? replicas : primaries;
+		RoleGroup other = preferred == primaries ? replicas : primaries;
+		return preferred.entries.length > 0 || other.entries.length == 0 ? preferred : other;
+	}
+
+	/**
+	 * The connection managers of one {@link ConnectionRole} and the statements waiting for one of their connections.
+	 */
+	private class RoleGroup {
+		/**
+		 * Copy-on-write, replaced while synchronized on the pool's lock.
+		 */
+		volatile ConnectionManagerEntry[] entries = new ConnectionManagerEntry[0];
+
+		private final AtomicInteger nextEntry = new AtomicInteger();
+
+		/**
+		 * Requests for a connection waiting for one to be released or established.
+		 */
+		private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+		/**
+		 * Selects the next connection that is not leased and marks it as having a statement handed to it.
+		 * 
+		 * @return  the selected connection or null if every connection is leased
+		 */
+		PooledConnection tryShare() {
+			return select(false, 0);
+		}
 
-			public DbSessionFuture<ResultSet> executeQuery(String sql) {
-				return nextEntry().nextSession().executeQuery(sql);
+		/**
+		 * Selects a connection like {@link #tryShare()}, skipping connection managers that have not replicated the
+		 * writes made through {@code writeTime}.
+		 * 
+		 * @param writeTime  the session's last write time or 0 to accept any connection manager
+		 */
+		PooledConnection tryShare(long writeTime) {
+			return select(false, writeTime);
+		}
+
+		/**
+		 * Leases the next connection that is idle.
+		 * 
+		 * @return  the leased connection or null if no connection is idle
+		 */
+		PooledConnection tryLease() {
+			return select(true, 0);
+		}
+
+		private PooledConnection select(boolean lease, long writeTime) {
+			if (isClosed()) {
+				return null;
+			}
+			ConnectionManagerEntry[] entries = this.entries;
+			int count = entries.length;
+			if (count == 0) {
+				return null;
+			}
+			if (count > 1) {
+				// Of two sampled connection managers, try the one with the lower latency cost first
+				int hash = sampleHash(nextEntry);
+				int i = firstSample(hash, count);
+				ConnectionManagerEntry first = entries[i];
+				ConnectionManagerEntry second = entries[secondSample(hash, i, count)];
+				if (second.getCost() < first.getCost()) {
+					ConnectionManagerEntry temp = first;
+					first = second;
+					second = temp;
+				}
+				PooledConnection connection = first.hasReplicated(writeTime) ? first.select(lease) : null;
+				if (connection == null && second.hasReplicated(writeTime)) {
+					connection = second.select(lease);
+				}
+				if (connection != null) {
+					return connection;
+				}
+			}
+			int start = nextIndex(nextEntry, count);
+			for (int i = 0; i < count; i++) {
+				ConnectionManagerEntry entry = entries[(start + i) % count];
+				PooledConnection connection = entry.hasReplicated(writeTime) ? entry.select(lease) : null;
+				if (connection != null) {
+					return connection;
+				}
 			}
+			return null;
+		}
 
-			public <T> DbSessionFuture<T> executeQuery(String sql, ResultEventHandler<T> eventHandler, T accumulator) {
-				return nextEntry().nextSession().executeQuery(sql, eventHandler, accumulator);
+		/**
+		 * Queues a request for a connection, the returned future completes with a leased connection.
+		 */
+		Waiter awaitConnection() {
+			checkPoolClosed();
+			Waiter waiter = new Waiter();
+			waiters.add(waiter);
+			// A connection may have been released while the waiter was being queued
+			serviceWaiters();
+			if (isClosed() && waiters.remove(waiter)) {
+				waiter.fail(new DbException("Session pool closed"));
 			}
+			return waiter;
+		}
 
-			public DbSessionFuture<Result> executeUpdate(String sql) {
-				return nextEntry().nextSession().executeUpdate(sql);
+		/**
+		 * Hands idle connections to waiting requests.
+		 */
+		void serviceWaiters() {
+			while (!waiters.isEmpty()) {
+				PooledConnection connection = tryLease();
+				if (connection == null) {
+					return;
+				}
+				Waiter waiter = waiters.poll();
+				if (waiter == null || !waiter.offer(connection)) {
+					release(connection);
+				}
 			}
+		}
 
-			public DbSessionFuture<PreparedStatement> prepareStatement(String sql) {
-				return nextEntry().nextSession().prepareStatement(sql);
+		/**
+		 * Returns how long the statement that has waited longest for a connection has been waiting.
+		 */
+		long getLongestWait(long now) {
+			Waiter waiter = waiters.peek();
+			return waiter == null ? 0 : now - waiter.created;
+		}
+
+		void failWaiters() {
+			Waiter waiter;
+			while ((waiter = waiters.poll()) != null) {
+				waiter.fail(new DbException("Session pool closed"));
 			}
+		}
+	}
 
-			public DbSessionFuture<PreparedStatement> prepareStatement(Object key, String sql) {
-				return nextEntry().nextSession().prepareStatement(key, sql);
+	private void release(PooledConnection connection) {
+		if (isClosed()) {
+			closeConnection(connection);
+			return;
+		}
+		connection.free();
+		if (isClosed()) {
+			// The pool closed while the connection was being freed
+			if (connection.tryLease()) {
+				closeConnection(connection);
 			}
+			return;
+		}
+		connection.entry.group.serviceWaiters();
+	}
 
-			public DbSessionFuture<Void> close(boolean immediate) throws DbException {
-				closed = true;
-				return DefaultDbSessionFuture.createCompletedFuture(this, null);
+	private void unshare(PooledConnection connection) {
+		if (connection.unshare() == 0 && isClosed() && connection.tryLease()) {
+			closeConnection(connection);
+		}
+	}
+
+	//*****************************************************************************************************************
+	//
+	//  Admission control
+	//
+	//*****************************************************************************************************************
+
+	/**
+	 * Reserves room for a statement of the given priority, dropping a statement of lower priority if the rejection
+	 * policy allows.
+	 * 
+	 * @return  false if the statement must be rejected
+	 */
+	private boolean admit(int priority) {
+		for (;;) {
+			int count = queued.get();
+			if (count < maxQueuedRequests) {
+				if (queued.compareAndSet(count, count + 1)) {
+					return true;
+				}
+				continue;
 			}
+			if (rejectionPolicy == RejectionPolicy.DROP_LOWEST_PRIORITY && dropLowerPriority(priority)) {
+				// The dropped statement gives up its room once its cancellation has been delivered
+				queued.incrementAndGet();
+				return true;
+			}
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+	}
 
-			public boolean isClosed() throws DbException {
-				return closed;
+	/**
+	 * Cancels the oldest statement below {@code priority} that has not been sent to the database.
+	 */
+	private boolean dropLowerPriority(int priority) {
+		for (Queue<DbFuture<?>> statements : droppable.headMap(priority).values()) {
+			DbFuture<?> statement;
+			while ((statement = statements.poll()) != null) {
+				if (!statement.isDone() && statement.cancel(false)) {
+					droppedCount.incrementAndGet();
+					return true;
+				}
 			}
+		}
+		return false;
+	}
 
-			public boolean isPipeliningEnabled() {
-				return false;
+	/**
+	 * Frees a statement's room once it completes and, if it may be dropped later, records it by priority.
+	 */
+	private void admitted(DbFuture<?> statement, int priority, boolean canDrop) {
+		statement.addCompletionHandler(admissionRelease);
+		if (canDrop && rejectionPolicy == RejectionPolicy.DROP_LOWEST_PRIORITY && !statement.isDone()) {
+			Queue<DbFuture<?>> statements = droppable.get(priority);
+			if (statements == null) {
+				Queue<DbFuture<?>> newStatements = new ConcurrentLinkedQueue<DbFuture<?>>();
+				statements = droppable.putIfAbsent(priority, newStatements);
+				if (statements == null) {
+					statements = newStatements;
+				}
 			}
+			statements.add(statement);
+			// Discard the completed statements at the head so the queue does not grow while the pool is not full
+			DbFuture<?> head;
+			while ((head = statements.peek()) != null && head.isDone()) {
+				statements.remove(head);
+			}
+		}
+	}
+
+	private final DbCompletionHandler<Object> admissionRelease = new AdmissionRelease();
+
+	private class AdmissionRelease implements DbCompletionHandler<Object>, NonBlockingListener {
+		public void completed(Object result) {
+			queued.decrementAndGet();
+		}
+		public void failed(Throwable cause) {
+			queued.decrementAndGet();
+		}
+		public void cancelled() {
+			queued.decrementAndGet();
+		}
+	}
+
+	//*****************************************************************************************************************
+	//
+	//  Pool sizing
+	//
+	//*****************************************************************************************************************
 
-			public void setPipeliningEnabled(boolean pipeliningEnabled) {
-				throw new IllegalStateException("Can't change pipelining on pooled session");
+	private boolean sizing; // Access must be synchronized on lock
+
+	/**
+	 * Starts the sizing loop if a connection manager has been added and the loop is not yet running.
+	 */
+	private void startSizing() {
+		synchronized (lock) {
+			if (sizing || entries.length == 0 || isClosed()) {
+				return;
 			}
-		});
-		return future;
+			sizing = true;
+		}
+		scheduleSizing();
 	}
 
-	private ConnectionManagerEntry nextEntry() {
+	/**
+	 * Returns the pool's timer, starting it if necessary, or null if the pool is closed.
+	 */
+	private HashedWheelTimer getTimer() {
 		synchronized (lock) {
-			if (iterator == null || !iterator.hasNext()) {
-				if (connectionManagers == null) {
-					throw new DbException("No ConnectionManager's have been registered with this pool");
+			if (isClosed()) {
+				return null;
+			}
+			if (timer == null) {
+				timer = new HashedWheelTimer("DbSessionPool timer", 10, TimeUnit.MILLISECONDS, 128);
+			}
+			return timer;
+		}
+	}
+
+	/**
+	 * Opens the connections waiting for a token from the connect bucket.  If the bucket is empty, a task is scheduled
+	 * for when the next token becomes available.
+	 */
+	private void openPendingConnections() {
+		while (pendingConnects.peek() != null) {
+			if (isClosed()) {
+				ConnectionManagerEntry entry;
+				while ((entry = pendingConnects.poll()) != null) {
+					entry.connecting.decrementAndGet();
+				}
+				return;
+			}
+			TokenBucket bucket = connectBucket;
+			if (!bucket.tryAcquire()) {
+				if (connectScheduled.compareAndSet(false, true)) {
+					HashedWheelTimer timer = getTimer();
+					if (timer != null) {
+						timer.newTimeout(connectTask, bucket.getNanosUntilAvailable(), TimeUnit.NANOSECONDS);
+					} else {
+						connectScheduled.set(false);
+					}
 				}
-				iterator = connectionManagers.iterator();
+				return;
 			}
-			return iterator.next();
+			ConnectionManagerEntry entry = pendingConnects.poll();
+			if (entry == null) {
+				return;
+			}
+			entry.connect();
 		}
 	}
 
-	private class ConnectionManagerEntry {
-		// Access must be syncrhonized on entryLock
-		private List<DbSession> sessions;
+	private final Runnable connectTask = new Runnable() {
+		public void run() {
+			connectScheduled.set(false);
+			openPendingConnections();
+		}
+	};
 
-		private Iterator<DbSession> nextSession;
+	private final Runnable sizingTask = new Runnable() {
+		public void run() {
+			try {
+				long now = System.nanoTime();
+				for (ConnectionManagerEntry entry : entries) {
+					entry.resize(now);
+					entry.keepAlive(now);
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Failed to resize session pool", e);
+			}
+			scheduleSizing();
+		}
+	};
 
-		private final Object entryLock = this;
+	private void scheduleSizing() {
+		HashedWheelTimer timer = getTimer();
+		if (timer != null) {
+			timer.newTimeout(sizingTask, sizingPolicy.getIntervalNanos(), TimeUnit.NANOSECONDS);
+		}
+	}
 
-		private final DbListener<Connection> connectionListener = new DbListener<Connection>() {
-			public void onCompletion(DbFuture<Connection> future) throws Exception {
-				DbSession session = future.get();
-				synchronized (entryLock) {
-					if (sessions == null) {
-						sessions = new LinkedList<DbSession>();
-						sessions.add(session);
-					} else {
-						List<DbSession> temp = new LinkedList<DbSession>();
-						temp.addAll(sessions);
-						temp.add(session);
-						sessions = temp;
-					}
+	private boolean probing; // Access must be synchronized on lock
+
+	private final Runnable lagProbeTask = new Runnable() {
+		public void run() {
+			try {
+				for (ConnectionManagerEntry entry : replicas.entries) {
+					entry.probeLag();
 				}
+			} catch (RuntimeException e) {
+				logger.warn("Failed to probe replication lag", e);
 			}
-		};
+			scheduleLagProbe();
+		}
+	};
 
-		private ConnectionManagerEntry(ConnectionManager connectionManager, int connectionCount) {
-			// Start all the connections
-			// TODO This is not at all efficient, develop a better solution for this
-			for (int i = 0; i < connectionCount; i++) {
-				connectionManager.connect().addListener(connectionListener);
+	private void scheduleLagProbe() {
+		HashedWheelTimer timer = getTimer();
+		if (timer != null) {
+			timer.newTimeout(lagProbeTask, lagProbeIntervalNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void closeConnection(PooledConnection connection) {
+		if (!connection.closed.compareAndSet(false, true)) {
+			return;
+		}
+		connection.session.close(closeImmediately).addListener(new DbListener<Void>() {
+			public void onCompletion(DbFuture<Void> future) {
+				connectionClosed();
 			}
+		});
+	}
 
+	private void connectionClosed() {
+		if (closing.decrementAndGet() == 0) {
+			closeFuture.setResult(null);
 		}
+	}
 
-		private DbSession nextSession() {
-			synchronized (entryLock) {
-				if (nextSession == null || !nextSession.hasNext()) {
-					if (sessions == null) {
-						throw new IllegalStateException("No connections availabe");
-					}
-					nextSession = sessions.iterator();
+	//*****************************************************************************************************************
+	//
+	//  Pool internals
+	//
+	//*****************************************************************************************************************
+
+	/**
+	 * A request for a connection.
+	 */
+	private static class PoolFuture<T> extends DefaultDbFuture<T> {
+		void fail(DbException exception) {
+			trySetException(exception);
+		}
+	}
+
+	private static class Waiter extends PoolFuture<PooledConnection> {
+		final long created = System.nanoTime();
+
+		/**
+		 * Completes this waiter with {@code connection}.
+		 * 
+		 * @return  false if this waiter had been cancelled and the connection was not taken
+		 */
+		boolean offer(PooledConnection connection) {
+			setResult(connection);
+			return !isCancelled();
+		}
+
+		@Override
+		protected boolean doCancel(boolean mayInterruptIfRunning) {
+			return true;
+		}
+	}
+
+	private static final class PooledConnection {
+		private static final AtomicIntegerFieldUpdater<PooledConnection> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
+
+		private static final int LEASED = -1;
+
+		final DbSession session;
+
+		final ConnectionManagerEntry entry;
+
+		/**
+		 * The session's request queue, null if the session does not expose one.
+		 */
+		private final AbstractDbSession queue;
+
+		final AtomicBoolean closed = new AtomicBoolean();
+
+		/**
+		 * When a statement was last sent to the session.
+		 */
+		volatile long lastActive = System.nanoTime();
+
+		final long created = lastActive;
+
+		/**
+		 * When the session was last pinged.  Kept apart from {@link #lastActive} so pings do not keep an idle
+		 * connection in the pool.
+		 */
+		volatile long lastPinged = created;
+
+		/**
+		 * Spreads the retirement of connections opened together, see {@link PoolSizingPolicy#isExpired}.
+		 */
+		final double lifetimeJitter = Math.random();
+
+		/**
+		 * {@link #LEASED} while leased, otherwise the number of threads currently handing the session a statement.
+		 */
+		private volatile int state;
+
+		PooledConnection(ConnectionManagerEntry entry, DbSession session) {
+			this.entry = entry;
+			this.session = session;
+			this.queue = session instanceof AbstractDbSession ? (AbstractDbSession)session : null;
+		}
+
+		/**
+		 * Sends a statement to the session, timing it for the connection manager's latency cost.
+		 */
+		<T> DbSessionFuture<T> send(Statement<T> statement) {
+			long start = System.nanoTime();
+			lastActive = start;
+			DbSessionFuture<T> future = statement.execute(session);
+			// A future that is already done was never sent to the server
+			if (!future.isDone()) {
+				entry.track(future, start, session);
+			}
+			return future;
+		}
+
+		CoDelController getQueueController() {
+			return queue == null ? null : queue.getQueueController();
+		}
+
+		/**
+		 * Returns the number of requests queued on or sent by the session that have not been answered.
+		 */
+		int getLoad() {
+			return queue == null ? 0 : queue.getOutstandingRequestCount();
+		}
+
+		boolean tryShare() {
+			for (;;) {
+				int s = state;
+				if (s == LEASED) {
+					return false;
+				}
+				if (STATE.compareAndSet(this, s, s + 1)) {
+					return true;
 				}
 			}
-			return nextSession.next();
+		}
+
+		int unshare() {
+			return STATE.decrementAndGet(this);
+		}
+
+		/**
+		 * Leases the connection if no statement is being handed to it, so no statement outside of a transaction can
+		 * be sent once the leasing transaction has begun.
+		 */
+		boolean tryLease() {
+			return STATE.compareAndSet(this, 0, LEASED);
+		}
+
+		void free() {
+			state = 0;
+		}
+	}
+
+	private class ConnectionManagerEntry {
+		final RoleGroup group;
+
+		private final ConnectionManager connectionManager;
+
+		private final int minConnections;
+
+		private final int maxConnections;
+
+		/**
+		 * Copy-on-write, replaced while synchronized on the pool's lock.
+		 */
+		private volatile PooledConnection[] connections = new PooledConnection[0];
+
+		/**
+		 * The number of connections being established.
+		 */
+		private final AtomicInteger connecting = new AtomicInteger();
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		/**
+		 * The number of requests sent through this entry's connections that have not completed.
+		 */
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		/*
+		 * The latency estimate and failure penalty are updated without synchronization, a sample lost to a racing
+		 * update only makes the estimate slightly less precise.
+		 */
+		private volatile double latency;
+
+		private volatile long latencyTime;
+
+		private volatile double penalty;
+
+		private volatile long penaltyTime;
+
+		private final ReplicationLagTracker lag = new ReplicationLagTracker();
+
+		private final DbListener<Connection> connectionListener = new DbListener<Connection>() {
+			public void onCompletion(DbFuture<Connection> future) throws Exception {
+				DbSession session;
+				try {
+					session = future.get();
+				} catch (DbException e) {
+					connecting.decrementAndGet();
+					logger.warn("Failed to establish pooled connection", e);
+					checkReady(e);
+					return;
+				}
+				long target = queueDelayTargetNanos;
+				if (target > 0 && session instanceof AbstractDbSession) {
+					((AbstractDbSession)session).setQueueController(
+							new CoDelController(target, queueDelayIntervalNanos, TimeUnit.NANOSECONDS));
+				}
+				PooledConnection connection = new PooledConnection(ConnectionManagerEntry.this, session);
+				synchronized (lock) {
+					if (!isClosed()) {
+						PooledConnection[] current = connections;
+						PooledConnection[] temp = new PooledConnection[current.length + 1];
+						System.arraycopy(current, 0, temp, 0, current.length);
+						temp[current.length] = connection;
+						connections = temp;
+						connection = null;
+					}
+				}
+				// Count the connection as established before it stops counting as connecting
+				connecting.decrementAndGet();
+				if (connection != null) {
+					// The pool was closed while connecting
+					session.close(true);
+					return;
+				}
+				checkReady();
+				group.serviceWaiters();
+			}
+		};
+
+		/**
+		 * Returns the cost of sending a request to this entry's connection manager: its latency estimate plus any
+		 * decayed failure penalty, scaled by the number of requests already waiting on it.
+		 */
+		double getCost() {
+			long now = System.nanoTime();
+			return (latency + decayedPenalty(now)) * (outstanding.get() + 1);
+		}
+
+		private double decayedPenalty(long now) {
+			double penalty = this.penalty;
+			return penalty == 0 ? 0 : penalty * Math.exp(-(now - penaltyTime) / (double)decayNanos);
+		}
+
+		<T> void track(DbFuture<T> future, long start, DbSession session) {
+			outstanding.incrementAndGet();
+			future.addCompletionHandler(new LatencyRecorder(start, session));
+		}
+
+		/**
+		 * Folds a latency sample into the estimate.  The weight of the previous estimate decays with the time since it
+		 * was last updated, and a sample above the estimate replaces it so a server that slows down is noticed at once.
+		 */
+		private void recordLatency(long now, long sample) {
+			double weight = Math.exp(-Math.max(0, now - latencyTime) / (double)decayNanos);
+			double current = latency;
+			latency = sample > current ? sample : current * weight + sample * (1 - weight);
+			latencyTime = now;
+		}
+
+		private void recordFailure(long now) {
+			penalty = decayedPenalty(now) + failurePenaltyNanos;
+			penaltyTime = now;
+		}
+
+		/**
+		 * Tells a failover connection manager whether the host of {@code session} answered a request.
+		 */
+		private void reportToHost(DbSession session, boolean answered) {
+			if (connectionManager instanceof FailoverConnectionManager && session instanceof Connection) {
+				FailoverConnectionManager failover = (FailoverConnectionManager)connectionManager;
+				if (answered) {
+					failover.reportSuccess((Connection)session);
+				} else {
+					failover.reportFailure((Connection)session);
+				}
+			}
+		}
+
+		/**
+		 * Completes the timing of a request.  A failure the server answered with an SQLSTATE is the statement's
+		 * fault, so it counts as an ordinary sample, as does a request that outlived its caller's deadline.  Only
+		 * failures of requests that reached the server without an answer count against the host.
+		 */
+		private class LatencyRecorder implements DbCompletionHandler<Object>, NonBlockingListener {
+			private final long start;
+
+			private final DbSession session;
+
+			LatencyRecorder(long start, DbSession session) {
+				this.start = start;
+				this.session = session;
+			}
+
+			public void completed(Object result) {
+				long now = System.nanoTime();
+				recordLatency(now, now - start);
+				reportToHost(session, true);
+				outstanding.decrementAndGet();
+			}
+
+			public void failed(Throwable cause) {
+				long now = System.nanoTime();
+				if (isAnsweredByServer(cause)) {
+					recordLatency(now, now - start);
+					reportToHost(session, true);
+				} else if (cause instanceof DbTimeoutException) {
+					// The caller's deadline passed, the server may still answer
+					recordLatency(now, now - start);
+				} else if (!(cause instanceof DbOverloadedException) && !(cause instanceof DbSessionClosedException)) {
+					// A request shed from the local queue or failed by its session closing never reached the server,
+					// so it says nothing about it
+					recordFailure(now);
+					reportToHost(session, false);
+				}
+				outstanding.decrementAndGet();
+			}
+
+			public void cancelled() {
+				outstanding.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Returns true if this entry's database has applied the writes made through {@code writeTime}, 0 meaning no
+		 * write has been made.
+		 */
+		boolean hasReplicated(long writeTime) {
+			return lag.hasReplicated(writeTime);
+		}
+
+		/**
+		 * Queries one of this entry's connections for its replication lag unless the previous probe has not
+		 * completed.
+		 */
+		void probeLag() {
+			if (!lag.startProbe()) {
+				return;
+			}
+			PooledConnection connection = select(false);
+			if (connection == null) {
+				lag.cancelProbe();
+				return;
+			}
+			try {
+				lag.probe(connection.session);
+			} finally {
+				unshare(connection);
+			}
+		}
+
+		ConnectionManagerEntry(RoleGroup group, ConnectionManager connectionManager, int minConnections,
+				int maxConnections) {
+			this.group = group;
+			this.connectionManager = connectionManager;
+			this.minConnections = minConnections;
+			this.maxConnections = maxConnections;
+		}
+
+		/**
+		 * Queues connections to be opened as the pool's connect rate allows.
+		 */
+		void open(int connectionCount) {
+			connecting.addAndGet(connectionCount);
+			for (int i = 0; i < connectionCount; i++) {
+				pendingConnects.add(this);
+			}
+			openPendingConnections();
+		}
+
+		void connect() {
+			try {
+				connectionManager.connect().addListener(connectionListener);
+			} catch (DbException e) {
+				connecting.decrementAndGet();
+				logger.warn("Failed to open pooled connection", e);
+				checkReady(e);
+			}
+		}
+
+		/**
+		 * Opens a connection when this entry's connections are overloaded, otherwise replaces one connection that has
+		 * outlived the maximum lifetime or closes one connection that has been idle for the idle timeout.  Connections
+		 * are opened and closed one at a time so the pool follows load without oscillating.
+		 */
+		void resize(long now) {
+			PooledConnection[] connections = this.connections;
+			int size = connections.length + connecting.get();
+			if (size < minConnections) {
+				// Replace connections that failed or were closed by the database
+				open(minConnections - size);
+				return;
+			}
+			if (size < maxConnections && connecting.get() == 0 && isOverloaded(connections, now)) {
+				open(1);
+				return;
+			}
+			if (sizingPolicy.isRotating()) {
+				for (PooledConnection connection : connections) {
+					if (sizingPolicy.isExpired(connection.created, connection.lifetimeJitter, now)
+							&& connection.tryLease()) {
+						// Open the replacement right away rather than running below the minimum until the next pass
+						retire(connection);
+						int remaining = this.connections.length + connecting.get();
+						if (remaining < minConnections) {
+							open(minConnections - remaining);
+						}
+						return;
+					}
+				}
+			}
+			if (connections.length > minConnections) {
+				for (PooledConnection connection : connections) {
+					if (sizingPolicy.isIdle(connection.lastActive, connection.getLoad(), now) && connection.tryLease()) {
+						retire(connection);
+						return;
+					}
+				}
+			}
+		}
+
+		private boolean isOverloaded(PooledConnection[] connections, long now) {
+			int load = 0;
+			for (PooledConnection connection : connections) {
+				load += connection.getLoad();
+			}
+			return sizingPolicy.isOverloaded(connections.length, load, group.getLongestWait(now));
+		}
+
+		/**
+		 * Pings the connections that have not been sent a statement or a ping for the keepalive interval.  A connection
+		 * whose ping fails is dropped from the pool, which opens its replacement on the next pass.
+		 */
+		void keepAlive(long now) {
+			if (!sizingPolicy.isKeepAliveEnabled()) {
+				return;
+			}
+			for (final PooledConnection connection : connections) {
+				if (!sizingPolicy.isPingDue(connection.lastActive, connection.lastPinged, now)
+						|| !(connection.session instanceof Connection) || !connection.tryShare()) {
+					continue;
+				}
+				connection.lastPinged = now;
+				try {
+					((Connection)connection.session).ping().addCompletionHandler(new DbCompletionHandler<Void>() {
+						public void completed(Void result) {
+						}
+						public void failed(Throwable cause) {
+							logger.warn("Pooled connection failed keepalive ping", cause);
+							drop(connection);
+						}
+						public void cancelled() {
+						}
+					});
+				} catch (UnsupportedOperationException e) {
+					// The session can not be pinged, it stays in the pool untested
+				} catch (RuntimeException e) {
+					logger.warn("Failed to ping pooled connection", e);
+					drop(connection);
+				} finally {
+					unshare(connection);
+				}
+			}
+		}
+
+		/**
+		 * Removes a broken connection from the pool and closes it immediately.
+		 */
+		private void drop(PooledConnection connection) {
+			synchronized (lock) {
+				if (isClosed() || connection.closed.get()) {
+					// The pool closes its remaining connections itself
+					return;
+				}
+				remove(connection);
+				connection.closed.set(true);
+			}
+			connection.session.close(true);
+		}
+
+		/**
+		 * Removes a leased idle connection from the pool and closes it once its pending requests have completed.
+		 */
+		private void retire(PooledConnection connection) {
+			boolean retired;
+			synchronized (lock) {
+				retired = !isClosed();
+				if (retired) {
+					remove(connection);
+					connection.closed.set(true);
+				}
+			}
+			if (!retired) {
+				// The pool was closed while the connection was leased, let the pool close it
+				release(connection);
+				return;
+			}
+			logger.debug("Retiring pooled connection");
+			connection.session.close(false);
+		}
+
+		PooledConnection select(boolean lease) {
+			PooledConnection[] connections = this.connections;
+			int count = connections.length;
+			if (count == 0) {
+				return null;
+			}
+			if (!lease && count > 1) {
+				PooledConnection connection = shareLeastLoaded(connections);
+				if (connection != null) {
+					return connection;
+				}
+			}
+			int start = nextIndex(next, count);
+			for (int i = 0; i < count; i++) {
+				PooledConnection connection = connections[(start + i) % count];
+				if (acquire(connection, lease)) {
+					return connection;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Samples two distinct connections and shares the one with fewer outstanding requests, so a connection stuck
+		 * behind a slow query stops receiving statements while its peers have capacity.
+		 * 
+		 * @return  the shared connection or null if both sampled connections are leased
+		 */
+		private PooledConnection shareLeastLoaded(PooledConnection[] connections) {
+			int count = connections.length;
+			int hash = sampleHash(next);
+			int i = firstSample(hash, count);
+			PooledConnection first = connections[i];
+			PooledConnection second = connections[secondSample(hash, i, count)];
+			if (second.getLoad() < first.getLoad()) {
+				PooledConnection temp = first;
+				first = second;
+				second = temp;
+			}
+			if (acquire(first, false)) {
+				return first;
+			}
+			if (acquire(second, false)) {
+				return second;
+			}
+			return null;
+		}
+
+		private boolean acquire(PooledConnection connection, boolean lease) {
+			if (!(lease ? connection.tryLease() : connection.tryShare())) {
+				return false;
+			}
+			if (connection.session.isClosed()) {
+				// Closed by the database, the connection stays marked and is dropped from the pool
+				remove(connection);
+				return false;
+			}
+			return true;
+		}
+
+		private void remove(PooledConnection connection) {
+			synchronized (lock) {
+				PooledConnection[] current = connections;
+				List<PooledConnection> temp = new ArrayList<PooledConnection>(current.length);
+				for (PooledConnection c : current) {
+					if (c != connection) {
+						temp.add(c);
+					}
+				}
+				connections = temp.toArray(new PooledConnection[temp.size()]);
+			}
+		}
+	}
+
+	/**
+	 * Raises {@code value} to {@code time} unless it is already later.
+	 */
+	private static void advance(AtomicLong value, long time) {
+		for (;;) {
+			long current = value.get();
+			if (current >= time || value.compareAndSet(current, time)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the failure carries an SQLSTATE other than a connection exception, class 08, which JDBC
+	 * drivers also report for failures of the connection itself.
+	 */
+	private static boolean isAnsweredByServer(Throwable cause) {
+		for (Throwable t = cause; t != null; t = t.getCause()) {
+			if (t instanceof DbException) {
+				String sqlState = ((DbException)t).getSqlState();
+				if (sqlState != null && !sqlState.startsWith("08")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A statement that can be sent to any of the pool's sessions.
+	 */
+	private abstract static class Statement<T> implements DbFunction<PooledConnection, DbSessionFuture<T>> {
+		/**
+		 * The role of the database the statement is sent to when it is issued outside of a transaction.
+		 */
+		final ConnectionRole role;
+
+		/**
+		 * True if the statement may change the database, false for queries.
+		 */
+		final boolean write;
+
+		Statement() {
+			this.role = ConnectionRole.PRIMARY;
+			this.write = true;
+		}
+
+		/**
+		 * Creates a query sent to a database of the given role.
+		 */
+		Statement(ConnectionRole role) {
+			this.role = role;
+			this.write = false;
+		}
+
+		abstract DbSessionFuture<T> execute(DbSession session);
+
+		public DbSessionFuture<T> apply(PooledConnection connection) {
+			return connection.send(this);
+		}
+	}
+
+	/**
+	 * The state of a transaction of a {@link PooledSession}.
+	 */
+	private static class PoolTransaction {
+		final TransactionIsolationLevel isolationLevel;
+
+		/**
+		 * The leased connection, null until the lease has been granted.
+		 */
+		volatile PooledConnection connection;
+
+		/**
+		 * Completes once the connection has been leased and the transaction begun on it, null until the transaction's
+		 * first statement is issued.
+		 */
+		DbFuture<PooledConnection> lease;
+
+		PoolTransaction(TransactionIsolationLevel isolationLevel) {
+			this.isolationLevel = isolationLevel;
+		}
+	}
+
+	/**
+	 * The session handed out by {@link DbSessionPool#connect()}.
+	 */
+	private class PooledSession implements PooledDbSession {
+
+		private final int priority;
+
+		private volatile boolean closed = false;
+
+		private PoolTransaction transaction; // Access must be synchronized on this
+
+		private final AtomicLong lastWriteTime = new AtomicLong();
+
+		private final WriteRecorder writeRecorder = new WriteRecorder(true);
+		
+		private final WriteRecorder commitRecorder = new WriteRecorder(false);
+
+		PooledSession(int priority) {
+			this.priority = priority;
+		}
+
+		public long getLastWriteTime() {
+			return lastWriteTime.get();
+		}
+
+		public void setLastWriteTime(long time) {
+			advance(lastWriteTime, time);
+		}
+
+		/**
+		 * Advances the session's last write time when a write completes.  A failed write may still have been applied,
+		 * only a cancelled one is known not to have reached the database.  A failed commit is not recorded since its
+		 * transaction was rolled back.
+		 */
+		private class WriteRecorder implements DbCompletionHandler<Object>, NonBlockingListener {
+			private final boolean recordFailures;
+
+			WriteRecorder(boolean recordFailures) {
+				this.recordFailures = recordFailures;
+			}
+
+			public void completed(Object result) {
+				setLastWriteTime(System.currentTimeMillis());
+			}
+
+			public void failed(Throwable cause) {
+				if (recordFailures) {
+					setLastWriteTime(System.currentTimeMillis());
+				}
+			}
+
+			public void cancelled() {
+			}
+		}
+
+		private <T> DbSessionFuture<T> recordWrite(DbSessionFuture<T> future) {
+			future.addCompletionHandler(writeRecorder);
+			return future;
+		}
+
+		private DbSessionFuture<Void> recordCommit(DbSessionFuture<Void> future, boolean commit) {
+			if (commit) {
+				future.addCompletionHandler(commitRecorder);
+			}
+			return future;
+		}
+
+		public void beginTransaction() {
+			beginTransaction(null);
+		}
+
+		public synchronized void beginTransaction(TransactionIsolationLevel isolationLevel) {
+			if (isolationLevel == TransactionIsolationLevel.NONE) {
+				throw new IllegalArgumentException("Can not begin a transaction with isolation level " + isolationLevel);
+			}
+			checkClosed();
+			if (transaction != null) {
+				throw new DbException(this, "Cannot begin new transaction.  Current transaction needs to be committed or rolled back");
+			}
+			transaction = new PoolTransaction(isolationLevel);
+		}
+
+		public synchronized TransactionIsolationLevel getTransactionIsolationLevel() {
+			return transaction == null ? null : transaction.isolationLevel;
+		}
+
+		public synchronized boolean isInTransaction() {
+			return transaction != null;
+		}
+
+		public DbSessionFuture<Void> commit() {
+			return endTransaction(new Statement<Void>() {
+				DbSessionFuture<Void> execute(DbSession session) {
+					return session.commit();
+				}
+			}, true);
+		}
+
+		public DbSessionFuture<Void> commit(final long timeout, final TimeUnit unit) {
+			return endTransaction(new Statement<Void>() {
+				DbSessionFuture<Void> execute(DbSession session) {
+					return session.commit(timeout, unit);
+				}
+			}, true);
+		}
+
+		public DbSessionFuture<Void> rollback() {
+			return endTransaction(new Statement<Void>() {
+				DbSessionFuture<Void> execute(DbSession session) {
+					return session.rollback();
+				}
+			}, false);
+		}
+
+		/**
+		 * Ends the current transaction and returns its connection to the pool.  The connection is released as soon as
+		 * the commit or rollback has been queued on it since later statements are sent after it.
+		 */
+		private synchronized DbSessionFuture<Void> endTransaction(final Statement<Void> end, boolean commit) {
+			if (transaction == null) {
+				throw new DbException(this, "Not currently in a transaction, cannot " + (commit ? "commit" : "rollback"));
+			}
+			PoolTransaction transaction = this.transaction;
+			this.transaction = null;
+			PooledConnection connection = transaction.connection;
+			if (connection != null) {
+				try {
+					return recordCommit(connection.send(end), commit);
+				} finally {
+					release(connection);
+				}
+			}
+			if (transaction.lease == null) {
+				// No statement was issued so the transaction was never started
+				return DefaultDbSessionFuture.createCompletedFuture(this, null);
+			}
+			return recordCommit(DerivedDbFuture.flatMap(this, transaction.lease, new Statement<Void>() {
+				DbSessionFuture<Void> execute(DbSession session) {
+					return end.execute(session);
+				}
+				@Override
+				public DbSessionFuture<Void> apply(PooledConnection connection) {
+					try {
+						return connection.send(end);
+					} finally {
+						release(connection);
+					}
+				}
+			}), commit);
+		}
+
+		/**
+		 * Sends a statement to the transaction's connection or, outside of a transaction, to the next connection of
+		 * the pool.  A transaction that has leased its connection may finish after the pool has been closed.
+		 */
+		private <T> DbSessionFuture<T> execute(Statement<T> statement) {
+			if (closed) {
+				throw new DbSessionClosedException(this, "Session closed");
+			}
+			if (!admit(priority)) {
+				DefaultDbSessionFuture<T> future = new DefaultDbSessionFuture<T>(this);
+				future.setException(new DbOverloadedException(this, "Session pool is full"));
+				return future;
+			}
+			boolean inTransaction = isInTransaction();
+			DbSessionFuture<T> future;
+			try {
+				future = dispatch(statement);
+			} catch (RuntimeException e) {
+				queued.decrementAndGet();
+				throw e;
+			}
+			if (!inTransaction && !future.isDone()) {
+				future = new UnsentRetry<T>(statement, future);
+			}
+			admitted(future, priority, !inTransaction);
+			if (statement.write) {
+				recordWrite(future);
+			}
+			return future;
+		}
+
+		/**
+		 * Sends a statement outside of a transaction to another connection if the connection it was queued on closed
+		 * before sending it, as happens when a database host fails.  The statement is retried once.
+		 */
+		private class UnsentRetry<T> extends DefaultDbSessionFuture<T> implements DbCompletionHandler<T>,
+				NonBlockingListener {
+			private final Statement<T> statement;
+
+			private volatile DbSessionFuture<T> attempt;
+
+			private boolean retried; // Only accessed by the thread completing the current attempt
+
+			UnsentRetry(Statement<T> statement, DbSessionFuture<T> attempt) {
+				super(PooledSession.this);
+				this.statement = statement;
+				this.attempt = attempt;
+				attempt.addCompletionHandler(this);
+			}
+
+			public void completed(T result) {
+				setResult(result);
+			}
+
+			public void failed(Throwable cause) {
+				if (retried || !(cause instanceof DbSessionClosedException) || isDone()) {
+					trySetException(cause);
+					return;
+				}
+				retried = true;
+				DbSessionFuture<T> attempt;
+				try {
+					attempt = dispatch(statement);
+				} catch (RuntimeException e) {
+					trySetException(e);
+					return;
+				}
+				this.attempt = attempt;
+				attempt.addCompletionHandler(this);
+				if (isCancelled()) {
+					attempt.cancel(false);
+				}
+			}
+
+			public void cancelled() {
+				trySetCancelled();
+			}
+
+			@Override
+			protected boolean doCancel(boolean mayInterruptIfRunning) {
+				return attempt.cancel(mayInterruptIfRunning);
+			}
+		}
+
+		private <T> DbSessionFuture<T> dispatch(final Statement<T> statement) {
+			synchronized (this) {
+				if (closed) {
+					throw new DbSessionClosedException(this, "Session closed");
+				}
+				if (transaction != null) {
+					PooledConnection connection = transaction.connection;
+					if (connection != null) {
+						return connection.send(statement);
+					}
+					return DerivedDbFuture.flatMap(this, lease(transaction), statement);
+				}
+			}
+			checkClosed();
+			RoleGroup group = route(statement.role);
+			long writeTime = group == replicas ? lastWriteTime.get() : 0;
+			PooledConnection connection = group.tryShare(writeTime);
+			if (connection == null && writeTime != 0) {
+				// No replica is known to have caught up with the session's last write, read from the primary
+				group = route(ConnectionRole.PRIMARY);
+				connection = group.tryShare();
+			}
+			if (connection != null) {
+				try {
+					return connection.send(statement);
+				} finally {
+					unshare(connection);
+				}
+			}
+			// Every connection is leased, send the statement on the next connection to be released
+			return DerivedDbFuture.flatMap(this, group.awaitConnection(), new Statement<T>() {
+				DbSessionFuture<T> execute(DbSession session) {
+					return statement.execute(session);
+				}
+				@Override
+				public DbSessionFuture<T> apply(PooledConnection connection) {
+					try {
+						return connection.send(statement);
+					} finally {
+						release(connection);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Returns a future that completes once the transaction has leased a connection and begun on it.
+		 */
+		private DbFuture<PooledConnection> lease(final PoolTransaction transaction) {
+			if (transaction.lease != null) {
+				return transaction.lease;
+			}
+			RoleGroup group = route(ConnectionRole.PRIMARY);
+			PooledConnection connection = group.tryLease();
+			if (connection != null) {
+				begin(transaction, connection);
+				DefaultDbFuture<PooledConnection> lease = new DefaultDbFuture<PooledConnection>();
+				lease.setResult(connection);
+				transaction.lease = lease;
+			} else {
+				// Listeners run in the order they are added so the transaction begins before its statements are sent
+				transaction.lease = group.awaitConnection().map(new DbFunction<PooledConnection, PooledConnection>() {
+					public PooledConnection apply(PooledConnection connection) {
+						begin(transaction, connection);
+						return connection;
+					}
+				});
+			}
+			return transaction.lease;
+		}
+
+		private void begin(PoolTransaction transaction, PooledConnection connection) {
+			try {
+				connection.session.beginTransaction(transaction.isolationLevel);
+			} catch (RuntimeException e) {
+				release(connection);
+				throw e;
+			}
+			transaction.connection = connection;
+		}
+
+		public DbSessionFuture<ResultSet> executeQuery(String sql) {
+			return executeQuery(sql, ConnectionRole.REPLICA);
+		}
+
+		public DbSessionFuture<ResultSet> executeQuery(final String sql, ConnectionRole role) {
+			LatencyQuantile latency = hedgeBudget.isEnabled() && !isInTransaction() ? hedgeBudget.track(sql) : null;
+			if (latency != null) {
+				return new PooledHedgedQuery(sql, role, latency).start(getTimer());
+			}
+			return execute(new Statement<ResultSet>(role) {
+				DbSessionFuture<ResultSet> execute(DbSession session) {
+					return session.executeQuery(sql);
+				}
+			});
+		}
+
+		/**
+		 * Sends the hedge of a query to a connection other than the first attempt's.  Hedges bypass admission
+		 * control, the hedge budget bounds the load they add.  Only queries returning a {@link ResultSet} are
+		 * hedged since a result handler can not receive the rows of two attempts.
+		 */
+		private class PooledHedgedQuery extends HedgedQuery<ResultSet> {
+			private final String sql;
+
+			private final ConnectionRole role;
+
+			private volatile DbSession firstSession;
+
+			PooledHedgedQuery(String sql, ConnectionRole role, LatencyQuantile latency) {
+				super(PooledSession.this, hedgeBudget, latency);
+				this.sql = sql;
+				this.role = role;
+			}
+
+			@Override
+			protected DbSessionFuture<ResultSet> sendFirst() {
+				return execute(new Statement<ResultSet>(role) {
+					DbSessionFuture<ResultSet> execute(DbSession session) {
+						firstSession = session;
+						return session.executeQuery(sql);
+					}
+				});
+			}
+
+			@Override
+			protected DbSessionFuture<ResultSet> sendHedge() {
+				RoleGroup group = route(role);
+				long writeTime = group == replicas ? lastWriteTime.get() : 0;
+				PooledConnection connection = null;
+				for (int i = 0; i < 2 && connection == null; i++) {
+					connection = group.tryShare(writeTime);
+					if (connection != null && connection.session == firstSession) {
+						unshare(connection);
+						connection = null;
+					}
+				}
+				if (connection == null) {
+					return null;
+				}
+				try {
+					if (!takeCredit()) {
+						return null;
+					}
+					return connection.send(new Statement<ResultSet>(role) {
+						DbSessionFuture<ResultSet> execute(DbSession session) {
+							return session.executeQuery(sql);
+						}
+					});
+				} finally {
+					unshare(connection);
+				}
+			}
+		}
+
+		public DbSessionFuture<ResultSet> executeQuery(final String sql, final long timeout, final TimeUnit unit) {
+			return execute(new Statement<ResultSet>(ConnectionRole.REPLICA) {
+				DbSessionFuture<ResultSet> execute(DbSession session) {
+					return session.executeQuery(sql, timeout, unit);
+				}
+			});
+		}
+
+		public <T> DbSessionFuture<T> executeQuery(String sql, ResultEventHandler<T> eventHandler, T accumulator) {
+			return executeQuery(sql, eventHandler, accumulator, ConnectionRole.REPLICA);
+		}
+
+		public <T> DbSessionFuture<T> executeQuery(final String sql, final ResultEventHandler<T> eventHandler,
+				final T accumulator, ConnectionRole role) {
+			return execute(new Statement<T>(role) {
+				DbSessionFuture<T> execute(DbSession session) {
+					return session.executeQuery(sql, eventHandler, accumulator);
+				}
+			});
+		}
+
+		public void executeQuery(final String sql, final RowSubscriber subscriber) {
+			DbSessionFuture<Void> future = execute(new Statement<Void>(ConnectionRole.REPLICA) {
+				DbSessionFuture<Void> execute(DbSession session) {
+					session.executeQuery(sql, subscriber);
+					return DefaultDbSessionFuture.createCompletedFuture(session, null);
+				}
+			});
+			future.addCompletionHandler(new DbCompletionHandler<Void>() {
+				public void completed(Void result) {
+				}
+				public void failed(Throwable cause) {
+					// The query was never sent
+					subscriber.onError(cause);
+				}
+				public void cancelled() {
+				}
+			});
+		}
+
+		public DbSessionFuture<Result> executeUpdate(final String sql) {
+			return execute(new Statement<Result>() {
+				DbSessionFuture<Result> execute(DbSession session) {
+					return session.executeUpdate(sql);
+				}
+			});
+		}
+
+		public DbSessionFuture<Result> executeUpdate(final String sql, final long timeout, final TimeUnit unit) {
+			return execute(new Statement<Result>() {
+				DbSessionFuture<Result> execute(DbSession session) {
+					return session.executeUpdate(sql, timeout, unit);
+				}
+			});
+		}
+
+		public DbSessionFuture<PreparedStatement> prepareStatement(final String sql) {
+			return execute(new Statement<PreparedStatement>() {
+				DbSessionFuture<PreparedStatement> execute(DbSession session) {
+					return session.prepareStatement(sql);
+				}
+			});
+		}
+
+		public DbSessionFuture<PreparedStatement> prepareStatement(final Object key, final String sql) {
+			return execute(new Statement<PreparedStatement>() {
+				DbSessionFuture<PreparedStatement> execute(DbSession session) {
+					return session.prepareStatement(key, sql);
+				}
+			});
+		}
+
+		/**
+		 * Closes this session, rolling back its transaction if there is one.  The pool's connections remain open.
+		 */
+		public DbSessionFuture<Void> close(boolean immediate) throws DbException {
+			DbSessionFuture<Void> future = null;
+			synchronized (this) {
+				if (!closed && transaction != null) {
+					future = rollback();
+				}
+				closed = true;
+			}
+			return future == null ? DefaultDbSessionFuture.<Void>createCompletedFuture(this, null) : future;
+		}
+
+		public boolean isClosed() throws DbException {
+			return closed || DbSessionPool.this.isClosed();
+		}
+
+		private void checkClosed() {
+			if (isClosed()) {
+				throw new DbSessionClosedException(this, "Session closed");
+			}
+		}
+
+		public boolean isPipeliningEnabled() {
+			return false;
+		}
+
+		public void setPipeliningEnabled(boolean pipeliningEnabled) {
+			throw new IllegalStateException("Can't change pipelining on pooled session");
+		}
+
+		public int getMaxPipelineDepth() {
+			return 1;
+		}
+
+		public void setMaxPipelineDepth(int maxPipelineDepth) {
+			throw new IllegalStateException("Can't change pipelining on pooled session");
+		}
+
+		public boolean isWritable() {
+			// Requests are spread across the pool's sessions, each of which applies its own limit
+			return true;
+		}
+
+		public DbSessionFuture<Void> whenWritable() {
+			return DefaultDbSessionFuture.createCompletedFuture(this, null);
 		}
 	}
 }
@@ -0,0 +1,43 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Determines which thread invokes the {@link DbListener}s and {@link DbCompletionHandler}s of a completed
+ * {@link DbFuture}.  Database futures are usually completed by an I/O thread that also decodes the responses of other
+ * connections, so a slow callback run on that thread delays every one of those connections.
+ */
+public enum ListenerDispatchPolicy {
+
+	/**
+	 * Invoke every callback on the thread that completes the future.  This is the cheapest policy but callbacks must
+	 * not block.
+	 */
+	INLINE,
+
+	/**
+	 * Hand every callback to an executor so the completing thread never runs user code.
+	 */
+	EXECUTOR,
+
+	/**
+	 * Invoke callbacks that implement {@link NonBlockingListener} on the completing thread and hand all other
+	 * callbacks to an executor.
+	 */
+	NON_BLOCKING_INLINE
+
+}
@@ -0,0 +1,56 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * A session handed out by a {@link DbSessionPool}.  Its statements are spread over the pool's connections, queries
+ * issued outside of a transaction go to a replica unless the role is overridden for the call.
+ */
+public interface PooledDbSession extends DbSession {
+
+	/**
+	 * Executes a query on a database of the given role instead of the role the pool would choose.  Inside a
+	 * transaction the query is sent to the transaction's connection regardless of {@code role}.
+	 * 
+	 * @param sql  the query to execute
+	 * @param role  the role of the database to execute the query on
+	 */
+	DbSessionFuture<ResultSet> executeQuery(String sql, ConnectionRole role);
+
+	/**
+	 * Executes a query on a database of the given role, passing its results to {@code eventHandler}.
+	 * 
+	 * @see #executeQuery(String, ConnectionRole)
+	 */
+	<T> DbSessionFuture<T> executeQuery(String sql, ResultEventHandler<T> eventHandler, T accumulator,
+			ConnectionRole role);
+
+	/**
+	 * Returns the time, in milliseconds since the epoch, at which the last write issued through this session
+	 * completed, or 0 if it has not written.  Queries are only sent to a replica that has replicated the primary's
+	 * writes through this time, so the session reads its own writes.
+	 */
+	long getLastWriteTime();
+
+	/**
+	 * Advances the session's last write time, unless it is already later.  Passing the value returned by another
+	 * session's {@link #getLastWriteTime()}, for example one kept across a user's requests, lets this session read
+	 * that session's writes.
+	 */
+	void setLastWriteTime(long time);
+
+}
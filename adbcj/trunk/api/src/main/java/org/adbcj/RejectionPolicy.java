@@ -0,0 +1,36 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Determines what a {@link DbSessionPool} does with a statement that arrives while the pool already holds its maximum
+ * number of queued requests.
+ */
+public enum RejectionPolicy {
+
+	/**
+	 * Fail the arriving statement with a {@link DbOverloadedException}.
+	 */
+	FAIL_FAST,
+
+	/**
+	 * Make room by cancelling the oldest queued statement of a lower priority that has not been sent to the database.
+	 * If there is no such statement, the arriving statement fails with a {@link DbOverloadedException}.
+	 */
+	DROP_LOWEST_PRIORITY
+
+}
@@ -0,0 +1,33 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Implemented by connections that can report how far the database they are connected to lags behind its primary.
+ * {@link DbSessionPool} probes its {@link ConnectionRole#REPLICA} connections periodically to decide which replicas
+ * may serve a session's reads without returning stale data.
+ */
+public interface ReplicationLagProbe {
+
+	/**
+	 * Queries the database for its replication lag.
+	 * 
+	 * @return  a future holding the lag in milliseconds, or null if the database is not replicating
+	 */
+	DbFuture<Long> probeReplicationLag();
+
+}
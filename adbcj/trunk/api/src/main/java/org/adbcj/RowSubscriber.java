@@ -0,0 +1,59 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Receives the rows of a query as they are decoded, subject to demand signalled through a {@link RowSubscription}.
+ * The contract follows that of a reactive streams subscriber: {@link #onSubscribe(RowSubscription)} is invoked first,
+ * followed by at most as many {@link #onNext(Row)} calls as have been requested, followed by at most one of
+ * {@link #onError(Throwable)} or {@link #onComplete()}.  Signals are never invoked concurrently but may be invoked on
+ * the thread that decodes the rows or on a thread calling {@link RowSubscription#request(long)}.
+ * 
+ * <p>Because the rows are not collected in to a {@link ResultSet}, streaming a large query this way only holds the
+ * rows that have been decoded but not yet requested.
+ * 
+ * @see DbSession#executeQuery(String, RowSubscriber)
+ */
+public interface RowSubscriber {
+
+	/**
+	 * Invoked before any other signal.  No rows are delivered until {@link RowSubscription#request(long)} is invoked.
+	 * 
+	 * @param subscription  the subscription used to request rows or cancel the query
+	 */
+	void onSubscribe(RowSubscription subscription);
+
+	/**
+	 * Invoked for each requested row.
+	 * 
+	 * @param row  the next row of the query
+	 */
+	void onNext(Row row);
+
+	/**
+	 * Invoked if the query fails.  No further signals are sent.
+	 * 
+	 * @param t  the exception the query failed with
+	 */
+	void onError(Throwable t);
+
+	/**
+	 * Invoked once every row of the query has been delivered.  No further signals are sent.
+	 */
+	void onComplete();
+
+}
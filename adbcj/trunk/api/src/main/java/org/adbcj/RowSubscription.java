@@ -0,0 +1,39 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Links a {@link RowSubscriber} to the query it is receiving rows from.
+ */
+public interface RowSubscription {
+
+	/**
+	 * Requests that up to {@code n} more rows be delivered to the subscriber.  Demand is cumulative and saturates at
+	 * {@link Long#MAX_VALUE}.  A non-positive {@code n} fails the subscription with an
+	 * {@link IllegalArgumentException}.
+	 * 
+	 * @param n  the number of additional rows to deliver
+	 */
+	void request(long n);
+
+	/**
+	 * Cancels the query.  If the query has not been sent to the database it is removed from the session's request
+	 * queue, otherwise any remaining rows are discarded as they arrive.  The subscriber receives no further signals.
+	 */
+	void cancel();
+
+}
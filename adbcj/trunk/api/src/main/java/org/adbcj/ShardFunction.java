@@ -0,0 +1,38 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * Maps a shard key to the shard holding its data.  Functions are invoked for every statement routed by a
+ * {@link ShardedSessionProvider} so they should neither block nor allocate.
+ * 
+ * @param <K>  the type of the shard key
+ * @see org.adbcj.support.HashShardFunction
+ * @see org.adbcj.support.RangeShardFunction
+ */
+public interface ShardFunction<K> {
+
+	/**
+	 * Returns the shard holding {@code key}.
+	 * 
+	 * @param key  the shard key
+	 * @param shardCount  the number of shards
+	 * @return  the index of the shard, from 0 to {@code shardCount - 1}
+	 */
+	int shard(K key, int shardCount);
+
+}
@@ -0,0 +1,120 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+import java.util.List;
+
+import org.adbcj.support.RowMerger;
+
+/**
+ * Routes sessions to one of several shards, typically a {@link DbSessionPool} per database, by a shard key.  A
+ * session returned by {@link #connect(Object)} sends all of its statements, including transactions, to the shard
+ * holding the key.  Routing evaluates the shard function and indexes an array so it takes no lock.
+ * 
+ * <p>Unlike its shards this is not a {@link DbSessionProvider} since every session needs a shard key.
+ * 
+ * @param <K>  the type of the shard key
+ */
+public class ShardedSessionProvider<K> {
+
+	private final ShardFunction<? super K> shardFunction;
+
+	private final DbSessionProvider[] shards;
+
+	/**
+	 * @param shardFunction  maps shard keys to the index of their shard in {@code shards}
+	 * @param shards  the session provider of each shard
+	 */
+	public ShardedSessionProvider(ShardFunction<? super K> shardFunction, List<? extends DbSessionProvider> shards) {
+		if (shardFunction == null) {
+			throw new IllegalArgumentException("shardFunction can NOT be null");
+		}
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("shards can NOT be empty");
+		}
+		this.shardFunction = shardFunction;
+		this.shards = shards.toArray(new DbSessionProvider[shards.size()]);
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public DbSessionProvider getShard(int index) {
+		return shards[index];
+	}
+
+	/**
+	 * Returns the index of the shard holding {@code key}.
+	 */
+	public int getShardIndex(K key) {
+		int index = shardFunction.shard(key, shards.length);
+		if (index < 0 || index >= shards.length) {
+			throw new DbException(String.format("Shard function returned shard %d of %d", index, shards.length));
+		}
+		return index;
+	}
+
+	/**
+	 * Returns a session on the shard holding {@code key}.
+	 */
+	public DbFuture<? extends DbSession> connect(K key) {
+		return shards[getShardIndex(key)].connect();
+	}
+
+	/**
+	 * Runs a query on every shard and streams the rows of all shards to {@code subscriber} as they arrive.  The rows of
+	 * different shards are interleaved, the stream completes once every shard's query has completed and fails as soon
+	 * as one shard's query fails.
+	 */
+	public void scatter(String sql, RowSubscriber subscriber) {
+		RowMerger merger = new RowMerger(subscriber, shards.length);
+		merger.start();
+		for (int i = 0; i < shards.length; i++) {
+			RowSubscriber source = merger.getSource(i);
+			try {
+				executeQuery(shards[i].connect(), sql, source);
+			} catch (RuntimeException e) {
+				source.onError(e);
+			}
+		}
+	}
+
+	private static <S extends DbSession> void executeQuery(DbFuture<S> connect, final String sql,
+			final RowSubscriber source) {
+		connect.addListener(new DbListener<S>() {
+			public void onCompletion(DbFuture<S> future) {
+				DbSession session;
+				try {
+					session = future.get();
+				} catch (Exception e) {
+					source.onError(e);
+					return;
+				}
+				try {
+					session.executeQuery(sql, source);
+				} catch (RuntimeException e) {
+					source.onError(e);
+				} finally {
+					// The query completes before a session that is not closed immediately
+					session.close(false);
+				}
+			}
+		});
+	}
+
+}
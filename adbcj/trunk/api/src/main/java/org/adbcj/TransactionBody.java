@@ -0,0 +1,38 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * The statements of a transaction, run by a transaction runner that begins the transaction before invoking the body
+ * and commits or rolls it back once the future returned by the body completes.  A body may be invoked several times if
+ * the transaction is retried so it should not have side effects outside of the database.
+ * 
+ * @param <T>  the result type of the transaction
+ */
+public interface TransactionBody<T> {
+
+	/**
+	 * Issues the statements of the transaction.  This must not block, the statements should be composed with the
+	 * operators of {@link DbFuture}.
+	 * 
+	 * @param session  the session the transaction has been started on
+	 * @return  a future that completes with the result of the transaction once its last statement has completed
+	 * @throws Exception  if the transaction could not be issued, the transaction is rolled back
+	 */
+	DbFuture<T> execute(DbSession session) throws Exception;
+
+}
@@ -0,0 +1,47 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj;
+
+/**
+ * A {@link ResultEventHandler} that receives column values through typed callbacks rather than {@link Value} objects.
+ * Drivers call these straight from the data they decode, so a handler that aggregates a column as it streams past
+ * allocates nothing per row.  Values of a type with no callback of its own, or that a driver can not decode without
+ * creating an object, are still passed to {@link #value(Value, Object)}.
+ * 
+ * <p>Columns are identified by their index in the result's fields.  For each row a driver invokes exactly one value
+ * callback per column, in column order, between {@link #startRow(Object)} and {@link #endRow(Object)}.
+ * 
+ * @param <T>  the type of the accumulator
+ */
+public interface TypedResultEventHandler<T> extends ResultEventHandler<T> {
+
+	/**
+	 * Invoked for a column that is null in the current row.
+	 */
+	void nullValue(int column, T accumulator);
+
+	void intValue(int column, int value, T accumulator);
+
+	void longValue(int column, long value, T accumulator);
+
+	/**
+	 * Invoked with the bytes of a character or binary column.  Character data is encoded in the connection's
+	 * character set.  The buffer belongs to the driver and is only valid for the duration of the call.
+	 */
+	void bytesValue(int column, byte[] buffer, int offset, int length, T accumulator);
+
+}
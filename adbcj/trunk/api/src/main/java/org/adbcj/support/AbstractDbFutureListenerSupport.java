@@ -22,7 +22,9 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.adbcj.DbCompletionHandler;
 import org.adbcj.DbException;
+import org.adbcj.DbFunction;
 import org.adbcj.DbFuture;
 import org.adbcj.DbListener;
 
@@ -55,6 +57,25 @@ public abstract class AbstractDbFutureListenerSupport<T> implements DbFuture<T>
 		return this;
 	}
 
+	public DbFuture<T> addCompletionHandler(final DbCompletionHandler<? super T> handler) {
+		return addListener(new DbListener<T>() {
+			public void onCompletion(DbFuture<T> future) throws Exception {
+				if (future.isCancelled()) {
+					handler.cancelled();
+					return;
+				}
+				T result;
+				try {
+					result = future.getUninterruptably();
+				} catch (DbException e) {
+					handler.failed(DerivedDbFuture.failureOf(e));
+					return;
+				}
+				handler.completed(result);
+			}
+		});
+	}
+
 	public boolean removeListener(DbListener<T> listener) {
 		lock.lock();
 		try {
@@ -115,4 +136,16 @@ public abstract class AbstractDbFutureListenerSupport<T> implements DbFuture<T>
 		return listeners;
 	}
 
+	public <R> DbFuture<R> map(DbFunction<? super T, ? extends R> function) {
+		return DerivedDbFuture.map(null, this, function);
+	}
+
+	public <R> DbFuture<R> flatMap(DbFunction<? super T, ? extends DbFuture<R>> function) {
+		return DerivedDbFuture.flatMap(null, this, function);
+	}
+
+	public DbFuture<T> recover(DbFunction<Throwable, ? extends T> function) {
+		return DerivedDbFuture.recover(null, this, function);
+	}
+
 }
\ No newline at end of file
@@ -16,19 +16,25 @@
  */
 package org.adbcj.support;
 
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.adbcj.DbException;
+import org.adbcj.DbOverloadedException;
 import org.adbcj.DbSession;
 import org.adbcj.DbSessionClosedException;
 import org.adbcj.DbSessionFuture;
+import org.adbcj.DbTimeoutException;
 import org.adbcj.Field;
+import org.adbcj.Result;
 import org.adbcj.ResultEventHandler;
 import org.adbcj.ResultSet;
+import org.adbcj.RowSubscriber;
+import org.adbcj.TransactionIsolationLevel;
 import org.adbcj.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,15 +45,79 @@ public abstract class AbstractDbSession implements DbSession {
 
 	protected final Object lock = this;
 	
-	protected final Queue<Request<?>> requestQueue = new ConcurrentLinkedQueue<Request<?>>();
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<AbstractDbSession, Request> PENDING_TAIL =
+		AtomicReferenceFieldUpdater.newUpdater(AbstractDbSession.class, Request.class, "pendingTail");
 	
-	private Request<?> activeRequest; // Access must by synchronized on lock
+	private static final AtomicIntegerFieldUpdater<AbstractDbSession> DISPATCHING =
+		AtomicIntegerFieldUpdater.newUpdater(AbstractDbSession.class, "dispatching");
+	
+	private static final AtomicIntegerFieldUpdater<AbstractDbSession> PENDING_COUNT =
+		AtomicIntegerFieldUpdater.newUpdater(AbstractDbSession.class, "pendingCount");
+	
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<AbstractDbSession, DefaultDbSessionFuture> WRITABLE_FUTURE =
+		AtomicReferenceFieldUpdater.newUpdater(AbstractDbSession.class, DefaultDbSessionFuture.class, "writableFuture");
+	
+	/**
+	 * The default maximum number of pipelined requests that may be waiting for a response at once.
+	 */
+	public static final int DEFAULT_MAX_PIPELINE_DEPTH = 64;
+	
+	/*
+	 * Requests waiting to be sent form an intrusive multi-producer single-consumer queue linked through
+	 * Request.nextPending.  Any thread may enqueue with a single atomic swap of the tail, only the thread holding the
+	 * dispatch token (see dispatch()) removes requests.  The head is a stub, the first pending request is
+	 * pendingHead.nextPending.
+	 */
+	private volatile Request<?> pendingHead;
+	
+	private volatile Request<?> pendingTail;
+	
+	/*
+	 * Requests that have been sent and are waiting for their response, in the order they were sent, linked through
+	 * Request.nextInFlight.  Responses arrive in the same order, so the active request is always the first in-flight
+	 * request that has not finished.  Only the thread holding the dispatch token modifies the list.
+	 */
+	private volatile Request<?> inFlightHead;
+	
+	private Request<?> inFlightTail; // Only accessed by the thread holding the dispatch token
+	
+	private volatile int inFlightCount; // Only modified by the thread holding the dispatch token
+	
+	private volatile int dispatching;
+	
+	private volatile int pendingCount;
+	
+	private volatile int maxPipelineDepth = DEFAULT_MAX_PIPELINE_DEPTH;
+	
+	/*
+	 * Null while the session is writable.  Set by the producer that fills the local queue and completed once the queue
+	 * has drained to half of maxPipelineDepth.
+	 */
+	private volatile DefaultDbSessionFuture<Void> writableFuture;
+	
+	private volatile boolean resetRequired;
+	
+	/*
+	 * Sheds requests that waited too long in the local queue, null to never shed.
+	 */
+	private volatile CoDelController queueController;
 	
 	private Transaction transaction; // Access must by synchronized on lock
 	
 	private volatile boolean pipeliningEnabled = true;
 	
-	private boolean pipelining = false; // Access must be synchronized on lock
+	protected AbstractDbSession() {
+		Request<?> stub = new Request<Void>() {
+			@Override
+			protected void execute() {
+				// Never executed
+			}
+		};
+		pendingHead = stub;
+		pendingTail = stub;
+	}
 	
 	@Override
 	public boolean isPipeliningEnabled() {
@@ -57,127 +127,255 @@ public abstract class AbstractDbSession implements DbSession {
 	@Override
 	public void setPipeliningEnabled(boolean pipeliningEnabled) {
 		this.pipeliningEnabled = pipeliningEnabled;
-		if (!pipeliningEnabled) {
-			synchronized (lock) {
-				pipelining = false;
-			}
+		if (pipeliningEnabled) {
+			// Requests held back while pipelining was disabled may now be sent
+			dispatch();
 		}
 	}
 	
+	public int getMaxPipelineDepth() {
+		return maxPipelineDepth;
+	}
+	
+	public void setMaxPipelineDepth(int maxPipelineDepth) {
+		if (maxPipelineDepth < 1) {
+			throw new IllegalArgumentException("maxPipelineDepth must be at least 1");
+		}
+		this.maxPipelineDepth = maxPipelineDepth;
+		dispatch();
+	}
+	
+	public boolean isWritable() {
+		return writableFuture == null;
+	}
+	
+	public DbSessionFuture<Void> whenWritable() {
+		DbSessionFuture<Void> future = writableFuture;
+		if (future == null) {
+			return DefaultDbSessionFuture.createCompletedFuture(this, null);
+		}
+		return future;
+	}
+	
+	/**
+	 * Returns the timer used to expire requests with a deadline, usually shared by all the sessions of a connection
+	 * manager.  Sessions that return null do not support deadlines.
+	 */
+	protected HashedWheelTimer getTimer() {
+		return null;
+	}
+	
+	/**
+	 * Returns the dispatcher that invokes the listeners of this session's futures, null to invoke them on the thread
+	 * that completes the future.
+	 */
+	protected ListenerDispatcher getListenerDispatcher() {
+		return null;
+	}
+	
+	/**
+	 * Indicates that a request expired after it was sent to the database.  Its response will still be read but the
+	 * server may be busy with it for some time, so pools should prefer to close and replace this session.
+	 */
+	public boolean isResetRequired() {
+		return resetRequired;
+	}
+	
+	/**
+	 * Returns the number of requests that have been queued but not yet sent to the database.
+	 */
+	protected int getPendingRequestCount() {
+		return pendingCount;
+	}
+	
+	/**
+	 * Returns the number of requests that have been queued or sent but not yet answered.  Pools use this to hand new
+	 * requests to their least loaded session.
+	 */
+	public int getOutstandingRequestCount() {
+		return pendingCount + inFlightCount;
+	}
+	
+	/**
+	 * Sets the controller that sheds requests which have waited too long in this session's queue.  Shed requests fail
+	 * with a {@link DbOverloadedException}, only requests that are not part of a transaction are shed.
+	 * 
+	 * @param queueController  the controller or null to never shed requests
+	 */
+	public void setQueueController(CoDelController queueController) {
+		this.queueController = queueController;
+	}
+	
+	public CoDelController getQueueController() {
+		return queueController;
+	}
+	
+	/**
+	 * Queues a request to be sent.  This never blocks, the request is sent immediately if the session's pipelining
+	 * rules allow, otherwise it is sent when the requests ahead of it complete.
+	 */
 	protected <E> void enqueueRequest(final Request<E> request) {
-		// Check to see if the request can be pipelined
-		if (request.isPipelinable()) {
-			// Check to see if we're in a piplinging state
-			if (pipelining) {
-				invokeExecuteWithCatch(request);
-				// If the request errors out on execution, return
-				if (request.isDone()) {
-					return;
-				}
-				
-			}
-		} else {
-			pipelining = false;
+		request.nextPending = null;
+		if (queueController != null) {
+			request.enqueueTime = System.nanoTime();
 		}
-		requestQueue.add(request);
-		synchronized (lock) {
-			if (activeRequest == null) {
-				makeNextRequestActive();
+		Request<?> previous = PENDING_TAIL.getAndSet(this, request);
+		previous.nextPending = request;
+		if (PENDING_COUNT.incrementAndGet(this) >= maxPipelineDepth && writableFuture == null) {
+			DefaultDbSessionFuture<Void> future = new DefaultDbSessionFuture<Void>(this);
+			future.setListenerDispatcher(getListenerDispatcher());
+			if (WRITABLE_FUTURE.compareAndSet(this, null, future)) {
+				// The queue may have drained while the future was being installed
+				checkWritable();
 			}
 		}
+		dispatch();
 	}
 	
+	/**
+	 * Completes the future handed out by {@link #whenWritable()} once the local queue has drained far enough.
+	 */
 	@SuppressWarnings("unchecked")
-	protected final <E> Request<E> makeNextRequestActive() {
-		Request<E> request;
-		boolean executePipelining = false;
-		synchronized (lock) {
-			if (activeRequest != null && !activeRequest.isDone()) {
-				throw new ActiveRequestIncomplete(this, "Active request is not done: " + activeRequest);
+	private void checkWritable() {
+		if (writableFuture != null && pendingCount <= maxPipelineDepth / 2) {
+			DefaultDbSessionFuture<Void> future = WRITABLE_FUTURE.getAndSet(this, null);
+			if (future != null) {
+				future.setResult(null);
 			}
-			request = (Request<E>)requestQueue.poll();
-		
-			// Determine if we need to execute pipelinable requests
-			if (pipeliningEnabled && request != null) {
-				if (request.isPipelinable()) {
-					executePipelining = !pipelining;
-				} else {
-					pipelining = false;
-				}
+		}
+	}
+	
+	/**
+	 * Retires finished requests and sends as many pending requests as the pipelining rules allow.  Only one thread
+	 * dispatches at a time, a thread that finds another thread dispatching leaves a note (by incrementing the
+	 * dispatching counter) so the dispatching thread makes another pass before it returns.
+	 */
+	private void dispatch() {
+		if (DISPATCHING.getAndIncrement(this) != 0) {
+			return;
+		}
+		int missed = 1;
+		for (;;) {
+			// Retire requests whose responses have been processed
+			Request<?> head = inFlightHead;
+			int retired = 0;
+			while (head != null && head.finished) {
+				head = head.nextInFlight;
+				retired++;
+			}
+			inFlightHead = head;
+			if (head == null) {
+				inFlightTail = null;
+			}
+			if (retired > 0) {
+				inFlightCount -= retired;
 			}
 			
-			activeRequest = request;
-		}
-		if (request != null) {
-			invokeExecuteWithCatch(request);
-		}
-
-		// Check if we need to execute pending pipelinable requests
-		if (executePipelining) {
-			synchronized (lock) {
-				// Iterate over queue
-				Iterator<Request<?>> iterator = requestQueue.iterator();
-				while (iterator.hasNext()) {
-					Request<?> next = iterator.next();
-					if (next.isPipelinable()) {
-						invokeExecuteWithCatch(next);
-						
-						// If there are nore more requests to iterate over, put DbSession in pipelining enabled state
-						if (!iterator.hasNext()) {
-							pipelining = true;
-						}
-					} else {
-						// Stop looping once we find a non pipelinable request.
-						break;
+			for (;;) {
+				Request<?> request = pendingHead.nextPending;
+				if (request == null) {
+					break;
+				}
+				// A request may only be sent while others are in flight if it and everything in flight is pipelinable
+				Request<?> tail = inFlightTail;
+				if (tail != null && !(pipeliningEnabled && request.isPipelinable() && tail.isPipelinable())) {
+					break;
+				}
+				// Requests beyond the pipeline depth wait in the local queue
+				if (inFlightCount >= maxPipelineDepth) {
+					break;
+				}
+				pendingHead = request;
+				PENDING_COUNT.decrementAndGet(this);
+				checkWritable();
+				if (request.canRemove() && (request.cancelled || request.isDone())) {
+					// Cancelled, failed or expired before it was sent
+					continue;
+				}
+				if (shed(request)) {
+					continue;
+				}
+				
+				// Link the request before sending it so its response always finds it
+				if (tail == null) {
+					inFlightHead = request;
+				} else {
+					tail.nextInFlight = request;
+				}
+				inFlightTail = request;
+				inFlightCount++;
+				try {
+					if (!request.tryExecute()) {
+						// Cancelled between being dequeued and being executed
+						request.finished = true;
 					}
+				} catch (Throwable e) {
+					request.error(DbException.wrap(this, e));
 				}
 			}
 			
+			missed = DISPATCHING.addAndGet(this, -missed);
+			if (missed == 0) {
+				return;
+			}
 		}
-		
-		return request;
 	}
-
-	private <E> void invokeExecuteWithCatch(Request<E> request) {
-		try {
-			request.invokeExecute();
-		} catch (Throwable e) {
-			request.error(DbException.wrap(this, e));
+	
+	/**
+	 * Fails a request that is about to be sent if the queue controller decides it waited too long.
+	 */
+	private boolean shed(Request<?> request) {
+		CoDelController controller = queueController;
+		if (controller == null || request.enqueueTime == 0 || !request.isSheddable()) {
+			return false;
 		}
+		long now = System.nanoTime();
+		if (!controller.shouldDrop(now - request.enqueueTime, now)) {
+			return false;
+		}
+		if (request.trySetException(new DbOverloadedException(this, "Request shed after waiting "
+				+ TimeUnit.NANOSECONDS.toMillis(now - request.enqueueTime) + "ms: " + request))) {
+			request.cancelDeadline();
+		}
+		return true;
 	}
 	
+	/**
+	 * Returns the request the next response from the database belongs to.
+	 */
 	@SuppressWarnings("unchecked")
 	protected <E> Request<E> getActiveRequest() {
-		synchronized (lock) {
-			return (Request<E>)activeRequest;
+		Request<?> request = inFlightHead;
+		while (request != null && request.finished) {
+			request = request.nextInFlight;
 		}
+		return (Request<E>)request;
 	}
 	
 	protected void cancelPendingRequests(boolean mayInterruptIfRunning) {
-		for (Iterator<Request<?>> i = requestQueue.iterator(); i.hasNext();) {
-			Request<?> request = i.next();
+		for (Request<?> request = pendingHead.nextPending; request != null; request = request.nextPending) {
 			request.cancel(mayInterruptIfRunning);
 		}
 	}
 	
 	/**
-	 * This will error out any pending requests.
+	 * This will error out any pending requests.  Requests that were sent fail with {@code exception}, requests that
+	 * were never sent fail with a {@link DbSessionClosedException} caused by it so they are known to be safe to retry
+	 * on another connection.
 	 */
 	public void errorPendingRequests(Throwable exception) {
-		synchronized (lock) {
-			if (activeRequest != null && !activeRequest.isDone()) {
-				activeRequest.setException(exception);
+		for (Request<?> request = inFlightHead; request != null; request = request.nextInFlight) {
+			if (!request.finished) {
+				request.trySetException(exception);
+				request.finished = true;
 			}
 		}
-		for (Iterator<Request<?>> i = requestQueue.iterator(); i.hasNext();) {
-			Request<?> request = i.next();
-			if (!request.isDone()) {
-				try {
-					request.setException(exception);
-				} catch (IllegalStateException e) {
-					// Disregard exception
-				}
+		DbSessionClosedException notSent = null;
+		for (Request<?> request = pendingHead.nextPending; request != null; request = request.nextPending) {
+			if (notSent == null) {
+				notSent = new DbSessionClosedException(this, "Connection closed before request was sent", exception);
 			}
+			request.trySetException(notSent);
 		}
 	}
 	
@@ -230,6 +428,33 @@ public abstract class AbstractDbSession implements DbSession {
 		return executeQuery0(sql, eventHandler, resultSet);
 	}
 
+	public void executeQuery(String sql, RowSubscriber subscriber) {
+		new RowPublisher(subscriber).execute(this, sql);
+	}
+
+	public DbSessionFuture<ResultSet> executeQuery(String sql, long timeout, TimeUnit unit) {
+		return withDeadline(executeQuery(sql), timeout, unit);
+	}
+	
+	public DbSessionFuture<Result> executeUpdate(String sql, long timeout, TimeUnit unit) {
+		return withDeadline(executeUpdate(sql), timeout, unit);
+	}
+	
+	public DbSessionFuture<Void> commit(long timeout, TimeUnit unit) {
+		return withDeadline(commit(), timeout, unit);
+	}
+	
+	/**
+	 * Sets a deadline on {@code future} if it is a request of this session that has not completed.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <E> DbSessionFuture<E> withDeadline(DbSessionFuture<E> future, long timeout, TimeUnit unit) {
+		if (future instanceof Request && !future.isDone()) {
+			((Request<E>)future).setDeadline(timeout, unit);
+		}
+		return future;
+	}
+
 	@SuppressWarnings("unchecked")
 	private <T extends ResultSet> DbSessionFuture<ResultSet> executeQuery0(String sql, ResultEventHandler<T> eventHandler, T accumulator) {
 		return (DbSessionFuture<ResultSet>)executeQuery(sql, eventHandler, accumulator);
@@ -249,12 +474,26 @@ public abstract class AbstractDbSession implements DbSession {
 	}
 
 	public void beginTransaction() {
+		beginTransaction(null);
+	}
+
+	public void beginTransaction(TransactionIsolationLevel isolationLevel) {
+		if (isolationLevel == TransactionIsolationLevel.NONE) {
+			throw new IllegalArgumentException("Can not begin a transaction with isolation level " + isolationLevel);
+		}
 		checkClosed();
 		synchronized (lock) {
 			if (isInTransaction()) {
 				throw new DbException(this, "Cannot begin new transaction.  Current transaction needs to be committed or rolled back");
 			}
-			transaction = new Transaction();
+			transaction = new Transaction(isolationLevel);
+		}
+	}
+	
+	public TransactionIsolationLevel getTransactionIsolationLevel() {
+		checkClosed();
+		synchronized (lock) {
+			return transaction == null ? null : transaction.getIsolationLevel();
 		}
 	}
 
@@ -267,7 +506,6 @@ public abstract class AbstractDbSession implements DbSession {
 		synchronized (lock) {
 			if (transaction.isBeginScheduled()) {
 				future = enqueueCommit(transaction);
-				return future;
 			} else {
 				// If transaction was not started, don't worry about committing transaction
 				future = DefaultDbSessionFuture.createCompletedFuture(this, null);
@@ -317,6 +555,13 @@ public abstract class AbstractDbSession implements DbSession {
 	}
 
 	private Request<Void> enqueueStartTransaction(final Transaction transaction) {
+		if (transaction.getIsolationLevel() != null) {
+			Request<Void> isolationLevelRequest = createIsolationLevelRequest(transaction);
+			if (isolationLevelRequest != null) {
+				// Pipelined with the begin request so it does not add a round trip
+				enqueueTransactionalRequest(transaction, isolationLevelRequest);
+			}
+		}
 		Request<Void> request = createBeginRequest(transaction);
 		enqueueTransactionalRequest(transaction, request);
 		return request;
@@ -347,6 +592,19 @@ public abstract class AbstractDbSession implements DbSession {
 
 	protected abstract void sendBegin() throws Exception;
 
+	/**
+	 * Starts a transaction with the given isolation level.  By default only transactions using the database's default
+	 * isolation level are supported.
+	 * 
+	 * @param isolationLevel  the isolation level of the transaction, null for the database's default
+	 */
+	protected void sendBegin(TransactionIsolationLevel isolationLevel) throws Exception {
+		if (isolationLevel != null) {
+			throw new DbException(this, "Transaction isolation level " + isolationLevel + " is not supported");
+		}
+		sendBegin();
+	}
+
 	protected abstract void sendCommit() throws Exception;
 
 	protected abstract void sendRollback() throws Exception;
@@ -355,10 +613,30 @@ public abstract class AbstractDbSession implements DbSession {
 		return new BeginRequest(transaction);
 	}
 	
+	/**
+	 * Creates a request, sent immediately ahead of the begin request, that sets the isolation level of the
+	 * transaction.  Used by databases that can not start a transaction and set its isolation level with a single
+	 * statement.  Returns null by default, the isolation level is then passed to
+	 * {@link #sendBegin(TransactionIsolationLevel)}.
+	 */
+	protected Request<Void> createIsolationLevelRequest(Transaction transaction) {
+		return null;
+	}
+	
 	protected Request<Void> createCommitRequest(final Transaction transaction) {
 		return new CommitRequest(transaction);
 	}
 	
+	/**
+	 * Indicates if a commit may be sent before the statements of its transaction have completed, allowing a whole
+	 * transaction to be written at once.  This is only safe for databases that refuse to commit a transaction in which
+	 * a statement has failed.  By default the commit waits for the transaction's statements to complete so that it
+	 * can be replaced by a rollback if one of them fails.
+	 */
+	protected boolean isCommitPipelinable() {
+		return false;
+	}
+	
 	/**
 	 * Default request for starting a transaction. 
 	 */
@@ -375,7 +653,7 @@ public abstract class AbstractDbSession implements DbSession {
 		@Override
 		public void execute() throws Exception {
 			transaction.setStarted(true);
-			sendBegin();
+			sendBegin(transaction.getIsolationLevel());
 		}
 	}
 
@@ -393,10 +671,14 @@ public abstract class AbstractDbSession implements DbSession {
 		}
 
 		public void execute() throws Exception {
-			if (isCancelled()) {
+			if (isCancelled() || transaction.isCanceled()) {
+				rolledBackBy(transaction.getFailure());
 				// If the transaction has started, send a rollback
 				if (transaction.isStarted()) {
 					sendRollback();
+				} else {
+					// Nothing was sent so no response will arrive
+					complete(null);
 				}
 			} else {
 				sendCommit();
@@ -406,7 +688,27 @@ public abstract class AbstractDbSession implements DbSession {
 		@Override
 		public boolean cancelRequest(boolean mayInterruptIfRunning) {
 			transaction.cancelPendingRequests();
-			return true;
+			// Once a statement has failed the commit is left to fail with its error
+			return transaction.getFailure() == null;
+		}
+		
+		/**
+		 * The database rolled the transaction back instead of committing it.  The commit fails with the error of the
+		 * statement that caused the rollback, or is reported as cancelled if no statement failed.
+		 */
+		@Override
+		public void rolledBack() {
+			transaction.cancelPendingRequests();
+			rolledBackBy(transaction.getFailure());
+			complete(null);
+		}
+		
+		private void rolledBackBy(DbException failure) {
+			if (failure == null) {
+				trySetCancelled();
+			} else {
+				trySetException(failure);
+			}
 		}
 		
 		@Override
@@ -416,7 +718,7 @@ public abstract class AbstractDbSession implements DbSession {
 		
 		@Override
 		public boolean isPipelinable() {
-			return false;
+			return isCommitPipelinable();
 		}
 	}
 
@@ -444,7 +746,23 @@ public abstract class AbstractDbSession implements DbSession {
 		private volatile Object payload;
 		private volatile Transaction transaction;
 		
-		private boolean cancelled; // Access must be synchronized on this 
+		private volatile Request<?> nextPending;
+		private volatile Request<?> nextInFlight;
+		
+		private volatile HashedWheelTimer.Timeout deadline;
+		
+		/**
+		 * When the request was queued, only recorded while the session has a queue controller.
+		 */
+		private long enqueueTime;
+		
+		/**
+		 * Set once the database's response to this request has been processed (or once it is known that no response
+		 * will arrive) so the request no longer occupies the head of the in-flight list.
+		 */
+		private volatile boolean finished;
+		
+		private volatile boolean cancelled; // Written while synchronized on this 
 		private boolean executed; // Access must be synchronized on this
 		
 		public Request() {
@@ -455,47 +773,102 @@ public abstract class AbstractDbSession implements DbSession {
 			super(AbstractDbSession.this);
 			this.eventHandler = eventHandler;
 			this.accumulator = accumulator;
+			setListenerDispatcher(getListenerDispatcher());
 		}
 		
 		/**
-		 * Checks to see if the request has been cancelled, if not invokes the execute method.  If pipelining, this
-		 * method ensures the request does not get executed twice.
+		 * Checks to see if the request has been cancelled, if not invokes the execute method.  This method ensures the
+		 * request does not get executed twice.
 		 * 
 		 * @throws Exception
 		 */
-		public final synchronized void invokeExecute() throws Exception {
-			if (cancelled || executed) {
-				synchronized (lock) {
-					if (isDone() && activeRequest == this) {
-						makeNextRequestActive();
-					}
-				}
-			} else {
-				executed = true;
-				execute();
+		public final void invokeExecute() throws Exception {
+			tryExecute();
+		}
+		
+		private synchronized boolean tryExecute() throws Exception {
+			// Requests that can not be removed, such as a commit, are still executed once cancelled
+			if ((cancelled && canRemove()) || executed) {
+				return false;
 			}
+			executed = true;
+			execute();
+			return true;
 		}
 		
+		/**
+		 * Cancels the request if it has not been sent.  A cancelled request is discarded when it reaches the head of
+		 * the session's queue.
+		 */
 		public final synchronized boolean doCancel(boolean mayInterruptIfRunning) {
 			if (executed) {
 				return false;
 			}
 			cancelled = cancelRequest(mayInterruptIfRunning);
-			
-			// The the request was cancelled and it can be removed
-			if (cancelled && canRemove()) {
-					// Remove the quest and if the removal was successful and this request is active, go to the next request
-					if (canRemove() && requestQueue.remove(this)) {
-						synchronized (lock) {
-							if (this == activeRequest) {
-								makeNextRequestActive();
-							}
-						}
-					}
+			if (cancelled) {
+				cancelDeadline();
 			}
 			return cancelled;
 		}
 		
+		/**
+		 * Fails this request with a {@link DbTimeoutException} if it has not completed within {@code timeout}.  A
+		 * request that expires before it is sent is discarded, except for requests that cannot be removed from the
+		 * queue, such as a commit, which are still sent.  A request that expires after it has been sent still has its
+		 * response read and the session is marked as needing a reset (see {@link #isResetRequired()}).
+		 * 
+		 * @throws IllegalStateException  if the session does not support deadlines
+		 */
+		public void setDeadline(long timeout, TimeUnit unit) {
+			HashedWheelTimer timer = getTimer();
+			if (timer == null) {
+				throw new IllegalStateException("Request deadlines are not supported by " + AbstractDbSession.this);
+			}
+			HashedWheelTimer.Timeout previous = deadline;
+			deadline = timer.newTimeout(new Runnable() {
+				public void run() {
+					expire();
+				}
+			}, timeout, unit);
+			if (previous != null) {
+				previous.cancel();
+			}
+		}
+		
+		private void cancelDeadline() {
+			HashedWheelTimer.Timeout deadline = this.deadline;
+			if (deadline != null) {
+				deadline.cancel();
+			}
+		}
+		
+		private void expire() {
+			if (isDone()) {
+				return;
+			}
+			boolean sent;
+			synchronized (this) {
+				sent = executed;
+				if (!sent && canRemove()) {
+					cancelled = true;
+				}
+			}
+			if (sent) {
+				// Flagged before the failure is published so anyone seeing the timeout also sees the flag.  The response
+				// is still on its way, the request stays in flight so the response is matched to it.
+				resetRequired = true;
+			}
+			if (!trySetException(new DbTimeoutException(AbstractDbSession.this, "Request timed out: " + this))) {
+				return;
+			}
+			if (sent) {
+				logger.warn("Request expired after being sent, session needs reset: {}", this);
+			}
+			if (transaction != null) {
+				transaction.cancelPendingRequests();
+			}
+		}
+		
 		protected abstract void execute() throws Exception;
 		
 		protected boolean cancelRequest(boolean mayInterruptIfRunning) {
@@ -506,6 +879,14 @@ public abstract class AbstractDbSession implements DbSession {
 			return true;
 		}
 		
+		/**
+		 * Indicates whether the request may be dropped by the session's queue controller.  Requests that belong to a
+		 * transaction are never shed.
+		 */
+		public boolean isSheddable() {
+			return canRemove() && transaction == null;
+		}
+		
 		public boolean isPipelinable() {
 			return true;
 		}
@@ -536,33 +917,54 @@ public abstract class AbstractDbSession implements DbSession {
 		
 		public void complete(T result) {
 			super.setResult(result);
-			synchronized (lock) {
-				if (activeRequest == this) {
-					makeNextRequestActive();
-				}
-			}
+			finish();
+		}
+		
+		/**
+		 * Invoked by drivers when the database answers this request by rolling back the current transaction, as
+		 * PostgreSQL does when a transaction containing a failed statement is committed.
+		 */
+		public void rolledBack() {
+			complete(null);
 		}
 		
 		public void error(DbException exception) {
-			super.setException(exception);
+			trySetException(exception);
 			if (transaction != null) {
+				transaction.failed(exception);
 				transaction.cancelPendingRequests();
 			}
-			synchronized (lock) {
-				if (activeRequest == this) {
-					makeNextRequestActive();
-				}
-			}
+			finish();
+		}
+		
+		private void finish() {
+			finished = true;
+			cancelDeadline();
+			dispatch();
 		}
 	}
 
 	public class Transaction {
 
+		private final TransactionIsolationLevel isolationLevel;
+		
 		private volatile boolean started = false;
 		private volatile boolean beginScheduled = false;
 		private volatile boolean canceled = false;
+		private volatile DbException failure;
 		private List<Request<?>> requests = new LinkedList<Request<?>>();
 		
+		public Transaction(TransactionIsolationLevel isolationLevel) {
+			this.isolationLevel = isolationLevel;
+		}
+		
+		/**
+		 * Returns the isolation level of this transaction, null if the database's default isolation level is used.
+		 */
+		public TransactionIsolationLevel getIsolationLevel() {
+			return isolationLevel;
+		}
+		
 		/**
 		 * Indicates if the transaction has been started on the server (i.e. if 'begin' has been sent to server)
 		 * 
@@ -600,12 +1002,36 @@ public abstract class AbstractDbSession implements DbSession {
 			return canceled;
 		}
 		
+		/**
+		 * Returns the error of the first statement that failed in this transaction, null if no statement failed.
+		 */
+		public DbException getFailure() {
+			return failure;
+		}
+		
+		private void failed(DbException exception) {
+			synchronized (requests) {
+				if (failure == null) {
+					failure = exception;
+				}
+			}
+		}
+		
+		/**
+		 * Cancels the requests of this transaction that have not been sent.  Only the first invocation has any effect,
+		 * requests added to a cancelled transaction are expected to check {@link #isCanceled()} themselves.
+		 */
 		public void cancelPendingRequests() {
-			canceled = true;
+			List<Request<?>> pending;
 			synchronized (requests) {
-				for (Request<?> request : requests) {
-					request.cancel(false);
+				if (canceled) {
+					return;
 				}
+				canceled = true;
+				pending = new ArrayList<Request<?>>(requests);
+			}
+			for (Request<?> request : pending) {
+				request.cancel(false);
 			}
 		}
 		
@@ -0,0 +1,53 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import org.adbcj.DbException;
+import org.adbcj.Field;
+import org.adbcj.Value;
+
+/**
+ * Base class for the {@link Value} implementations specialized for a single Java type, which hold their value
+ * unboxed and convert it without parsing or type checks wherever the conversion is direct.
+ */
+public abstract class AbstractValue implements Value {
+
+	private final Field field;
+
+	protected AbstractValue(Field field) {
+		this.field = field;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public boolean isNull() {
+		return false;
+	}
+
+	protected DbException notADate() {
+		return new DbException(String.format("%s is not a date", getString()));
+	}
+
+	@Override
+	public String toString() {
+		String s = getString();
+		return s == null ? "null" : s;
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.adbcj.Field;
+
+/**
+ * A boolean column value held without boxing.  As a number it is 1 for true and 0 for false.
+ */
+public class BooleanValue extends AbstractValue {
+
+	private final boolean value;
+
+	public BooleanValue(Field field, boolean value) {
+		super(field);
+		this.value = value;
+	}
+
+	public BigDecimal getBigDecimal() {
+		return value ? BigDecimal.ONE : BigDecimal.ZERO;
+	}
+
+	public boolean getBoolean() {
+		return value;
+	}
+
+	public Date getDate() {
+		throw notADate();
+	}
+
+	public double getDouble() {
+		return value ? 1d : 0d;
+	}
+
+	public float getFloat() {
+		return value ? 1f : 0f;
+	}
+
+	public int getInt() {
+		return value ? 1 : 0;
+	}
+
+	public long getLong() {
+		return value ? 1L : 0L;
+	}
+
+	public String getString() {
+		return Boolean.toString(value);
+	}
+
+	public Object getValue() {
+		return Boolean.valueOf(value);
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops sending work to a failing resource.  The breaker opens after a number of consecutive failures and rejects
+ * attempts until the open time has passed.  It then lets a single probe through; the probe's success closes the
+ * breaker, its failure opens it again.
+ */
+public class CircuitBreaker {
+
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int HALF_OPEN = 2;
+
+	private final int failureThreshold;
+
+	private final long openNanos;
+
+	private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private volatile long openedAt;
+
+	/**
+	 * @param failureThreshold  the number of consecutive failures that opens the breaker
+	 * @param openTime  how long the breaker stays open before a probe is let through
+	 * @param unit  the time unit of {@code openTime}
+	 */
+	public CircuitBreaker(int failureThreshold, long openTime, TimeUnit unit) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("failureThreshold must be greater than 0");
+		}
+		if (openTime < 0) {
+			throw new IllegalArgumentException("openTime can NOT be negative");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openNanos = unit.toNanos(openTime);
+	}
+
+	/**
+	 * Returns true if an attempt may be made.  Once the open time has passed, only the first caller is allowed through
+	 * as the probe until it reports its outcome.
+	 */
+	public boolean tryAcquire() {
+		switch (state.get()) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			return System.nanoTime() - openedAt >= openNanos && state.compareAndSet(OPEN, HALF_OPEN);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Records a success, which ends any run of consecutive failures and closes the breaker.  A breaker that is already
+	 * closed with no failures counted is left untouched, so successes can be reported on every attempt without
+	 * contending on the breaker.
+	 */
+	public void recordSuccess() {
+		if (failures.get() != 0) {
+			failures.set(0);
+		}
+		if (state.get() != CLOSED) {
+			state.set(CLOSED);
+		}
+	}
+
+	public void recordFailure() {
+		if (state.get() == HALF_OPEN || failures.incrementAndGet() >= failureThreshold) {
+			openedAt = System.nanoTime();
+			state.set(OPEN);
+		}
+	}
+
+	/**
+	 * Reports that an attempt ended without an outcome, a probe that was abandoned lets the next attempt probe.
+	 */
+	public void abandon() {
+		state.compareAndSet(HALF_OPEN, OPEN);
+	}
+
+	/**
+	 * Returns true if attempts are being rejected or a probe is in progress.
+	 */
+	public boolean isOpen() {
+		return state.get() != CLOSED;
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which requests to shed from a session's queue using the CoDel (controlled delay) algorithm.  Requests are
+ * judged by how long they waited in the queue.  Short bursts are absorbed, but once every request for a full interval
+ * has waited longer than the target, requests are dropped at an increasing rate until the queueing delay falls back
+ * below the target.
+ * 
+ * <p>This class is not thread safe, it is only used by the thread dispatching a session's requests.
+ */
+public class CoDelController {
+
+	private final long target;
+
+	private final long interval;
+
+	private boolean above;
+
+	/**
+	 * The time at which the queueing delay will have been above the target for a full interval.
+	 */
+	private long firstAboveTime;
+
+	private boolean dropping;
+
+	private long dropNext;
+
+	private int count;
+
+	private int lastCount;
+
+	private volatile long dropCount; // Only modified by the dispatching thread
+
+	/**
+	 * @param target  the queueing delay that is tolerated indefinitely
+	 * @param interval  how long the delay must stay above the target before requests are dropped
+	 * @param unit  the time unit of {@code target} and {@code interval}
+	 */
+	public CoDelController(long target, long interval, TimeUnit unit) {
+		if (target <= 0 || interval <= 0) {
+			throw new IllegalArgumentException("target and interval must be greater than 0");
+		}
+		this.target = unit.toNanos(target);
+		this.interval = unit.toNanos(interval);
+	}
+
+	/**
+	 * Invoked as a request leaves the queue.
+	 * 
+	 * @param sojourn  the nanoseconds the request spent in the queue
+	 * @param now  the current value of {@link System#nanoTime()}
+	 * @return  true if the request should be dropped
+	 */
+	public boolean shouldDrop(long sojourn, long now) {
+		boolean okToDrop = false;
+		if (sojourn < target) {
+			above = false;
+		} else if (!above) {
+			above = true;
+			firstAboveTime = now + interval;
+		} else if (now - firstAboveTime >= 0) {
+			okToDrop = true;
+		}
+
+		if (dropping) {
+			if (!okToDrop) {
+				dropping = false;
+				return false;
+			}
+			if (now - dropNext >= 0) {
+				count++;
+				dropNext = controlLaw(dropNext);
+				dropCount++;
+				return true;
+			}
+			return false;
+		}
+		if (okToDrop) {
+			dropping = true;
+			// Resume close to the previous drop rate if the last dropping state ended recently
+			int delta = count - lastCount;
+			count = delta > 1 && now - dropNext < 16 * interval ? delta : 1;
+			lastCount = count;
+			dropNext = controlLaw(now);
+			dropCount++;
+			return true;
+		}
+		return false;
+	}
+
+	private long controlLaw(long time) {
+		return time + (long)(interval / Math.sqrt(count));
+	}
+
+	/**
+	 * Returns the number of requests this controller has dropped.
+	 */
+	public long getDropCount() {
+		return dropCount;
+	}
+
+}
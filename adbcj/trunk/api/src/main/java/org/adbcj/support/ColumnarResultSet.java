@@ -0,0 +1,573 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.adbcj.DbSession;
+import org.adbcj.Field;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.ResultSet;
+import org.adbcj.Row;
+import org.adbcj.Value;
+
+/**
+ * A result set that stores each column in its own array rather than a {@link Value} object per cell.  Integer, long
+ * and double columns are kept in primitive arrays, string columns as UTF-8 bytes with an offset and length per row,
+ * and every column has a bitmap of the rows that are not null.  A column takes the type of its first non-null value
+ * and falls back to an array of objects if a later value has a different type.
+ * 
+ * <p>The rows and values returned are flyweight views of the columns, created on access, so a large result costs a
+ * few arrays per column instead of several objects per cell.  The typed accessors such as {@link #getLong(int, int)}
+ * read a cell without creating any objects at all.  To collect a query's results into a columnar result set:
+ * 
+ * <pre>
+ * session.executeQuery(sql, ColumnarResultSet.EVENT_HANDLER, new ColumnarResultSet(session));
+ * </pre>
+ */
+public class ColumnarResultSet extends AbstractResultSet {
+
+	/**
+	 * Collects the rows of a query into the {@link ColumnarResultSet} passed as its accumulator.
+	 */
+	public static final ResultEventHandler<ColumnarResultSet> EVENT_HANDLER =
+		new ResultEventHandler<ColumnarResultSet>() {
+		public void startFields(ColumnarResultSet accumulator) {
+		}
+		public void field(Field field, ColumnarResultSet accumulator) {
+			accumulator.addField(field);
+		}
+		public void endFields(ColumnarResultSet accumulator) {
+		}
+		public void startResults(ColumnarResultSet accumulator) {
+		}
+		public void startRow(ColumnarResultSet accumulator) {
+			accumulator.startRow();
+		}
+		public void value(Value value, ColumnarResultSet accumulator) {
+			accumulator.setValue(value);
+		}
+		public void endRow(ColumnarResultSet accumulator) {
+		}
+		public void endResults(ColumnarResultSet accumulator) {
+		}
+		public void exception(Throwable t, ColumnarResultSet accumulator) {
+		}
+	};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The columns in field order, null for a column that has only held nulls so far.
+	 */
+	private Column[] columns = new Column[0];
+
+	private int size;
+
+	public ColumnarResultSet(DbSession session) {
+		super(session);
+	}
+
+	@Override
+	public void addField(Field field) {
+		super.addField(field);
+		columns = Arrays.copyOf(columns, columns.length + 1);
+	}
+
+	/**
+	 * Appends a row whose cells are all null until they are set.
+	 */
+	public void startRow() {
+		size++;
+	}
+
+	/**
+	 * Sets the cell of the last row in the value's column.
+	 */
+	public void setValue(Value value) {
+		if (value.isNull()) {
+			return;
+		}
+		int index = value.getField().getIndex();
+		Object object = value.getValue();
+		Column column = columns[index];
+		if (column == null) {
+			column = createColumn(object);
+			columns[index] = column;
+		} else if (!column.accepts(object)) {
+			column = new ObjectColumn(column, size);
+			columns[index] = column;
+		}
+		column.set(size - 1, object);
+	}
+
+	private Column createColumn(Object value) {
+		Class<?> type = value.getClass();
+		if (type == Integer.class) {
+			return new IntColumn();
+		}
+		if (type == Long.class) {
+			return new LongColumn();
+		}
+		if (type == Double.class) {
+			return new DoubleColumn();
+		}
+		if (type == String.class) {
+			return new StringColumn();
+		}
+		return new ObjectColumn();
+	}
+
+	@Override
+	public Row get(int index) {
+		checkRow(index);
+		return new ColumnarRow(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public boolean isNull(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		return c == null || c.isNull(row);
+	}
+
+	public int getInt(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		return c == null || c.isNull(row) ? 0 : c.getInt(row);
+	}
+
+	public long getLong(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		return c == null || c.isNull(row) ? 0L : c.getLong(row);
+	}
+
+	public double getDouble(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		return c == null || c.isNull(row) ? 0d : c.getDouble(row);
+	}
+
+	public String getString(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		return c == null || c.isNull(row) ? null : c.getString(row);
+	}
+
+	public Object getValue(int row, int column) {
+		checkRow(row);
+		Column c = columns[column];
+		return c == null || c.isNull(row) ? null : c.getObject(row);
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+		}
+	}
+
+	private static int grow(int length, int row) {
+		return Math.max(row + 1, Math.max(INITIAL_CAPACITY, length * 2));
+	}
+
+	//*****************************************************************************************************************
+	//
+	//  Columns
+	//
+	//*****************************************************************************************************************
+
+	/**
+	 * Stores the cells of one column.  Conversions a column does not specialize go through a {@link DefaultValue} of
+	 * the cell's object so they behave exactly as they do for a {@link DefaultResultSet}.
+	 */
+	private static abstract class Column {
+		/**
+		 * A bit per row, set if the row's cell is not null.
+		 */
+		private long[] notNull = new long[1];
+
+		boolean isNull(int row) {
+			int word = row >>> 6;
+			return word >= notNull.length || (notNull[word] & (1L << row)) == 0;
+		}
+
+		void set(int row, Object value) {
+			int word = row >>> 6;
+			if (word >= notNull.length) {
+				notNull = Arrays.copyOf(notNull, grow(notNull.length, word));
+			}
+			notNull[word] |= 1L << row;
+			store(row, value);
+		}
+
+		abstract boolean accepts(Object value);
+
+		abstract void store(int row, Object value);
+
+		abstract Object getObject(int row);
+
+		Value box(int row) {
+			return new DefaultValue(null, getObject(row));
+		}
+
+		int getInt(int row) {
+			return box(row).getInt();
+		}
+
+		long getLong(int row) {
+			return box(row).getLong();
+		}
+
+		double getDouble(int row) {
+			return box(row).getDouble();
+		}
+
+		String getString(int row) {
+			return getObject(row).toString();
+		}
+	}
+
+	private static class IntColumn extends Column {
+		private int[] values = new int[0];
+
+		boolean accepts(Object value) {
+			return value instanceof Integer;
+		}
+		void store(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = ((Integer)value).intValue();
+		}
+		Object getObject(int row) {
+			return Integer.valueOf(values[row]);
+		}
+		int getInt(int row) {
+			return values[row];
+		}
+		long getLong(int row) {
+			return values[row];
+		}
+		double getDouble(int row) {
+			return values[row];
+		}
+		String getString(int row) {
+			return Integer.toString(values[row]);
+		}
+	}
+
+	private static class LongColumn extends Column {
+		private long[] values = new long[0];
+
+		boolean accepts(Object value) {
+			return value instanceof Long;
+		}
+		void store(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = ((Long)value).longValue();
+		}
+		Object getObject(int row) {
+			return Long.valueOf(values[row]);
+		}
+		int getInt(int row) {
+			return (int)values[row];
+		}
+		long getLong(int row) {
+			return values[row];
+		}
+		double getDouble(int row) {
+			return values[row];
+		}
+		String getString(int row) {
+			return Long.toString(values[row]);
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		private double[] values = new double[0];
+
+		boolean accepts(Object value) {
+			return value instanceof Double;
+		}
+		void store(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = ((Double)value).doubleValue();
+		}
+		Object getObject(int row) {
+			return Double.valueOf(values[row]);
+		}
+		int getInt(int row) {
+			return (int)values[row];
+		}
+		long getLong(int row) {
+			return (long)values[row];
+		}
+		double getDouble(int row) {
+			return values[row];
+		}
+		String getString(int row) {
+			return Double.toString(values[row]);
+		}
+	}
+
+	/**
+	 * Stores strings as UTF-8 in a single byte array, with the offset and length of each row's bytes.
+	 */
+	private static class StringColumn extends Column {
+		private byte[] data = new byte[0];
+		private int dataLength;
+		private int[] offsets = new int[0];
+		private int[] lengths = new int[0];
+
+		boolean accepts(Object value) {
+			return value instanceof String;
+		}
+		void store(int row, Object value) {
+			if (row >= offsets.length) {
+				int capacity = grow(offsets.length, row);
+				offsets = Arrays.copyOf(offsets, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+			String s = (String)value;
+			int length = s.length();
+			ensureData(length);
+			int start = dataLength;
+			int i = 0;
+			// Copy ASCII directly, anything else is encoded by the charset
+			for (; i < length; i++) {
+				char c = s.charAt(i);
+				if (c >= 0x80) {
+					break;
+				}
+				data[start + i] = (byte)c;
+			}
+			if (i < length) {
+				byte[] bytes = s.substring(i).getBytes(UTF8);
+				ensureData(i + bytes.length);
+				System.arraycopy(bytes, 0, data, start + i, bytes.length);
+				i += bytes.length;
+			}
+			offsets[row] = start;
+			lengths[row] = i;
+			dataLength = start + i;
+		}
+		private void ensureData(int length) {
+			if (dataLength + length > data.length) {
+				data = Arrays.copyOf(data, Math.max(dataLength + length, Math.max(INITIAL_CAPACITY, data.length * 2)));
+			}
+		}
+		Object getObject(int row) {
+			return getString(row);
+		}
+		String getString(int row) {
+			return new String(data, offsets[row], lengths[row], UTF8);
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+		private Object[] values = new Object[0];
+
+		ObjectColumn() {
+		}
+
+		/**
+		 * Copies the cells of a column that could not hold a value of another type.
+		 */
+		ObjectColumn(Column column, int size) {
+			values = new Object[grow(0, size - 1)];
+			for (int row = 0; row < size; row++) {
+				if (!column.isNull(row)) {
+					set(row, column.getObject(row));
+				}
+			}
+		}
+
+		boolean accepts(Object value) {
+			return true;
+		}
+		void store(int row, Object value) {
+			if (row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row));
+			}
+			values[row] = value;
+		}
+		Object getObject(int row) {
+			return values[row];
+		}
+	}
+
+	//*****************************************************************************************************************
+	//
+	//  Views
+	//
+	//*****************************************************************************************************************
+
+	private class ColumnarRow extends AbstractMap<Object, Value> implements Row {
+		private final int row;
+
+		ColumnarRow(int row) {
+			this.row = row;
+		}
+
+		public ResultSet getResultSet() {
+			return ColumnarResultSet.this;
+		}
+
+		@Override
+		public int size() {
+			return columns.length;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return getField(key) != null;
+		}
+
+		@Override
+		public Value get(Object key) {
+			Field field = getField(key);
+			return field == null ? null : new ColumnarValue(field, row);
+		}
+
+		@Override
+		public Set<Map.Entry<Object, Value>> entrySet() {
+			return new AbstractSet<Map.Entry<Object, Value>>() {
+				@Override
+				public int size() {
+					return columns.length;
+				}
+				@Override
+				public Iterator<Map.Entry<Object, Value>> iterator() {
+					final List<? extends Field> fields = getFields();
+					return new Iterator<Map.Entry<Object, Value>>() {
+						private int column;
+						public boolean hasNext() {
+							return column < fields.size();
+						}
+						public Map.Entry<Object, Value> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Field field = fields.get(column++);
+							return new AbstractMap.SimpleImmutableEntry<Object, Value>(field,
+									new ColumnarValue(field, row));
+						}
+						public void remove() {
+							throw new UnsupportedOperationException("Results set rows are read-only");
+						}
+					};
+				}
+			};
+		}
+
+		@Override
+		public Value remove(Object key) {
+			throw new UnsupportedOperationException("Results set rows are read-only");
+		}
+
+		@Override
+		public void clear() {
+			throw new UnsupportedOperationException("Results set rows are read-only");
+		}
+	}
+
+	private class ColumnarValue implements Value {
+		private final Field field;
+		private final int row;
+
+		ColumnarValue(Field field, int row) {
+			this.field = field;
+			this.row = row;
+		}
+
+		private Value box() {
+			return new DefaultValue(field, getValue());
+		}
+
+		public Field getField() {
+			return field;
+		}
+
+		public BigDecimal getBigDecimal() {
+			return box().getBigDecimal();
+		}
+
+		public boolean getBoolean() {
+			return box().getBoolean();
+		}
+
+		public Date getDate() {
+			return box().getDate();
+		}
+
+		public double getDouble() {
+			return ColumnarResultSet.this.getDouble(row, field.getIndex());
+		}
+
+		public float getFloat() {
+			return box().getFloat();
+		}
+
+		public int getInt() {
+			return ColumnarResultSet.this.getInt(row, field.getIndex());
+		}
+
+		public long getLong() {
+			return ColumnarResultSet.this.getLong(row, field.getIndex());
+		}
+
+		public String getString() {
+			return ColumnarResultSet.this.getString(row, field.getIndex());
+		}
+
+		public Object getValue() {
+			return ColumnarResultSet.this.getValue(row, field.getIndex());
+		}
+
+		public boolean isNull() {
+			return ColumnarResultSet.this.isNull(row, field.getIndex());
+		}
+
+		@Override
+		public String toString() {
+			String s = getString();
+			return s == null ? "null" : s;
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.NonBlockingListener;
+
+/**
+ * A future that completes based on the outcome of a group of futures.  This is the implementation behind
+ * {@link org.adbcj.DbFutures#allOf(Collection)} and {@link org.adbcj.DbFutures#anyOf(Collection)}.  The composite
+ * registers itself as the listener of every future in the group so no per-future objects are allocated.  The
+ * composite's own listeners are dispatched like those of the first future in the group.
+ *
+ * @param <T>  the result type of the futures in the group
+ * @param <R>  the result type of this future
+ */
+public abstract class CompositeDbFuture<T, R> extends DefaultDbFuture<R> implements DbListener<Object>, NonBlockingListener {
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<CompositeDbFuture> PENDING =
+		AtomicIntegerFieldUpdater.newUpdater(CompositeDbFuture.class, "pending");
+
+	private final DbFuture<?>[] futures;
+
+	private volatile int pending;
+
+	private CompositeDbFuture(Collection<? extends DbFuture<? extends T>> futures) {
+		if (futures == null) {
+			throw new IllegalArgumentException("futures can NOT be null");
+		}
+		this.futures = futures.toArray(new DbFuture<?>[futures.size()]);
+		this.pending = this.futures.length;
+	}
+
+	/**
+	 * Returns a future that completes with the results of all {@code futures}, in iteration order, once they have all
+	 * completed successfully.  The returned future fails as soon as any of the futures fails and is cancelled if any
+	 * of them is cancelled.
+	 */
+	public static <T> DbFuture<List<T>> allOf(Collection<? extends DbFuture<? extends T>> futures) {
+		return new CompositeDbFuture<T, List<T>>(futures) {
+			@Override
+			protected void onSuccess(DbFuture<?> future, int remaining) {
+				if (remaining == 0) {
+					setResult(results());
+				}
+			}
+			@Override
+			protected void onFailure(Throwable cause, int remaining) {
+				trySetException(cause);
+			}
+			@Override
+			protected void onCancelled(int remaining) {
+				trySetCancelled();
+			}
+			@Override
+			protected void onEmpty() {
+				setResult(Collections.<T>emptyList());
+			}
+		}.listen();
+	}
+
+	/**
+	 * Returns a future that completes with the result of the first of {@code futures} to complete successfully.  The
+	 * returned future only fails, with the last failure seen, when every future has failed or been cancelled.
+	 */
+	public static <T> DbFuture<T> anyOf(Collection<? extends DbFuture<? extends T>> futures) {
+		return new CompositeDbFuture<T, T>(futures) {
+			private volatile Throwable lastFailure;
+			@SuppressWarnings("unchecked")
+			@Override
+			protected void onSuccess(DbFuture<?> future, int remaining) {
+				setResult((T)future.getUninterruptably());
+			}
+			@Override
+			protected void onFailure(Throwable cause, int remaining) {
+				lastFailure = cause;
+				if (remaining == 0) {
+					trySetException(cause);
+				}
+			}
+			@Override
+			protected void onCancelled(int remaining) {
+				if (remaining == 0) {
+					Throwable failure = lastFailure;
+					if (failure == null) {
+						trySetCancelled();
+					} else {
+						trySetException(failure);
+					}
+				}
+			}
+			@Override
+			protected void onEmpty() {
+				throw new IllegalArgumentException("anyOf requires at least one future");
+			}
+		}.listen();
+	}
+
+	protected abstract void onSuccess(DbFuture<?> future, int remaining);
+
+	protected abstract void onFailure(Throwable cause, int remaining);
+
+	protected abstract void onCancelled(int remaining);
+
+	protected abstract void onEmpty();
+
+	@SuppressWarnings("unchecked")
+	final CompositeDbFuture<T, R> listen() {
+		if (futures.length == 0) {
+			onEmpty();
+		} else if (futures[0] instanceof DefaultDbFuture) {
+			setListenerDispatcher(((DefaultDbFuture<?>)futures[0]).getListenerDispatcher());
+		}
+		for (DbFuture<?> future : futures) {
+			((DbFuture<Object>)future).addListener(this);
+		}
+		return this;
+	}
+
+	/**
+	 * Collects the results of all the futures in the group.  Only valid once they have all completed successfully.
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<T> results() {
+		List<T> results = new ArrayList<T>(futures.length);
+		for (DbFuture<?> future : futures) {
+			results.add((T)future.getUninterruptably());
+		}
+		return results;
+	}
+
+	public void onCompletion(DbFuture<Object> future) {
+		int remaining = PENDING.decrementAndGet(this);
+		if (isDone()) {
+			return;
+		}
+		if (future.isCancelled()) {
+			onCancelled(remaining);
+			return;
+		}
+		try {
+			future.getUninterruptably();
+		} catch (DbException e) {
+			onFailure(DerivedDbFuture.failureOf(e), remaining);
+			return;
+		} catch (Throwable t) {
+			onFailure(t, remaining);
+			return;
+		}
+		onSuccess(future, remaining);
+	}
+
+	@Override
+	protected boolean doCancel(boolean mayInterruptIfRunning) {
+		for (DbFuture<?> future : futures) {
+			future.cancel(mayInterruptIfRunning);
+		}
+		return true;
+	}
+
+}
@@ -18,6 +18,8 @@ package org.adbcj.support;
 
 import java.util.concurrent.Future;
 
+import org.adbcj.DbFunction;
+import org.adbcj.DbFuture;
 import org.adbcj.DbListener;
 import org.adbcj.DbSession;
 import org.adbcj.DbSessionFuture;
@@ -45,4 +47,19 @@ public class DbSessionFutureConcurrentProxy<T> extends DbFutureConcurrentProxy<T
 		return session;
 	}
 
+	@Override
+	public <R> DbSessionFuture<R> map(DbFunction<? super T, ? extends R> function) {
+		return DerivedDbFuture.map(session, this, function);
+	}
+
+	@Override
+	public <R> DbFuture<R> flatMap(DbFunction<? super T, ? extends DbFuture<R>> function) {
+		return DerivedDbFuture.flatMap(session, this, function);
+	}
+
+	@Override
+	public DbSessionFuture<T> recover(DbFunction<Throwable, ? extends T> function) {
+		return DerivedDbFuture.recover(session, this, function);
+	}
+
 }
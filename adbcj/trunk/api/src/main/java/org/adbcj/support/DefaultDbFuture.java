@@ -16,124 +16,224 @@
  */
 package org.adbcj.support;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
+import org.adbcj.DbCompletionHandler;
 import org.adbcj.DbException;
+import org.adbcj.DbFunction;
 import org.adbcj.DbFuture;
 import org.adbcj.DbListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Lock-free {@link DbFuture} implementation.
+ *
+ * <p>The future moves through a single atomic state field: {@code PENDING} to {@code COMPLETING} (claimed by the
+ * thread completing the future) to one of {@code SUCCESS}, {@code FAILED} or {@code CANCELLED}.  {@link #cancel}
+ * claims the future with {@code CANCELLING} before running {@link #doCancel(boolean)}, so a cancellation's side effects
+ * only happen if the future ends up cancelled; an outcome arriving meanwhile is handed to the cancelling thread and
+ * applied if the cancellation fails, the completing thread waits for that decision so it can report whether its outcome
+ * was applied.  Listeners are
+ * pushed onto a CAS-maintained stack and blocked threads are parked on a second stack; both stacks are swapped for a
+ * sentinel when the future completes so no monitor is ever taken on the completion path.  Threads that give up waiting
+ * unlink their node from the waiter stack.
+ *
+ * <p>Listeners are invoked on the completing thread unless a {@link ListenerDispatcher} has been set, in which case the
+ * dispatcher decides whether each listener runs inline or on its executor.
+ *
+ * @param <T> The result type returned by this {@code DbFuture}'s {@code get()} methods
+ */
 public class DefaultDbFuture<T> implements DbFuture<T> {
 
-    private final Object lock;
-	
-    private DbListener<T> firstListener;
-    private List<DbListener<T>> otherListeners;
-    
-    /**
-     * The result of this future.
-     */
-    private volatile T result;
-    
-    /**
-     * The exception thrown if there was an error.
-     */
-    private volatile Throwable exception;
-    
-    /**
-     * Indicates if the future was cancelled.
-     */
-    private volatile boolean cancelled;
-    
-    /**
-     * Indicates if the future has completed or not.
-     */
-    private volatile boolean done;
-    
-    /**
-     * The number of threads waiting on the future.  Access must by synchronized on {@link #lock}.
-     */
-    private int waiters;
-
-    public DefaultDbFuture() {
-		this.lock = this;
-	}
-	
+	private static final Logger logger = LoggerFactory.getLogger(DefaultDbFuture.class);
+
+	private static final int PENDING = 0;
+	private static final int CANCELLING = 1;
+	private static final int COMPLETING = 2;
+	private static final int SUCCESS = 3;
+	private static final int FAILED = 4;
+	private static final int CANCELLED = 5;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<DefaultDbFuture> STATE =
+		AtomicIntegerFieldUpdater.newUpdater(DefaultDbFuture.class, "state");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<DefaultDbFuture, ListenerNode> LISTENERS =
+		AtomicReferenceFieldUpdater.newUpdater(DefaultDbFuture.class, ListenerNode.class, "listeners");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<DefaultDbFuture, WaitNode> WAITERS =
+		AtomicReferenceFieldUpdater.newUpdater(DefaultDbFuture.class, WaitNode.class, "waiters");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<DefaultDbFuture, Outcome> DEFERRED =
+		AtomicReferenceFieldUpdater.newUpdater(DefaultDbFuture.class, Outcome.class, "deferred");
+
+	/**
+	 * Placed on the listener stack once listeners have been notified.  Listeners added after this point are invoked
+	 * immediately.
+	 */
+	private static final ListenerNode NOTIFIED = new ListenerNode(null, null);
+
+	/**
+	 * Placed on the waiter stack once blocked threads have been released.
+	 */
+	private static final WaitNode RELEASED = new WaitNode(null);
+
+	/**
+	 * One of {@link #PENDING}, {@link #CANCELLING}, {@link #COMPLETING}, {@link #SUCCESS}, {@link #FAILED} or
+	 * {@link #CANCELLED}.
+	 */
+	private volatile int state = PENDING;
+
+	/**
+	 * The result of this future.  Written before the final state is published.
+	 */
+	private T result;
+
+	/**
+	 * The exception thrown if there was an error.  Written before the final state is published.
+	 */
+	private Throwable exception;
+
+	/**
+	 * Top of the stack of registered listeners, {@link #NOTIFIED} once the future has completed.
+	 */
+	private volatile ListenerNode listeners;
+
+	/**
+	 * Top of the stack of threads blocked in one of the {@code get} methods, {@link #RELEASED} once the future has
+	 * completed.
+	 */
+	private volatile WaitNode waiters;
+
+	/**
+	 * An outcome that arrived while {@link #doCancel(boolean)} was running, applied if the cancellation fails.
+	 */
+	private volatile Outcome deferred;
+
+	/**
+	 * The thread running {@link #doCancel(boolean)}, set while the future is {@code CANCELLING}.
+	 */
+	private volatile Thread canceller;
+
+	/**
+	 * Decides which thread invokes listeners, null to invoke them on the completing thread without recording metrics.
+	 */
+	private volatile ListenerDispatcher listenerDispatcher;
+
+	public DefaultDbFuture() {
+		// Default constructor
+	}
+
+	public ListenerDispatcher getListenerDispatcher() {
+		return listenerDispatcher;
+	}
+
+	/**
+	 * Sets the dispatcher used to invoke this future's listeners, overriding the policy of the connection manager this
+	 * future was created by.  Only listeners notified after this call are affected.
+	 * 
+	 * @param listenerDispatcher  the dispatcher to use, or null to invoke listeners on the completing thread
+	 */
+	public void setListenerDispatcher(ListenerDispatcher listenerDispatcher) {
+		this.listenerDispatcher = listenerDispatcher;
+	}
+
 	public DbFuture<T> addListener(DbListener<T> listener) {
 		if (listener == null) {
 			throw new IllegalArgumentException("listener can NOT be null");
 		}
-		
-        boolean notifyNow = true;
-        if (!done) {
-	        synchronized (lock) {
-	            if (!done) {
-	                notifyNow = false;
-	                if (firstListener == null) {
-	                    firstListener = listener;
-	                } else {
-	                    if (otherListeners == null) {
-	                        otherListeners = new ArrayList<DbListener<T>>(1);
-	                    }
-	                    otherListeners.add(listener);
-	                }
-	            }
-	        }
-        }
-
-        if (notifyNow) {
-            notifyListener(listener);
-        }
-        return this;
+		if (!pushListener(listener)) {
+			dispatch(listener);
+		}
+		return this;
 	}
 
-	public boolean removeListener(DbListener<T> listener) {
-        if (listener == null) {
-            throw new IllegalArgumentException("listener can NOT be null");
-        }
-
-        boolean removed = false;
-        synchronized (lock) {
-            if (!done) {
-                if (listener == firstListener) {
-                	removed = true;
-                    if (otherListeners != null && !otherListeners.isEmpty()) {
-                        firstListener = otherListeners.remove(0);
-                    } else {
-                        firstListener = null;
-                    }
-                } else if (otherListeners != null) {
-                    removed = otherListeners.remove(listener);
-                }
-            }
-        }
-
-        return removed;
-	}
-
-    public final boolean cancel(boolean mayInterruptIfRunning) {
-		if (done) {
-			return false;
+	public DbFuture<T> addCompletionHandler(DbCompletionHandler<? super T> handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("handler can NOT be null");
 		}
-		synchronized (lock) {
-			if (done) {
+		if (!pushListener(handler)) {
+			dispatch(handler);
+		}
+		return this;
+	}
+
+	/**
+	 * Pushes a {@link DbListener} or {@link DbCompletionHandler} on to the listener stack.
+	 * 
+	 * @return  false if this future has already notified its listeners and the caller must notify the listener itself
+	 */
+	private boolean pushListener(Object listener) {
+		ListenerNode node = null;
+		for (;;) {
+			ListenerNode head = listeners;
+			if (head == NOTIFIED) {
 				return false;
 			}
+			if (node == null) {
+				node = new ListenerNode(listener, head);
+			} else {
+				node.next = head;
+			}
+			if (LISTENERS.compareAndSet(this, head, node)) {
+				return true;
+			}
+		}
+	}
+
+	public boolean removeListener(DbListener<T> listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener can NOT be null");
+		}
+
+		// Nodes are never unlinked before completion, removal just clears the listener out of its node
+		for (ListenerNode node = listeners; node != null && node != NOTIFIED; node = node.next) {
+			if (node.listener == listener && ListenerNode.LISTENER.compareAndSet(node, listener, null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	public final boolean cancel(boolean mayInterruptIfRunning) {
+		if (!STATE.compareAndSet(this, PENDING, CANCELLING)) {
+			return false;
+		}
+		canceller = Thread.currentThread();
+		boolean cancelled = false;
+		try {
 			cancelled = doCancel(mayInterruptIfRunning);
+		} finally {
+			// Cleared before leaving CANCELLING so a later cancellation never sees a stale canceller
+			canceller = null;
 			if (cancelled) {
-				done = true;
-	            if (waiters > 0) {
-	                lock.notifyAll();
-	            }
+				// Only the cancelling thread moves the future out of CANCELLING, an outcome handed over is dropped
+				state = COMPLETING;
+				publish(CANCELLED, null, null);
+				Outcome outcome = DEFERRED.getAndSet(this, null);
+				if (outcome != null) {
+					outcome.resolve(false);
+				}
+			} else {
+				state = PENDING;
+				Outcome outcome = DEFERRED.getAndSet(this, null);
+				if (outcome != null) {
+					outcome.resolve(complete(outcome.state, (T)outcome.result, outcome.exception));
+				}
 			}
 		}
-		if (cancelled) {
-			notifyListeners();
-		}
-		return cancelled;
+		// doCancel() may have cancelled this future by other means (e.g. by cancelling a future it depends on)
+		return cancelled || state == CANCELLED;
 	}
 
 	protected boolean doCancel(boolean mayInterruptIfRunning) {
@@ -141,150 +241,392 @@ public class DefaultDbFuture<T> implements DbFuture<T> {
 	}
 
 	public T get() throws InterruptedException, DbException {
-		if (done) {
-			return getResult();
-		}
-        synchronized (lock) {
-    		if (done) {
-    			return getResult();
-    		}
-            waiters++;
-            try {
-                lock.wait();
-            } finally {
-                waiters--;
-            }
-        }
-        return getResult();
+		if (state <= COMPLETING) {
+			awaitDone(true, false, 0L);
+		}
+		return getResult();
 	}
 
 	public T get(long timeout, TimeUnit unit) throws InterruptedException, DbException, TimeoutException {
-		long timeoutMillis = unit.toMillis(timeout);
-
-		if (done) {
-			return getResult();
-		}
-        synchronized (lock) {
-    		if (done) {
-    			return getResult();
-    		}
-            waiters++;
-            try {
-                lock.wait(timeoutMillis);
-                if (!done) {
-                	throw new TimeoutException();
-                }
-            } finally {
-                waiters--;
-            }
-        }
-        return getResult();
+		if (state <= COMPLETING && !awaitDone(true, true, unit.toNanos(timeout))) {
+			throw new TimeoutException();
+		}
+		return getResult();
 	}
 
 	public T getUninterruptably() throws DbException {
-		if (done) {
-			return getResult();
-		}
-        synchronized (lock) {
-    		if (done) {
-    			return getResult();
-    		}
-    		boolean interrupted = false;
-            waiters++;
-            try {
-	    		while (!done) {
-	                try {
-						lock.wait();
-					} catch (InterruptedException e) {
-						interrupted = true;
+		if (state <= COMPLETING) {
+			try {
+				awaitDone(false, false, 0L);
+			} catch (InterruptedException e) {
+				// Not thrown when waiting uninterruptably
+				throw new IllegalStateException(e);
+			}
+		}
+		return getResult();
+	}
+
+	/**
+	 * Parks the calling thread until this future completes.
+	 *
+	 * @param interruptible  if true, throw {@link InterruptedException} when the thread is interrupted, otherwise
+	 *                       restore the interrupt status once the future is done
+	 * @param timed  if true, give up after {@code nanos} nanoseconds
+	 * @param nanos  the maximum time to wait if {@code timed} is true
+	 * @return  true if the future completed, false if the wait timed out
+	 */
+	private boolean awaitDone(boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		WaitNode node = null;
+		boolean queued = false;
+		boolean interrupted = false;
+		boolean done = false;
+		try {
+			for (;;) {
+				if (state > COMPLETING) {
+					done = true;
+					return true;
+				}
+				if (Thread.interrupted()) {
+					if (interruptible) {
+						throw new InterruptedException();
+					}
+					interrupted = true;
+				}
+				if (node == null) {
+					node = new WaitNode(Thread.currentThread());
+				} else if (!queued) {
+					WaitNode head = waiters;
+					if (head != RELEASED) {
+						node.next = head;
+						queued = WAITERS.compareAndSet(this, head, node);
+					}
+				} else if (timed) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0L) {
+						return false;
 					}
-	    		}
-            } finally {
-                waiters--;
-                if (interrupted) {
-                	Thread.currentThread().interrupt();
-                }
-            }
-        }
-        return getResult();
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+		} finally {
+			if (node != null) {
+				node.thread = null;
+				if (queued && !done) {
+					unlinkAbandonedWaiters();
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Unlinks the nodes of threads that timed out or were interrupted from the waiter stack so a future that is waited
+	 * on repeatedly but never completed does not accumulate them.  Nodes are unlinked without locking, a race with
+	 * another push or unlink restarts the traversal.
+	 */
+	private void unlinkAbandonedWaiters() {
+		retry:
+		for (;;) {
+			WaitNode pred = null;
+			WaitNode node = waiters;
+			while (node != null && node != RELEASED) {
+				WaitNode next = node.next;
+				if (node.thread != null) {
+					pred = node;
+				} else if (pred != null) {
+					pred.next = next;
+					if (pred.thread == null) {
+						// The predecessor was abandoned meanwhile and may itself have been unlinked
+						continue retry;
+					}
+				} else if (!WAITERS.compareAndSet(this, node, next)) {
+					continue retry;
+				}
+				node = next;
+			}
+			return;
+		}
 	}
 
 	private T getResult() throws DbException {
-		if (!done) {
+		int s = state;
+		if (s <= COMPLETING) {
 			throw new IllegalStateException("Should not be calling this method when future is not done");
 		}
-		if (exception != null) {
+		if (s == FAILED) {
 			throw new DbException(exception);
 		}
-		if (cancelled) {
+		if (s == CANCELLED) {
 			throw new CancellationException();
 		}
 		return result;
 	}
 
 	public void setResult(T result) {
-        synchronized (lock) {
-            // Allow only once.
-            if (done) {
-                return;
-            }
-
-            this.result = result;
-            done = true;
-            if (waiters > 0) {
-                lock.notifyAll();
-            }
-        }
-
-        notifyListeners();
-	}
-	
-    private void notifyListener(DbListener<T> listener) {
-        try {
-            listener.onCompletion(this);
-        } catch (Throwable t) {
-        	// TODO Do something with exception
-        	t.printStackTrace();
-        }
-    }
-
-    private void notifyListeners() {
-        // There won't be any visibility problem or concurrent modification
-        // because 'ready' flag will be checked against both addListener and
-        // removeListener calls.
-        if (firstListener != null) {
-            notifyListener(firstListener);
-            firstListener = null;
-
-            if (otherListeners != null) {
-                for (DbListener<T> l : otherListeners) {
-                    notifyListener(l);
-                }
-                otherListeners = null;
-            }
-        }
-    }
+		// Allow only once.
+		complete(SUCCESS, result, null);
+	}
+
+	public void setException(Throwable exception) {
+		// From within doCancel() the outcome is only handed over, that is not an error
+		if (!trySetException(exception) && canceller != Thread.currentThread()) {
+			throw new IllegalStateException("Can't set exception on completed future");
+		}
+	}
+
+	/**
+	 * Fails this future unless it has already completed.  If a cancellation is in progress on another thread, waits for
+	 * it to decide whether the failure is applied.
+	 * 
+	 * @return  true if this invocation completed the future, false otherwise
+	 */
+	protected final boolean trySetException(Throwable exception) {
+		return complete(FAILED, null, exception);
+	}
+
+	/**
+	 * Cancels this future without invoking {@link #doCancel(boolean)}.  Used when the operation this future represents
+	 * was cancelled by some other means.
+	 * 
+	 * @return  true if this invocation completed the future, false otherwise
+	 */
+	protected final boolean trySetCancelled() {
+		return complete(CANCELLED, null, null);
+	}
+
+	/**
+	 * Moves this future to its final state, wakes any blocked threads and notifies listeners.  An outcome arriving
+	 * while the future is being cancelled is handed to the cancelling thread, the calling thread then waits until the
+	 * cancellation has applied or dropped it.  An outcome handed over by the cancelling thread itself, from within
+	 * {@link #doCancel(boolean)}, cannot wait for that decision and reports false.
+	 *
+	 * @return  true if this invocation completed the future, false if it had already been completed or its outcome
+	 *          was dropped by a cancellation
+	 */
+	private boolean complete(int finalState, T result, Throwable exception) {
+		Outcome outcome = null;
+		for (;;) {
+			int s = state;
+			if (s == PENDING) {
+				if (STATE.compareAndSet(this, PENDING, COMPLETING)) {
+					publish(finalState, result, exception);
+					return true;
+				}
+			} else if (s == CANCELLING) {
+				if (outcome == null) {
+					outcome = new Outcome(finalState, result, exception);
+				}
+				if (!DEFERRED.compareAndSet(this, null, outcome)) {
+					// Another outcome is already waiting on the cancellation
+					return false;
+				}
+				if (canceller == Thread.currentThread()) {
+					return false;
+				}
+				// If the cancellation finished during the hand over, take the outcome back unless it has been taken
+				if (state == CANCELLING || !DEFERRED.compareAndSet(this, outcome, null)) {
+					return outcome.awaitResolution();
+				}
+			} else {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Publishes the final state of a future claimed with {@link #COMPLETING}.
+	 */
+	private void publish(int finalState, T result, Throwable exception) {
+		this.result = result;
+		this.exception = exception;
+		// Volatile write publishes result and exception
+		state = finalState;
+
+		// A thread that pushes itself after this read is guaranteed to see the final state before parking
+		if (waiters != null) {
+			releaseWaiters();
+		}
+		notifyListeners();
+	}
+
+	private void releaseWaiters() {
+		WaitNode node = WAITERS.getAndSet(this, RELEASED);
+		while (node != null) {
+			Thread thread = node.thread;
+			if (thread != null) {
+				node.thread = null;
+				LockSupport.unpark(thread);
+			}
+			node = node.next;
+		}
+	}
+
+	private void notifyListeners() {
+		ListenerNode head = LISTENERS.getAndSet(this, NOTIFIED);
+
+		// The stack holds the newest listener on top, reverse it so listeners are invoked in registration order
+		ListenerNode reversed = null;
+		while (head != null) {
+			ListenerNode next = head.next;
+			head.next = reversed;
+			reversed = head;
+			head = next;
+		}
+		for (ListenerNode node = reversed; node != null; node = node.next) {
+			// A listener removed while completion is in progress may still be notified
+			Object listener = node.listener;
+			if (listener != null) {
+				dispatch(listener);
+			}
+		}
+	}
+
+	private void dispatch(final Object listener) {
+		ListenerDispatcher dispatcher = listenerDispatcher;
+		if (dispatcher == null) {
+			invoke(listener);
+		} else if (dispatcher.isInline(listener)) {
+			long start = System.nanoTime();
+			invoke(listener);
+			dispatcher.recordInline(System.nanoTime() - start);
+		} else {
+			dispatcher.execute(new Runnable() {
+				public void run() {
+					invoke(listener);
+				}
+			});
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void invoke(Object listener) {
+		if (listener instanceof DbListener) {
+			notifyListener((DbListener<T>)listener);
+		} else {
+			notifyHandler((DbCompletionHandler<? super T>)listener);
+		}
+	}
+
+	private void notifyListener(DbListener<T> listener) {
+		try {
+			listener.onCompletion(this);
+		} catch (Throwable t) {
+			logger.warn("Future listener threw an exception", t);
+		}
+	}
+
+	private void notifyHandler(DbCompletionHandler<? super T> handler) {
+		try {
+			switch (state) {
+			case SUCCESS:
+				handler.completed(result);
+				break;
+			case FAILED:
+				handler.failed(exception);
+				break;
+			default:
+				handler.cancelled();
+			}
+		} catch (Throwable t) {
+			logger.warn("Future completion handler threw an exception", t);
+		}
+	}
+
+	public <R> DbFuture<R> map(DbFunction<? super T, ? extends R> function) {
+		return DerivedDbFuture.map(null, this, function);
+	}
+
+	public <R> DbFuture<R> flatMap(DbFunction<? super T, ? extends DbFuture<R>> function) {
+		return DerivedDbFuture.flatMap(null, this, function);
+	}
+
+	public DbFuture<T> recover(DbFunction<Throwable, ? extends T> function) {
+		return DerivedDbFuture.recover(null, this, function);
+	}
 
 	public boolean isCancelled() {
-		return cancelled;
+		return state == CANCELLED;
 	}
 
 	public boolean isDone() {
-		return done;
+		return state > COMPLETING;
 	}
-	
-	public void setException(Throwable exception) {
-		synchronized (lock) {
-			if (done) {
-				throw new IllegalStateException("Can't set exception on completed future");
-			}
+
+	private static final class Outcome {
+		private static final int UNRESOLVED = 0;
+		private static final int APPLIED = 1;
+		private static final int DROPPED = 2;
+
+		final int state;
+		final Object result;
+		final Throwable exception;
+
+		/**
+		 * The thread that handed this outcome over, woken once the cancelling thread resolves it.
+		 */
+		final Thread thread = Thread.currentThread();
+
+		volatile int resolution = UNRESOLVED;
+
+		Outcome(int state, Object result, Throwable exception) {
+			this.state = state;
+			this.result = result;
 			this.exception = exception;
-			done = true;
-            if (waiters > 0) {
-                lock.notifyAll();
-            }
 		}
-		notifyListeners();
+
+		void resolve(boolean applied) {
+			resolution = applied ? APPLIED : DROPPED;
+			if (thread != Thread.currentThread()) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		/**
+		 * Parks until the cancelling thread has applied or dropped this outcome.  Interrupts are deferred until then.
+		 *
+		 * @return  true if the outcome was applied
+		 */
+		boolean awaitResolution() {
+			boolean interrupted = false;
+			while (resolution == UNRESOLVED) {
+				LockSupport.park(this);
+				interrupted |= Thread.interrupted();
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return resolution == APPLIED;
+		}
 	}
-	
+
+	private static final class ListenerNode {
+		static final AtomicReferenceFieldUpdater<ListenerNode, Object> LISTENER =
+			AtomicReferenceFieldUpdater.newUpdater(ListenerNode.class, Object.class, "listener");
+
+		/**
+		 * Either a {@link DbListener} or a {@link DbCompletionHandler}.
+		 */
+		volatile Object listener;
+		ListenerNode next;
+
+		ListenerNode(Object listener, ListenerNode next) {
+			this.listener = listener;
+			this.next = next;
+		}
+	}
+
+	private static final class WaitNode {
+		volatile Thread thread;
+		volatile WaitNode next;
+
+		WaitNode(Thread thread) {
+			this.thread = thread;
+		}
+	}
+
 }
@@ -17,6 +17,8 @@
 package org.adbcj.support;
 
 import org.adbcj.DbException;
+import org.adbcj.DbFunction;
+import org.adbcj.DbFuture;
 import org.adbcj.DbListener;
 import org.adbcj.DbSession;
 import org.adbcj.DbSessionFuture;
@@ -51,4 +53,19 @@ public class DefaultDbSessionFuture<T> extends DefaultDbFuture<T> implements DbS
 		return session;
 	}
 
+	@Override
+	public <R> DbSessionFuture<R> map(DbFunction<? super T, ? extends R> function) {
+		return DerivedDbFuture.map(session, this, function);
+	}
+
+	@Override
+	public <R> DbFuture<R> flatMap(DbFunction<? super T, ? extends DbFuture<R>> function) {
+		return DerivedDbFuture.flatMap(session, this, function);
+	}
+
+	@Override
+	public DbSessionFuture<T> recover(DbFunction<Throwable, ? extends T> function) {
+		return DerivedDbFuture.recover(session, this, function);
+	}
+
 }
@@ -18,6 +18,7 @@ package org.adbcj.support;
 
 import org.adbcj.Field;
 import org.adbcj.Type;
+import org.adbcj.Value;
 
 public class DefaultField implements Field {
 
@@ -41,6 +42,7 @@ public class DefaultField implements Field {
 	private final boolean signed;
 	private final boolean writable;
 	private final String fieldClassName;
+	private final Value nullValue = new NullValue(this);
 	
 	public DefaultField(
 			int index,
@@ -90,6 +92,13 @@ public class DefaultField implements Field {
 		return index;
 	}
 	
+	/**
+	 * Returns the value of this field in rows where it is null.
+	 */
+	public Value getNullValue() {
+		return nullValue;
+	}
+	
 	public String getCatalogName() {
 		return catalogName;
 	}
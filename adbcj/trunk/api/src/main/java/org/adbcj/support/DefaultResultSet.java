@@ -16,32 +16,19 @@
  */
 package org.adbcj.support;
 
-import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.adbcj.DbSession;
-import org.adbcj.Field;
-import org.adbcj.ResultSet;
 import org.adbcj.Row;
 
 
-public class DefaultResultSet extends AbstractList<Row> implements ResultSet {
+public class DefaultResultSet extends AbstractResultSet {
 
-	private final DbSession session;
-	
-	private final List<Field> fields;
-	
 	private final List<Row> results = new ArrayList<Row>();
 	
-	private final Map<Object, Field> fieldMapping = new HashMap<Object, Field>();
-	
 	public DefaultResultSet(DbSession session) {
-		this.session = session;
-		fields = new ArrayList<Field>();
+		super(session);
 	}
 	
 	@Override
@@ -54,71 +41,8 @@ public class DefaultResultSet extends AbstractList<Row> implements ResultSet {
 		return results.size();
 	}
 
-	public List<? extends Field> getFields() {
-		return Collections.unmodifiableList(fields);
-	}
-
-	public void addField(Field field) {
-		fields.add(field);
-	}
-	
 	public boolean addResult(Row result) {
 		return results.add(result);
 	}
 	
-	public Field getField(Object key) {
-		if (key == null) {
-			return null;
-		}
-		if (key instanceof Field) {
-			return (Field)key;
-		}
-		Field field = fieldMapping.get(key);
-		if (field != null) {
-			return field;
-		}
-		if (key instanceof Number) {
-			int index = ((Number)key).intValue();
-			field = fields.get(index);
-			fieldMapping.put(key, field);
-			return field;
-		}
-		String stringKey = key.toString();
-		if (stringKey == null) {
-			return null;
-		}
-		// Search by column label
-		for (Field f : fields) {
-			if (stringKey.equals(f.getColumnLabel())) {
-				fieldMapping.put(key, f);
-				return f;
-			}
-		}
-		// Search by column name
-		for (Field f : fields) {
-			if (stringKey.equals(f.getColumnName())) {
-				fieldMapping.put(key, f);
-				return f;
-			}
-		}
-		// Search by table label.column label
-		for (Field f : fields) {
-			if (stringKey.equals(f.getTableLabel() + "." + f.getColumnLabel())) {
-				fieldMapping.put(key, f);
-				return f;
-			}
-		}
-		// Search by table name.column name
-		for (Field f : fields) {
-			if (stringKey.equals(f.getTableName() + "." + f.getColumnName())) {
-				fieldMapping.put(key, f);
-				return f;
-			}
-		}
-		return null;
-	}
-	
-	public DbSession getSession() {
-		return session;
-	}
 }
@@ -0,0 +1,200 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.ExecutionException;
+
+import org.adbcj.DbException;
+import org.adbcj.DbFunction;
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.DbSession;
+import org.adbcj.NonBlockingListener;
+
+/**
+ * A future whose outcome is derived from the outcome of a source {@link DbFuture}.  This is the implementation behind
+ * {@link DbFuture#map(DbFunction)}, {@link DbFuture#flatMap(DbFunction)} and {@link DbFuture#recover(DbFunction)}.
+ *
+ * <p>The derived future registers itself as the listener of its source, so composing an operation allocates nothing
+ * beyond the derived future and the composition runs on the thread that completes the source.  Cancelling a derived
+ * future cancels the future it is waiting on.
+ *
+ * <p>The composition is marked as a {@link NonBlockingListener} so composing functions run inline, while the derived
+ * future hands its own listeners to the same {@link ListenerDispatcher} as its source.
+ *
+ * @param <S>  the result type of the source future
+ * @param <R>  the result type of this future
+ */
+public abstract class DerivedDbFuture<S, R> extends DefaultDbSessionFuture<R> implements DbListener<S>, NonBlockingListener {
+
+	private final DbFuture<S> source;
+
+	/**
+	 * The future returned by a flatMap function, null until the source completes.
+	 */
+	private volatile DbFuture<R> next;
+
+	protected DerivedDbFuture(DbSession session, DbFuture<S> source) {
+		super(session);
+		if (source == null) {
+			throw new IllegalArgumentException("source future can NOT be null");
+		}
+		this.source = source;
+	}
+
+	public static <S, R> DerivedDbFuture<S, R> map(DbSession session, DbFuture<S> source,
+			final DbFunction<? super S, ? extends R> function) {
+		checkFunction(function);
+		return new DerivedDbFuture<S, R>(session, source) {
+			@Override
+			protected void onSuccess(S value) throws Exception {
+				setResult(function.apply(value));
+			}
+		}.listen();
+	}
+
+	public static <S, R> DerivedDbFuture<S, R> flatMap(DbSession session, DbFuture<S> source,
+			final DbFunction<? super S, ? extends DbFuture<R>> function) {
+		checkFunction(function);
+		return new DerivedDbFuture<S, R>(session, source) {
+			@Override
+			protected void onSuccess(S value) throws Exception {
+				DbFuture<R> next = function.apply(value);
+				if (next == null) {
+					throw new NullPointerException("flatMap function returned a null future");
+				}
+				follow(next);
+			}
+		}.listen();
+	}
+
+	public static <T> DerivedDbFuture<T, T> recover(DbSession session, DbFuture<T> source,
+			final DbFunction<Throwable, ? extends T> function) {
+		checkFunction(function);
+		return new DerivedDbFuture<T, T>(session, source) {
+			@Override
+			protected void onSuccess(T value) {
+				setResult(value);
+			}
+			@Override
+			protected void onFailure(Throwable cause) throws Exception {
+				setResult(function.apply(cause));
+			}
+		}.listen();
+	}
+
+	private static void checkFunction(DbFunction<?, ?> function) {
+		if (function == null) {
+			throw new IllegalArgumentException("function can NOT be null");
+		}
+	}
+
+	/**
+	 * Invoked when the source future completes successfully.
+	 */
+	protected abstract void onSuccess(S value) throws Exception;
+
+	/**
+	 * Invoked when the source future fails.  By default fails this future with the same exception.
+	 */
+	protected void onFailure(Throwable cause) throws Exception {
+		trySetException(cause);
+	}
+
+	final DerivedDbFuture<S, R> listen() {
+		if (source instanceof DefaultDbFuture) {
+			setListenerDispatcher(((DefaultDbFuture<S>)source).getListenerDispatcher());
+		}
+		source.addListener(this);
+		return this;
+	}
+
+	/**
+	 * Completes this future with the outcome of {@code next} once it completes.
+	 */
+	@SuppressWarnings("unchecked")
+	protected final void follow(DbFuture<R> next) {
+		if (next == (DbFuture<?>)source) {
+			// The source has already completed, listening to it again would look like its first completion
+			forward(next);
+			return;
+		}
+		this.next = next;
+		// Reuse this object as the listener, onCompletion() tells the two futures apart
+		next.addListener((DbListener<R>)(DbListener<?>)this);
+	}
+
+	@SuppressWarnings("unchecked")
+	public void onCompletion(DbFuture<S> future) {
+		if (future != source) {
+			forward((DbFuture<R>)(DbFuture<?>)future);
+			return;
+		}
+		if (future.isCancelled()) {
+			trySetCancelled();
+			return;
+		}
+		try {
+			S value;
+			try {
+				value = future.getUninterruptably();
+			} catch (DbException e) {
+				onFailure(failureOf(e));
+				return;
+			}
+			onSuccess(value);
+		} catch (Throwable t) {
+			trySetException(t);
+		}
+	}
+
+	private void forward(DbFuture<R> future) {
+		if (future.isCancelled()) {
+			trySetCancelled();
+			return;
+		}
+		try {
+			setResult(future.getUninterruptably());
+		} catch (DbException e) {
+			trySetException(failureOf(e));
+		} catch (Throwable t) {
+			trySetException(t);
+		}
+	}
+
+	@Override
+	protected boolean doCancel(boolean mayInterruptIfRunning) {
+		DbFuture<R> next = this.next;
+		if (next != null) {
+			return next.cancel(mayInterruptIfRunning);
+		}
+		return source.cancel(mayInterruptIfRunning);
+	}
+
+	/**
+	 * Recovers the exception a completed future failed with from the {@link DbException} thrown by its
+	 * {@code get()} methods.
+	 */
+	static Throwable failureOf(DbException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof ExecutionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause == null ? e : cause;
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.adbcj.Connection;
+import org.adbcj.ConnectionManager;
+import org.adbcj.DbException;
+import org.adbcj.DbFunction;
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.NonBlockingListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects to the first healthy host of a list, each host being reached through its own connection manager.  Every
+ * host has a {@link CircuitBreaker} that opens after consecutive connect failures or failures reported through
+ * {@link #reportFailure(Connection)}, with no success reported through {@link #reportSuccess(Connection)} in between,
+ * so new connections move to the next host within one connect attempt instead
+ * of waiting for a dead host to time out.  Once a host's breaker has been open for the open time a single connection
+ * attempt probes it, and the host is preferred again as soon as a probe succeeds.
+ */
+public class FailoverConnectionManager implements ConnectionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(FailoverConnectionManager.class);
+
+	private final ConnectionManager[] hosts;
+
+	private final CircuitBreaker[] breakers;
+
+	private volatile DbFuture<Void> closeFuture;
+
+	/**
+	 * Creates a manager whose breakers open after 3 consecutive failures for 5 seconds.
+	 *
+	 * @param hosts  the connection manager of each host, in order of preference
+	 */
+	public FailoverConnectionManager(List<? extends ConnectionManager> hosts) {
+		this(hosts, 3, 5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param hosts  the connection manager of each host, in order of preference
+	 * @param failureThreshold  the number of consecutive failures after which a host is avoided
+	 * @param openTime  how long a failed host is avoided before it is probed
+	 * @param unit  the time unit of {@code openTime}
+	 */
+	public FailoverConnectionManager(List<? extends ConnectionManager> hosts, int failureThreshold, long openTime,
+			TimeUnit unit) {
+		if (hosts.isEmpty()) {
+			throw new IllegalArgumentException("hosts can NOT be empty");
+		}
+		this.hosts = hosts.toArray(new ConnectionManager[hosts.size()]);
+		this.breakers = new CircuitBreaker[this.hosts.length];
+		for (int i = 0; i < breakers.length; i++) {
+			breakers[i] = new CircuitBreaker(failureThreshold, openTime, unit);
+		}
+	}
+
+	public DbFuture<Connection> connect() {
+		if (isClosed()) {
+			throw new DbException("Connection manager closed");
+		}
+		FailoverConnectFuture future = new FailoverConnectFuture();
+		future.connectNext();
+		return future;
+	}
+
+	/**
+	 * Reports that a request on a connection established by this manager failed without an answer from the database,
+	 * counting towards the breaker of the connection's host.
+	 */
+	public void reportFailure(Connection connection) {
+		CircuitBreaker breaker = getBreaker(connection);
+		if (breaker != null) {
+			breaker.recordFailure();
+		}
+	}
+
+	/**
+	 * Reports that the database answered a request on a connection established by this manager, resetting the count
+	 * of consecutive failures of the connection's host.
+	 */
+	public void reportSuccess(Connection connection) {
+		CircuitBreaker breaker = getBreaker(connection);
+		if (breaker != null) {
+			breaker.recordSuccess();
+		}
+	}
+
+	private CircuitBreaker getBreaker(Connection connection) {
+		ConnectionManager host = connection.getConnectionManager();
+		for (int i = 0; i < hosts.length; i++) {
+			if (hosts[i] == host) {
+				return breakers[i];
+			}
+		}
+		return null;
+	}
+
+	public int getHostCount() {
+		return hosts.length;
+	}
+
+	/**
+	 * Returns true unless the host's breaker is open.
+	 */
+	public boolean isHostAvailable(int index) {
+		return !breakers[index].isOpen();
+	}
+
+	public synchronized DbFuture<Void> close(boolean immediate) throws DbException {
+		if (closeFuture == null) {
+			List<DbFuture<Void>> futures = new ArrayList<DbFuture<Void>>(hosts.length);
+			for (ConnectionManager host : hosts) {
+				futures.add(host.close(immediate));
+			}
+			closeFuture = CompositeDbFuture.<Void>allOf(futures).map(new DbFunction<List<Void>, Void>() {
+				public Void apply(List<Void> value) {
+					return null;
+				}
+			});
+		}
+		return closeFuture;
+	}
+
+	public boolean isClosed() {
+		return closeFuture != null;
+	}
+
+	/**
+	 * Tries the hosts in order, skipping those whose breaker rejects the attempt.
+	 */
+	private class FailoverConnectFuture extends DefaultDbFuture<Connection> implements DbListener<Connection>,
+			NonBlockingListener {
+		private int next; // Only accessed by the thread completing the current attempt
+
+		private int host;
+
+		private Throwable lastFailure;
+
+		private volatile DbFuture<Connection> attempt;
+
+		void connectNext() {
+			while (next < hosts.length) {
+				host = next++;
+				if (!breakers[host].tryAcquire()) {
+					continue;
+				}
+				DbFuture<Connection> attempt;
+				try {
+					attempt = hosts[host].connect();
+				} catch (DbException e) {
+					failed(e);
+					continue;
+				}
+				this.attempt = attempt;
+				attempt.addListener(this);
+				return;
+			}
+			trySetException(new DbException(null, "No database host is available", lastFailure));
+		}
+
+		private void failed(Throwable cause) {
+			logger.debug("Failed to connect to database host", cause);
+			breakers[host].recordFailure();
+			lastFailure = cause;
+		}
+
+		public void onCompletion(DbFuture<Connection> future) {
+			if (future.isCancelled()) {
+				// A cancelled attempt says nothing about the host
+				breakers[host].abandon();
+				trySetCancelled();
+				return;
+			}
+			Connection connection;
+			try {
+				connection = future.getUninterruptably();
+			} catch (DbException e) {
+				failed(e);
+				connectNext();
+				return;
+			}
+			breakers[host].recordSuccess();
+			setResult(connection);
+			if (isCancelled()) {
+				connection.close(true);
+			}
+		}
+
+		@Override
+		protected boolean doCancel(boolean mayInterruptIfRunning) {
+			DbFuture<Connection> attempt = this.attempt;
+			if (attempt != null) {
+				attempt.cancel(mayInterruptIfRunning);
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import org.adbcj.ShardFunction;
+
+/**
+ * Spreads keys over the shards by their hash code.  Keys are only redistributed evenly if their hash codes are, the
+ * hash code is mixed so keys with sequential hash codes such as numbers do not cluster.
+ */
+public class HashShardFunction implements ShardFunction<Object> {
+
+	public int shard(Object key, int shardCount) {
+		if (key == null) {
+			throw new IllegalArgumentException("key can NOT be null");
+		}
+		int h = key.hashCode() * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shardCount;
+	}
+
+}
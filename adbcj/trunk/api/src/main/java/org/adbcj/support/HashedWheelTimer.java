@@ -0,0 +1,259 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A timer for large numbers of short, usually cancelled, timeouts such as request deadlines.  Timeouts are hashed in
+ * to a wheel of buckets by their deadline and a single worker thread expires one bucket per tick, so scheduling and
+ * cancelling a timeout are O(1) and the timer's accuracy is bounded by the tick duration.
+ * 
+ * <p>New timeouts are handed to the worker through a lock-free queue and the buckets are only touched by the worker
+ * thread.  Cancelled timeouts are discarded when the worker next reaches them.  The worker thread is started when the
+ * first timeout is scheduled.
+ */
+public class HashedWheelTimer {
+
+	private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	public static final long DEFAULT_TICK_MILLIS = 10;
+
+	public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	private static final int NEW = 0;
+	private static final int STARTED = 1;
+	private static final int STOPPED = 2;
+
+	private final String name;
+
+	private final long tickNanos;
+
+	private final Timeout[] wheel;
+
+	private final int mask;
+
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	private volatile int state = NEW; // Access must be synchronized on this when changing
+
+	private long startTime;
+
+	private Thread worker;
+
+	public HashedWheelTimer(String name) {
+		this(name, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive");
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.name = name;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Schedules {@code task} to run on the timer's worker thread after {@code delay}.  The task must not block.
+	 * 
+	 * @return  a handle that may be used to cancel the task
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new IllegalArgumentException("task can NOT be null");
+		}
+		start();
+		Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	private void start() {
+		if (state == STARTED) {
+			return;
+		}
+		synchronized (this) {
+			if (state == STOPPED) {
+				throw new IllegalStateException("Timer has been stopped");
+			}
+			if (state == NEW) {
+				startTime = System.nanoTime();
+				worker = new Thread(new Worker(), name);
+				worker.setDaemon(true);
+				worker.start();
+				state = STARTED;
+			}
+		}
+	}
+
+	/**
+	 * Stops the worker thread.  Timeouts that have not expired are never run.
+	 */
+	public void stop() {
+		Thread worker;
+		synchronized (this) {
+			worker = this.worker;
+			state = STOPPED;
+		}
+		if (worker != null && worker != Thread.currentThread()) {
+			worker.interrupt();
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		private long tick;
+
+		public void run() {
+			while (state != STOPPED) {
+				if (!waitForNextTick()) {
+					break;
+				}
+				transferNewTimeouts();
+				expire((int)(tick & mask));
+				tick++;
+			}
+		}
+
+		private boolean waitForNextTick() {
+			long deadline = tickNanos * (tick + 1);
+			for (;;) {
+				long sleepNanos = deadline - (System.nanoTime() - startTime);
+				if (sleepNanos <= 0) {
+					return true;
+				}
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					if (state == STOPPED) {
+						return false;
+					}
+				}
+			}
+		}
+
+		private void transferNewTimeouts() {
+			Timeout timeout;
+			while ((timeout = newTimeouts.poll()) != null) {
+				if (timeout.state != Timeout.PENDING) {
+					continue;
+				}
+				long expiryTick = timeout.deadline / tickNanos;
+				// Timeouts whose tick has already passed go in the current bucket
+				long bucketTick = Math.max(expiryTick, tick);
+				timeout.remainingRounds = (bucketTick - tick) >> Integer.numberOfTrailingZeros(wheel.length);
+				int index = (int)(bucketTick & mask);
+				timeout.next = wheel[index];
+				wheel[index] = timeout;
+			}
+		}
+
+		private void expire(int index) {
+			Timeout previous = null;
+			Timeout timeout = wheel[index];
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.state != Timeout.PENDING || timeout.remainingRounds <= 0) {
+					// Unlink the timeout, it is either cancelled or due
+					if (previous == null) {
+						wheel[index] = next;
+					} else {
+						previous.next = next;
+					}
+					timeout.next = null;
+					timeout.expire();
+				} else {
+					timeout.remainingRounds--;
+					previous = timeout;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * A handle for a task scheduled with {@link HashedWheelTimer#newTimeout(Runnable, long, TimeUnit)}.
+	 */
+	public static final class Timeout {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final Runnable task;
+
+		private final long deadline; // Nanoseconds since the timer started
+
+		private long remainingRounds; // Only accessed by the worker thread
+
+		private Timeout next; // Only accessed by the worker thread
+
+		private volatile int state = PENDING;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the task if it has not run.
+		 * 
+		 * @return  true if the task was cancelled, false if it had already run or been cancelled
+		 */
+		public boolean cancel() {
+			return STATE.compareAndSet(this, PENDING, CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		private void expire() {
+			if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (Throwable t) {
+				logger.warn("Timer task threw an exception", t);
+			}
+		}
+	}
+
+}
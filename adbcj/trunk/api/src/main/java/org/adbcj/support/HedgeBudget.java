@@ -0,0 +1,177 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the extra load added by {@link HedgedQuery}s and keeps the latency estimates hedges are timed from.
+ *
+ * <p>Every query eligible for hedging earns a fraction of a hedge, the budget, and a hedge is only sent once a whole
+ * one has been earned.  Latencies are tracked per query shape, the query with its string and numeric literals replaced
+ * by '?', so queries that differ only in their parameters share an estimate.
+ */
+public class HedgeBudget {
+
+	private static final long HEDGE_COST = 1000;
+
+	/**
+	 * The most hedges that can be saved up, bounding a burst of hedges after a quiet period.
+	 */
+	private static final long MAX_CREDIT = 10 * HEDGE_COST;
+
+	private static final int MAX_QUERY_SHAPES = 1000;
+
+	/**
+	 * The extra load hedged queries may add as a fraction of the queries eligible for hedging, 0 to not hedge.
+	 */
+	private volatile double budget = 0;
+
+	/**
+	 * Hedges earned by eligible queries, in thousandths of a hedge.
+	 */
+	private final AtomicLong credit = new AtomicLong();
+
+	private final AtomicLong hedgedCount = new AtomicLong();
+
+	/**
+	 * The 95th percentile latency of each query shape, see {@link #queryShape(String)}.
+	 */
+	private final ConcurrentMap<String, LatencyQuantile> latencies = new ConcurrentHashMap<String, LatencyQuantile>();
+
+	/**
+	 * @param budget  the extra load hedges may add as a fraction of the queries issued, for example 0.05 for 5%, or 0
+	 *                to not hedge
+	 */
+	public void setBudget(double budget) {
+		if (budget < 0 || budget > 1) {
+			throw new IllegalArgumentException("budget must be between 0 and 1");
+		}
+		this.budget = budget;
+	}
+
+	public boolean isEnabled() {
+		return budget > 0;
+	}
+
+	/**
+	 * Earns the credit of a query eligible for hedging and returns the latency estimate of its shape.
+	 *
+	 * @return  the estimate, or null if hedging is disabled or too many query shapes are already tracked
+	 */
+	public LatencyQuantile track(String sql) {
+		double budget = this.budget;
+		if (budget <= 0) {
+			return null;
+		}
+		String shape = queryShape(sql);
+		LatencyQuantile latency = latencies.get(shape);
+		if (latency == null && latencies.size() < MAX_QUERY_SHAPES) {
+			LatencyQuantile newLatency = new LatencyQuantile(0.95, 0.05);
+			latency = latencies.putIfAbsent(shape, newLatency);
+			if (latency == null) {
+				latency = newLatency;
+			}
+		}
+		if (latency != null) {
+			earn(budget);
+		}
+		return latency;
+	}
+
+	private void earn(double budget) {
+		long earned = (long)(budget * HEDGE_COST);
+		for (;;) {
+			long current = credit.get();
+			long next = Math.min(MAX_CREDIT, current + earned);
+			if (next == current || credit.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Spends the credit of one hedge.
+	 *
+	 * @return  true if a whole hedge had been earned, false if the hedge must not be sent
+	 */
+	public boolean takeCredit() {
+		for (;;) {
+			long current = credit.get();
+			if (current < HEDGE_COST) {
+				return false;
+			}
+			if (credit.compareAndSet(current, current - HEDGE_COST)) {
+				return true;
+			}
+		}
+	}
+
+	public void recordHedge() {
+		hedgedCount.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of hedges sent.
+	 */
+	public long getHedgedCount() {
+		return hedgedCount.get();
+	}
+
+	/**
+	 * Replaces the string and numeric literals of a query with '?' so queries that differ only in their parameters
+	 * share a latency estimate.
+	 */
+	static String queryShape(String sql) {
+		int length = sql.length();
+		StringBuilder shape = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				for (i++; i < length; i++) {
+					char q = sql.charAt(i);
+					if (q == '\\') {
+						i++;
+					} else if (q == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							// Doubled quote
+							i++;
+						} else {
+							break;
+						}
+					}
+				}
+				shape.append('?');
+			} else if (Character.isDigit(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+				while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+					i++;
+				}
+				shape.append('?');
+			} else {
+				shape.append(c);
+			}
+		}
+		return shape.toString();
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+}
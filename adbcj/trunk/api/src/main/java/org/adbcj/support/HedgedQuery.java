@@ -0,0 +1,213 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adbcj.DbCompletionHandler;
+import org.adbcj.DbSession;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.NonBlockingListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A query that is sent a second time when it has not completed within the latency estimate of its shape.  The first
+ * attempt to succeed completes the query and the other attempt is cancelled, or its result discarded if it is already
+ * executing.  The query fails with the last failure once both attempts have failed.
+ *
+ * <p>Subclasses send the attempts, usually to different connections.  A hedge must only be sent once
+ * {@link #takeCredit()} has granted it.
+ *
+ * @param <T>  the type of the query's result
+ */
+public abstract class HedgedQuery<T> extends DefaultDbSessionFuture<T> implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(HedgedQuery.class);
+
+	/**
+	 * The number of samples a query shape needs before its latency estimate is trusted.
+	 */
+	private static final int MIN_SAMPLES = 20;
+
+	private final HedgeBudget budget;
+
+	private final LatencyQuantile latency;
+
+	/**
+	 * The number of attempts that have not completed.
+	 */
+	private final AtomicInteger pending = new AtomicInteger(1);
+
+	private volatile DbSessionFuture<T> first;
+
+	private volatile DbSessionFuture<T> second;
+
+	private volatile HashedWheelTimer.Timeout timeout;
+
+	private volatile Throwable failure;
+
+	/**
+	 * @param session  the session the query was issued on
+	 * @param budget  the budget hedges are paid from
+	 * @param latency  the latency estimate of the query's shape, see {@link HedgeBudget#track(String)}, updated with
+	 *                 the latency of successful attempts
+	 */
+	protected HedgedQuery(DbSession session, HedgeBudget budget, LatencyQuantile latency) {
+		super(session);
+		this.budget = budget;
+		this.latency = latency;
+	}
+
+	/**
+	 * Sends the first attempt and, once the latency estimate is based on enough samples, schedules the hedge.
+	 *
+	 * @param timer  the timer the hedge is scheduled on, null to not hedge
+	 * @return  this query
+	 */
+	public HedgedQuery<T> start(HashedWheelTimer timer) {
+		long start = System.nanoTime();
+		DbSessionFuture<T> attempt = sendFirst();
+		first = attempt;
+		attempt.addCompletionHandler(new Attempt(start));
+		if (!isDone() && timer != null && latency.getSampleCount() >= MIN_SAMPLES) {
+			timeout = timer.newTimeout(this, latency.getEstimate(), TimeUnit.NANOSECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * Sends the first attempt of the query.
+	 */
+	protected abstract DbSessionFuture<T> sendFirst();
+
+	/**
+	 * Sends the query again, without waiting for a connection to become available.
+	 *
+	 * @return  the hedge or null if it can not be sent or {@link #takeCredit()} refused it
+	 */
+	protected abstract DbSessionFuture<T> sendHedge();
+
+	/**
+	 * Spends the budget's credit for the hedge, invoked by {@link #sendHedge()} right before sending it.
+	 *
+	 * @return  true if the hedge may be sent
+	 */
+	protected final boolean takeCredit() {
+		return budget.takeCredit();
+	}
+
+	/**
+	 * Sends the hedge if the query is still running.
+	 */
+	public void run() {
+		if (isDone()) {
+			return;
+		}
+		pending.incrementAndGet();
+		long start = System.nanoTime();
+		DbSessionFuture<T> hedge = null;
+		try {
+			hedge = sendHedge();
+		} catch (RuntimeException e) {
+			logger.debug("Failed to send hedged query", e);
+		}
+		if (hedge == null) {
+			attemptEnded();
+			return;
+		}
+		second = hedge;
+		hedge.addCompletionHandler(new Attempt(start));
+		budget.recordHedge();
+		if (isDone()) {
+			// The first attempt completed while the hedge was being sent
+			hedge.cancel(false);
+		}
+	}
+
+	private void completed(T result) {
+		if (isDone()) {
+			return;
+		}
+		setResult(result);
+		HashedWheelTimer.Timeout timeout = this.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		cancelAttempts();
+	}
+
+	/**
+	 * Completes the query with the last failure once no attempt is left that might succeed.
+	 */
+	private void attemptEnded() {
+		if (pending.decrementAndGet() > 0) {
+			return;
+		}
+		Throwable failure = this.failure;
+		if (failure == null) {
+			trySetCancelled();
+		} else {
+			trySetException(failure);
+		}
+	}
+
+	private void cancelAttempts() {
+		DbSessionFuture<T> attempt = first;
+		if (attempt != null && !attempt.isDone()) {
+			attempt.cancel(false);
+		}
+		attempt = second;
+		if (attempt != null && !attempt.isDone()) {
+			attempt.cancel(false);
+		}
+	}
+
+	@Override
+	protected boolean doCancel(boolean mayInterruptIfRunning) {
+		HashedWheelTimer.Timeout timeout = this.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		cancelAttempts();
+		return true;
+	}
+
+	private class Attempt implements DbCompletionHandler<T>, NonBlockingListener {
+		private final long start;
+
+		Attempt(long start) {
+			this.start = start;
+		}
+
+		public void completed(T result) {
+			latency.record(System.nanoTime() - start);
+			HedgedQuery.this.completed(result);
+		}
+
+		public void failed(Throwable cause) {
+			failure = cause;
+			attemptEnded();
+		}
+
+		public void cancelled() {
+			attemptEnded();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.adbcj.Field;
+
+/**
+ * An int column value held without boxing.
+ */
+public class IntValue extends AbstractValue {
+
+	private final int value;
+
+	public IntValue(Field field, int value) {
+		super(field);
+		this.value = value;
+	}
+
+	public BigDecimal getBigDecimal() {
+		return BigDecimal.valueOf(value);
+	}
+
+	public boolean getBoolean() {
+		return value != 0;
+	}
+
+	public Date getDate() {
+		throw notADate();
+	}
+
+	public double getDouble() {
+		return value;
+	}
+
+	public float getFloat() {
+		return value;
+	}
+
+	public int getInt() {
+		return value;
+	}
+
+	public long getLong() {
+		return value;
+	}
+
+	public String getString() {
+		return Integer.toString(value);
+	}
+
+	public Object getValue() {
+		return Integer.valueOf(value);
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+/**
+ * Tracks a quantile of a stream of latency samples in constant space.
+ *
+ * <p>A sample above the estimate raises it by a small factor and a sample at or below it lowers it, the factors are
+ * weighted so the estimate settles where the requested fraction of samples fall below it.  Updates are not
+ * synchronized, a sample lost to a racing update only makes the estimate slightly less precise.
+ */
+public class LatencyQuantile {
+
+	private final double raise;
+
+	private final double lower;
+
+	private volatile double estimate;
+
+	private volatile int sampleCount;
+
+	/**
+	 * @param quantile  the quantile to track, between 0 and 1 exclusive
+	 * @param step  how far a single sample moves the estimate, relative to the estimate
+	 */
+	public LatencyQuantile(double quantile, double step) {
+		if (quantile <= 0 || quantile >= 1) {
+			throw new IllegalArgumentException("quantile must be between 0 and 1");
+		}
+		if (step <= 0 || step >= 1) {
+			throw new IllegalArgumentException("step must be between 0 and 1");
+		}
+		this.raise = 1 + step * quantile;
+		this.lower = 1 - step * (1 - quantile);
+	}
+
+	public void record(long sample) {
+		double current = estimate;
+		if (sampleCount == 0) {
+			estimate = Math.max(1, sample);
+		} else {
+			estimate = Math.max(1, sample > current ? current * raise : current * lower);
+		}
+		if (sampleCount < Integer.MAX_VALUE) {
+			sampleCount++;
+		}
+	}
+
+	/**
+	 * Returns the estimated quantile, 0 if no sample has been recorded.
+	 */
+	public long getEstimate() {
+		return (long)estimate;
+	}
+
+	/**
+	 * Returns the number of samples recorded, a racing update may have been missed.
+	 */
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+}
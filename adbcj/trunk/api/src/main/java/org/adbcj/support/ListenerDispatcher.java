@@ -0,0 +1,182 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.adbcj.ListenerDispatchPolicy;
+import org.adbcj.NonBlockingListener;
+
+/**
+ * Applies a {@link ListenerDispatchPolicy} to the callbacks of {@link DefaultDbFuture}s and records how much time is
+ * spent in them.  Inline callbacks are timed separately from callbacks run by the executor, the inline figures being
+ * the time taken away from the thread that completed the future.
+ * 
+ * <p>A callback that can not be handed to the executor, because it has been shut down for example, is invoked inline
+ * and counted as rejected.
+ */
+public class ListenerDispatcher {
+
+	private final ListenerDispatchPolicy policy;
+
+	private final Executor executor;
+
+	private final AtomicLong inlineCount = new AtomicLong();
+	private final AtomicLong inlineNanos = new AtomicLong();
+	private final AtomicLong maxInlineNanos = new AtomicLong();
+	private final AtomicLong dispatchedCount = new AtomicLong();
+	private final AtomicLong dispatchedNanos = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * Creates a dispatcher that invokes every callback inline.
+	 */
+	public ListenerDispatcher() {
+		this(ListenerDispatchPolicy.INLINE, null);
+	}
+
+	public ListenerDispatcher(ListenerDispatchPolicy policy, Executor executor) {
+		if (policy == null) {
+			throw new IllegalArgumentException("policy can NOT be null");
+		}
+		if (executor == null && policy != ListenerDispatchPolicy.INLINE) {
+			throw new IllegalArgumentException("An executor is required by policy " + policy);
+		}
+		this.policy = policy;
+		this.executor = executor;
+	}
+
+	public ListenerDispatchPolicy getPolicy() {
+		return policy;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Indicates if the given listener should be invoked on the thread completing the future.
+	 * 
+	 * @param listener  a {@link org.adbcj.DbListener} or {@link org.adbcj.DbCompletionHandler}
+	 * @return  true if the listener should be invoked inline, false if it should be passed to {@link #execute(Runnable)}
+	 */
+	public boolean isInline(Object listener) {
+		switch (policy) {
+		case INLINE:
+			return true;
+		case NON_BLOCKING_INLINE:
+			return listener instanceof NonBlockingListener;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Records the time taken by a callback that was invoked inline.
+	 */
+	public void recordInline(long nanos) {
+		inlineCount.incrementAndGet();
+		inlineNanos.addAndGet(nanos);
+		for (;;) {
+			long max = maxInlineNanos.get();
+			if (nanos <= max || maxInlineNanos.compareAndSet(max, nanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Runs the given callback on this dispatcher's executor, timing it once it runs.
+	 */
+	public void execute(final Runnable callback) {
+		Runnable task = new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				try {
+					callback.run();
+				} finally {
+					dispatchedCount.incrementAndGet();
+					dispatchedNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			long start = System.nanoTime();
+			try {
+				callback.run();
+			} finally {
+				recordInline(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of callbacks invoked on the thread that completed their future.
+	 */
+	public long getInlineCallbackCount() {
+		return inlineCount.get();
+	}
+
+	/**
+	 * Returns the total time, in nanoseconds, spent in callbacks invoked on the thread that completed their future.
+	 */
+	public long getInlineCallbackNanos() {
+		return inlineNanos.get();
+	}
+
+	/**
+	 * Returns the longest time, in nanoseconds, taken by a single inline callback.
+	 */
+	public long getMaxInlineCallbackNanos() {
+		return maxInlineNanos.get();
+	}
+
+	/**
+	 * Returns the number of callbacks run by the executor.
+	 */
+	public long getDispatchedCallbackCount() {
+		return dispatchedCount.get();
+	}
+
+	/**
+	 * Returns the total time, in nanoseconds, spent in callbacks run by the executor.
+	 */
+	public long getDispatchedCallbackNanos() {
+		return dispatchedNanos.get();
+	}
+
+	/**
+	 * Returns the number of callbacks the executor refused and that were invoked inline instead.
+	 */
+	public long getRejectedCallbackCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ListenerDispatcher[policy=" + policy
+			+ ", inline=" + inlineCount.get() + " (" + inlineNanos.get() + "ns, max " + maxInlineNanos.get() + "ns)"
+			+ ", dispatched=" + dispatchedCount.get() + " (" + dispatchedNanos.get() + "ns)"
+			+ ", rejected=" + rejectedCount.get() + "]";
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.adbcj.Field;
+
+/**
+ * The value of a column that is null.  Fields hold a single instance each so decoding a null allocates nothing.
+ */
+public class NullValue extends AbstractValue {
+
+	public NullValue(Field field) {
+		super(field);
+	}
+
+	public BigDecimal getBigDecimal() {
+		return null;
+	}
+
+	public boolean getBoolean() {
+		return false;
+	}
+
+	public Date getDate() {
+		return null;
+	}
+
+	public double getDouble() {
+		return 0d;
+	}
+
+	public float getFloat() {
+		return 0f;
+	}
+
+	public int getInt() {
+		return 0;
+	}
+
+	public long getLong() {
+		return 0L;
+	}
+
+	public String getString() {
+		return null;
+	}
+
+	public Object getValue() {
+		return null;
+	}
+
+	@Override
+	public boolean isNull() {
+		return true;
+	}
+
+}
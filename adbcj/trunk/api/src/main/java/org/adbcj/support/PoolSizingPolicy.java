@@ -0,0 +1,164 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a connection pool opens, closes, replaces and pings connections.  The pool checks its connections
+ * against the policy every {@link #getIntervalNanos() interval} and carries out what it decides, all times are in
+ * nanoseconds as returned by {@link System#nanoTime()}.
+ */
+public class PoolSizingPolicy {
+
+	/**
+	 * The fraction of the maximum lifetime by which connections are retired early, at random, so connections
+	 * opened together are not all replaced at once.
+	 */
+	private static final double LIFETIME_JITTER = 0.1;
+
+	private volatile long intervalNanos = TimeUnit.MILLISECONDS.toNanos(250);
+
+	/**
+	 * The average number of outstanding requests per connection at which another connection is opened.
+	 */
+	private volatile int queueDepthThreshold = 4;
+
+	/**
+	 * How long a statement may wait for a connection before another connection is opened.
+	 */
+	private volatile long waitTimeThresholdNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * How long a connection must have been idle before it is closed.
+	 */
+	private volatile long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(60);
+
+	/**
+	 * How long a connection must have been idle before it is pinged, 0 disables keepalive pings.
+	 */
+	private volatile long keepAliveIntervalNanos = 0;
+
+	/**
+	 * How long a connection may stay open before it is replaced, 0 lets connections live until they are idle.
+	 */
+	private volatile long maxLifetimeNanos = 0;
+
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	public void setInterval(long time, TimeUnit unit) {
+		if (time <= 0) {
+			throw new IllegalArgumentException("time must be greater than 0");
+		}
+		this.intervalNanos = unit.toNanos(time);
+	}
+
+	public void setQueueDepthThreshold(int queueDepthThreshold) {
+		if (queueDepthThreshold < 1) {
+			throw new IllegalArgumentException("queueDepthThreshold must be greater than 0");
+		}
+		this.queueDepthThreshold = queueDepthThreshold;
+	}
+
+	public void setWaitTimeThreshold(long time, TimeUnit unit) {
+		if (time < 0) {
+			throw new IllegalArgumentException("time can NOT be negative");
+		}
+		this.waitTimeThresholdNanos = unit.toNanos(time);
+	}
+
+	public void setIdleTimeout(long time, TimeUnit unit) {
+		if (time < 0) {
+			throw new IllegalArgumentException("time can NOT be negative");
+		}
+		this.idleTimeoutNanos = unit.toNanos(time);
+	}
+
+	public void setKeepAliveInterval(long time, TimeUnit unit) {
+		if (time < 0) {
+			throw new IllegalArgumentException("time can NOT be negative");
+		}
+		this.keepAliveIntervalNanos = unit.toNanos(time);
+	}
+
+	public void setMaxLifetime(long time, TimeUnit unit) {
+		if (time < 0) {
+			throw new IllegalArgumentException("time can NOT be negative");
+		}
+		this.maxLifetimeNanos = unit.toNanos(time);
+	}
+
+	/**
+	 * Returns true if the policy has work to do for connections bounded by {@code minConnections} and
+	 * {@code maxConnections}.
+	 */
+	public boolean isActive(int minConnections, int maxConnections) {
+		return minConnections < maxConnections || keepAliveIntervalNanos > 0 || maxLifetimeNanos > 0;
+	}
+
+	/**
+	 * Returns true if another connection should be opened.
+	 *
+	 * @param connectionCount  the number of open connections
+	 * @param load  the number of outstanding requests across the open connections
+	 * @param longestWait  how long the oldest statement waiting for a connection has waited
+	 */
+	public boolean isOverloaded(int connectionCount, int load, long longestWait) {
+		return connectionCount == 0 || longestWait >= waitTimeThresholdNanos
+				|| load >= queueDepthThreshold * connectionCount;
+	}
+
+	/**
+	 * Returns true if connections are replaced once they reach a maximum lifetime.
+	 */
+	public boolean isRotating() {
+		return maxLifetimeNanos > 0;
+	}
+
+	/**
+	 * Returns true if a connection opened at {@code created} has outlived the maximum lifetime.
+	 *
+	 * @param jitter  a random value between 0 and 1 chosen when the connection was opened
+	 */
+	public boolean isExpired(long created, double jitter, long now) {
+		long maxLifetime = maxLifetimeNanos;
+		return maxLifetime > 0 && now - created >= maxLifetime - (long)(maxLifetime * LIFETIME_JITTER * jitter);
+	}
+
+	/**
+	 * Returns true if a connection last used at {@code lastActive} and with no outstanding requests may be closed.
+	 */
+	public boolean isIdle(long lastActive, int load, long now) {
+		return load == 0 && now - lastActive >= idleTimeoutNanos;
+	}
+
+	public boolean isKeepAliveEnabled() {
+		return keepAliveIntervalNanos > 0;
+	}
+
+	/**
+	 * Returns true if a connection that has neither been used nor pinged for the keepalive interval should be
+	 * pinged.
+	 */
+	public boolean isPingDue(long lastActive, long lastPinged, long now) {
+		long interval = keepAliveIntervalNanos;
+		return interval > 0 && now - lastActive >= interval && now - lastPinged >= interval;
+	}
+
+}
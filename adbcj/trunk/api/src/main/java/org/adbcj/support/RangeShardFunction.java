@@ -0,0 +1,68 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.adbcj.ShardFunction;
+
+/**
+ * Assigns each shard a contiguous range of keys.  Shard {@code i} holds the keys from its lower bound up to, but not
+ * including, the lower bound of shard {@code i + 1}.  Keys below the first lower bound belong to the first shard.
+ * 
+ * @param <K>  the type of the shard key
+ */
+public class RangeShardFunction<K extends Comparable<? super K>> implements ShardFunction<K> {
+
+	private final List<K> lowerBounds;
+
+	/**
+	 * @param lowerBounds  the lowest key of each shard, in ascending order
+	 */
+	public RangeShardFunction(List<? extends K> lowerBounds) {
+		if (lowerBounds.isEmpty()) {
+			throw new IllegalArgumentException("lowerBounds can NOT be empty");
+		}
+		for (int i = 1; i < lowerBounds.size(); i++) {
+			if (lowerBounds.get(i - 1).compareTo(lowerBounds.get(i)) >= 0) {
+				throw new IllegalArgumentException("lowerBounds must be in ascending order");
+			}
+		}
+		this.lowerBounds = new ArrayList<K>(lowerBounds);
+	}
+
+	public int shard(K key, int shardCount) {
+		if (shardCount != lowerBounds.size()) {
+			throw new IllegalArgumentException(String.format("Range map has %d shards, expected %d",
+					lowerBounds.size(), shardCount));
+		}
+		// Binary search for the last lower bound at or below the key
+		int low = 1;
+		int high = lowerBounds.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (lowerBounds.get(mid).compareTo(key) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low - 1;
+	}
+
+}
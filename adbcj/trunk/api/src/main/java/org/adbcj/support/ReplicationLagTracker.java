@@ -0,0 +1,129 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.adbcj.DbCompletionHandler;
+import org.adbcj.DbFuture;
+import org.adbcj.DbSession;
+import org.adbcj.NonBlockingListener;
+import org.adbcj.ReplicationLagProbe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks how far a replica has applied its primary's writes from the results of {@link ReplicationLagProbe}s.
+ *
+ * <p>Only one probe is outstanding at a time, a probe is started with {@link #startProbe()} and then either sent
+ * with {@link #probe(DbSession)} or abandoned with {@link #cancelProbe()}.
+ */
+public class ReplicationLagTracker {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplicationLagTracker.class);
+
+	/**
+	 * The time, in milliseconds since the epoch, through which the replica is known to have applied its primary's
+	 * writes.  A replica never unapplies a write so the value only advances, a failed or inconclusive probe leaves
+	 * it unchanged.
+	 */
+	private final AtomicLong replicatedThrough = new AtomicLong(Long.MIN_VALUE);
+
+	private final AtomicBoolean probing = new AtomicBoolean();
+
+	/**
+	 * Returns true if the replica has applied the writes made through {@code writeTime}, in milliseconds since the
+	 * epoch, 0 meaning no write has been made.
+	 */
+	public boolean hasReplicated(long writeTime) {
+		return writeTime == 0 || replicatedThrough.get() >= writeTime;
+	}
+
+	/**
+	 * @return  true if a probe may be sent, false if the previous probe has not completed
+	 */
+	public boolean startProbe() {
+		return probing.compareAndSet(false, true);
+	}
+
+	/**
+	 * Abandons the probe started by {@link #startProbe()} without sending it.
+	 */
+	public void cancelProbe() {
+		probing.set(false);
+	}
+
+	/**
+	 * Sends the probe started by {@link #startProbe()} on {@code session}.  A session that does not implement
+	 * {@link ReplicationLagProbe} leaves the replicated time unchanged.
+	 */
+	public void probe(DbSession session) {
+		DbFuture<Long> lag = null;
+		long start = System.currentTimeMillis();
+		try {
+			if (session instanceof ReplicationLagProbe) {
+				lag = ((ReplicationLagProbe)session).probeReplicationLag();
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Failed to probe replication lag", e);
+		}
+		if (lag == null) {
+			probing.set(false);
+			return;
+		}
+		lag.addCompletionHandler(new LagRecorder(start));
+	}
+
+	/**
+	 * Advances the replicated time from a probe's result.  The lag is measured from when the probe was sent, which
+	 * underestimates how far the replica has caught up.
+	 */
+	private class LagRecorder implements DbCompletionHandler<Long>, NonBlockingListener {
+		private final long start;
+
+		LagRecorder(long start) {
+			this.start = start;
+		}
+
+		public void completed(Long lag) {
+			if (lag != null) {
+				advance(start - Math.max(0, lag));
+			}
+			probing.set(false);
+		}
+
+		public void failed(Throwable cause) {
+			logger.debug("Replication lag probe failed", cause);
+			probing.set(false);
+		}
+
+		public void cancelled() {
+			probing.set(false);
+		}
+	}
+
+	private void advance(long time) {
+		for (;;) {
+			long current = replicatedThrough.get();
+			if (current >= time || replicatedThrough.compareAndSet(current, time)) {
+				return;
+			}
+		}
+	}
+
+}
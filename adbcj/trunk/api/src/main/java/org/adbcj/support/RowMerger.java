@@ -0,0 +1,259 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.adbcj.Row;
+import org.adbcj.RowSubscriber;
+import org.adbcj.RowSubscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the rows of several queries in to a single {@link RowSubscriber}, in the order they arrive.  The merged
+ * stream completes once every query has completed and fails as soon as one query fails, cancelling the others.
+ * 
+ * <p>Each source query is asked for all of its rows, as with a single query the wire is not throttled and rows that
+ * have not been requested downstream are buffered.  Signals to the subscriber are serialized the same way as by
+ * {@link RowPublisher}.
+ */
+public class RowMerger implements RowSubscription {
+
+	private static final Logger logger = LoggerFactory.getLogger(RowMerger.class);
+
+	private static final AtomicLongFieldUpdater<RowMerger> REQUESTED =
+		AtomicLongFieldUpdater.newUpdater(RowMerger.class, "requested");
+
+	private static final AtomicIntegerFieldUpdater<RowMerger> WIP =
+		AtomicIntegerFieldUpdater.newUpdater(RowMerger.class, "wip");
+
+	private static final AtomicIntegerFieldUpdater<RowMerger> REMAINING =
+		AtomicIntegerFieldUpdater.newUpdater(RowMerger.class, "remaining");
+
+	private static final AtomicIntegerFieldUpdater<RowMerger> FINISHED =
+		AtomicIntegerFieldUpdater.newUpdater(RowMerger.class, "finished");
+
+	private final RowSubscriber subscriber;
+
+	private final Queue<Row> rows = new ConcurrentLinkedQueue<Row>();
+
+	private final AtomicReferenceArray<RowSubscription> subscriptions;
+
+	private volatile long requested;
+
+	private volatile int wip;
+
+	/**
+	 * The number of source queries that have not completed.
+	 */
+	private volatile int remaining;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Set to 1 by the first call to {@link #finish(Throwable)}, so only one outcome is ever recorded.
+	 */
+	private volatile int finished;
+
+	private volatile boolean done;
+
+	private volatile Throwable error;
+
+	/**
+	 * @param subscriber  the subscriber receiving the merged rows
+	 * @param sourceCount  the number of queries being merged
+	 */
+	public RowMerger(RowSubscriber subscriber, int sourceCount) {
+		if (subscriber == null) {
+			throw new IllegalArgumentException("subscriber can NOT be null");
+		}
+		if (sourceCount < 1) {
+			throw new IllegalArgumentException("sourceCount must be greater than 0");
+		}
+		this.subscriber = subscriber;
+		this.subscriptions = new AtomicReferenceArray<RowSubscription>(sourceCount);
+		this.remaining = sourceCount;
+	}
+
+	/**
+	 * Subscribes the merged subscriber, must be invoked before any source is subscribed.
+	 */
+	public void start() {
+		subscriber.onSubscribe(this);
+	}
+
+	/**
+	 * Returns the subscriber for the source query with the given index.
+	 */
+	public RowSubscriber getSource(int index) {
+		return new Source(index);
+	}
+
+	private class Source implements RowSubscriber {
+		private final int index;
+
+		Source(int index) {
+			this.index = index;
+		}
+
+		public void onSubscribe(RowSubscription subscription) {
+			subscriptions.set(index, subscription);
+			if (cancelled || done) {
+				// Unless cancelSources() has already taken it
+				if (subscriptions.compareAndSet(index, subscription, null)) {
+					subscription.cancel();
+				}
+			} else {
+				subscription.request(Long.MAX_VALUE);
+			}
+		}
+
+		public void onNext(Row row) {
+			if (!cancelled && !done) {
+				rows.offer(row);
+				drain();
+			}
+		}
+
+		public void onError(Throwable t) {
+			subscriptions.set(index, null);
+			finish(t);
+		}
+
+		public void onComplete() {
+			subscriptions.set(index, null);
+			if (REMAINING.decrementAndGet(RowMerger.this) == 0) {
+				finish(null);
+			}
+		}
+	}
+
+	public void request(long n) {
+		if (n <= 0) {
+			finish(new IllegalArgumentException("Requested rows must be positive, was " + n));
+			return;
+		}
+		for (;;) {
+			long current = requested;
+			long next = current + n;
+			if (next < 0) {
+				next = Long.MAX_VALUE;
+			}
+			if (REQUESTED.compareAndSet(this, current, next)) {
+				break;
+			}
+		}
+		drain();
+	}
+
+	public void cancel() {
+		if (!cancelled) {
+			cancelled = true;
+			cancelSources();
+			if (WIP.getAndIncrement(this) == 0) {
+				rows.clear();
+			}
+		}
+	}
+
+	private void cancelSources() {
+		for (int i = 0; i < subscriptions.length(); i++) {
+			RowSubscription subscription = subscriptions.getAndSet(i, null);
+			if (subscription != null) {
+				subscription.cancel();
+			}
+		}
+	}
+
+	private void finish(Throwable error) {
+		if (!FINISHED.compareAndSet(this, 0, 1)) {
+			return;
+		}
+		this.error = error;
+		// Set ahead of cancelling so a source subscribing meanwhile either is cancelled here or sees done
+		done = true;
+		if (error != null) {
+			cancelSources();
+		}
+		drain();
+	}
+
+	private void drain() {
+		if (WIP.getAndIncrement(this) != 0) {
+			return;
+		}
+		int missed = 1;
+		for (;;) {
+			long r = requested;
+			long e = 0;
+			for (;;) {
+				if (cancelled) {
+					rows.clear();
+					return;
+				}
+				// Read done before polling so a completion is never seen ahead of the last row
+				boolean d = done;
+				if (e == r) {
+					if (d && rows.isEmpty()) {
+						terminate();
+						return;
+					}
+					break;
+				}
+				Row row = rows.poll();
+				if (row == null) {
+					if (d) {
+						terminate();
+						return;
+					}
+					break;
+				}
+				try {
+					subscriber.onNext(row);
+				} catch (Throwable t) {
+					logger.warn("RowSubscriber threw exception from onNext(), cancelling queries", t);
+					cancel();
+					return;
+				}
+				e++;
+			}
+			if (e != 0 && r != Long.MAX_VALUE) {
+				REQUESTED.addAndGet(this, -e);
+			}
+			missed = WIP.addAndGet(this, -missed);
+			if (missed == 0) {
+				return;
+			}
+		}
+	}
+
+	private void terminate() {
+		cancelled = true;
+		Throwable error = this.error;
+		if (error == null) {
+			subscriber.onComplete();
+		} else {
+			subscriber.onError(error);
+		}
+	}
+
+}
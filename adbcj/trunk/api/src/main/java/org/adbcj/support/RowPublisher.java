@@ -0,0 +1,283 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.DbSession;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.Field;
+import org.adbcj.NonBlockingListener;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.Row;
+import org.adbcj.RowSubscriber;
+import org.adbcj.RowSubscription;
+import org.adbcj.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams the rows of a query to a {@link RowSubscriber}.  The publisher is the {@link ResultEventHandler} of the query
+ * so rows are handed to the subscriber as they are decoded rather than being collected in to a result set.  Rows that
+ * arrive before they have been requested are held until the subscriber signals more demand.  The wire is not
+ * throttled, a query whose rows are never requested is buffered in full.
+ * 
+ * <p>Signals to the subscriber are serialized with a work-in-progress counter so the decoding thread and threads
+ * calling {@link #request(long)} never invoke the subscriber concurrently.
+ */
+public class RowPublisher implements ResultEventHandler<DefaultResultSet>, DbListener<DefaultResultSet>, RowSubscription,
+		NonBlockingListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(RowPublisher.class);
+
+	private static final AtomicLongFieldUpdater<RowPublisher> REQUESTED =
+		AtomicLongFieldUpdater.newUpdater(RowPublisher.class, "requested");
+
+	private static final AtomicIntegerFieldUpdater<RowPublisher> WIP =
+		AtomicIntegerFieldUpdater.newUpdater(RowPublisher.class, "wip");
+
+	private final RowSubscriber subscriber;
+
+	private final Queue<Row> rows = new ConcurrentLinkedQueue<Row>();
+
+	private DefaultRow currentRow; // Only accessed by the thread decoding the query's results
+
+	private volatile long requested;
+
+	private volatile int wip;
+
+	private volatile boolean cancelled;
+
+	private volatile boolean done;
+
+	private volatile Throwable error;
+
+	/**
+	 * The error for invalid demand, signalled ahead of any rows still buffered and of the query's own outcome.
+	 */
+	private volatile Throwable demandError;
+
+	private volatile DbFuture<?> future;
+
+	public RowPublisher(RowSubscriber subscriber) {
+		if (subscriber == null) {
+			throw new IllegalArgumentException("subscriber can NOT be null");
+		}
+		this.subscriber = subscriber;
+	}
+
+	/**
+	 * Subscribes the subscriber and executes {@code sql} on {@code session} with this publisher as the query's event
+	 * handler.
+	 */
+	public void execute(DbSession session, String sql) {
+		subscriber.onSubscribe(this);
+		if (cancelled || done) {
+			return;
+		}
+		DbSessionFuture<DefaultResultSet> future;
+		try {
+			future = session.executeQuery(sql, this, new DefaultResultSet(session));
+		} catch (Throwable t) {
+			finish(t);
+			return;
+		}
+		this.future = future;
+		if (cancelled || done) {
+			future.cancel(false);
+		}
+		future.addListener(this);
+	}
+
+	public void request(long n) {
+		if (n <= 0) {
+			// Set ahead of cancelling, a queued query's cancellation completes it and may terminate the stream at once
+			demandError = new IllegalArgumentException("Requested rows must be positive, was " + n);
+			done = true;
+			cancelQuery();
+			drain();
+			return;
+		}
+		for (;;) {
+			long current = requested;
+			long next = current + n;
+			if (next < 0) {
+				next = Long.MAX_VALUE;
+			}
+			if (REQUESTED.compareAndSet(this, current, next)) {
+				break;
+			}
+		}
+		drain();
+	}
+
+	public void cancel() {
+		if (!cancelled) {
+			cancelled = true;
+			cancelQuery();
+			if (WIP.getAndIncrement(this) == 0) {
+				rows.clear();
+			}
+		}
+	}
+
+	private void cancelQuery() {
+		DbFuture<?> future = this.future;
+		if (future != null) {
+			// Removes the query from the request queue if it has not been sent yet
+			future.cancel(false);
+		}
+	}
+
+	public void onCompletion(DbFuture<DefaultResultSet> future) {
+		if (future.isCancelled()) {
+			finish(new CancellationException());
+			return;
+		}
+		try {
+			future.getUninterruptably();
+		} catch (DbException e) {
+			finish(DerivedDbFuture.failureOf(e));
+			return;
+		}
+		finish(null);
+	}
+
+	private void finish(Throwable error) {
+		if (done) {
+			return;
+		}
+		this.error = error;
+		done = true;
+		drain();
+	}
+
+	private void drain() {
+		if (WIP.getAndIncrement(this) != 0) {
+			return;
+		}
+		int missed = 1;
+		for (;;) {
+			long r = requested;
+			long e = 0;
+			for (;;) {
+				if (cancelled) {
+					rows.clear();
+					return;
+				}
+				// Read done before polling so a completion is never seen ahead of the last row
+				boolean d = done;
+				if (d && demandError != null) {
+					rows.clear();
+					terminate();
+					return;
+				}
+				if (e == r) {
+					if (d && rows.isEmpty()) {
+						terminate();
+						return;
+					}
+					break;
+				}
+				Row row = rows.poll();
+				if (row == null) {
+					if (d) {
+						terminate();
+						return;
+					}
+					break;
+				}
+				try {
+					subscriber.onNext(row);
+				} catch (Throwable t) {
+					logger.warn("RowSubscriber threw exception from onNext(), cancelling query", t);
+					cancel();
+					return;
+				}
+				e++;
+			}
+			if (e != 0 && r != Long.MAX_VALUE) {
+				REQUESTED.addAndGet(this, -e);
+			}
+			missed = WIP.addAndGet(this, -missed);
+			if (missed == 0) {
+				return;
+			}
+		}
+	}
+
+	private void terminate() {
+		cancelled = true;
+		Throwable error = demandError != null ? demandError : this.error;
+		if (error == null) {
+			subscriber.onComplete();
+		} else {
+			subscriber.onError(error);
+		}
+	}
+
+	//*****************************************************************************************************************
+	//
+	//  ResultEventHandler methods, invoked on the thread decoding the query's results
+	//
+	//*****************************************************************************************************************
+
+	public void startFields(DefaultResultSet accumulator) {
+	}
+
+	public void field(Field field, DefaultResultSet accumulator) {
+		accumulator.addField(field);
+	}
+
+	public void endFields(DefaultResultSet accumulator) {
+	}
+
+	public void startResults(DefaultResultSet accumulator) {
+	}
+
+	public void startRow(DefaultResultSet accumulator) {
+		currentRow = new DefaultRow(accumulator, new Value[accumulator.getFields().size()]);
+	}
+
+	public void value(Value value, DefaultResultSet accumulator) {
+		currentRow.getValues()[value.getField().getIndex()] = value;
+	}
+
+	public void endRow(DefaultResultSet accumulator) {
+		DefaultRow row = currentRow;
+		currentRow = null;
+		if (!cancelled && !done) {
+			rows.offer(row);
+			drain();
+		}
+	}
+
+	public void endResults(DefaultResultSet accumulator) {
+	}
+
+	public void exception(Throwable t, DefaultResultSet accumulator) {
+		// The failure is delivered to the subscriber when the query's future completes
+	}
+
+}
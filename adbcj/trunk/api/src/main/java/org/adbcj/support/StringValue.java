@@ -0,0 +1,75 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.adbcj.Field;
+
+/**
+ * A character column value.  Numeric getters parse the string.
+ */
+public class StringValue extends AbstractValue {
+
+	private final String value;
+
+	public StringValue(Field field, String value) {
+		super(field);
+		if (value == null) {
+			throw new IllegalArgumentException("value can NOT be null, use the field's null value");
+		}
+		this.value = value;
+	}
+
+	public BigDecimal getBigDecimal() {
+		return new BigDecimal(value);
+	}
+
+	public boolean getBoolean() {
+		return Boolean.parseBoolean(value);
+	}
+
+	public Date getDate() {
+		throw notADate();
+	}
+
+	public double getDouble() {
+		return Double.parseDouble(value);
+	}
+
+	public float getFloat() {
+		return Float.parseFloat(value);
+	}
+
+	public int getInt() {
+		return Integer.parseInt(value);
+	}
+
+	public long getLong() {
+		return Long.parseLong(value);
+	}
+
+	public String getString() {
+		return value;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
+}
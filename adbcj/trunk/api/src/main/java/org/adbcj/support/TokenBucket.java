@@ -0,0 +1,88 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket that admits operations at a steady rate while allowing short bursts.
+ *
+ * <p>Rather than counting tokens the bucket tracks the time at which it will be empty, so acquiring a token is a single
+ * compare-and-set and no thread is needed to refill the bucket.
+ */
+public class TokenBucket {
+
+	/**
+	 * The nanoseconds it takes to refill one token.
+	 */
+	private final long interval;
+
+	/**
+	 * The time it takes to refill an empty bucket.
+	 */
+	private final long capacity;
+
+	/**
+	 * The time at which the bucket is empty, a time in the past means the bucket is full.
+	 */
+	private final AtomicLong emptyTime = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param permits  the number of tokens added to the bucket every {@code unit}
+	 * @param unit  the time unit of {@code permits}
+	 * @param burst  the number of tokens the bucket holds
+	 */
+	public TokenBucket(long permits, TimeUnit unit, int burst) {
+		if (permits <= 0) {
+			throw new IllegalArgumentException("permits must be greater than 0");
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be greater than 0");
+		}
+		this.interval = Math.max(1, unit.toNanos(1) / permits);
+		this.capacity = interval * burst;
+	}
+
+	/**
+	 * Takes a token from the bucket if one is available.
+	 *
+	 * @return  true if a token was taken
+	 */
+	public boolean tryAcquire() {
+		for (;;) {
+			long now = System.nanoTime();
+			long empty = emptyTime.get();
+			long next = Math.max(empty, now) + interval;
+			if (next - now > capacity) {
+				return false;
+			}
+			if (emptyTime.compareAndSet(empty, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of nanoseconds until a token will be available, 0 if one is available now.
+	 */
+	public long getNanosUntilAvailable() {
+		long now = System.nanoTime();
+		return Math.max(0, Math.max(emptyTime.get(), now) + interval - capacity - now);
+	}
+
+}
@@ -0,0 +1,336 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.adbcj.DbCompletionHandler;
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.DbSession;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.TransactionBody;
+import org.adbcj.TransactionIsolationLevel;
+
+/**
+ * Runs a {@link TransactionBody} in a transaction and retries the transaction when it fails because of a deadlock or
+ * a serialization failure.  A transaction is retried on the same session after a randomized exponential backoff,
+ * scheduled on a {@link HashedWheelTimer} so no thread is blocked while waiting, until it succeeds, fails with an error
+ * that is not retryable, or runs out of attempts or time.
+ * 
+ * <p>Errors are classified by their SQLSTATE (see {@link DbException#getSqlState()}).  {@code 40001}, reported by
+ * PostgreSQL for serialization failures and by MySQL for deadlocks (error 1213), and PostgreSQL's {@code 40P01}
+ * deadlock are retried, including when a JDBC driver reports them.  Subclasses may change the classification by overriding {@link #isRetryable(Throwable)}.
+ * 
+ * <p>Retried attempts are started from the timer's thread so transaction bodies must not block.
+ */
+public class TransactionRunner {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	
+	public static final long DEFAULT_BASE_BACKOFF_MILLIS = 10;
+	
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 1000;
+	
+	public static final long DEFAULT_BUDGET_MILLIS = 10000;
+	
+	private final HashedWheelTimer timer;
+	
+	private final int maxAttempts;
+	
+	private final long baseBackoffNanos;
+	
+	private final long maxBackoffNanos;
+	
+	private final long budgetNanos;
+	
+	private final Random random = new Random();
+	
+	private final AtomicLong transactionCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong exhaustedCount = new AtomicLong();
+	
+	/**
+	 * Creates a runner with the default limits.
+	 * 
+	 * @param timer  the timer used to schedule retries, usually the timer of the connection manager
+	 */
+	public TransactionRunner(HashedWheelTimer timer) {
+		this(timer, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_BUDGET_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param timer  the timer used to schedule retries, usually the timer of the connection manager
+	 * @param maxAttempts  the maximum number of times a transaction is attempted
+	 * @param baseBackoff  the upper bound of the delay before the first retry, doubled for every following retry
+	 * @param maxBackoff  the largest upper bound of the delay before a retry
+	 * @param budget  the time after which a failed transaction is no longer retried, measured from its first attempt
+	 * @param unit  the unit of {@code baseBackoff}, {@code maxBackoff} and {@code budget}
+	 */
+	public TransactionRunner(HashedWheelTimer timer, int maxAttempts, long baseBackoff, long maxBackoff, long budget,
+			TimeUnit unit) {
+		if (timer == null) {
+			throw new IllegalArgumentException("timer can NOT be null");
+		}
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		if (baseBackoff < 0 || maxBackoff < baseBackoff) {
+			throw new IllegalArgumentException("Invalid backoff, base " + baseBackoff + " and max " + maxBackoff);
+		}
+		this.timer = timer;
+		this.maxAttempts = maxAttempts;
+		this.baseBackoffNanos = unit.toNanos(baseBackoff);
+		this.maxBackoffNanos = unit.toNanos(maxBackoff);
+		this.budgetNanos = unit.toNanos(budget);
+	}
+	
+	/**
+	 * Runs {@code body} in a transaction using the database's default isolation level.
+	 * 
+	 * @see #run(DbSession, TransactionIsolationLevel, TransactionBody)
+	 */
+	public <T> Execution<T> run(DbSession session, TransactionBody<T> body) {
+		return run(session, null, body);
+	}
+	
+	/**
+	 * Runs {@code body} in a transaction.  The session must not be in a transaction.
+	 * 
+	 * @param session  the session to run the transaction on, every attempt uses this session
+	 * @param isolationLevel  the isolation level of the transaction, null for the database's default
+	 * @param body  issues the statements of the transaction
+	 * @return  a future that completes with the result of the body once the transaction has been committed.  Cancelling
+	 *          the future rolls back the current attempt and stops any further retries.
+	 */
+	public <T> Execution<T> run(DbSession session, TransactionIsolationLevel isolationLevel, TransactionBody<T> body) {
+		if (session == null) {
+			throw new IllegalArgumentException("session can NOT be null");
+		}
+		if (body == null) {
+			throw new IllegalArgumentException("body can NOT be null");
+		}
+		transactionCount.incrementAndGet();
+		Execution<T> execution = new Execution<T>(session, isolationLevel, body);
+		execution.attempt();
+		return execution;
+	}
+	
+	/**
+	 * Indicates if a transaction that failed with {@code failure} should be attempted again.
+	 */
+	protected boolean isRetryable(Throwable failure) {
+		for (Throwable t = failure; t != null; t = t.getCause()) {
+			if (t instanceof DbException) {
+				String sqlState = ((DbException)t).getSqlState();
+				if ("40001".equals(sqlState) || "40P01".equals(sqlState)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns a random delay, in nanoseconds, of up to the backoff of the given attempt.
+	 */
+	private long backoff(int attempt) {
+		long bound = baseBackoffNanos << Math.min(attempt - 1, 30);
+		if (bound > maxBackoffNanos || bound < 0) {
+			bound = maxBackoffNanos;
+		}
+		synchronized (random) {
+			return (long)(random.nextDouble() * bound);
+		}
+	}
+	
+	/**
+	 * Returns the number of transactions run.
+	 */
+	public long getTransactionCount() {
+		return transactionCount.get();
+	}
+	
+	/**
+	 * Returns the number of times a transaction was retried.
+	 */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+	
+	/**
+	 * Returns the number of transactions that failed with a retryable error after running out of attempts or time.
+	 */
+	public long getExhaustedCount() {
+		return exhaustedCount.get();
+	}
+	
+	/**
+	 * The future of a transaction run by a {@link TransactionRunner}.
+	 */
+	public class Execution<T> extends DefaultDbSessionFuture<T> {
+		
+		private final TransactionIsolationLevel isolationLevel;
+		
+		private final TransactionBody<T> body;
+		
+		private final long deadline;
+		
+		private volatile int attempts;
+		
+		/**
+		 * The future of the body or of the commit of the current attempt.
+		 */
+		private volatile DbFuture<?> current;
+		
+		private volatile HashedWheelTimer.Timeout retry;
+		
+		private Execution(DbSession session, TransactionIsolationLevel isolationLevel, TransactionBody<T> body) {
+			super(session);
+			this.isolationLevel = isolationLevel;
+			this.body = body;
+			this.deadline = System.nanoTime() + budgetNanos;
+		}
+		
+		/**
+		 * Returns the number of times the transaction has been attempted so far.
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+		
+		@Override
+		protected boolean doCancel(boolean mayInterruptIfRunning) {
+			HashedWheelTimer.Timeout retry = this.retry;
+			if (retry != null) {
+				retry.cancel();
+			}
+			DbFuture<?> current = this.current;
+			if (current != null) {
+				current.cancel(mayInterruptIfRunning);
+			}
+			return true;
+		}
+		
+		private void attempt() {
+			if (isDone()) {
+				return;
+			}
+			attempts++;
+			try {
+				getSession().beginTransaction(isolationLevel);
+			} catch (Throwable e) {
+				trySetException(e);
+				return;
+			}
+			DbFuture<T> result;
+			try {
+				result = body.execute(getSession());
+				if (result == null) {
+					throw new IllegalStateException("Transaction body returned null");
+				}
+			} catch (Throwable e) {
+				rollback(e);
+				return;
+			}
+			current = result;
+			result.addCompletionHandler(new DbCompletionHandler<T>() {
+				public void completed(T value) {
+					commit(value);
+				}
+				public void failed(Throwable cause) {
+					rollback(cause);
+				}
+				public void cancelled() {
+					rollback(new CancellationException());
+				}
+			});
+		}
+		
+		private void commit(final T value) {
+			DbSessionFuture<Void> commit;
+			try {
+				commit = getSession().commit();
+			} catch (Throwable e) {
+				retryOrFail(e);
+				return;
+			}
+			current = commit;
+			commit.addCompletionHandler(new DbCompletionHandler<Void>() {
+				public void completed(Void result) {
+					setResult(value);
+				}
+				public void failed(Throwable cause) {
+					retryOrFail(cause);
+				}
+				public void cancelled() {
+					// The database rolled the transaction back instead of committing it without a failed statement to
+					// blame, failed statements are reported through failed()
+					retryOrFail(new DbException(getSession(), "Transaction was rolled back instead of committed"));
+				}
+			});
+		}
+		
+		private void rollback(final Throwable cause) {
+			DbSession session = getSession();
+			try {
+				if (session.isInTransaction()) {
+					session.rollback().addListener(new DbListener<Void>() {
+						public void onCompletion(DbFuture<Void> future) {
+							retryOrFail(cause);
+						}
+					});
+					return;
+				}
+			} catch (Throwable e) {
+				// The session is closed, report the transaction's failure
+			}
+			retryOrFail(cause);
+		}
+		
+		private void retryOrFail(Throwable cause) {
+			if (isDone()) {
+				return;
+			}
+			if (cause instanceof CancellationException) {
+				trySetCancelled();
+				return;
+			}
+			if (isRetryable(cause)) {
+				long delay = backoff(attempts);
+				if (attempts < maxAttempts && System.nanoTime() + delay - deadline < 0) {
+					retryCount.incrementAndGet();
+					retry = timer.newTimeout(new Runnable() {
+						public void run() {
+							attempt();
+						}
+					}, delay, TimeUnit.NANOSECONDS);
+					return;
+				}
+				exhaustedCount.incrementAndGet();
+			}
+			trySetException(cause);
+		}
+		
+	}
+	
+}
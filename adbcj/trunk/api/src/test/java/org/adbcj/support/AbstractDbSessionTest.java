@@ -0,0 +1,405 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.adbcj.DbException;
+import org.adbcj.DbOverloadedException;
+import org.adbcj.DbSessionClosedException;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.DbTimeoutException;
+import org.adbcj.PreparedStatement;
+import org.adbcj.Result;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.TransactionIsolationLevel;
+import org.adbcj.support.AbstractDbSession.Request;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class AbstractDbSessionTest {
+
+	/**
+	 * Session that records the requests it sends instead of writing them to a database.
+	 */
+	static class RecordingSession extends AbstractDbSession {
+
+		final List<Request<?>> sent = new ArrayList<Request<?>>();
+
+		final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+
+		HashedWheelTimer timer;
+
+		boolean commitPipelinable;
+
+		volatile boolean closed;
+
+		Request<Void> request(final String name, final boolean pipelinable) {
+			return new Request<Void>() {
+				@Override
+				protected void execute() {
+					sent.add(this);
+					commands.add(name);
+				}
+				@Override
+				public boolean isPipelinable() {
+					return pipelinable;
+				}
+				@Override
+				public String toString() {
+					return name;
+				}
+			};
+		}
+
+		Request<Void> enqueue(String name, boolean pipelinable) {
+			Request<Void> request = request(name, pipelinable);
+			enqueueRequest(request);
+			return request;
+		}
+
+		Request<Void> enqueueTransactional(String name) {
+			Request<Void> request = request(name, true);
+			enqueueTransactionalRequest(request);
+			return request;
+		}
+
+		/**
+		 * Completes the active request the way a driver does when its response arrives.
+		 */
+		void respond() {
+			Request<Void> request = getActiveRequest();
+			Assert.assertNotNull(request, "No active request");
+			request.complete(null);
+		}
+
+		@Override
+		protected HashedWheelTimer getTimer() {
+			return timer;
+		}
+		@Override
+		protected void checkClosed() throws DbSessionClosedException {
+		}
+		@Override
+		protected boolean isCommitPipelinable() {
+			return commitPipelinable;
+		}
+		@Override
+		protected void sendBegin() {
+			commands.add("begin");
+		}
+		@Override
+		protected void sendBegin(TransactionIsolationLevel isolationLevel) {
+			commands.add(isolationLevel == null ? "begin" : "begin " + isolationLevel);
+		}
+		@Override
+		protected void sendCommit() {
+			commands.add("commit");
+		}
+		@Override
+		protected void sendRollback() {
+			commands.add("rollback");
+		}
+		public <T> DbSessionFuture<T> executeQuery(String sql, ResultEventHandler<T> eventHandler, T accumulator) {
+			return enqueueTransactionalRequest(new RecordingRequest<T>(sql));
+		}
+		public DbSessionFuture<Result> executeUpdate(final String sql) {
+			return enqueueTransactionalRequest(new RecordingRequest<Result>(sql));
+		}
+		private class RecordingRequest<T> extends Request<T> {
+			private final String sql;
+
+			RecordingRequest(String sql) {
+				this.sql = sql;
+			}
+			@Override
+			protected void execute() {
+				sent.add(this);
+				commands.add(sql);
+			}
+			@Override
+			public String toString() {
+				return sql;
+			}
+		}
+		public DbSessionFuture<PreparedStatement> prepareStatement(String sql) {
+			throw new UnsupportedOperationException();
+		}
+		public DbSessionFuture<PreparedStatement> prepareStatement(Object key, String sql) {
+			throw new UnsupportedOperationException();
+		}
+		public DbSessionFuture<Void> close(boolean immediate) throws DbException {
+			commands.add("close");
+			closed = true;
+			return DefaultDbSessionFuture.createCompletedFuture(this, null);
+		}
+		public boolean isClosed() throws DbException {
+			return closed;
+		}
+	}
+
+	public void testPipelinableRequestsSentTogether() {
+		RecordingSession session = new RecordingSession();
+		Request<Void> first = session.enqueue("first", true);
+		Request<Void> second = session.enqueue("second", true);
+		Request<Void> barrier = session.enqueue("barrier", false);
+		Request<Void> after = session.enqueue("after", true);
+		Assert.assertEquals(session.sent.toString(), "[first, second]");
+		Assert.assertSame(session.getActiveRequest(), first);
+
+		session.respond();
+		Assert.assertTrue(first.isDone());
+		Assert.assertSame(session.getActiveRequest(), second);
+		Assert.assertEquals(session.sent.size(), 2, "Non-pipelinable request sent while others in flight");
+
+		session.respond();
+		Assert.assertSame(session.getActiveRequest(), barrier);
+		Assert.assertEquals(session.sent.toString(), "[first, second, barrier]");
+
+		session.respond();
+		Assert.assertSame(session.getActiveRequest(), after);
+		session.respond();
+		Assert.assertTrue(second.isDone() && barrier.isDone() && after.isDone());
+		Assert.assertNull(session.getActiveRequest());
+	}
+
+	public void testPipeliningDisabled() {
+		RecordingSession session = new RecordingSession();
+		session.setPipeliningEnabled(false);
+		session.enqueue("first", true);
+		session.enqueue("second", true);
+		Assert.assertEquals(session.sent.toString(), "[first]");
+		session.respond();
+		Assert.assertEquals(session.sent.toString(), "[first, second]");
+	}
+
+	public void testCancelledRequestNotSent() {
+		RecordingSession session = new RecordingSession();
+		session.enqueue("first", false);
+		Request<Void> cancelled = session.enqueue("cancelled", true);
+		session.enqueue("last", true);
+		Assert.assertTrue(cancelled.cancel(false));
+		session.respond();
+		Assert.assertEquals(session.sent.toString(), "[first, last]");
+		Assert.assertEquals(session.getActiveRequest().toString(), "last");
+	}
+
+	public void testFailedExecuteDoesNotStallSession() {
+		RecordingSession session = new RecordingSession();
+		Request<Void> failing = session.new Request<Void>() {
+			@Override
+			protected void execute() {
+				throw new IllegalStateException("write failed");
+			}
+		};
+		session.enqueueRequest(failing);
+		Assert.assertTrue(failing.isDone());
+		session.enqueue("next", false);
+		Assert.assertEquals(session.sent.toString(), "[next]");
+	}
+
+	public void testPipelineDepthLimit() {
+		RecordingSession session = new RecordingSession();
+		session.setMaxPipelineDepth(2);
+		for (int i = 0; i < 5; i++) {
+			session.enqueue("request" + i, true);
+		}
+		Assert.assertEquals(session.sent.size(), 2);
+		session.respond();
+		Assert.assertEquals(session.sent.size(), 3);
+		session.setMaxPipelineDepth(10);
+		Assert.assertEquals(session.sent.size(), 5);
+	}
+
+	public void testWritability() {
+		RecordingSession session = new RecordingSession();
+		session.setMaxPipelineDepth(2);
+		session.enqueue("first", false);
+		Assert.assertTrue(session.isWritable());
+		session.enqueue("second", false);
+		session.enqueue("third", false);
+		Assert.assertFalse(session.isWritable());
+		DbSessionFuture<Void> writable = session.whenWritable();
+		Assert.assertFalse(writable.isDone());
+		session.respond();
+		Assert.assertTrue(writable.isDone());
+		Assert.assertTrue(session.isWritable());
+	}
+
+	public void testDeadlines() throws Exception {
+		RecordingSession session = new RecordingSession();
+		session.timer = new HashedWheelTimer("test", 1, TimeUnit.MILLISECONDS, 8);
+		try {
+			Request<Void> sent = session.enqueue("sent", false);
+			Request<Void> queued = session.enqueue("queued", false);
+			session.enqueue("next", false);
+			sent.setDeadline(10, TimeUnit.MILLISECONDS);
+			queued.setDeadline(10, TimeUnit.MILLISECONDS);
+			try {
+				queued.get();
+				Assert.fail("Expected DbTimeoutException");
+			} catch (DbException e) {
+				Assert.assertTrue(e.getCause() instanceof DbTimeoutException);
+			}
+			try {
+				sent.get();
+				Assert.fail("Expected DbTimeoutException");
+			} catch (DbException e) {
+				Assert.assertTrue(e.getCause() instanceof DbTimeoutException);
+			}
+			Assert.assertTrue(session.isResetRequired());
+
+			// The expired request that was sent still receives its response, the expired queued request is skipped
+			Assert.assertSame(session.getActiveRequest(), sent);
+			session.respond();
+			Assert.assertEquals(session.sent.toString(), "[sent, next]");
+		} finally {
+			session.timer.stop();
+		}
+	}
+
+	public void testFailedStatementRollsBackTransaction() {
+		RecordingSession session = new RecordingSession();
+		session.setMaxPipelineDepth(1);
+		session.beginTransaction();
+		Request<Void> first = session.enqueueTransactional("insert 1");
+		Request<Void> second = session.enqueueTransactional("insert 2");
+		DbSessionFuture<Void> commit = session.commit();
+		Assert.assertEquals(session.commands.toString(), "[begin]");
+
+		session.respond();
+		DbException failure = new DbException(session, "Duplicate key");
+		session.<Void>getActiveRequest().error(failure);
+		Assert.assertSame(session.getActiveRequest(), commit);
+		Assert.assertTrue(first.isDone() && !first.isCancelled());
+		Assert.assertTrue(second.isCancelled());
+		assertFailedWith(commit, failure);
+		Assert.assertEquals(session.commands.toString(), "[begin, insert 1, rollback]");
+
+		session.respond();
+		Assert.assertNull(session.getActiveRequest());
+		Assert.assertFalse(session.isInTransaction());
+	}
+
+	public void testPipelinedTransaction() {
+		RecordingSession session = new RecordingSession();
+		session.commitPipelinable = true;
+		session.beginTransaction();
+		session.enqueueTransactional("insert 1");
+		session.enqueueTransactional("insert 2");
+		DbSessionFuture<Void> commit = session.commit();
+		Assert.assertEquals(session.commands.toString(), "[begin, insert 1, insert 2, commit]");
+		for (int i = 0; i < 4; i++) {
+			session.respond();
+		}
+		Assert.assertTrue(commit.isDone() && !commit.isCancelled());
+
+		// A failure in a pipelined transaction is answered with a rollback by the database
+		session.beginTransaction();
+		session.enqueueTransactional("insert 3");
+		commit = session.commit();
+		session.respond();
+		DbException failure = new DbException(session, "Duplicate key");
+		session.<Void>getActiveRequest().error(failure);
+		session.<Void>getActiveRequest().rolledBack();
+		assertFailedWith(commit, failure);
+		Assert.assertNull(session.getActiveRequest());
+
+		// Without a failed statement the rollback is reported as a cancellation
+		session.beginTransaction();
+		session.enqueueTransactional("insert 4");
+		commit = session.commit();
+		session.respond();
+		session.respond();
+		session.<Void>getActiveRequest().rolledBack();
+		Assert.assertTrue(commit.isCancelled());
+		Assert.assertNull(session.getActiveRequest());
+	}
+	
+	private static void assertFailedWith(DbSessionFuture<Void> future, DbException failure) {
+		Assert.assertTrue(future.isDone() && !future.isCancelled());
+		try {
+			future.getUninterruptably();
+			Assert.fail("Expected DbException");
+		} catch (DbException e) {
+			Assert.assertSame(e.getCause(), failure);
+		}
+	}
+
+	public void testIsolationLevel() {
+		RecordingSession session = new RecordingSession();
+		session.beginTransaction(TransactionIsolationLevel.SERIALIZABLE);
+		Assert.assertEquals(session.getTransactionIsolationLevel(), TransactionIsolationLevel.SERIALIZABLE);
+		session.enqueueTransactional("select");
+		Assert.assertEquals(session.commands.toString(), "[begin SERIALIZABLE, select]");
+		session.rollback();
+		Assert.assertNull(session.getTransactionIsolationLevel());
+	}
+
+	public void testManyProducers() throws Exception {
+		final RecordingSession session = new RecordingSession();
+		session.setMaxPipelineDepth(Integer.MAX_VALUE);
+		final int producers = 4;
+		final int requests = 1000;
+		Thread[] threads = new Thread[producers];
+		for (int i = 0; i < producers; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < requests; j++) {
+						session.enqueue("request", true);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(session.sent.size(), producers * requests);
+	}
+
+	public void testQueueControllerShedsDelayedRequests() throws Exception {
+		RecordingSession session = new RecordingSession();
+		session.setPipeliningEnabled(false);
+		session.setQueueController(new CoDelController(1, 1, TimeUnit.MILLISECONDS));
+		session.enqueue("first", true);
+		session.enqueue("second", true);
+		Request<Void> third = session.enqueue("third", true);
+		session.enqueue("fourth", true);
+
+		// The first delayed request starts the interval, the delay persisting past it sheds the next request
+		Thread.sleep(5);
+		session.respond();
+		Assert.assertEquals(session.sent.toString(), "[first, second]");
+		Thread.sleep(5);
+		session.respond();
+		Assert.assertEquals(session.sent.toString(), "[first, second, fourth]");
+		try {
+			third.get();
+			Assert.fail("Request should have been shed");
+		} catch (DbException e) {
+			Assert.assertTrue(e.getCause() instanceof DbOverloadedException, e.toString());
+		}
+		Assert.assertEquals(session.getQueueController().getDropCount(), 1);
+	}
+
+}
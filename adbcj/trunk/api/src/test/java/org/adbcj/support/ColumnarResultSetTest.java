@@ -0,0 +1,90 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.adbcj.Field;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.Row;
+import org.adbcj.Type;
+import org.adbcj.Value;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class ColumnarResultSetTest {
+
+	private static Field field(int index, Type type, String name) {
+		return new DefaultField(index, null, null, null, null, type, name, name, 0, 0, false, false, false, false,
+				true, true, false, true, false, null);
+	}
+
+	private static ColumnarResultSet resultSet(Field[] fields, Object[]... rows) {
+		ResultEventHandler<ColumnarResultSet> handler = ColumnarResultSet.EVENT_HANDLER;
+		ColumnarResultSet resultSet = new ColumnarResultSet(null);
+		for (Field field : fields) {
+			handler.field(field, resultSet);
+		}
+		for (Object[] row : rows) {
+			handler.startRow(resultSet);
+			for (int i = 0; i < row.length; i++) {
+				handler.value(new DefaultValue(fields[i], row[i]), resultSet);
+			}
+			handler.endRow(resultSet);
+		}
+		return resultSet;
+	}
+
+	public void testColumnsReadBack() {
+		Field[] fields = { field(0, Type.INTEGER, "id"), field(1, Type.BIGINT, "total"),
+				field(2, Type.VARCHAR, "name"), field(3, Type.DOUBLE, "ratio") };
+		Object[][] rows = new Object[100][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Object[] { i, i * 1000000000000L, i % 3 == 0 ? null : "n\u00e9" + i, i / 4d };
+		}
+		ColumnarResultSet resultSet = resultSet(fields, rows);
+
+		Assert.assertEquals(resultSet.size(), 100);
+		for (int i = 0; i < rows.length; i++) {
+			Row row = resultSet.get(i);
+			Assert.assertEquals(row.get("id").getValue(), Integer.valueOf(i));
+			Assert.assertEquals(row.get(1).getLong(), i * 1000000000000L);
+			Assert.assertEquals(row.get("name").getString(), rows[i][2]);
+			Assert.assertEquals(row.get("name").isNull(), rows[i][2] == null);
+			Assert.assertEquals(resultSet.getDouble(i, 3), i / 4d);
+		}
+		Row row = resultSet.get(4);
+		Assert.assertEquals(row.size(), 4);
+		for (Map.Entry<Object, Value> entry : row.entrySet()) {
+			Assert.assertSame(entry.getValue().getField(), entry.getKey());
+		}
+	}
+
+	public void testMixedColumnFallsBackToObjects() {
+		Field[] fields = { field(0, Type.DECIMAL, "amount") };
+		ColumnarResultSet resultSet = resultSet(fields, new Object[] { 5L }, new Object[] { null },
+				new Object[] { new BigDecimal("2.50") });
+
+		Assert.assertEquals(resultSet.get(0).get("amount").getValue(), Long.valueOf(5));
+		Assert.assertTrue(resultSet.get(1).get("amount").isNull());
+		Assert.assertEquals(resultSet.get(2).get("amount").getBigDecimal(), new BigDecimal("2.50"));
+		Assert.assertEquals(resultSet.getInt(2, 0), 2);
+	}
+
+}
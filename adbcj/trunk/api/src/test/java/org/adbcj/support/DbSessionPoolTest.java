@@ -0,0 +1,582 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adbcj.Connection;
+import org.adbcj.ConnectionManager;
+import org.adbcj.ConnectionRole;
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.DbSession;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.DbOverloadedException;
+import org.adbcj.DbSessionPool;
+import org.adbcj.PooledDbSession;
+import org.adbcj.RejectionPolicy;
+import org.adbcj.ReplicationLagProbe;
+import org.adbcj.Result;
+import org.adbcj.ResultSet;
+import org.adbcj.support.AbstractDbSessionTest.RecordingSession;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class DbSessionPoolTest {
+
+	static class RecordingConnectionManager implements ConnectionManager {
+		final List<RecordingConnection> connections =
+			Collections.synchronizedList(new ArrayList<RecordingConnection>());
+
+		public DbFuture<Connection> connect() {
+			RecordingConnection connection = new RecordingConnection(this);
+			connections.add(connection);
+			DefaultDbFuture<Connection> future = new DefaultDbFuture<Connection>();
+			future.setResult(connection);
+			return future;
+		}
+		public DbFuture<Void> close(boolean immediate) {
+			throw new UnsupportedOperationException();
+		}
+		public boolean isClosed() {
+			return false;
+		}
+	}
+
+	static class RecordingConnection extends RecordingSession implements Connection {
+		private final ConnectionManager connectionManager;
+
+		RecordingConnection(ConnectionManager connectionManager) {
+			this.connectionManager = connectionManager;
+			// Send every request immediately since the test never responds to them
+			commitPipelinable = true;
+		}
+		public ConnectionManager getConnectionManager() {
+			return connectionManager;
+		}
+		final AtomicInteger pings = new AtomicInteger();
+
+		volatile boolean unreachable;
+
+		public DbFuture<Void> ping() {
+			pings.incrementAndGet();
+			DefaultDbFuture<Void> future = new DefaultDbFuture<Void>();
+			if (unreachable) {
+				future.setException(new DbException("Connection reset"));
+			} else {
+				future.setResult(null);
+			}
+			return future;
+		}
+	}
+
+	private static class ReplicaConnectionManager extends RecordingConnectionManager {
+		volatile long lag = Long.MAX_VALUE;
+
+		final AtomicInteger probes = new AtomicInteger();
+
+		@Override
+		public DbFuture<Connection> connect() {
+			RecordingConnection connection = new ReplicaConnection(this);
+			connections.add(connection);
+			DefaultDbFuture<Connection> future = new DefaultDbFuture<Connection>();
+			future.setResult(connection);
+			return future;
+		}
+	}
+
+	private static class ReplicaConnection extends RecordingConnection implements ReplicationLagProbe {
+		private final ReplicaConnectionManager connectionManager;
+
+		ReplicaConnection(ReplicaConnectionManager connectionManager) {
+			super(connectionManager);
+			this.connectionManager = connectionManager;
+		}
+		public DbFuture<Long> probeReplicationLag() {
+			DefaultDbFuture<Long> future = new DefaultDbFuture<Long>();
+			future.setResult(connectionManager.lag);
+			connectionManager.probes.incrementAndGet();
+			return future;
+		}
+	}
+
+	public void testTransactionLeasesConnection() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.addConnectionManager(connectionManager, 2);
+		DbSession transactional = pool.connect().get();
+		DbSession shared = pool.connect().get();
+
+		transactional.beginTransaction();
+		transactional.executeUpdate("t1");
+		RecordingConnection leased = connectionManager.connections.get(0).commands.isEmpty()
+				? connectionManager.connections.get(1) : connectionManager.connections.get(0);
+		RecordingConnection other = connectionManager.connections.get(0) == leased
+				? connectionManager.connections.get(1) : connectionManager.connections.get(0);
+		Assert.assertEquals(leased.commands.toString(), "[begin, t1]");
+
+		// Statements outside of the transaction are never sent to the leased connection
+		for (int i = 0; i < 4; i++) {
+			shared.executeUpdate("s" + i);
+		}
+		transactional.executeUpdate("t2");
+		Assert.assertEquals(leased.commands.toString(), "[begin, t1, t2]");
+		Assert.assertEquals(other.commands.toString(), "[s0, s1, s2, s3]");
+
+		// Commit returns the connection to the pool
+		transactional.commit();
+		Assert.assertFalse(transactional.isInTransaction());
+		shared.executeUpdate("s4");
+		shared.executeUpdate("s5");
+		Assert.assertEquals(leased.commands.size() + other.commands.size(), 10);
+		Assert.assertTrue(leased.commands.contains("s4") || leased.commands.contains("s5"));
+
+		// A transaction waits for a connection when both are leased
+		DbSession third = pool.connect().get();
+		shared.beginTransaction();
+		shared.executeUpdate("a");
+		transactional.beginTransaction();
+		transactional.executeUpdate("b");
+		third.beginTransaction();
+		DbSessionFuture<Result> waiting = third.executeUpdate("c");
+		Assert.assertFalse(waiting.isDone());
+		Assert.assertFalse(leased.commands.contains("c") || other.commands.contains("c"));
+		shared.rollback();
+		RecordingConnection released = leased.commands.contains("a") ? leased : other;
+		Assert.assertTrue(released.commands.contains("c"), released.commands.toString());
+
+		// Closing waits for the leased connections
+		DbFuture<Void> closeFuture = pool.close(false);
+		Assert.assertFalse(closeFuture.isDone());
+		transactional.commit();
+		Assert.assertFalse(closeFuture.isDone());
+		third.rollback();
+		Assert.assertTrue(closeFuture.isDone());
+		Assert.assertTrue(leased.isClosed() && other.isClosed());
+	}
+
+	public void testCloseFailsWaitingStatements() throws Exception {
+		DbSessionPool pool = new DbSessionPool();
+		pool.addConnectionManager(new RecordingConnectionManager(), 1);
+		DbSession first = pool.connect().get();
+		DbSession second = pool.connect().get();
+		first.beginTransaction();
+		first.executeUpdate("a");
+		DbSessionFuture<Result> waiting = second.executeUpdate("b");
+		Assert.assertFalse(waiting.isDone());
+		pool.close(false);
+		try {
+			waiting.get();
+			Assert.fail("Statement waiting for a connection should have failed");
+		} catch (DbException e) {
+			// Expected
+		}
+	}
+
+	public void testLeastLoadedConnectionSelected() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.addConnectionManager(connectionManager, 2);
+		RecordingConnection busy = connectionManager.connections.get(0);
+		RecordingConnection idle = connectionManager.connections.get(1);
+		for (int i = 0; i < 5; i++) {
+			busy.executeUpdate("slow" + i);
+		}
+
+		DbSession session = pool.connect().get();
+		for (int i = 0; i < 4; i++) {
+			session.executeUpdate("s" + i);
+		}
+		Assert.assertEquals(idle.commands.toString(), "[s0, s1, s2, s3]");
+
+		// Once the busy connection catches up it receives statements again
+		for (int i = 0; i < 5; i++) {
+			busy.respond();
+		}
+		session.executeUpdate("s4");
+		Assert.assertEquals(busy.commands.get(busy.commands.size() - 1), "s4");
+	}
+
+	public void testFailingConnectionManagerAvoided() throws Exception {
+		RecordingConnectionManager healthy = new RecordingConnectionManager();
+		RecordingConnectionManager failing = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setFailurePenalty(1, TimeUnit.HOURS);
+		pool.setLatencyDecayTime(1, TimeUnit.HOURS);
+		pool.addConnectionManager(healthy, 1);
+		pool.addConnectionManager(failing, 1);
+		DbSession session = pool.connect().get();
+
+		// Send statements until one reaches the failing connection manager and fail it as a lost connection would
+		RecordingConnection failed = failing.connections.get(0);
+		while (failed.commands.isEmpty()) {
+			session.executeUpdate("probe");
+		}
+		failed.getActiveRequest().error(new DbException("Connection reset"));
+
+		for (int i = 0; i < 5; i++) {
+			session.executeUpdate("s" + i);
+		}
+		Assert.assertEquals(failed.commands.size(), 1, failed.commands.toString());
+	}
+
+	public void testPoolGrowsAndShrinks() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setSizingInterval(10, TimeUnit.MILLISECONDS);
+		pool.setQueueDepthThreshold(2);
+		pool.setIdleTimeout(50, TimeUnit.MILLISECONDS);
+		pool.addConnectionManager(connectionManager, 1, 2);
+		try {
+			Assert.assertEquals(connectionManager.connections.size(), 1);
+			RecordingConnection first = connectionManager.connections.get(0);
+			DbSession session = pool.connect().get();
+			for (int i = 0; i < 4; i++) {
+				session.executeUpdate("s" + i);
+			}
+			while (connectionManager.connections.size() < 2) {
+				Thread.sleep(5);
+			}
+
+			// Once the load is gone the connection beyond the minimum is closed
+			for (int i = 0; i < 4; i++) {
+				first.respond();
+			}
+			RecordingConnection second = connectionManager.connections.get(1);
+			while (!first.isClosed() && !second.isClosed()) {
+				Thread.sleep(5);
+			}
+			Thread.sleep(100);
+			Assert.assertEquals(connectionManager.connections.size(), 2);
+			Assert.assertTrue(first.isClosed() ^ second.isClosed(), "Exactly one connection should have been closed");
+		} finally {
+			pool.close(true);
+		}
+	}
+
+	public void testIdleConnectionsPingedAndRotated() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setSizingInterval(10, TimeUnit.MILLISECONDS);
+		pool.setKeepAliveInterval(20, TimeUnit.MILLISECONDS);
+		pool.addConnectionManager(connectionManager, 1);
+		try {
+			RecordingConnection first = connectionManager.connections.get(0);
+			while (first.pings.get() == 0) {
+				Thread.sleep(5);
+			}
+			Assert.assertFalse(first.isClosed());
+
+			// A connection that fails its ping is closed and replaced
+			first.unreachable = true;
+			while (connectionManager.connections.size() < 2) {
+				Thread.sleep(5);
+			}
+			Assert.assertTrue(first.isClosed());
+
+			// A connection that outlives the maximum lifetime is replaced as well
+			pool.setMaxLifetime(50, TimeUnit.MILLISECONDS);
+			RecordingConnection second = connectionManager.connections.get(1);
+			while (connectionManager.connections.size() < 3) {
+				Thread.sleep(5);
+			}
+			Assert.assertTrue(second.isClosed());
+			Assert.assertFalse(connectionManager.connections.get(2).isClosed());
+		} finally {
+			pool.close(true);
+		}
+	}
+
+	public void testPingedConnectionsStillShrink() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setSizingInterval(10, TimeUnit.MILLISECONDS);
+		pool.setQueueDepthThreshold(2);
+		pool.setKeepAliveInterval(10, TimeUnit.MILLISECONDS);
+		pool.setIdleTimeout(50, TimeUnit.MILLISECONDS);
+		pool.addConnectionManager(connectionManager, 1, 2);
+		try {
+			RecordingConnection first = connectionManager.connections.get(0);
+			DbSession session = pool.connect().get();
+			for (int i = 0; i < 4; i++) {
+				session.executeUpdate("s" + i);
+			}
+			while (connectionManager.connections.size() < 2) {
+				Thread.sleep(5);
+			}
+			for (int i = 0; i < 4; i++) {
+				first.respond();
+			}
+
+			// Pings keep the idle connections alive but do not count as activity
+			RecordingConnection second = connectionManager.connections.get(1);
+			long deadline = System.currentTimeMillis() + 1000;
+			while (!first.isClosed() && !second.isClosed() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			Assert.assertTrue(first.isClosed() ^ second.isClosed(), "Exactly one connection should have been closed");
+			Assert.assertTrue(first.pings.get() > 0);
+		} finally {
+			pool.close(true);
+		}
+	}
+
+	public void testConnectionsPacedUntilReady() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setConnectRate(20, TimeUnit.SECONDS, 1);
+		pool.setReadyFraction(1);
+		try {
+			pool.addConnectionManager(connectionManager, 3);
+			Assert.assertEquals(connectionManager.connections.size(), 1);
+			Assert.assertFalse(pool.whenReady().isDone());
+
+			// A statement issued before the pool is ready waits for a connection instead of failing
+			DbSession session = pool.connect().get();
+			session.executeUpdate("early");
+
+			long start = System.nanoTime();
+			pool.whenReady().get();
+			Assert.assertEquals(connectionManager.connections.size(), 3);
+			Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+		} finally {
+			pool.close(true);
+		}
+	}
+
+	public void testWhenReadyFailsWhenUnreachable() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		ConnectionManager connectionManager = new RecordingConnectionManager() {
+			@Override
+			public DbFuture<Connection> connect() {
+				attempts.incrementAndGet();
+				DefaultDbFuture<Connection> future = new DefaultDbFuture<Connection>();
+				future.setException(new DbException("Connection refused"));
+				return future;
+			}
+		};
+		DbSessionPool pool = new DbSessionPool();
+		try {
+			pool.addConnectionManager(connectionManager, 3);
+			try {
+				pool.whenReady().get(1, TimeUnit.SECONDS);
+				Assert.fail("Pool became ready without connections");
+			} catch (DbException e) {
+				Assert.assertEquals(e.getCause().getMessage(), "Session pool failed to establish its connections");
+			}
+			Assert.assertEquals(attempts.get(), 3);
+		} finally {
+			pool.close(true);
+		}
+	}
+
+	public void testAdmissionControl() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setMaxQueuedRequests(2);
+		pool.setRejectionPolicy(RejectionPolicy.DROP_LOWEST_PRIORITY);
+		pool.addConnectionManager(connectionManager, 1);
+		RecordingConnection connection = connectionManager.connections.get(0);
+		connection.setPipeliningEnabled(false);
+		DbSession low = pool.connect(0).get();
+		DbSession high = pool.connect(1).get();
+
+		low.executeUpdate("low1");
+		DbSessionFuture<Result> low2 = low.executeUpdate("low2");
+		// There is no lower priority statement to drop for a statement of the lowest priority
+		DbSessionFuture<Result> rejected = low.executeUpdate("low3");
+		try {
+			rejected.get();
+			Assert.fail("Statement should have been rejected");
+		} catch (DbException e) {
+			Assert.assertTrue(e.getCause() instanceof DbOverloadedException, e.toString());
+		}
+		Assert.assertEquals(pool.getRejectedCount(), 1);
+
+		// A higher priority statement displaces the queued low priority statement, the sent one can't be dropped
+		DbSessionFuture<Result> high1 = high.executeUpdate("high1");
+		Assert.assertFalse(high1.isDone());
+		Assert.assertTrue(low2.isCancelled());
+		Assert.assertEquals(pool.getDroppedCount(), 1);
+
+		connection.respond();
+		Assert.assertEquals(connection.commands.toString(), "[low1, high1]");
+	}
+
+	public void testReadsRoutedToReplicas() throws Exception {
+		RecordingConnectionManager primary = new RecordingConnectionManager();
+		RecordingConnectionManager replica = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.addConnectionManager(primary, 1);
+		pool.addConnectionManager(replica, ConnectionRole.REPLICA, 1, 1);
+		RecordingConnection primaryConnection = primary.connections.get(0);
+		RecordingConnection replicaConnection = replica.connections.get(0);
+		PooledDbSession session = pool.connect().get();
+
+		session.executeQuery("q1");
+		session.executeUpdate("u1");
+		session.executeQuery("q2", ConnectionRole.PRIMARY);
+		Assert.assertEquals(replicaConnection.commands.toString(), "[q1]");
+		Assert.assertEquals(primaryConnection.commands.toString(), "[u1, q2]");
+
+		// Queries inside a transaction must see its writes
+		session.beginTransaction();
+		session.executeQuery("q3");
+		Assert.assertEquals(primaryConnection.commands.toString(), "[u1, q2, begin, q3]");
+		Assert.assertEquals(replicaConnection.commands.toString(), "[q1]");
+	}
+
+	public void testReadsFollowSessionWrites() throws Exception {
+		RecordingConnectionManager primary = new RecordingConnectionManager();
+		ReplicaConnectionManager replica = new ReplicaConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setLagProbeInterval(10, TimeUnit.MILLISECONDS);
+		pool.addConnectionManager(primary, 1);
+		pool.addConnectionManager(replica, ConnectionRole.REPLICA, 1, 1);
+		RecordingConnection primaryConnection = primary.connections.get(0);
+		RecordingConnection replicaConnection = replica.connections.get(0);
+		PooledDbSession session = pool.connect().get();
+
+		// A session that has not written reads from the replica however far behind it is
+		session.executeQuery("q1");
+		Assert.assertEquals(replicaConnection.commands.toString(), "[q1]");
+
+		session.executeUpdate("u1");
+		primaryConnection.respond();
+		Assert.assertTrue(session.getLastWriteTime() > 0);
+		session.executeQuery("q2");
+		Assert.assertEquals(primaryConnection.commands.toString(), "[u1, q2]");
+
+		// Once a probe shows the replica has caught up, reads return to it
+		replica.lag = 0;
+		int probes = replica.probes.get();
+		while (replica.probes.get() < probes + 2) {
+			Thread.sleep(10);
+		}
+		session.executeQuery("q3");
+		Assert.assertEquals(replicaConnection.commands.toString(), "[q1, q3]");
+
+		// The write time can be carried to another session
+		PooledDbSession other = pool.connect().get();
+		other.setLastWriteTime(System.currentTimeMillis() + 60000);
+		other.executeQuery("q4");
+		Assert.assertEquals(primaryConnection.commands.toString(), "[u1, q2, q4]");
+
+		// Only a commit counts as a write, a rollback leaves nothing behind to read
+		PooledDbSession reader = pool.connect().get();
+		reader.beginTransaction();
+		reader.executeQuery("q5");
+		DbSessionFuture<Void> end = reader.rollback();
+		while (!end.isDone()) {
+			primaryConnection.respond();
+		}
+		Assert.assertEquals(reader.getLastWriteTime(), 0);
+		reader.beginTransaction();
+		reader.executeQuery("q6");
+		end = reader.commit();
+		while (!end.isDone()) {
+			primaryConnection.respond();
+		}
+		Assert.assertTrue(reader.getLastWriteTime() > 0);
+		pool.close(true);
+	}
+
+	public void testSlowQueryHedged() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.setHedgeBudget(0.05);
+		pool.addConnectionManager(connectionManager, 2);
+		DbSession session = pool.connect().get();
+
+		// Learn the latency of the query shape, the answers complete before any hedge is due
+		for (int i = 0; i < 20; i++) {
+			DbSessionFuture<ResultSet> future = session.executeQuery("SELECT " + i);
+			for (RecordingConnection connection : connectionManager.connections) {
+				if (connection.getActiveRequest() != null) {
+					connection.respond();
+				}
+			}
+			Assert.assertTrue(future.isDone());
+		}
+		Assert.assertEquals(pool.getHedgedCount(), 0);
+
+		DbSessionFuture<ResultSet> slow = session.executeQuery("SELECT 'slow'");
+		RecordingConnection first = connectionManager.connections.get(0).getActiveRequest() != null
+				? connectionManager.connections.get(0) : connectionManager.connections.get(1);
+		RecordingConnection second = first == connectionManager.connections.get(0)
+				? connectionManager.connections.get(1) : connectionManager.connections.get(0);
+		while (pool.getHedgedCount() == 0) {
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(second.commands.get(second.commands.size() - 1), "SELECT 'slow'");
+		second.respond();
+		Assert.assertTrue(slow.isDone());
+		Assert.assertFalse(slow.isCancelled());
+
+		// The 21 queries issued so far have earned a single hedge
+		DbSessionFuture<ResultSet> unhedged = session.executeQuery("SELECT 'unhedged'");
+		Thread.sleep(100);
+		Assert.assertFalse(unhedged.isDone());
+		Assert.assertEquals(pool.getHedgedCount(), 1);
+		pool.close(true);
+	}
+
+	public void testUnsentStatementRetried() throws Exception {
+		RecordingConnectionManager connectionManager = new RecordingConnectionManager();
+		DbSessionPool pool = new DbSessionPool();
+		pool.addConnectionManager(connectionManager, 2);
+		RecordingConnection failing = connectionManager.connections.get(0);
+		RecordingConnection healthy = connectionManager.connections.get(1);
+		failing.setPipeliningEnabled(false);
+		healthy.setPipeliningEnabled(false);
+		DbSession session = pool.connect().get();
+
+		List<DbSessionFuture<Result>> futures = new ArrayList<DbSessionFuture<Result>>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(session.executeUpdate("s" + i));
+		}
+		Assert.assertEquals(failing.commands.size(), 1);
+		String sent = failing.commands.get(0);
+
+		// The statement that was sent fails with the connection, the one queued behind it moves to the other connection
+		failing.closed = true;
+		failing.errorPendingRequests(new DbException("Connection closed"));
+		for (int i = 0; i < 3; i++) {
+			healthy.respond();
+		}
+		for (int i = 0; i < 4; i++) {
+			DbSessionFuture<Result> future = futures.get(i);
+			Assert.assertTrue(future.isDone());
+			if (("s" + i).equals(sent)) {
+				try {
+					future.get();
+					Assert.fail("Sent statement should have failed");
+				} catch (DbException e) {
+					Assert.assertEquals(e.getCause().getMessage(), "Connection closed");
+				}
+			} else {
+				future.get();
+			}
+		}
+		Assert.assertEquals(healthy.commands.size(), 3);
+	}
+}
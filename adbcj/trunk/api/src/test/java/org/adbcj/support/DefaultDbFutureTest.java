@@ -0,0 +1,354 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.adbcj.DbCompletionHandler;
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.ListenerDispatchPolicy;
+import org.adbcj.NonBlockingListener;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class DefaultDbFutureTest {
+
+	public void testListenersNotifiedInOrder() throws Exception {
+		final List<Integer> order = new ArrayList<Integer>();
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		for (int i = 0; i < 5; i++) {
+			final int index = i;
+			future.addListener(new DbListener<String>() {
+				public void onCompletion(DbFuture<String> future) throws Exception {
+					order.add(index);
+				}
+			});
+		}
+		future.setResult("done");
+		Assert.assertEquals(order.toString(), "[0, 1, 2, 3, 4]");
+		Assert.assertEquals(future.get(), "done");
+	}
+
+	public void testListenerAddedAfterCompletionInvokedImmediately() throws Exception {
+		final boolean[] invoked = {false};
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		future.setResult(null);
+		future.addListener(new DbListener<String>() {
+			public void onCompletion(DbFuture<String> future) throws Exception {
+				invoked[0] = true;
+			}
+		});
+		Assert.assertTrue(invoked[0]);
+		Assert.assertNull(future.get());
+	}
+
+	public void testRemoveListener() throws Exception {
+		final int[] count = {0};
+		DbListener<String> listener = new DbListener<String>() {
+			public void onCompletion(DbFuture<String> future) throws Exception {
+				count[0]++;
+			}
+		};
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		future.addListener(listener);
+		future.addListener(listener);
+		Assert.assertTrue(future.removeListener(listener));
+		future.setResult("done");
+		Assert.assertEquals(count[0], 1);
+		Assert.assertFalse(future.removeListener(listener));
+	}
+
+	public void testSetResultOnlyOnce() throws Exception {
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		future.setResult("first");
+		future.setResult("second");
+		Assert.assertEquals(future.get(), "first");
+		try {
+			future.setException(new Exception());
+			Assert.fail("Should not be able to set an exception on a completed future");
+		} catch (IllegalStateException e) {
+			// Pass
+		}
+	}
+
+	public void testException() throws Exception {
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		Exception cause = new Exception();
+		future.setException(cause);
+		Assert.assertTrue(future.isDone());
+		Assert.assertFalse(future.isCancelled());
+		try {
+			future.get();
+			Assert.fail("Should have thrown DbException");
+		} catch (DbException e) {
+			Assert.assertSame(e.getCause(), cause);
+		}
+	}
+
+	public void testCancel() throws Exception {
+		DefaultDbFuture<String> uncancellable = new DefaultDbFuture<String>();
+		Assert.assertFalse(uncancellable.cancel(false));
+		Assert.assertFalse(uncancellable.isDone());
+
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>() {
+			@Override
+			protected boolean doCancel(boolean mayInterruptIfRunning) {
+				return true;
+			}
+		};
+		Assert.assertTrue(future.cancel(false));
+		Assert.assertTrue(future.isDone());
+		Assert.assertTrue(future.isCancelled());
+		Assert.assertFalse(future.cancel(false));
+		try {
+			future.getUninterruptably();
+			Assert.fail("Should have thrown CancellationException");
+		} catch (CancellationException e) {
+			// Pass
+		}
+	}
+
+	public void testCompletionDuringCancel() throws Exception {
+		// A result set while the cancellation runs is applied only if the cancellation fails
+		DefaultDbFuture<String> refused = new DefaultDbFuture<String>() {
+			@Override
+			protected boolean doCancel(boolean mayInterruptIfRunning) {
+				setResult("done");
+				Assert.assertFalse(isDone());
+				return false;
+			}
+		};
+		Assert.assertFalse(refused.cancel(false));
+		Assert.assertEquals(refused.get(), "done");
+
+		DefaultDbFuture<String> cancelled = new DefaultDbFuture<String>() {
+			@Override
+			protected boolean doCancel(boolean mayInterruptIfRunning) {
+				setResult("done");
+				return true;
+			}
+		};
+		Assert.assertTrue(cancelled.cancel(false));
+		Assert.assertTrue(cancelled.isCancelled());
+	}
+
+	public void testCompletionDroppedByCancelReported() throws Exception {
+		Assert.assertFalse(completeDuringCancel(true));
+		Assert.assertTrue(completeDuringCancel(false));
+	}
+
+	/**
+	 * Fails a future from another thread while its cancellation is blocked in doCancel().
+	 * 
+	 * @return  what trySetException() reported
+	 */
+	private boolean completeDuringCancel(final boolean cancel) throws Exception {
+		final CountDownLatch cancelling = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final DefaultDbFuture<String> future = new DefaultDbFuture<String>() {
+			@Override
+			protected boolean doCancel(boolean mayInterruptIfRunning) {
+				cancelling.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return cancel;
+			}
+		};
+		Thread canceller = new Thread() {
+			@Override
+			public void run() {
+				future.cancel(false);
+			}
+		};
+		canceller.start();
+		cancelling.await();
+
+		final AtomicBoolean reported = new AtomicBoolean();
+		Thread completer = new Thread() {
+			@Override
+			public void run() {
+				reported.set(future.trySetException(new IllegalStateException("failed")));
+			}
+		};
+		completer.start();
+		// The failure is handed to the cancelling thread and the completer waits for it to be applied or dropped
+		while (completer.getState() != Thread.State.WAITING) {
+			Thread.yield();
+		}
+		release.countDown();
+		completer.join();
+		canceller.join();
+		Assert.assertEquals(future.isCancelled(), cancel);
+		Assert.assertTrue(future.isDone());
+		return reported.get();
+	}
+
+	public void testAbandonedWaitersUnlinked() throws Exception {
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		for (int i = 0; i < 3; i++) {
+			try {
+				future.get(1, TimeUnit.MILLISECONDS);
+				Assert.fail("Should have timed out");
+			} catch (TimeoutException e) {
+				// Pass
+			}
+		}
+		final Thread main = Thread.currentThread();
+		new Thread() {
+			@Override
+			public void run() {
+				while (main.getState() != Thread.State.WAITING) {
+					Thread.yield();
+				}
+				main.interrupt();
+			}
+		}.start();
+		try {
+			future.get();
+			Assert.fail("Should have been interrupted");
+		} catch (InterruptedException e) {
+			// Pass
+		}
+		Field waiters = DefaultDbFuture.class.getDeclaredField("waiters");
+		waiters.setAccessible(true);
+		Assert.assertNull(waiters.get(future));
+		future.setResult("done");
+		Assert.assertEquals(future.get(), "done");
+	}
+
+	public void testGetTimeout() throws Exception {
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail("Should have timed out");
+		} catch (TimeoutException e) {
+			// Pass
+		}
+		future.setResult("done");
+		Assert.assertEquals(future.get(10, TimeUnit.MILLISECONDS), "done");
+	}
+
+	public void testBlockedThreadsReleased() throws Exception {
+		final DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		final int threadCount = 8;
+		final CountDownLatch started = new CountDownLatch(threadCount);
+		final CountDownLatch finished = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			final boolean interruptible = i % 2 == 0;
+			new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						String result = interruptible ? future.get() : future.getUninterruptably();
+						if ("done".equals(result)) {
+							finished.countDown();
+						}
+					} catch (InterruptedException e) {
+						// Test will time out
+					}
+				}
+			}.start();
+		}
+		started.await();
+		future.setResult("done");
+		Assert.assertTrue(finished.await(1, TimeUnit.SECONDS));
+	}
+
+	public void testInterruptedWhileWaiting() throws Exception {
+		final DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		Thread.currentThread().interrupt();
+		try {
+			future.get();
+			Assert.fail("Should have been interrupted");
+		} catch (InterruptedException e) {
+			// Pass
+		}
+		future.setResult("done");
+		Assert.assertEquals(future.get(), "done");
+	}
+
+	public void testCompletionHandlerReceivesOriginalException() throws Exception {
+		final Throwable[] failure = {null};
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		future.addCompletionHandler(new DbCompletionHandler<Object>() {
+			public void completed(Object result) {
+				Assert.fail("Should not complete");
+			}
+			public void failed(Throwable cause) {
+				failure[0] = cause;
+			}
+			public void cancelled() {
+				Assert.fail("Should not be cancelled");
+			}
+		});
+		IllegalStateException exception = new IllegalStateException();
+		future.setException(exception);
+		Assert.assertSame(failure[0], exception);
+	}
+
+	public void testNonBlockingListenersDispatchedInline() throws Exception {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		ListenerDispatcher dispatcher = new ListenerDispatcher(ListenerDispatchPolicy.NON_BLOCKING_INLINE, new Executor() {
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		final List<String> invoked = new ArrayList<String>();
+		DefaultDbFuture<String> future = new DefaultDbFuture<String>();
+		future.setListenerDispatcher(dispatcher);
+		future.addListener(new DbListener<String>() {
+			public void onCompletion(DbFuture<String> future) throws Exception {
+				invoked.add("blocking");
+			}
+		});
+		future.addListener(new NonBlockingTestListener(invoked));
+		future.setResult("done");
+
+		Assert.assertEquals(invoked.toString(), "[non-blocking]");
+		Assert.assertEquals(tasks.size(), 1);
+		tasks.get(0).run();
+		Assert.assertEquals(invoked.toString(), "[non-blocking, blocking]");
+		Assert.assertEquals(dispatcher.getInlineCallbackCount(), 1);
+		Assert.assertEquals(dispatcher.getDispatchedCallbackCount(), 1);
+	}
+
+	private static class NonBlockingTestListener implements DbListener<String>, NonBlockingListener {
+		private final List<String> invoked;
+		NonBlockingTestListener(List<String> invoked) {
+			this.invoked = invoked;
+		}
+		public void onCompletion(DbFuture<String> future) throws Exception {
+			invoked.add("non-blocking");
+		}
+	}
+
+}
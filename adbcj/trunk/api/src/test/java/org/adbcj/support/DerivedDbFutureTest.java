@@ -0,0 +1,130 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.adbcj.DbException;
+import org.adbcj.DbFunction;
+import org.adbcj.DbFuture;
+import org.adbcj.DbFutures;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class DerivedDbFutureTest {
+
+	private static final DbFunction<Integer, String> TO_STRING = new DbFunction<Integer, String>() {
+		public String apply(Integer value) {
+			return String.valueOf(value);
+		}
+	};
+
+	public void testMap() throws Exception {
+		DefaultDbFuture<Integer> source = new DefaultDbFuture<Integer>();
+		DbFuture<String> mapped = source.map(TO_STRING);
+		Assert.assertFalse(mapped.isDone());
+		source.setResult(42);
+		Assert.assertEquals(mapped.get(), "42");
+	}
+
+	public void testMapPropagatesFailure() throws Exception {
+		DefaultDbFuture<Integer> source = new DefaultDbFuture<Integer>();
+		DbFuture<String> mapped = source.map(TO_STRING);
+		IllegalStateException failure = new IllegalStateException();
+		source.setException(failure);
+		try {
+			mapped.get();
+			Assert.fail("Expected DbException");
+		} catch (DbException e) {
+			Assert.assertSame(e.getCause(), failure);
+		}
+	}
+
+	public void testFlatMapAndCancel() throws Exception {
+		DefaultDbFuture<Integer> source = new DefaultDbFuture<Integer>();
+		final DefaultDbFuture<String> inner = new DefaultDbFuture<String>() {
+			@Override
+			protected boolean doCancel(boolean mayInterruptIfRunning) {
+				return true;
+			}
+		};
+		DbFuture<String> chained = source.flatMap(new DbFunction<Integer, DbFuture<String>>() {
+			public DbFuture<String> apply(Integer value) {
+				return inner;
+			}
+		});
+		source.setResult(1);
+		Assert.assertFalse(chained.isDone());
+		Assert.assertTrue(chained.cancel(false));
+		Assert.assertTrue(inner.isCancelled());
+		Assert.assertTrue(chained.isCancelled());
+	}
+
+	public void testFlatMapReturningSource() throws Exception {
+		final DefaultDbFuture<String> source = new DefaultDbFuture<String>();
+		DbFuture<String> flatMapped = source.flatMap(new DbFunction<String, DbFuture<String>>() {
+			public DbFuture<String> apply(String value) {
+				return source;
+			}
+		});
+		source.setResult("same");
+		Assert.assertEquals(flatMapped.get(), "same");
+	}
+
+	public void testRecover() throws Exception {
+		DefaultDbFuture<String> source = new DefaultDbFuture<String>();
+		DbFuture<String> recovered = source.recover(new DbFunction<Throwable, String>() {
+			public String apply(Throwable cause) {
+				return cause.getMessage();
+			}
+		});
+		source.setException(new IllegalStateException("recovered"));
+		Assert.assertEquals(recovered.get(), "recovered");
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testAllOfAndAnyOf() throws Exception {
+		DefaultDbFuture<Integer> first = new DefaultDbFuture<Integer>();
+		DefaultDbFuture<Integer> second = new DefaultDbFuture<Integer>();
+		DbFuture<List<Integer>> all = DbFutures.allOf(Arrays.asList(first, second));
+		DbFuture<Integer> any = DbFutures.anyOf(Arrays.asList(first, second));
+		second.setResult(2);
+		Assert.assertFalse(all.isDone());
+		Assert.assertEquals(any.get(), Integer.valueOf(2));
+		first.setResult(1);
+		Assert.assertEquals(all.get(), Arrays.asList(1, 2));
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testAnyOfFailsWhenAllFail() throws Exception {
+		DefaultDbFuture<Integer> first = new DefaultDbFuture<Integer>();
+		DefaultDbFuture<Integer> second = new DefaultDbFuture<Integer>();
+		DbFuture<Integer> any = DbFutures.anyOf(Arrays.asList(first, second));
+		first.setException(new IllegalStateException());
+		Assert.assertFalse(any.isDone());
+		second.setException(new IllegalArgumentException());
+		try {
+			any.get();
+			Assert.fail("Expected DbException");
+		} catch (DbException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+}
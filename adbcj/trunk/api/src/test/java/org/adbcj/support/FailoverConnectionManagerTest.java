@@ -0,0 +1,116 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adbcj.Connection;
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.support.DbSessionPoolTest.RecordingConnectionManager;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class FailoverConnectionManagerTest {
+
+	private static class HostConnectionManager extends RecordingConnectionManager {
+		volatile boolean down;
+
+		final AtomicInteger attempts = new AtomicInteger();
+
+		@Override
+		public DbFuture<Connection> connect() {
+			attempts.incrementAndGet();
+			if (down) {
+				DefaultDbFuture<Connection> future = new DefaultDbFuture<Connection>();
+				future.setException(new DbException("Connection refused"));
+				return future;
+			}
+			return super.connect();
+		}
+	}
+
+	public void testFailoverAndProbe() throws Exception {
+		HostConnectionManager primary = new HostConnectionManager();
+		HostConnectionManager secondary = new HostConnectionManager();
+		FailoverConnectionManager connectionManager = new FailoverConnectionManager(
+				Arrays.asList(primary, secondary), 2, 50, TimeUnit.MILLISECONDS);
+		primary.down = true;
+
+		// Each connect fails over to the secondary until the primary's breaker opens
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), secondary);
+		Assert.assertTrue(connectionManager.isHostAvailable(0));
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), secondary);
+		Assert.assertFalse(connectionManager.isHostAvailable(0));
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), secondary);
+		Assert.assertEquals(primary.attempts.get(), 2);
+
+		// A failed probe keeps the breaker open
+		Thread.sleep(60);
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), secondary);
+		Assert.assertEquals(primary.attempts.get(), 3);
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), secondary);
+		Assert.assertEquals(primary.attempts.get(), 3);
+
+		// A successful probe closes it
+		primary.down = false;
+		Thread.sleep(60);
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), primary);
+		Assert.assertTrue(connectionManager.isHostAvailable(0));
+
+		// With every host down, connecting fails without waiting on a dead host
+		primary.down = true;
+		secondary.down = true;
+		try {
+			connectionManager.connect().get();
+			Assert.fail("Connect should have failed");
+		} catch (DbException e) {
+			Assert.assertEquals(e.getCause().getMessage(), "No database host is available");
+		}
+	}
+
+	public void testSuccessesResetFailures() throws Exception {
+		HostConnectionManager primary = new HostConnectionManager();
+		HostConnectionManager secondary = new HostConnectionManager();
+		FailoverConnectionManager connectionManager = new FailoverConnectionManager(
+				Arrays.asList(primary, secondary), 3, 5, TimeUnit.SECONDS);
+		Connection connection = connectionManager.connect().get();
+		Assert.assertSame(connection.getConnectionManager(), primary);
+
+		// Failures far apart, with answered requests in between, are not consecutive
+		for (int i = 0; i < 10; i++) {
+			connectionManager.reportFailure(connection);
+			connectionManager.reportFailure(connection);
+			connectionManager.reportSuccess(connection);
+		}
+		Assert.assertTrue(connectionManager.isHostAvailable(0));
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), primary);
+
+		for (int i = 0; i < 3; i++) {
+			connectionManager.reportFailure(connection);
+		}
+		Assert.assertFalse(connectionManager.isHostAvailable(0));
+		Assert.assertSame(connectionManager.connect().get().getConnectionManager(), secondary);
+
+		// An answer from the host closes its breaker again
+		connectionManager.reportSuccess(connection);
+		Assert.assertTrue(connectionManager.isHostAvailable(0));
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class HashedWheelTimerTest {
+
+	public void testTimeoutsExpireInOrder() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test", 1, TimeUnit.MILLISECONDS, 4);
+		try {
+			final StringBuffer order = new StringBuffer();
+			final CountDownLatch done = new CountDownLatch(2);
+			long start = System.nanoTime();
+			// Longer than a full turn of the wheel
+			timer.newTimeout(new Runnable() {
+				public void run() {
+					order.append("late");
+					done.countDown();
+				}
+			}, 30, TimeUnit.MILLISECONDS);
+			timer.newTimeout(new Runnable() {
+				public void run() {
+					order.append("early,");
+					done.countDown();
+				}
+			}, 5, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+			Assert.assertEquals(order.toString(), "early,late");
+			Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+		} finally {
+			timer.stop();
+		}
+	}
+
+	public void testCancelledTimeoutDoesNotRun() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test", 1, TimeUnit.MILLISECONDS, 4);
+		try {
+			final boolean[] ran = {false};
+			HashedWheelTimer.Timeout timeout = timer.newTimeout(new Runnable() {
+				public void run() {
+					ran[0] = true;
+				}
+			}, 5, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(timeout.cancel());
+			final CountDownLatch later = new CountDownLatch(1);
+			timer.newTimeout(new Runnable() {
+				public void run() {
+					later.countDown();
+				}
+			}, 20, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(later.await(1, TimeUnit.SECONDS));
+			Assert.assertFalse(ran[0]);
+			Assert.assertTrue(timeout.isCancelled());
+		} finally {
+			timer.stop();
+		}
+	}
+
+}
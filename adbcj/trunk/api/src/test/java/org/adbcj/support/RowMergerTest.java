@@ -0,0 +1,110 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import org.adbcj.Row;
+import org.adbcj.RowSubscriber;
+import org.adbcj.RowSubscription;
+import org.adbcj.Value;
+import org.adbcj.support.RowPublisherTest.RecordingSubscriber;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class RowMergerTest {
+
+	private static class RecordingSubscription implements RowSubscription {
+		long requested;
+		boolean cancelled;
+
+		public void request(long n) {
+			requested += n;
+		}
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	private static Row row() {
+		return new DefaultRow(new DefaultResultSet(null), new Value[0]);
+	}
+
+	public void testRowsMergedOnDemand() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowMerger merger = new RowMerger(subscriber, 2);
+		merger.start();
+		RowSubscriber first = merger.getSource(0);
+		RowSubscriber second = merger.getSource(1);
+		RecordingSubscription firstSubscription = new RecordingSubscription();
+		first.onSubscribe(firstSubscription);
+		second.onSubscribe(new RecordingSubscription());
+		Assert.assertEquals(firstSubscription.requested, Long.MAX_VALUE);
+
+		Row a = row();
+		Row b = row();
+		Row c = row();
+		first.onNext(a);
+		second.onNext(b);
+		first.onComplete();
+		second.onNext(c);
+		Assert.assertEquals(subscriber.rows.size(), 0);
+
+		subscriber.subscription.request(2);
+		Assert.assertEquals(subscriber.rows.size(), 2);
+		Assert.assertSame(subscriber.rows.get(0), a);
+		Assert.assertSame(subscriber.rows.get(1), b);
+
+		second.onComplete();
+		Assert.assertFalse(subscriber.completed, "Completed with an undelivered row");
+		subscriber.subscription.request(1);
+		Assert.assertSame(subscriber.rows.get(2), c);
+		Assert.assertTrue(subscriber.completed);
+	}
+
+	public void testFailureCancelsOtherSources() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowMerger merger = new RowMerger(subscriber, 2);
+		merger.start();
+		subscriber.subscription.request(Long.MAX_VALUE);
+		RowSubscriber first = merger.getSource(0);
+		RowSubscriber second = merger.getSource(1);
+		RecordingSubscription secondSubscription = new RecordingSubscription();
+		second.onSubscribe(secondSubscription);
+
+		IllegalStateException failure = new IllegalStateException();
+		first.onError(failure);
+		Assert.assertSame(subscriber.error, failure);
+		Assert.assertTrue(secondSubscription.cancelled);
+		Assert.assertFalse(subscriber.completed);
+	}
+
+	public void testSourceSubscribingAfterFailureIsCancelled() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowMerger merger = new RowMerger(subscriber, 3);
+		merger.start();
+		subscriber.subscription.request(Long.MAX_VALUE);
+		IllegalStateException failure = new IllegalStateException();
+		merger.getSource(0).onError(failure);
+		merger.getSource(1).onError(new IllegalArgumentException());
+		Assert.assertSame(subscriber.error, failure, "Only the first failure should be signalled");
+
+		RecordingSubscription late = new RecordingSubscription();
+		merger.getSource(2).onSubscribe(late);
+		Assert.assertTrue(late.cancelled);
+		Assert.assertEquals(late.requested, 0);
+	}
+}
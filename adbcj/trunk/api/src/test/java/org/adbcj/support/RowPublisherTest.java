@@ -0,0 +1,132 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.adbcj.Row;
+import org.adbcj.RowSubscriber;
+import org.adbcj.RowSubscription;
+import org.adbcj.support.AbstractDbSessionTest.RecordingSession;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class RowPublisherTest {
+
+	static class RecordingSubscriber implements RowSubscriber {
+		final List<Row> rows = new ArrayList<Row>();
+		RowSubscription subscription;
+		boolean completed;
+		Throwable error;
+
+		public void onSubscribe(RowSubscription subscription) {
+			this.subscription = subscription;
+		}
+		public void onNext(Row row) {
+			rows.add(row);
+		}
+		public void onError(Throwable t) {
+			error = t;
+		}
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	private static void row(RowPublisher publisher, DefaultResultSet resultSet) {
+		publisher.startRow(resultSet);
+		publisher.endRow(resultSet);
+	}
+
+	public void testRowsDeliveredOnDemand() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowPublisher publisher = new RowPublisher(subscriber);
+		subscriber.onSubscribe(publisher);
+		DefaultResultSet resultSet = new DefaultResultSet(null);
+		row(publisher, resultSet);
+		row(publisher, resultSet);
+		Assert.assertEquals(subscriber.rows.size(), 0);
+
+		subscriber.subscription.request(1);
+		Assert.assertEquals(subscriber.rows.size(), 1);
+
+		DefaultDbFuture<DefaultResultSet> future = new DefaultDbFuture<DefaultResultSet>();
+		future.setResult(resultSet);
+		publisher.onCompletion(future);
+		Assert.assertFalse(subscriber.completed, "Completed with an undelivered row");
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertEquals(subscriber.rows.size(), 2);
+		Assert.assertTrue(subscriber.completed);
+		Assert.assertEquals(resultSet.size(), 0, "Streamed rows should not be retained");
+	}
+
+	public void testCancelStopsDelivery() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowPublisher publisher = new RowPublisher(subscriber);
+		subscriber.onSubscribe(publisher);
+		DefaultResultSet resultSet = new DefaultResultSet(null);
+		subscriber.subscription.request(10);
+		row(publisher, resultSet);
+		subscriber.subscription.cancel();
+		row(publisher, resultSet);
+		DefaultDbFuture<DefaultResultSet> future = new DefaultDbFuture<DefaultResultSet>();
+		future.setException(new IllegalStateException());
+		publisher.onCompletion(future);
+		Assert.assertEquals(subscriber.rows.size(), 1);
+		Assert.assertFalse(subscriber.completed);
+		Assert.assertNull(subscriber.error);
+	}
+
+	public void testNonPositiveRequestFails() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowPublisher publisher = new RowPublisher(subscriber);
+		subscriber.onSubscribe(publisher);
+		subscriber.subscription.request(0);
+		Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	public void testNonPositiveRequestFailsQueuedQuery() {
+		RecordingSession session = new RecordingSession();
+		session.enqueue("blocker", false);
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowPublisher publisher = new RowPublisher(subscriber);
+		publisher.execute(session, "SELECT 1");
+		Assert.assertEquals(session.sent.size(), 1, "The query should still be queued");
+
+		// Cancelling the queued query completes it on this thread, the demand error must still be signalled
+		subscriber.subscription.request(0);
+		Assert.assertTrue(subscriber.error instanceof IllegalArgumentException, String.valueOf(subscriber.error));
+		Assert.assertFalse(subscriber.completed);
+	}
+
+	public void testNonPositiveRequestFailsAheadOfBufferedRows() {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		RowPublisher publisher = new RowPublisher(subscriber);
+		subscriber.onSubscribe(publisher);
+		row(publisher, new DefaultResultSet(null));
+		subscriber.subscription.request(-1);
+		Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+		Assert.assertEquals(subscriber.rows.size(), 0);
+
+		subscriber.subscription.request(1);
+		Assert.assertEquals(subscriber.rows.size(), 0, "No rows should follow the error");
+	}
+
+}
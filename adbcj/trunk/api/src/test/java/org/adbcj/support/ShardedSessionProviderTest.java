@@ -0,0 +1,176 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.adbcj.DbException;
+import org.adbcj.DbFuture;
+import org.adbcj.DbSession;
+import org.adbcj.DbSessionProvider;
+import org.adbcj.Row;
+import org.adbcj.RowSubscriber;
+import org.adbcj.RowSubscription;
+import org.adbcj.ShardFunction;
+import org.adbcj.ShardedSessionProvider;
+import org.adbcj.Value;
+import org.adbcj.support.AbstractDbSessionTest.RecordingSession;
+import org.adbcj.support.RowPublisherTest.RecordingSubscriber;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class ShardedSessionProviderTest {
+
+	/**
+	 * Session that hands streamed queries to the test instead of sending them.
+	 */
+	private static class ShardSession extends RecordingSession {
+		RowSubscriber subscriber;
+
+		boolean cancelled;
+
+		@Override
+		public void executeQuery(String sql, RowSubscriber subscriber) {
+			commands.add(sql);
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(new RowSubscription() {
+				public void request(long n) {
+				}
+				public void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+	}
+
+	private static class Shard implements DbSessionProvider {
+		final ShardSession session = new ShardSession();
+
+		public DbFuture<? extends DbSession> connect() {
+			DefaultDbFuture<DbSession> future = new DefaultDbFuture<DbSession>();
+			future.setResult(session);
+			return future;
+		}
+	}
+
+	private static Row row() {
+		return new DefaultRow(new DefaultResultSet(null), new Value[0]);
+	}
+
+	public void testRangeBoundaries() {
+		RangeShardFunction<Integer> function = new RangeShardFunction<Integer>(Arrays.asList(0, 100, 200));
+		Assert.assertEquals(function.shard(-1, 3), 0, "Keys below the first bound belong to the first shard");
+		Assert.assertEquals(function.shard(0, 3), 0);
+		Assert.assertEquals(function.shard(99, 3), 0);
+		Assert.assertEquals(function.shard(100, 3), 1);
+		Assert.assertEquals(function.shard(199, 3), 1);
+		Assert.assertEquals(function.shard(200, 3), 2);
+		Assert.assertEquals(function.shard(Integer.MAX_VALUE, 3), 2);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testRangeBoundsMustAscend() {
+		new RangeShardFunction<Integer>(Arrays.asList(0, 100, 100));
+	}
+
+	public void testHashSpread() {
+		HashShardFunction function = new HashShardFunction();
+		int[] counts = new int[4];
+		for (int i = 0; i < 4000; i++) {
+			int shard = function.shard(i, counts.length);
+			Assert.assertTrue(shard >= 0 && shard < counts.length, "Shard " + shard);
+			counts[shard]++;
+		}
+		// Sequential keys must not cluster on a few shards
+		for (int count : counts) {
+			Assert.assertTrue(count > 800 && count < 1200, Arrays.toString(counts));
+		}
+		Assert.assertEquals(function.shard("key", 4), function.shard(new String("key"), 4));
+	}
+
+	public void testOutOfRangeShardRejected() {
+		List<Shard> shards = Arrays.asList(new Shard(), new Shard());
+		ShardedSessionProvider<Integer> provider = new ShardedSessionProvider<Integer>(new ShardFunction<Integer>() {
+			public int shard(Integer key, int shardCount) {
+				return key;
+			}
+		}, shards);
+		Assert.assertEquals(provider.getShardIndex(1), 1);
+		try {
+			provider.getShardIndex(2);
+			Assert.fail("Shard 2 of 2 should be rejected");
+		} catch (DbException e) {
+			// Expected
+		}
+		try {
+			provider.connect(-1);
+			Assert.fail("Shard -1 should be rejected");
+		} catch (DbException e) {
+			// Expected
+		}
+	}
+
+	public void testScatterMergesShards() {
+		Shard first = new Shard();
+		Shard second = new Shard();
+		ShardedSessionProvider<Object> provider = new ShardedSessionProvider<Object>(new HashShardFunction(),
+				Arrays.asList(first, second));
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		provider.scatter("SELECT 1", subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertEquals(first.session.commands.toString(), "[SELECT 1, close]");
+		Assert.assertEquals(second.session.commands.toString(), "[SELECT 1, close]");
+
+		Row a = row();
+		Row b = row();
+		Row c = row();
+		first.session.subscriber.onNext(a);
+		second.session.subscriber.onNext(b);
+		second.session.subscriber.onComplete();
+		first.session.subscriber.onNext(c);
+		Assert.assertFalse(subscriber.completed);
+		first.session.subscriber.onComplete();
+		Assert.assertEquals(subscriber.rows, Arrays.asList(a, b, c));
+		Assert.assertTrue(subscriber.completed);
+		Assert.assertNull(subscriber.error);
+	}
+
+	public void testScatterFailsWithOneShard() {
+		Shard first = new Shard();
+		Shard second = new Shard();
+		ShardedSessionProvider<Object> provider = new ShardedSessionProvider<Object>(new HashShardFunction(),
+				Arrays.asList(first, second));
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		provider.scatter("SELECT 1", subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		first.session.subscriber.onNext(row());
+		IllegalStateException failure = new IllegalStateException();
+		second.session.subscriber.onError(failure);
+		Assert.assertSame(subscriber.error, failure);
+		Assert.assertTrue(first.session.cancelled, "The other shard's query should be cancelled");
+		Assert.assertFalse(second.session.cancelled);
+
+		// Signals after the failure are ignored
+		first.session.subscriber.onError(new IllegalStateException());
+		first.session.subscriber.onComplete();
+		Assert.assertSame(subscriber.error, failure);
+		Assert.assertFalse(subscriber.completed);
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.math.BigDecimal;
+
+import org.adbcj.Type;
+import org.adbcj.Value;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class SpecializedValueTest {
+
+	private static final DefaultField FIELD = new DefaultField(0, null, null, null, null, Type.BIGINT, "id", "id", 0,
+			0, false, false, false, false, true, true, false, true, false, null);
+
+	public void testNumericConversions() {
+		Value value = new LongValue(FIELD, 3000000000L);
+		Assert.assertEquals(value.getLong(), 3000000000L);
+		Assert.assertEquals(value.getValue(), Long.valueOf(3000000000L));
+		Assert.assertEquals(value.getString(), "3000000000");
+		Assert.assertEquals(value.getBigDecimal(), new BigDecimal(3000000000L));
+		Assert.assertTrue(value.getBoolean());
+		Assert.assertFalse(value.isNull());
+
+		Assert.assertEquals(new IntValue(FIELD, -7).getDouble(), -7d);
+		Assert.assertEquals(new DoubleValue(FIELD, 2.5).getBigDecimal(), new BigDecimal("2.5"));
+		Assert.assertEquals(new BooleanValue(FIELD, true).getInt(), 1);
+		Assert.assertEquals(new StringValue(FIELD, "42").getInt(), 42);
+	}
+
+	public void testNullValueSharedByField() {
+		Value value = FIELD.getNullValue();
+		Assert.assertSame(FIELD.getNullValue(), value);
+		Assert.assertSame(value.getField(), FIELD);
+		Assert.assertTrue(value.isNull());
+		Assert.assertEquals(value.getLong(), 0L);
+		Assert.assertNull(value.getString());
+		Assert.assertEquals(value.toString(), "null");
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.support;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.adbcj.DbException;
+import org.adbcj.DbFunction;
+import org.adbcj.DbFuture;
+import org.adbcj.DbSession;
+import org.adbcj.TransactionBody;
+import org.adbcj.support.AbstractDbSessionTest.RecordingSession;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(timeOut = 5000)
+public class TransactionRunnerTest {
+
+	static class SqlStateException extends DbException {
+		private static final long serialVersionUID = 1L;
+		private final String sqlState;
+		SqlStateException(DbSession session, String sqlState) {
+			super(session, "SQLSTATE " + sqlState);
+			this.sqlState = sqlState;
+		}
+		@Override
+		public String getSqlState() {
+			return sqlState;
+		}
+	}
+
+	private static void awaitCommand(RecordingSession session, int count) throws InterruptedException {
+		while (session.commands.size() < count) {
+			Thread.sleep(1);
+		}
+	}
+
+	public void testRetryOnSerializationFailure() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test", 1, TimeUnit.MILLISECONDS, 8);
+		try {
+			TransactionRunner runner = new TransactionRunner(timer, 3, 1, 5, 1000, TimeUnit.MILLISECONDS);
+			final RecordingSession session = new RecordingSession();
+			TransactionRunner.Execution<String> execution = runner.run(session, new TransactionBody<String>() {
+				public DbFuture<String> execute(DbSession s) {
+					return session.enqueueTransactional("update").map(new DbFunction<Void, String>() {
+						public String apply(Void value) {
+							return "done";
+						}
+					});
+				}
+			});
+			Assert.assertEquals(session.commands.toString(), "[begin, update]");
+			session.respond();
+			session.<Void>getActiveRequest().error(new SqlStateException(session, "40001"));
+			awaitCommand(session, 3);
+			Assert.assertEquals(session.commands.get(2), "rollback");
+			session.respond();
+
+			// Second attempt is started by the timer
+			awaitCommand(session, 5);
+			session.respond();
+			session.respond();
+			awaitCommand(session, 6);
+			Assert.assertEquals(session.commands.toString(), "[begin, update, rollback, begin, update, commit]");
+			session.respond();
+			Assert.assertEquals(execution.get(), "done");
+			Assert.assertEquals(execution.getAttempts(), 2);
+			Assert.assertEquals(runner.getRetryCount(), 1);
+
+			// Errors that are not retryable fail the transaction immediately
+			execution = runner.run(session, new TransactionBody<String>() {
+				public DbFuture<String> execute(DbSession s) {
+					throw new DbException(s, "Syntax error");
+				}
+			});
+			Assert.assertFalse(session.isInTransaction());
+			try {
+				execution.get();
+				Assert.fail("Expected failure");
+			} catch (DbException e) {
+				Assert.assertEquals(e.getCause().getMessage(), "Syntax error");
+			}
+			Assert.assertEquals(execution.getAttempts(), 1);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	public void testJdbcSerializationFailureIsRetryable() {
+		HashedWheelTimer timer = new HashedWheelTimer("test", 1, TimeUnit.MILLISECONDS, 8);
+		try {
+			TransactionRunner runner = new TransactionRunner(timer);
+			RecordingSession session = new RecordingSession();
+			Assert.assertTrue(runner.isRetryable(new DbException(session, new SQLException("Serialization", "40001"))));
+			Assert.assertTrue(runner.isRetryable(new DbException(new DbException(new SQLException("Deadlock", "40P01")))));
+			Assert.assertFalse(runner.isRetryable(new DbException(session, new SQLException("Syntax error", "42601"))));
+			Assert.assertFalse(runner.isRetryable(new DbException(session, new SQLException("No SQLSTATE"))));
+		} finally {
+			timer.stop();
+		}
+	}
+
+	public void testRetryWhenCommitIsRolledBack() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test", 1, TimeUnit.MILLISECONDS, 8);
+		try {
+			TransactionRunner runner = new TransactionRunner(timer, 3, 1, 5, 1000, TimeUnit.MILLISECONDS);
+			final RecordingSession session = new RecordingSession();
+			session.commitPipelinable = true;
+			TransactionRunner.Execution<String> execution = runner.run(session, new TransactionBody<String>() {
+				public DbFuture<String> execute(DbSession s) {
+					// The body does not wait for its statement so the commit is pipelined behind it
+					session.enqueueTransactional("update");
+					return DefaultDbSessionFuture.createCompletedFuture(s, "done");
+				}
+			});
+			Assert.assertEquals(session.commands.toString(), "[begin, update, commit]");
+			session.respond();
+			session.<Void>getActiveRequest().error(new SqlStateException(session, "40P01"));
+			session.<Void>getActiveRequest().rolledBack();
+
+			// The rolled back commit is retried because of the deadlock of the update
+			awaitCommand(session, 6);
+			Assert.assertEquals(session.commands.toString(), "[begin, update, commit, begin, update, commit]");
+			for (int i = 0; i < 3; i++) {
+				session.respond();
+			}
+			Assert.assertEquals(execution.get(), "done");
+			Assert.assertEquals(execution.getAttempts(), 2);
+			Assert.assertEquals(runner.getRetryCount(), 1);
+		} finally {
+			timer.stop();
+		}
+	}
+
+}
@@ -36,12 +36,19 @@ import org.adbcj.Field;
 import org.adbcj.PreparedStatement;
 import org.adbcj.Result;
 import org.adbcj.ResultEventHandler;
+import org.adbcj.TransactionIsolationLevel;
 import org.adbcj.Type;
+import org.adbcj.TypedResultEventHandler;
+import org.adbcj.Value;
 import org.adbcj.support.AbstractDbSession;
 import org.adbcj.support.DefaultDbSessionFuture;
 import org.adbcj.support.DefaultField;
 import org.adbcj.support.DefaultResult;
-import org.adbcj.support.DefaultValue;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.IntValue;
+import org.adbcj.support.ListenerDispatcher;
+import org.adbcj.support.LongValue;
+import org.adbcj.support.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,11 +56,18 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 	
 	private final Logger logger = LoggerFactory.getLogger(JdbcConnection.class);
 	
+	private static final int PING_TIMEOUT_SECONDS = 5;
+	
 	private final JdbcConnectionManager connectionManager;
 	private final java.sql.Connection jdbcConnection;
 	
 	private DbSessionFuture<Void> closeFuture;
 	
+	/**
+	 * The connection's isolation level before any transaction changed it, -1 until the first transaction starts.
+	 */
+	private int defaultIsolation = -1; // Only accessed by requests, which run one at a time
+	
 	public JdbcConnection(JdbcConnectionManager connectionManager, java.sql.Connection jdbcConnection) {
 		this.connectionManager = connectionManager;
 		this.jdbcConnection = jdbcConnection;
@@ -100,6 +114,10 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 					public boolean isPipelinable() {
 						return false;
 					}
+					@Override
+					public boolean isSheddable() {
+						return false;
+					}
 				};
 				enqueueRequest(closeRequest);
 				closeFuture = closeRequest;
@@ -136,11 +154,11 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 					// Fetch meta data
 					ResultSetMetaData metaData = jdbcResultSet.getMetaData();
 					int columnCount = metaData.getColumnCount();
-					List<Field> fields = new ArrayList<Field>(columnCount);
+					List<DefaultField> fields = new ArrayList<DefaultField>(columnCount);
 					eventHandler.startFields(accumulator);
 					
 					for (int i = 1; i <= columnCount; i++) {
-						Field field = new DefaultField(
+						DefaultField field = new DefaultField(
 								i - 1,
 								metaData.getCatalogName(i),
 								metaData.getSchemaName(i),
@@ -169,28 +187,34 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 					eventHandler.endFields(accumulator);
 					
 					eventHandler.startResults(accumulator);
+					if (eventHandler instanceof TypedResultEventHandler) {
+						readRows(jdbcResultSet, fields, (TypedResultEventHandler<T>)eventHandler, accumulator);
+						eventHandler.endResults(accumulator);
+						return accumulator;
+					}
 					while (jdbcResultSet.next()) {
 						eventHandler.startRow(accumulator);
 						for (int i = 1; i <= columnCount; i++) {
-							Field field = fields.get(i - 1);
-							Object value = null;
+							DefaultField field = fields.get(i - 1);
+							Value value;
 							switch (field.getColumnType()) {
 							case BIGINT:
-								value = jdbcResultSet.getLong(i);
+								value = new LongValue(field, jdbcResultSet.getLong(i));
 								break;
 							case INTEGER:
-								value = jdbcResultSet.getInt(i);
+								value = new IntValue(field, jdbcResultSet.getInt(i));
 								break;
 							case VARCHAR:
-								value = jdbcResultSet.getString(i);
+								String string = jdbcResultSet.getString(i);
+								value = string == null ? null : new StringValue(field, string);
 								break;
 							default:
 								throw new IllegalStateException("Don't know how to handle field to type " + field.getColumnType());
 							}
 							if (jdbcResultSet.wasNull()) {
-								value = null;
+								value = field.getNullValue();
 							}
-							eventHandler.value(new DefaultValue(field, value), accumulator);
+							eventHandler.value(value, accumulator);
 						}
 						eventHandler.endRow(accumulator);
 					}
@@ -209,6 +233,50 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 		});
 	}
 	
+	/*
+	 * Numeric columns are read with the primitive getters and passed on unboxed.  JDBC only offers strings as String
+	 * objects so they are passed to value() rather than being encoded again.
+	 */
+	private static <T> void readRows(java.sql.ResultSet jdbcResultSet, List<DefaultField> fields,
+			TypedResultEventHandler<T> eventHandler, T accumulator) throws SQLException {
+		int columnCount = fields.size();
+		while (jdbcResultSet.next()) {
+			eventHandler.startRow(accumulator);
+			for (int i = 0; i < columnCount; i++) {
+				Field field = fields.get(i);
+				switch (field.getColumnType()) {
+				case BIGINT:
+					long longValue = jdbcResultSet.getLong(i + 1);
+					if (jdbcResultSet.wasNull()) {
+						eventHandler.nullValue(i, accumulator);
+					} else {
+						eventHandler.longValue(i, longValue, accumulator);
+					}
+					break;
+				case INTEGER:
+					int intValue = jdbcResultSet.getInt(i + 1);
+					if (jdbcResultSet.wasNull()) {
+						eventHandler.nullValue(i, accumulator);
+					} else {
+						eventHandler.intValue(i, intValue, accumulator);
+					}
+					break;
+				case VARCHAR:
+					String stringValue = jdbcResultSet.getString(i + 1);
+					if (stringValue == null) {
+						eventHandler.nullValue(i, accumulator);
+					} else {
+						eventHandler.value(new StringValue(field, stringValue), accumulator);
+					}
+					break;
+				default:
+					throw new IllegalStateException("Don't know how to handle field to type " + field.getColumnType());
+				}
+			}
+			eventHandler.endRow(accumulator);
+		}
+	}
+
 	public DbSessionFuture<Result> executeUpdate(final String sql) {
 		checkClosed();
 		return enqueueTransactionalRequest(new CallableRequest<Result>() {
@@ -244,8 +312,18 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 
 	public DbFuture<Void> ping() {
 		checkClosed();
-		// TODO Implement JDBC ping()
-		throw new IllegalStateException("Not yet implemented");
+		CallableRequest<Void> request = new CallableRequest<Void>() {
+			@Override
+			protected Void doCall() throws Exception {
+				// Lets the driver choose its cheapest check of the connection
+				if (!jdbcConnection.isValid(PING_TIMEOUT_SECONDS)) {
+					throw new DbException(JdbcConnection.this, "JDBC connection is no longer valid");
+				}
+				return null;
+			}
+		};
+		enqueueRequest(request);
+		return request;
 	}
 	
 	/*
@@ -262,6 +340,33 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 		jdbcConnection.setAutoCommit(false);
 	}
 	
+	@Override
+	protected void sendBegin(TransactionIsolationLevel isolationLevel) throws SQLException {
+		if (defaultIsolation < 0) {
+			defaultIsolation = jdbcConnection.getTransactionIsolation();
+		}
+		int isolation = isolationLevel == null ? defaultIsolation : toJdbcIsolation(isolationLevel);
+		if (jdbcConnection.getTransactionIsolation() != isolation) {
+			jdbcConnection.setTransactionIsolation(isolation);
+		}
+		sendBegin();
+	}
+	
+	private static int toJdbcIsolation(TransactionIsolationLevel isolationLevel) {
+		switch (isolationLevel) {
+		case READ_UNCOMMITTED:
+			return java.sql.Connection.TRANSACTION_READ_UNCOMMITTED;
+		case READ_COMMITTED:
+			return java.sql.Connection.TRANSACTION_READ_COMMITTED;
+		case REPEATABLE_READ:
+			return java.sql.Connection.TRANSACTION_REPEATABLE_READ;
+		case SERIALIZABLE:
+			return java.sql.Connection.TRANSACTION_SERIALIZABLE;
+		default:
+			throw new IllegalArgumentException("Unsupported isolation level " + isolationLevel);
+		}
+	}
+	
 	@Override
 	protected Request<Void> createBeginRequest(Transaction transaction) {
 		logger.trace("Creating begin request");
@@ -294,6 +399,16 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 	
 	// *********** JDBC Specific method implementations ************************
 	
+	@Override
+	protected HashedWheelTimer getTimer() {
+		return connectionManager.getTimer();
+	}
+	
+	@Override
+	protected ListenerDispatcher getListenerDispatcher() {
+		return connectionManager.getListenerDispatcher();
+	}
+	
 	@Override
 	protected void checkClosed() {
 		if (isClosed()) {
@@ -318,7 +433,7 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 		}
 		
 		final public E call() throws Exception {
-			if (isCancelled()) {
+			if (isCancelled() && canRemove()) {
 				return null;
 			}
 			try {
@@ -353,7 +468,7 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 		
 		@Override
 		public synchronized boolean cancelRequest(boolean mayInterruptIfRunning) {
-			if (super.cancel(mayInterruptIfRunning)) {
+			if (super.cancelRequest(mayInterruptIfRunning)) {
 				return request.cancel(mayInterruptIfRunning);
 			}
 			return false;
@@ -362,6 +477,10 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 		@Override
 		protected Void doCall() throws Exception {
 			request.invokeExecute();
+			if (request.isCancelled()) {
+				// A commit turns in to a rollback when its transaction is cancelled
+				trySetCancelled();
+			}
 			return null;
 		}
 		
@@ -370,6 +489,11 @@ public class JdbcConnection extends AbstractDbSession implements Connection {
 			return request.canRemove();
 		}
 		
+		@Override
+		public boolean isSheddable() {
+			return request.isSheddable();
+		}
+		
 		@Override
 		public boolean isPipelinable() {
 			return request.isPipelinable();
@@ -35,6 +35,8 @@ import org.adbcj.DbFuture;
 import org.adbcj.DbListener;
 import org.adbcj.support.DbFutureConcurrentProxy;
 import org.adbcj.support.DefaultDbFuture;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.ListenerDispatcher;
 
 public class JdbcConnectionManager implements ConnectionManager {
 
@@ -44,6 +46,17 @@ public class JdbcConnectionManager implements ConnectionManager {
 	private final String jdbcUrl;
 	private final Properties properties;
 	private final ExecutorService executorService;
+	
+	/**
+	 * Expires requests with a deadline for all of this connection manager's connections.
+	 */
+	private final HashedWheelTimer timer = new HashedWheelTimer("JDBC request timer");
+	
+	/**
+	 * Invokes the listeners of futures created by this connection manager and its connections.  Null, the default,
+	 * invokes them on the thread that completes the future without timing them.
+	 */
+	private volatile ListenerDispatcher listenerDispatcher;
 
 	private final Object lock = this;
 	private final Set<JdbcConnection> connections = new HashSet<JdbcConnection>(); // Access must be synchronized on lock 
@@ -101,6 +114,7 @@ public class JdbcConnectionManager implements ConnectionManager {
 					@Override
 					public void onCompletion(DbFuture<Void> future) throws Exception {
 						executorService.shutdown();
+						timer.stop();
 					}
 				});
 			} else {
@@ -151,6 +165,28 @@ public class JdbcConnectionManager implements ConnectionManager {
 	public ExecutorService getExecutorService() {
 		return executorService;
 	}
+	
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+	
+	/**
+	 * Returns the dispatcher that invokes the listeners of this manager's futures, null if they are invoked on the
+	 * thread that completes them.
+	 */
+	public ListenerDispatcher getListenerDispatcher() {
+		return listenerDispatcher;
+	}
+	
+	/**
+	 * Sets the policy for invoking listeners of futures created after this call.  Individual futures may override it
+	 * with {@link DefaultDbFuture#setListenerDispatcher(ListenerDispatcher)}.
+	 *
+	 * @param listenerDispatcher  the dispatcher to use, or null to invoke listeners on the completing thread
+	 */
+	public void setListenerDispatcher(ListenerDispatcher listenerDispatcher) {
+		this.listenerDispatcher = listenerDispatcher;
+	}
 
 	boolean removeConnection(JdbcConnection connection) {
 		synchronized (lock) {
@@ -16,30 +16,39 @@
  */
 package org.adbcj.mysql;
 
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.adbcj.Connection;
 import org.adbcj.ConnectionManager;
 import org.adbcj.DbException;
+import org.adbcj.DbFunction;
 import org.adbcj.DbFuture;
 import org.adbcj.DbSessionClosedException;
 import org.adbcj.DbSessionFuture;
 import org.adbcj.PreparedStatement;
+import org.adbcj.ReplicationLagProbe;
 import org.adbcj.Result;
 import org.adbcj.ResultEventHandler;
+import org.adbcj.ResultSet;
+import org.adbcj.TransactionIsolationLevel;
+import org.adbcj.Value;
 import org.adbcj.mysql.MysqlConnectionManager.MysqlConnectFuture;
 import org.adbcj.support.AbstractDbSession;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.ListenerDispatcher;
 import org.apache.mina.common.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MysqlConnection extends AbstractDbSession implements Connection {
+public class MysqlConnection extends AbstractDbSession implements Connection, ReplicationLagProbe {
 	private final Logger logger = LoggerFactory.getLogger(MysqlConnection.class);
 
 	private final int id;
 	
-	private final ConnectionManager connectionManager;
+	private final MysqlConnectionManager connectionManager;
 	private final MysqlConnectFuture connectFuture;
 	
 	private final IoSession session;
@@ -49,7 +58,7 @@ public class MysqlConnection extends AbstractDbSession implements Connection {
 
 	private Request<Void> closeRequest;
 	
-	public MysqlConnection(ConnectionManager connectionManager, MysqlConnectFuture connectFuture, IoSession session, LoginCredentials credentials, int id) {
+	public MysqlConnection(MysqlConnectionManager connectionManager, MysqlConnectFuture connectFuture, IoSession session, LoginCredentials credentials, int id) {
 		this.connectionManager = connectionManager;
 		this.connectFuture = connectFuture;
 		this.session = session;
@@ -114,6 +123,10 @@ public class MysqlConnection extends AbstractDbSession implements Connection {
 						session.write(new CommandRequest(Command.QUIT));
 					}
 					@Override
+					public boolean isSheddable() {
+						return false;
+					}
+					@Override
 					public String toString() {
 						return "MySQL deferred close";
 					}
@@ -180,16 +193,59 @@ public class MysqlConnection extends AbstractDbSession implements Connection {
 	
 	public DbFuture<Void> ping() {
 		checkClosed();
-		// TODO Implement MySQL ping()
-		throw new IllegalStateException("Not yet implemented");
+		// The server answers COM_PING with an OK packet, which completes the request with a Result
+		Request<Result> request = new Request<Result>() {
+			@Override
+			public void execute() {
+				session.write(PING);
+			}
+			@Override
+			public String toString() {
+				return "MySQL ping";
+			}
+		};
+		enqueueRequest(request);
+		return request.map(new DbFunction<Result, Void>() {
+			public Void apply(Result result) {
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * Seconds_Behind_Master is truncated to whole seconds so the lag is rounded up, it is NULL while the replication
+	 * SQL thread is stopped and the status is empty on a server that is not a slave.
+	 */
+	public DbFuture<Long> probeReplicationLag() {
+		return executeQuery("SHOW SLAVE STATUS").map(new DbFunction<ResultSet, Long>() {
+			public Long apply(ResultSet status) {
+				if (status.isEmpty()) {
+					return null;
+				}
+				Value lag = status.get(0).get("Seconds_Behind_Master");
+				return lag.isNull() ? null : (lag.getLong() + 1) * 1000;
+			}
+		});
 	}
 
 	// ************* Transaction method implementations ******************************************
 	
+	private static final CommandRequest PING = new CommandRequest(Command.PING);
 	private static final CommandRequest BEGIN = new CommandRequest(Command.QUERY, "begin");
 	private static final CommandRequest COMMIT = new CommandRequest(Command.QUERY, "commit"); 
 	private static final CommandRequest ROLLBACK = new CommandRequest(Command.QUERY, "rollback"); 
 	
+	private static final Map<TransactionIsolationLevel, CommandRequest> SET_ISOLATION_LEVEL =
+		new EnumMap<TransactionIsolationLevel, CommandRequest>(TransactionIsolationLevel.class);
+	static {
+		for (TransactionIsolationLevel level : TransactionIsolationLevel.values()) {
+			if (level != TransactionIsolationLevel.NONE) {
+				SET_ISOLATION_LEVEL.put(level, new CommandRequest(Command.QUERY,
+						"set transaction isolation level " + level.name().replace('_', ' ').toLowerCase()));
+			}
+		}
+	}
+	
 	@Override
 	protected void sendCommit() {
 		session.write(COMMIT);
@@ -204,9 +260,44 @@ public class MysqlConnection extends AbstractDbSession implements Connection {
 	protected void sendBegin() {
 		session.write(BEGIN);
 	}
+	
+	@Override
+	protected void sendBegin(TransactionIsolationLevel isolationLevel) {
+		// The isolation level was set by the request created by createIsolationLevelRequest()
+		sendBegin();
+	}
+	
+	/*
+	 * MySQL can not set the isolation level when starting a transaction.  The SET is pipelined with the BEGIN so both
+	 * are written together and their responses are read in one round trip.
+	 */
+	@Override
+	protected Request<Void> createIsolationLevelRequest(Transaction transaction) {
+		final CommandRequest request = SET_ISOLATION_LEVEL.get(transaction.getIsolationLevel());
+		return new Request<Void>() {
+			@Override
+			protected void execute() throws Exception {
+				session.write(request);
+			}
+			@Override
+			public String toString() {
+				return "MySQL set isolation level";
+			}
+		};
+	}
 
 	// ************* Non-API methods *************************************************************
 	
+	@Override
+	protected HashedWheelTimer getTimer() {
+		return connectionManager.getTimer();
+	}
+	
+	@Override
+	protected ListenerDispatcher getListenerDispatcher() {
+		return connectionManager.getListenerDispatcher();
+	}
+	
 	public ServerGreeting getServerGreeting() {
 		return serverGreeting;
 	}
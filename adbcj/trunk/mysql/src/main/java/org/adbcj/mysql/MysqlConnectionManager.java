@@ -27,6 +27,8 @@ import org.adbcj.ConnectionManager;
 import org.adbcj.DbException;
 import org.adbcj.DbFuture;
 import org.adbcj.support.DefaultDbFuture;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.ListenerDispatcher;
 import org.apache.mina.common.ConnectFuture;
 import org.apache.mina.common.DefaultIoFilterChainBuilder;
 import org.apache.mina.common.IoSession;
@@ -54,6 +56,17 @@ public class MysqlConnectionManager implements ConnectionManager {
 	
 	private DbFuture<Void> closeFuture = null;
 	
+	/**
+	 * Expires requests with a deadline for all of this connection manager's connections.
+	 */
+	private final HashedWheelTimer timer = new HashedWheelTimer("MySQL request timer");
+	
+	/**
+	 * Invokes the listeners of futures created by this connection manager and its connections.  Null, the default,
+	 * invokes them on the thread that completes the future without timing them.
+	 */
+	private volatile ListenerDispatcher listenerDispatcher;
+	
 	private static final ProtocolEncoder ENCODER = new MysqlMessageEncoder();
 	private static final ProtocolCodecFactory CODEC_FACTORY = new ProtocolCodecFactory() {
 		public ProtocolDecoder getDecoder(IoSession session) throws Exception {
@@ -85,6 +98,7 @@ public class MysqlConnectionManager implements ConnectionManager {
 		// TODO: Close all open connections
 		if (immediate) {
 			socketConnector.dispose();
+			timer.stop();
 			DefaultDbFuture<Void> future = new DefaultDbFuture<Void>();
 			future.setResult(null);
 			closeFuture = future;
@@ -105,6 +119,7 @@ public class MysqlConnectionManager implements ConnectionManager {
 		}
 		logger.debug("Starting connection");
 		MysqlConnectFuture future = new MysqlConnectFuture();
+		future.setListenerDispatcher(listenerDispatcher);
 		socketConnector.connect(future);
 		
 		return future;
@@ -143,6 +158,28 @@ public class MysqlConnectionManager implements ConnectionManager {
 		}
 	}
 	
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+	
+	/**
+	 * Returns the dispatcher that invokes the listeners of this manager's futures, null if they are invoked on the
+	 * thread that completes them.
+	 */
+	public ListenerDispatcher getListenerDispatcher() {
+		return listenerDispatcher;
+	}
+	
+	/**
+	 * Sets the policy for invoking listeners of futures created after this call.  Individual futures may override it
+	 * with {@link DefaultDbFuture#setListenerDispatcher(ListenerDispatcher)}.
+	 *
+	 * @param listenerDispatcher  the dispatcher to use, or null to invoke listeners on the completing thread
+	 */
+	public void setListenerDispatcher(ListenerDispatcher listenerDispatcher) {
+		this.listenerDispatcher = listenerDispatcher;
+	}
+	
 	public void removeConnection(MysqlConnection connection) {
 		synchronized (connections) {
 			connections.remove(connection);
@@ -18,12 +18,15 @@ package org.adbcj.mysql;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import org.adbcj.ConnectionManager;
 import org.adbcj.ConnectionManagerFactory;
 import org.adbcj.ConnectionManagerProvider;
 import org.adbcj.DbException;
+import org.adbcj.support.FailoverConnectionManager;
 
 public class MysqlConnectionManagerFactory implements ConnectionManagerFactory {
 
@@ -47,17 +50,27 @@ public class MysqlConnectionManagerFactory implements ConnectionManagerFactory {
 			// Throw away the 'adbcj' protocol part of the URL
 			uri = new URI(uri.getSchemeSpecificPart());
 
-			String host = uri.getHost();
-			int port = uri.getPort();
-			if (port < 0) {
-				port = DEFAULT_PORT;
-			}
 			String schema = uri.getPath().substring(1);
+			if (uri.getHost() == null && uri.getAuthority() != null && uri.getAuthority().indexOf(',') >= 0) {
+				// A comma separated list of hosts fails over from each host to the next
+				List<ConnectionManager> hosts = new ArrayList<ConnectionManager>();
+				for (String address : uri.getAuthority().split(",")) {
+					URI hostUri = new URI("//" + address);
+					hosts.add(new MysqlConnectionManager(hostUri.getHost(), getPort(hostUri), username, password,
+							schema, properties));
+				}
+				return new FailoverConnectionManager(hosts);
+			}
 
-			return new MysqlConnectionManager(host, port, username, password, schema, properties);
+			return new MysqlConnectionManager(uri.getHost(), getPort(uri), username, password, schema, properties);
 		} catch (URISyntaxException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private static int getPort(URI uri) {
+		int port = uri.getPort();
+		return port < 0 ? DEFAULT_PORT : port;
+	}
+
 }
@@ -21,12 +21,37 @@ import org.adbcj.DbException;
 public class MysqlException extends DbException {
 	private static final long serialVersionUID = 1L;
 
+	private final int errorNumber;
+	private final String sqlState;
+	
 	public MysqlException(MysqlConnection connection, String message, Throwable cause) {
 		super(connection, message, cause);
+		this.errorNumber = 0;
+		this.sqlState = null;
 	}
 
 	public MysqlException(MysqlConnection connection, String message) {
 		super(connection, message);
+		this.errorNumber = 0;
+		this.sqlState = null;
+	}
+
+	public MysqlException(MysqlConnection connection, ErrorResponse response) {
+		super(connection, response.getMessage());
+		this.errorNumber = response.getErrorNumber();
+		this.sqlState = response.getSqlState();
+	}
+
+	/**
+	 * Returns the MySQL error number, such as 1213 for a deadlock, or 0 if the error was not reported by the server.
+	 */
+	public int getErrorNumber() {
+		return errorNumber;
+	}
+	
+	@Override
+	public String getSqlState() {
+		return sqlState;
 	}
 
 }
@@ -73,15 +73,14 @@ public class MysqlIoHandler extends IoHandlerAdapter {
 			}
 			Request<?> activeRequest = connection.getActiveRequest();
 			if (activeRequest != null) {
-				if (!activeRequest.isDone()) {
-					try {
-						activeRequest.error(dbException);
-
-						return;
-					} catch (Throwable e) {
-						// TODO Pass exception to ConnectionManager
-						e.printStackTrace();
-					}
+				// Even if the request already expired, error() marks its response as processed
+				try {
+					activeRequest.error(dbException);
+
+					return;
+				} catch (Throwable e) {
+					// TODO Pass exception to ConnectionManager
+					e.printStackTrace();
 				}
 			}
 		}
@@ -157,7 +156,7 @@ public class MysqlIoHandler extends IoHandlerAdapter {
 
 	private void handleErrorResponse(IoSession session, ErrorResponse message) {
 		MysqlConnection connection = IoSessionUtil.getMysqlConnection(session);
-		throw new MysqlException(connection, message.getMessage());
+		throw new MysqlException(connection, message);
 	}
 
 	private void handleResultSetResponse(IoSession session, ResultSetResponse message) {
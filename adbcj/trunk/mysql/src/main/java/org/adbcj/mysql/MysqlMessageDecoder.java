@@ -25,8 +25,13 @@ import org.apache.mina.common.IoSession;
 import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
 import org.adbcj.DbException;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.TypedResultEventHandler;
 import org.adbcj.Value;
-import org.adbcj.support.DefaultValue;
+import org.adbcj.support.IntValue;
+import org.adbcj.support.LongValue;
+import org.adbcj.support.StringValue;
+import org.adbcj.support.AbstractDbSession.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +58,17 @@ public class MysqlMessageDecoder extends CumulativeProtocolDecoder {
 	private int fieldIndex = 0;
 	private MysqlField[] fields;
 
+	/**
+	 * Holds the bytes of a string column for a typed handler when the buffer has no accessible array.
+	 */
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * The failure of a typed row of the current result.  The request is failed once the rest of the result has been
+	 * read so the decoder stays in step with the packets that follow.
+	 */
+	private RuntimeException rowFailure;
+
 	private final MysqlConnection connection;
 
 	MysqlMessageDecoder(IoSession session) {
@@ -150,40 +166,36 @@ public class MysqlMessageDecoder extends CumulativeProtocolDecoder {
 				in.position(in.position() - 1);
 				if (fieldCount == RESPONSE_EOF) {
 					EofResponse rowEof = decodeEofResponse(in, length, packetNumber, EofResponse.Type.ROW);
+					state = State.RESPONSE;
+					if (rowFailure != null) {
+						failRow(out);
+						break;
+					}
 					out.write(rowEof);
 					out.flush();
 	
-					state = State.RESPONSE;
-	
+					break;
+				}
+				
+				Request<Object> request = connection.getActiveRequest();
+				ResultEventHandler<Object> eventHandler = request == null ? null : request.getEventHandler();
+				if (eventHandler instanceof TypedResultEventHandler) {
+					// Hand the row to the handler directly rather than creating a value per column
+					if (rowFailure == null) {
+						try {
+							decodeRow(in, (TypedResultEventHandler<Object>)eventHandler, request.getAccumulator());
+						} catch (RuntimeException e) {
+							rowFailure = e;
+						}
+					}
+					// Skip what a failed row left unread and the rows that follow it
+					in.position(in.limit());
 					break;
 				}
 	
 				Value[] values = new Value[fields.length];
 				for (MysqlField field : fields) {
-					Object value = null;
-					if (in.get() != NULL_VALUE) {
-						in.position(in.position() - 1);
-						
-						// We will have to move this as some datatypes will not be sent across the wire as strings
-						String strVal = decodeLengthCodedString(in);
-						
-						switch (field.getColumnType()) {
-						case TINYINT:
-							value = Byte.valueOf(strVal);
-							break;
-						case INTEGER:
-						case BIGINT:
-							value = Long.valueOf(strVal);
-							break;
-						case VARCHAR:
-							value = strVal;
-							break;
-						default:
-							throw new IllegalStateException("Don't know how to handle column type of "
-									+ field.getColumnType());
-						}
-					}
-					values[field.getIndex()] = new DefaultValue(field, value);
+					values[field.getIndex()] = decodeValue(in, field);
 				}
 				out.write(new ResultSetRowResponse(length, packetNumber, values));
 				break;
@@ -294,7 +306,8 @@ public class MysqlMessageDecoder extends CumulativeProtocolDecoder {
 		if (firstByte <= 250) {
 			return firstByte;
 		}
-		if (firstByte == NULL_VALUE) {
+		// The byte was read unsigned
+		if (firstByte == (NULL_VALUE & 0xff)) {
 			return -1;
 		}
 		if (firstByte == 252) {
@@ -313,6 +326,137 @@ public class MysqlMessageDecoder extends CumulativeProtocolDecoder {
 		throw new DbException(connection, "Recieved a length value we don't know how to handle");
 	}
 
+	private Value decodeValue(IoBuffer in, MysqlField field) throws CharacterCodingException {
+		if (in.get() == NULL_VALUE) {
+			return field.getNullValue();
+		}
+		in.position(in.position() - 1);
+		// We will have to move this as some datatypes will not be sent across the wire as strings
+		switch (field.getColumnType()) {
+		case TINYINT:
+			return new IntValue(field, decodeInt(in, decodeValueLength(in)));
+		case INTEGER:
+		case BIGINT:
+			return new LongValue(field, decodeLong(in, decodeValueLength(in)));
+		case VARCHAR:
+			return new StringValue(field, decodeLengthCodedString(in));
+		default:
+			throw new IllegalStateException("Don't know how to handle column type of " + field.getColumnType());
+		}
+	}
+
+	private int decodeValueLength(IoBuffer in) {
+		long length = getBinaryLengthEncoding(in);
+		if (length > Integer.MAX_VALUE) {
+			throw new MysqlException(connection, "Value too long to decode");
+		}
+		return (int)length;
+	}
+
+	/**
+	 * Fails the active request with the failure of one of its typed rows, now that its result has been read.
+	 */
+	private void failRow(ProtocolDecoderOutput out) {
+		RuntimeException failure = rowFailure;
+		rowFailure = null;
+		// Deliver the messages decoded ahead of the failure first
+		out.flush();
+		Request<Object> request = connection.getActiveRequest();
+		if (request != null) {
+			request.error(DbException.wrap(connection, failure));
+		}
+	}
+
+	private <T> void decodeRow(IoBuffer in, TypedResultEventHandler<T> eventHandler, T accumulator) {
+		eventHandler.startRow(accumulator);
+		for (MysqlField field : fields) {
+			int column = field.getIndex();
+			long length = getBinaryLengthEncoding(in);
+			if (length < 0) {
+				eventHandler.nullValue(column, accumulator);
+				continue;
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new MysqlException(connection, "Value too long to decode");
+			}
+			switch (field.getColumnType()) {
+			case TINYINT:
+				eventHandler.intValue(column, decodeInt(in, (int)length), accumulator);
+				break;
+			case INTEGER:
+			case BIGINT:
+				eventHandler.longValue(column, decodeLong(in, (int)length), accumulator);
+				break;
+			case VARCHAR:
+				decodeBytes(in, (int)length, column, eventHandler, accumulator);
+				break;
+			default:
+				throw new IllegalStateException("Don't know how to handle column type of " + field.getColumnType());
+			}
+		}
+		eventHandler.endRow(accumulator);
+	}
+
+	private int decodeInt(IoBuffer buffer, int length) {
+		long value = decodeLong(buffer, length);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new MysqlException(connection, "Received an integer value out of range: " + value);
+		}
+		return (int)value;
+	}
+
+	/**
+	 * Parses an integer sent as text without creating a string.  Values that do not fit in a long, such as a
+	 * {@code BIGINT UNSIGNED} above {@link Long#MAX_VALUE}, are rejected rather than wrapped.
+	 */
+	private long decodeLong(IoBuffer buffer, int length) {
+		if (length == 0) {
+			throw new MysqlException(connection, "Received an empty integer value");
+		}
+		boolean negative = false;
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get();
+			if (i == 0 && b == '-') {
+				negative = true;
+			} else if (b >= '0' && b <= '9') {
+				// Accumulate negatively so Long.MIN_VALUE can be parsed
+				int digit = b - '0';
+				if (value < (Long.MIN_VALUE + digit) / 10) {
+					throw new MysqlException(connection, "Received an integer value out of range");
+				}
+				value = value * 10 - digit;
+			} else {
+				throw new MysqlException(connection, "Received an invalid integer value");
+			}
+		}
+		if (negative) {
+			if (length == 1) {
+				throw new MysqlException(connection, "Received an invalid integer value");
+			}
+			return value;
+		}
+		if (value == Long.MIN_VALUE) {
+			throw new MysqlException(connection, "Received an integer value out of range");
+		}
+		return -value;
+	}
+
+	private <T> void decodeBytes(IoBuffer buffer, int length, int column, TypedResultEventHandler<T> eventHandler,
+			T accumulator) {
+		if (buffer.hasArray()) {
+			eventHandler.bytesValue(column, buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+					accumulator);
+			buffer.skip(length);
+		} else {
+			if (scratch.length < length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			buffer.get(scratch, 0, length);
+			eventHandler.bytesValue(column, scratch, 0, length, accumulator);
+		}
+	}
+
 	private String decodeLengthCodedString(IoBuffer buffer)
 			throws CharacterCodingException {
 		MysqlCharacterSet charSet = connection.getCharacterSet();
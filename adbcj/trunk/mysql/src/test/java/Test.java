@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class Test {
 	private static DbListener<ResultSet> listener;
@@ -26,7 +27,7 @@ public class Test {
 
 		DbSessionPool pool = new DbSessionPool();
 		pool.addConnectionManager(connectionManager, 50);
-		Thread.sleep(500);
+		pool.whenReady().get(30, TimeUnit.SECONDS);
 		DbSession session = pool.connect().get();
 
 //		DbSession session = connectionManager.connect().get();
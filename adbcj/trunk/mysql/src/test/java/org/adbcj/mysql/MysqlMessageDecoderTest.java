@@ -0,0 +1,324 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.mysql;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.adbcj.DbException;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.Field;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.TypedResultEventHandler;
+import org.adbcj.Value;
+import org.apache.mina.common.DummySession;
+import org.apache.mina.common.IoBuffer;
+import org.apache.mina.filter.codec.AbstractProtocolDecoderOutput;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class MysqlMessageDecoderTest {
+
+	private static final byte NULL_VALUE = (byte)0xfb;
+
+	private MysqlConnectionManager connectionManager;
+	private MysqlConnection connection;
+	private DummySession session;
+	private MysqlMessageDecoder decoder;
+	private AbstractProtocolDecoderOutput out;
+	private byte packetNumber;
+	private DbSessionFuture<List<String>> future;
+
+	/**
+	 * Records the callbacks of the typed row events as strings.
+	 */
+	static class RecordingHandler implements TypedResultEventHandler<List<String>> {
+		public void startFields(List<String> accumulator) {
+		}
+		public void field(Field field, List<String> accumulator) {
+		}
+		public void endFields(List<String> accumulator) {
+		}
+		public void startResults(List<String> accumulator) {
+		}
+		public void startRow(List<String> accumulator) {
+		}
+		public void value(Value value, List<String> accumulator) {
+			accumulator.add("value " + value.getValue());
+		}
+		public void endRow(List<String> accumulator) {
+			accumulator.add("|");
+		}
+		public void endResults(List<String> accumulator) {
+		}
+		public void exception(Throwable t, List<String> accumulator) {
+		}
+		public void nullValue(int column, List<String> accumulator) {
+			accumulator.add("null");
+		}
+		public void intValue(int column, int value, List<String> accumulator) {
+			accumulator.add("int " + value);
+		}
+		public void longValue(int column, long value, List<String> accumulator) {
+			accumulator.add("long " + value);
+		}
+		public void bytesValue(int column, byte[] buffer, int offset, int length, List<String> accumulator) {
+			accumulator.add("bytes " + new String(buffer, offset, length));
+		}
+	}
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		connectionManager = new MysqlConnectionManager("localhost", 3306, "test", "test", "test", new Properties());
+		session = new DummySession();
+		connection = new MysqlConnection(connectionManager, null, session, null, 1);
+		IoSessionUtil.setMysqlConnection(session, connection);
+		decoder = new MysqlMessageDecoder(session);
+		out = new AbstractProtocolDecoderOutput() {
+			public void flush() {
+			}
+		};
+		packetNumber = 0;
+
+		IoBuffer greeting = packet(false);
+		greeting.put((byte)10);
+		greeting.put("5.0.0".getBytes()).put((byte)0);
+		greeting.putInt(1);
+		greeting.put(new byte[8]).put((byte)0);
+		greeting.putShort((short)0);
+		greeting.put((byte)8);
+		greeting.putShort((short)0);
+		greeting.put(new byte[13]);
+		greeting.put(new byte[12]).put((byte)0);
+		decode(greeting);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		connectionManager.close(true);
+	}
+
+	private IoBuffer packet(boolean direct) {
+		IoBuffer buffer = IoBuffer.allocate(256, direct);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.setAutoExpand(true);
+		// Room for the length and packet number
+		buffer.putMediumInt(0);
+		buffer.put(packetNumber++);
+		return buffer;
+	}
+
+	private void decode(IoBuffer packet) throws Exception {
+		packet.flip();
+		packet.putMediumInt(0, packet.limit() - 4);
+		while (packet.hasRemaining()) {
+			decoder.doDecode(session, packet, out);
+		}
+	}
+
+	private static void putString(IoBuffer buffer, String value) {
+		if (value == null) {
+			buffer.put(NULL_VALUE);
+		} else {
+			buffer.put((byte)value.length());
+			buffer.put(value.getBytes());
+		}
+	}
+
+	/**
+	 * Sends a result set header and the definitions of columns of the given types.
+	 */
+	private void startResults(MysqlType... types) throws Exception {
+		IoBuffer header = packet(false);
+		header.put((byte)types.length);
+		decode(header);
+		for (MysqlType type : types) {
+			IoBuffer field = packet(false);
+			for (int i = 0; i < 6; i++) {
+				putString(field, "c");
+			}
+			field.put((byte)0);
+			field.putShort((short)8);
+			field.putInt(20);
+			field.put(type.getId());
+			field.put((byte)0);
+			field.put((byte)0);
+			field.putShort((short)0);
+			field.put((byte)0);
+			decode(field);
+		}
+		IoBuffer eof = packet(false);
+		eof.put((byte)0xfe).putShort((short)0).putShort((short)0);
+		decode(eof);
+	}
+
+	private void row(boolean direct, String... values) throws Exception {
+		IoBuffer row = packet(direct);
+		for (String value : values) {
+			putString(row, value);
+		}
+		decode(row);
+	}
+
+	private void endResults() throws Exception {
+		IoBuffer eof = packet(false);
+		eof.put((byte)0xfe).putShort((short)0).putShort((short)0);
+		decode(eof);
+	}
+
+	private List<String> query() {
+		return query(new RecordingHandler());
+	}
+
+	private List<String> query(RecordingHandler eventHandler) {
+		List<String> events = new ArrayList<String>();
+		future = connection.executeQuery("SELECT", eventHandler, events);
+		return events;
+	}
+
+	/**
+	 * Returns the failure of the last query, unwrapped from the {@link DbException} it was reported with.
+	 */
+	private Throwable getFailure() {
+		Assert.assertTrue(future.isDone(), "The query should have completed");
+		try {
+			future.getUninterruptably();
+			Assert.fail("The query should have failed");
+		} catch (DbException e) {
+			Throwable failure = e.getCause();
+			return failure instanceof MysqlException || !(failure instanceof DbException) ? failure : failure.getCause();
+		}
+		return null;
+	}
+
+	/**
+	 * Sends a row holding {@code value} followed by a valid row and checks the query fails once its result ends.
+	 */
+	private void assertRejected(MysqlType type, String value) throws Exception {
+		List<String> events = query();
+		startResults(type);
+		row(false, value);
+		row(false, "1");
+		Assert.assertFalse(future.isDone(), "The query should fail once its result has been read");
+		endResults();
+		Assert.assertTrue(getFailure() instanceof MysqlException);
+		Assert.assertEquals(events.size(), 0);
+	}
+
+	public void testTypedRow() throws Exception {
+		List<String> events = query();
+		startResults(MysqlType.TINY, MysqlType.LONGLONG, MysqlType.VAR_STRING);
+		row(false, "-128", "-42", "abc");
+		row(false, null, "9223372036854775807", null);
+		row(false, "255", "-9223372036854775808", "");
+		Assert.assertEquals(events.toString(), "[int -128, long -42, bytes abc, |, null, long 9223372036854775807, null, "
+				+ "|, int 255, long -9223372036854775808, bytes , |]");
+	}
+
+	public void testTypedRowWithoutBackingArray() throws Exception {
+		List<String> events = query();
+		startResults(MysqlType.LONGLONG, MysqlType.VAR_STRING);
+		StringBuilder longString = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			longString.append((char)('a' + i % 26));
+		}
+		// Longer than the initial scratch array so it has to grow
+		row(true, "7", longString.toString());
+		row(true, "8", "xyz");
+		Assert.assertEquals(events.toString(), "[long 7, bytes " + longString + ", |, long 8, bytes xyz, |]");
+	}
+
+	public void testUnsignedBigintOverflowRejected() throws Exception {
+		assertRejected(MysqlType.LONGLONG, "9223372036854775808");
+	}
+
+	public void testLargeIntegerRejected() throws Exception {
+		assertRejected(MysqlType.LONGLONG, "18446744073709551615");
+	}
+
+	public void testTinyintOutOfRangeRejected() throws Exception {
+		assertRejected(MysqlType.TINY, "2147483648");
+	}
+
+	public void testBareSignRejected() throws Exception {
+		assertRejected(MysqlType.LONGLONG, "-");
+	}
+
+	public void testThrowingHandlerFailsQuery() throws Exception {
+		final IllegalArgumentException failure = new IllegalArgumentException();
+		List<String> events = query(new RecordingHandler() {
+			@Override
+			public void longValue(int column, long value, List<String> accumulator) {
+				if (value == 2) {
+					throw failure;
+				}
+				super.longValue(column, value, accumulator);
+			}
+		});
+		startResults(MysqlType.LONGLONG, MysqlType.VAR_STRING);
+		row(false, "1", "a");
+		row(false, "2", "b");
+		row(false, "3", "c");
+		endResults();
+		Assert.assertSame(getFailure(), failure);
+		Assert.assertEquals(events.toString(), "[long 1, bytes a, |]", "No callbacks should follow the failure");
+
+		// The next result is decoded in step
+		events = query();
+		startResults(MysqlType.LONGLONG);
+		row(false, "4");
+		endResults();
+		Assert.assertEquals(events.toString(), "[long 4, |]");
+	}
+
+	public void testValueRowOverflowRejected() throws Exception {
+		connection.executeQuery("SELECT", new ResultEventHandler<Object>() {
+			public void startFields(Object accumulator) {
+			}
+			public void field(Field field, Object accumulator) {
+			}
+			public void endFields(Object accumulator) {
+			}
+			public void startResults(Object accumulator) {
+			}
+			public void startRow(Object accumulator) {
+			}
+			public void value(Value value, Object accumulator) {
+			}
+			public void endRow(Object accumulator) {
+			}
+			public void endResults(Object accumulator) {
+			}
+			public void exception(Throwable t, Object accumulator) {
+			}
+		}, null);
+		startResults(MysqlType.LONGLONG);
+		row(false, "-9223372036854775808");
+		try {
+			row(false, "-9223372036854775809");
+			Assert.fail("Expected MysqlException");
+		} catch (MysqlException e) {
+			// expected
+		}
+	}
+
+}
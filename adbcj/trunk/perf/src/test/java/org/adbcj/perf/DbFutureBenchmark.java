@@ -0,0 +1,192 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.perf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adbcj.DbFuture;
+import org.adbcj.DbListener;
+import org.adbcj.support.DefaultDbFuture;
+
+/**
+ * Measures how long it takes to complete a {@link DefaultDbFuture} that has 1 to 64 listeners registered, 1 to 64
+ * threads concurrently registering listeners, or 1 to 64 threads blocked in {@link DbFuture#get()}.  Run from the IDE
+ * or with {@code java -cp ... DbFutureBenchmark}.
+ */
+public class DbFutureBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int LISTENER_ITERATIONS = 200000;
+	private static final int CONTENDED_ITERATIONS = 2000;
+	private static final int WAITER_ITERATIONS = 2000;
+
+	private static final int[] FAN_OUT = {1, 2, 4, 8, 16, 32, 64};
+
+	public static void main(String[] args) throws Exception {
+		for (int listeners : FAN_OUT) {
+			benchmarkListeners(listeners, WARMUP_ITERATIONS);
+		}
+		System.out.println("listeners\tns/completion");
+		for (int listeners : FAN_OUT) {
+			long nanos = benchmarkListeners(listeners, LISTENER_ITERATIONS);
+			System.out.printf("%d\t\t%d%n", listeners, nanos / LISTENER_ITERATIONS);
+		}
+
+		System.out.println("registering threads\tns/completion");
+		for (int registrars : FAN_OUT) {
+			long nanos = benchmarkContendedListeners(registrars, CONTENDED_ITERATIONS);
+			System.out.printf("%d\t\t\t%d%n", registrars, nanos / CONTENDED_ITERATIONS);
+		}
+
+		System.out.println("waiters\t\tus/completion");
+		for (int waiters : FAN_OUT) {
+			long nanos = benchmarkWaiters(waiters, WAITER_ITERATIONS);
+			System.out.printf("%d\t\t%d%n", waiters, nanos / WAITER_ITERATIONS / 1000);
+		}
+	}
+
+	/**
+	 * Returns the total time spent in {@code setResult} with {@code listenerCount} listeners registered.
+	 */
+	private static long benchmarkListeners(int listenerCount, int iterations) {
+		final long[] sink = new long[1];
+		DbListener<Long> listener = new DbListener<Long>() {
+			public void onCompletion(DbFuture<Long> future) throws Exception {
+				sink[0] += future.get();
+			}
+		};
+		long total = 0;
+		for (int i = 0; i < iterations; i++) {
+			DefaultDbFuture<Long> future = new DefaultDbFuture<Long>();
+			for (int j = 0; j < listenerCount; j++) {
+				future.addListener(listener);
+			}
+			long start = System.nanoTime();
+			future.setResult(Long.valueOf(i));
+			total += System.nanoTime() - start;
+		}
+		if (sink[0] == 42) {
+			System.out.print("");
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the total time spent in {@code setResult} while {@code registrarCount} threads keep adding listeners to
+	 * the future being completed, which is what happens when callers chain work onto a query completing on the I/O
+	 * thread.
+	 */
+	private static long benchmarkContendedListeners(int registrarCount, int iterations) throws InterruptedException {
+		final DbListener<Long> listener = new DbListener<Long>() {
+			public void onCompletion(DbFuture<Long> future) throws Exception {
+				future.get();
+			}
+		};
+		final DefaultDbFuture<?>[] current = new DefaultDbFuture<?>[1];
+		final AtomicInteger registered = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread[] registrars = new Thread[registrarCount];
+		for (int j = 0; j < registrarCount; j++) {
+			registrars[j] = new Thread() {
+				@SuppressWarnings("unchecked")
+				@Override
+				public void run() {
+					DefaultDbFuture<Long> last = null;
+					while (done.getCount() > 0) {
+						DefaultDbFuture<Long> future;
+						synchronized (current) {
+							future = (DefaultDbFuture<Long>)current[0];
+						}
+						if (future != null && future != last) {
+							// Register once per future, then keep racing the completing thread through isDone()
+							future.addListener(listener);
+							registered.incrementAndGet();
+							last = future;
+						} else if (future != null) {
+							future.isDone();
+						}
+						Thread.yield();
+					}
+				}
+			};
+			registrars[j].setDaemon(true);
+			registrars[j].start();
+		}
+		long total = 0;
+		for (int i = 0; i < iterations; i++) {
+			DefaultDbFuture<Long> future = new DefaultDbFuture<Long>();
+			synchronized (current) {
+				current[0] = future;
+			}
+			// Let every registering thread get at least one listener in before completing
+			int target = registered.get() + registrarCount;
+			while (registered.get() < target) {
+				Thread.yield();
+			}
+			long start = System.nanoTime();
+			future.setResult(Long.valueOf(i));
+			total += System.nanoTime() - start;
+		}
+		done.countDown();
+		for (Thread registrar : registrars) {
+			registrar.join();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the total time between calling {@code setResult} and the last of {@code waiterCount} blocked threads
+	 * returning from {@code get()}.
+	 */
+	private static long benchmarkWaiters(int waiterCount, int iterations) throws InterruptedException {
+		long total = 0;
+		for (int i = 0; i < iterations; i++) {
+			final DefaultDbFuture<Long> future = new DefaultDbFuture<Long>();
+			final CountDownLatch started = new CountDownLatch(waiterCount);
+			final CountDownLatch finished = new CountDownLatch(waiterCount);
+			final long[] wokenAt = new long[waiterCount];
+			for (int j = 0; j < waiterCount; j++) {
+				final int index = j;
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						started.countDown();
+						future.getUninterruptably();
+						wokenAt[index] = System.nanoTime();
+						finished.countDown();
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+			started.await();
+			// Give the waiters a chance to actually block
+			Thread.sleep(1);
+			long start = System.nanoTime();
+			future.setResult(Long.valueOf(i));
+			finished.await();
+			long last = start;
+			for (long woken : wokenAt) {
+				last = Math.max(last, woken);
+			}
+			total += last - start;
+		}
+		return total;
+	}
+
+}
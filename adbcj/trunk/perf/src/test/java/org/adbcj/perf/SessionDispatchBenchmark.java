@@ -0,0 +1,199 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.perf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adbcj.DbCompletionHandler;
+import org.adbcj.DbException;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.NonBlockingListener;
+import org.adbcj.PreparedStatement;
+import org.adbcj.Result;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.support.AbstractDbSession;
+import org.adbcj.support.ListenerDispatcher;
+
+/**
+ * Measures request throughput of a single {@link AbstractDbSession} while 1 to 64 threads enqueue pipelinable
+ * requests and one thread plays the part of the I/O thread, completing the active request as soon as it is sent.  No
+ * network is involved so the numbers reflect the cost of the session's dispatch alone.  Every request has a completion
+ * handler, invoked the way a connection manager's default invokes it, without a {@link ListenerDispatcher}, and again
+ * through an inline dispatcher to show what its metrics cost.  Run from the IDE or with
+ * {@code java -cp ... SessionDispatchBenchmark}.
+ */
+public class SessionDispatchBenchmark {
+
+	private static final int WARMUP_REQUESTS = 200000;
+	private static final int REQUESTS = 1000000;
+
+	private static final int[] PRODUCERS = {1, 2, 4, 8, 16, 32, 64};
+
+	public static void main(String[] args) throws Exception {
+		for (int producers : PRODUCERS) {
+			benchmark(producers, WARMUP_REQUESTS, null);
+			benchmark(producers, WARMUP_REQUESTS, new ListenerDispatcher());
+		}
+		System.out.println("producers\tns/request\tns/request (inline dispatcher)");
+		for (int producers : PRODUCERS) {
+			long nanos = benchmark(producers, REQUESTS, null);
+			long dispatcherNanos = benchmark(producers, REQUESTS, new ListenerDispatcher());
+			System.out.printf("%d\t\t%d\t\t%d%n", producers, nanos / REQUESTS, dispatcherNanos / REQUESTS);
+		}
+	}
+
+	/**
+	 * Returns the time taken for {@code producerCount} threads to enqueue {@code requestCount} requests between them
+	 * and for all of the requests to be completed.
+	 *
+	 * @param dispatcher  the dispatcher that invokes the requests' handlers, null to invoke them without one
+	 */
+	private static long benchmark(int producerCount, int requestCount, ListenerDispatcher dispatcher)
+			throws InterruptedException {
+		final BenchmarkSession session = new BenchmarkSession(dispatcher);
+		final int perProducer = requestCount / producerCount;
+		final int total = perProducer * producerCount;
+		final CountDownLatch start = new CountDownLatch(1);
+
+		Thread responder = new Thread() {
+			@Override
+			public void run() {
+				int completed = 0;
+				while (completed < total) {
+					AbstractDbSession.Request<Void> request = session.activeRequest();
+					if (request == null) {
+						Thread.yield();
+					} else {
+						request.complete(null);
+						completed++;
+					}
+				}
+			}
+		};
+		Thread[] producers = new Thread[producerCount];
+		for (int i = 0; i < producerCount; i++) {
+			producers[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < perProducer; j++) {
+						session.enqueue();
+					}
+				}
+			};
+			producers[i].start();
+		}
+		responder.start();
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		responder.join();
+		long elapsed = System.nanoTime() - begin;
+		if (session.sent.get() != total) {
+			throw new IllegalStateException("Sent " + session.sent.get() + " requests, expected " + total);
+		}
+		if (session.handled.get() != total) {
+			throw new IllegalStateException("Handled " + session.handled.get() + " requests, expected " + total);
+		}
+		return elapsed;
+	}
+
+	private static class BenchmarkSession extends AbstractDbSession {
+
+		final AtomicInteger sent = new AtomicInteger();
+
+		final AtomicInteger handled = new AtomicInteger();
+
+		private final ListenerDispatcher dispatcher;
+
+		private final Handler handler = new Handler();
+
+		BenchmarkSession(ListenerDispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+
+		void enqueue() {
+			Request<Void> request = new Request<Void>() {
+				@Override
+				protected void execute() {
+					sent.incrementAndGet();
+				}
+			};
+			request.addCompletionHandler(handler);
+			enqueueRequest(request);
+		}
+
+		@Override
+		protected ListenerDispatcher getListenerDispatcher() {
+			return dispatcher;
+		}
+
+		private class Handler implements DbCompletionHandler<Void>, NonBlockingListener {
+			public void completed(Void result) {
+				handled.incrementAndGet();
+			}
+			public void failed(Throwable cause) {
+			}
+			public void cancelled() {
+			}
+		}
+
+		Request<Void> activeRequest() {
+			return getActiveRequest();
+		}
+
+		@Override
+		protected void checkClosed() {
+		}
+		@Override
+		protected void sendBegin() {
+		}
+		@Override
+		protected void sendCommit() {
+		}
+		@Override
+		protected void sendRollback() {
+		}
+		public <T> DbSessionFuture<T> executeQuery(String sql, ResultEventHandler<T> eventHandler, T accumulator) {
+			throw new UnsupportedOperationException();
+		}
+		public DbSessionFuture<Result> executeUpdate(String sql) {
+			throw new UnsupportedOperationException();
+		}
+		public DbSessionFuture<PreparedStatement> prepareStatement(String sql) {
+			throw new UnsupportedOperationException();
+		}
+		public DbSessionFuture<PreparedStatement> prepareStatement(Object key, String sql) {
+			throw new UnsupportedOperationException();
+		}
+		public DbSessionFuture<Void> close(boolean immediate) throws DbException {
+			throw new UnsupportedOperationException();
+		}
+		public boolean isClosed() {
+			return false;
+		}
+	}
+
+}
@@ -20,17 +20,23 @@ import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.adbcj.Connection;
 import org.adbcj.ConnectionManager;
 import org.adbcj.DbException;
+import org.adbcj.DbFunction;
 import org.adbcj.DbFuture;
 import org.adbcj.DbSessionClosedException;
 import org.adbcj.DbSessionFuture;
 import org.adbcj.PreparedStatement;
+import org.adbcj.ReplicationLagProbe;
 import org.adbcj.Result;
 import org.adbcj.ResultEventHandler;
+import org.adbcj.ResultSet;
+import org.adbcj.TransactionIsolationLevel;
+import org.adbcj.Value;
 import org.adbcj.postgresql.PgConnectionManager.PgConnectFuture;
 import org.adbcj.postgresql.frontend.AbstractFrontendMessage;
 import org.adbcj.postgresql.frontend.BindMessage;
@@ -39,11 +45,13 @@ import org.adbcj.postgresql.frontend.ExecuteMessage;
 import org.adbcj.postgresql.frontend.FrontendMessage;
 import org.adbcj.postgresql.frontend.ParseMessage;
 import org.adbcj.support.AbstractDbSession;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.ListenerDispatcher;
 import org.apache.mina.common.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PgConnection extends AbstractDbSession implements Connection {
+public class PgConnection extends AbstractDbSession implements Connection, ReplicationLagProbe {
 	
 	private final Logger logger = LoggerFactory.getLogger(PgConnection.class);
 
@@ -58,6 +66,11 @@ public class PgConnection extends AbstractDbSession implements Connection {
 
 	private Request<Void> closeRequest; // Access synchronized on lock
 
+	/**
+	 * The number of Sync messages sent that the server has not yet answered with a ReadyForQuery.
+	 */
+	private final AtomicInteger syncsPending = new AtomicInteger();
+
 	private volatile int pid;
 	private volatile int key;
 	
@@ -77,9 +90,30 @@ public class PgConnection extends AbstractDbSession implements Connection {
 		return connectionManager;
 	}
 
+	/*
+	 * An empty Sync is the cheapest round trip the protocol offers, the server answers it with nothing but a
+	 * ReadyForQuery.
+	 */
 	public DbFuture<Void> ping() {
-		// TODO Implement Postgresql ping
-		throw new IllegalStateException();
+		checkClosed();
+		PingRequest request = new PingRequest();
+		enqueueRequest(request);
+		return request;
+	}
+
+	/*
+	 * The lag is the age of the last transaction replayed, it is NULL on a server that is not in recovery or has not
+	 * replayed anything yet.
+	 */
+	public DbFuture<Long> probeReplicationLag() {
+		return executeQuery("SELECT CASE WHEN pg_is_in_recovery() THEN "
+				+ "(extract(epoch FROM now() - pg_last_xact_replay_timestamp()) * 1000)::bigint END AS lag")
+				.map(new DbFunction<ResultSet, Long>() {
+			public Long apply(ResultSet resultSet) {
+				Value lag = resultSet.get(0).get("lag");
+				return lag.isNull() ? null : lag.getLong();
+			}
+		});
 	}
 
 	@Override
@@ -140,7 +174,7 @@ public class PgConnection extends AbstractDbSession implements Connection {
 						}
 						@Override
 						public void execute() {
-							logger.debug("Sending TERMINATE to server (Request queue size: {})", requestQueue.size());
+							logger.debug("Sending TERMINATE to server");
 							session.write(FrontendMessage.TERMINATE);
 						}
 						@Override
@@ -148,6 +182,10 @@ public class PgConnection extends AbstractDbSession implements Connection {
 							return false;
 						}
 						@Override
+						public boolean isSheddable() {
+							return false;
+						}
+						@Override
 						public String toString() {
 							return "Deferred close";
 						}
@@ -180,6 +218,7 @@ public class PgConnection extends AbstractDbSession implements Connection {
 				logger.debug("Issuing query: {}", sql);
 				
 				ParseMessage parse = new ParseMessage(sql);
+				syncsPending.incrementAndGet();
 				session.write(new AbstractFrontendMessage[] {
 					parse,
 					DEFAULT_BIND,
@@ -204,6 +243,7 @@ public class PgConnection extends AbstractDbSession implements Connection {
 				logger.debug("Issuing update query: {}", sql);
 				
 				ParseMessage parse = new ParseMessage(sql);
+				syncsPending.incrementAndGet();
 				session.write(new AbstractFrontendMessage[] {
 					parse,
 					DEFAULT_BIND,
@@ -240,6 +280,16 @@ public class PgConnection extends AbstractDbSession implements Connection {
 		executeStatement("BEGIN");
 	}
 	
+	@Override
+	protected void sendBegin(TransactionIsolationLevel isolationLevel) {
+		if (isolationLevel == null) {
+			sendBegin();
+		} else {
+			// Each level is its own cached statement
+			executeStatement("BEGIN ISOLATION LEVEL " + isolationLevel.name().replace('_', ' '));
+		}
+	}
+	
 	@Override
 	protected void sendCommit() {
 		executeStatement("COMMIT");
@@ -250,6 +300,15 @@ public class PgConnection extends AbstractDbSession implements Connection {
 		executeStatement("ROLLBACK");
 	}
 	
+	/*
+	 * PostgreSQL answers the COMMIT of a transaction containing a failed statement with a rollback, so an entire
+	 * transaction can be pipelined.
+	 */
+	@Override
+	protected boolean isCommitPipelinable() {
+		return true;
+	}
+	
 	private void executeStatement(String statement) {
 		String statementId = statementCache.get(statement);
 		if (statementId == null) {
@@ -261,6 +320,7 @@ public class PgConnection extends AbstractDbSession implements Connection {
 
 			statementCache.put(statement, statementId);
 		}
+		syncsPending.incrementAndGet();
 		session.write(new AbstractFrontendMessage[] {
 				new BindMessage(statementId),
 				DEFAULT_EXECUTE,
@@ -268,12 +328,38 @@ public class PgConnection extends AbstractDbSession implements Connection {
 		});
 	}
 	
+	private class PingRequest extends Request<Void> {
+		@Override
+		public void execute() {
+			syncsPending.incrementAndGet();
+			session.write(FrontendMessage.SYNC);
+		}
+		@Override
+		public boolean isPipelinable() {
+			return false;
+		}
+		@Override
+		public String toString() {
+			return "Ping";
+		}
+	}
+	
 	// ================================================================================================================
 	//
 	// Non-API methods
 	//
 	// ================================================================================================================
 	
+	@Override
+	protected HashedWheelTimer getTimer() {
+		return connectionManager.getTimer();
+	}
+	
+	@Override
+	protected ListenerDispatcher getListenerDispatcher() {
+		return connectionManager.getListenerDispatcher();
+	}
+	
 	public Charset getFrontendCharset() {
 		return frontendCharset;
 	}
@@ -282,6 +368,19 @@ public class PgConnection extends AbstractDbSession implements Connection {
 		return backendCharset;
 	}
 
+	/**
+	 * Invoked for every ReadyForQuery after the connection has been established.  The ping is not pipelined so once
+	 * every Sync sent has been answered, the last ReadyForQuery belongs to the ping.
+	 */
+	public void readyForQuery() {
+		if (syncsPending.decrementAndGet() == 0) {
+			Object request = getActiveRequest();
+			if (request instanceof PingRequest) {
+				((PingRequest) request).complete(null);
+			}
+		}
+	}
+
 	public Request<Void> getCloseRequest() {
 		return closeRequest;
 	}
@@ -26,6 +26,8 @@ import org.adbcj.DbFuture;
 import org.adbcj.postgresql.backend.PgBackendMessageDecoder;
 import org.adbcj.postgresql.frontend.PgFrontendMessageEncoder;
 import org.adbcj.support.DefaultDbFuture;
+import org.adbcj.support.HashedWheelTimer;
+import org.adbcj.support.ListenerDispatcher;
 import org.apache.mina.common.ConnectFuture;
 import org.apache.mina.common.DefaultIoFilterChainBuilder;
 import org.apache.mina.common.IoSession;
@@ -62,6 +64,17 @@ public class PgConnectionManager implements ConnectionManager {
 	private final String database;
 	
 	private DefaultDbFuture<Void> closeFuture = null;
+	
+	/**
+	 * Expires requests with a deadline for all of this connection manager's connections.
+	 */
+	private final HashedWheelTimer timer = new HashedWheelTimer("PostgreSQL request timer");
+	
+	/**
+	 * Invokes the listeners of futures created by this connection manager and its connections.  Null, the default,
+	 * invokes them on the thread that completes the future without timing them.
+	 */
+	private volatile ListenerDispatcher listenerDispatcher;
 
 	public PgConnectionManager(String host, int port, String username, String password, String database,
 			Properties properties) {
@@ -90,6 +103,7 @@ public class PgConnectionManager implements ConnectionManager {
 		}
 		logger.debug("Starting connection");
 		PgConnectFuture future = new PgConnectFuture();
+		future.setListenerDispatcher(listenerDispatcher);
 		socketConnector.connect(future);
 		
 		logger.debug("Started connection");
@@ -135,6 +149,7 @@ public class PgConnectionManager implements ConnectionManager {
 		closeFuture = new DefaultDbFuture<Void>();
 		if (immediate) {
 			socketConnector.dispose();
+			timer.stop();
 			closeFuture.setResult(null);
 		} else {
 			// TODO Implement PostgresqlConnectionManager.close(boolean)
@@ -147,6 +162,28 @@ public class PgConnectionManager implements ConnectionManager {
 		return closeFuture != null;
 	}
 	
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+	
+	/**
+	 * Returns the dispatcher that invokes the listeners of this manager's futures, null if they are invoked on the
+	 * thread that completes them.
+	 */
+	public ListenerDispatcher getListenerDispatcher() {
+		return listenerDispatcher;
+	}
+	
+	/**
+	 * Sets the policy for invoking listeners of futures created after this call.  Individual futures may override it
+	 * with {@link DefaultDbFuture#setListenerDispatcher(ListenerDispatcher)}.
+	 *
+	 * @param listenerDispatcher  the dispatcher to use, or null to invoke listeners on the completing thread
+	 */
+	public void setListenerDispatcher(ListenerDispatcher listenerDispatcher) {
+		this.listenerDispatcher = listenerDispatcher;
+	}
+	
 	// ================================================================================================================
 	//
 	// Non-API methods
@@ -44,6 +44,11 @@ public class PgException extends DbException {
 		return fields;
 	}
 	
+	@Override
+	public String getSqlState() {
+		return fields == null ? null : fields.get(ErrorField.CODE);
+	}
+	
 	@Override
 	public PgConnection getSession() {
 		return (PgConnection)super.getSession();
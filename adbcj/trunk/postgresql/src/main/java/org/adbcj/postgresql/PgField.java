@@ -18,6 +18,8 @@ package org.adbcj.postgresql;
 
 import org.adbcj.Field;
 import org.adbcj.Type;
+import org.adbcj.Value;
+import org.adbcj.support.NullValue;
 
 // TODO Add support for fetching extended Postgresql meta-data so we can have all the same info the MySQL has - do this on a ConnectionManager basis
 // TODO Add support for meta-data caching to ADBCJ API to facilitate invalidating cache on live systems
@@ -32,6 +34,7 @@ public class PgField implements Field {
 	private final FormatCode formatCode;
 	private final int typeSize;
 	private final int typeModifier;
+	private final Value nullValue = new NullValue(this);
 	
 	public PgField(int index, String schemaName, Type type, String columnLabel, int tableOid, int columnAttributeNumber, FormatCode formatCode, int typeSize, int typeModifier) {
 		this.index = index;
@@ -49,6 +52,13 @@ public class PgField implements Field {
 		return formatCode;
 	}
 	
+	/**
+	 * Returns the value of this field in rows where it is null.
+	 */
+	public Value getNullValue() {
+		return nullValue;
+	}
+	
 	public String getCatalogName() {
 		// TODO Figure out pg catalog name
 		return null;
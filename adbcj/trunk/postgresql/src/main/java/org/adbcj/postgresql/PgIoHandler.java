@@ -96,15 +96,14 @@ public class PgIoHandler extends IoHandlerAdapter {
 			} else {
 				Request<?> request = connection.getActiveRequest();
 				if (request != null) {
-					if (!request.isDone()) {
-						try {
-							errorOutFuture(connection, request, cause);
-							
-							return;
-						} catch (Exception e) {
-							// Hand exception over to connection manager
-							e.printStackTrace();
-						}
+					try {
+						// Even if the request already expired, error() marks its response as processed
+						request.error(DbException.wrap(connection, cause));
+						
+						return;
+					} catch (Exception e) {
+						// Hand exception over to connection manager
+						e.printStackTrace();
 					}
 				}
 			}
@@ -204,9 +203,12 @@ public class PgIoHandler extends IoHandlerAdapter {
 			request.complete(accumulator);
 		case BEGIN:
 		case COMMIT:
-		case ROLLBACK:
 			request.complete(null);
 			break;
+		case ROLLBACK:
+			// Also the response to a COMMIT sent for a transaction in which a statement failed
+			request.rolledBack();
+			break;
 		case DELETE:
 		case INSERT:
 		case UPDATE:
@@ -272,15 +274,17 @@ public class PgIoHandler extends IoHandlerAdapter {
 			future.setResult(connection);
 			return;
 		}
+		connection.readyForQuery();
 		
-		// TODO Determine if we even need to do anything with a ReadyMessage
 		switch (backendMessage.getStatus()) {
 		case TRANSACTION:
 			break;
 		case IDLE:
 			break;
 		case ERROR:
-			throw new DbException(connection, "Transaction is in error state");
+			// The failed request has already been notified by the error response, the requests pipelined behind it
+			// receive their own error responses
+			break;
 		default:
 			throw new IllegalStateException("Don't know hot to handle backend status of " + backendMessage.getStatus());
 		}
@@ -23,7 +23,10 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.adbcj.DbException;
+import org.adbcj.ResultEventHandler;
 import org.adbcj.Type;
+import org.adbcj.TypedResultEventHandler;
 import org.adbcj.Value;
 import org.adbcj.postgresql.ConfigurationVariable;
 import org.adbcj.postgresql.ErrorField;
@@ -33,7 +36,8 @@ import org.adbcj.postgresql.PgConnection;
 import org.adbcj.postgresql.PgField;
 import org.adbcj.postgresql.PgFieldType;
 import org.adbcj.postgresql.PgIoHandler;
-import org.adbcj.support.DefaultValue;
+import org.adbcj.support.IntValue;
+import org.adbcj.support.StringValue;
 import org.adbcj.support.AbstractDbSession.Request;
 import org.apache.mina.common.IoBuffer;
 import org.apache.mina.common.IoSession;
@@ -45,6 +49,17 @@ import org.slf4j.LoggerFactory;
 public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 
 	private final Logger logger = LoggerFactory.getLogger(PgBackendMessageDecoder.class);
+
+	/**
+	 * Holds the bytes of a text column for a typed handler when the buffer has no accessible array.
+	 */
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * The failure of a typed row of the current result.  The request is failed once its command completes so the
+	 * decoder stays in step with the messages that follow.
+	 */
+	private RuntimeException rowFailure;
 	
 	@Override
 	protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
@@ -101,12 +116,19 @@ public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 			decodeAuthentication(session, in, out);
 			break;
 		case COMMAND_COMPLETE:
+			if (rowFailure != null) {
+				in.position(in.limit());
+				failRow(session, out);
+				break;
+			}
 			decodeCommandComplete(session, in, out);
 			break;
 		case DATA_ROW:
 			decodeDataRow(session, in, out);
 			break;
 		case ERROR_RESPONSE:
+			// The server's error fails the request in place of a row's failure
+			rowFailure = null;
 			decodeError(session, in, out);
 			break;
 		case KEY:
@@ -212,7 +234,6 @@ public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 
 	private void decodeDataRow(IoSession session, IoBuffer buffer, ProtocolDecoderOutput out) throws CharacterCodingException {
 		PgConnection connection = IoSessionUtil.getConnection(session);
-		CharsetDecoder decoder = connection.getBackendCharset().newDecoder();
 		
 		Request<Object> request = connection.getActiveRequest();
 		if (request == null) {
@@ -223,6 +244,23 @@ public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 			throw new IllegalStateException("Received a data row without any field definitions in the request payload");
 		}
 
+		ResultEventHandler<Object> eventHandler = request.getEventHandler();
+		if (eventHandler instanceof TypedResultEventHandler) {
+			// Hand the row to the handler directly rather than creating a value per column
+			if (rowFailure == null) {
+				try {
+					decodeDataRow(buffer, fields, (TypedResultEventHandler<Object>)eventHandler,
+							request.getAccumulator());
+				} catch (RuntimeException e) {
+					rowFailure = e;
+				}
+			}
+			// Skip what a failed row left unread and the rows that follow it
+			buffer.position(buffer.limit());
+			return;
+		}
+
+		CharsetDecoder decoder = connection.getBackendCharset().newDecoder();
 		int fieldCount = buffer.getUnsignedShort();
 		Value[] values = new Value[fieldCount];
 		for (int i = 0; i < fieldCount; i++) {
@@ -230,18 +268,16 @@ public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 			PgField field = fields[i];
 			Value value;
 			if (valueLength < 0) {
-				value = new DefaultValue(field, null);
+				value = field.getNullValue();
 			} else {
-				String strVal;
 				switch (field.getColumnType()) {
 				case INTEGER:
 					switch (field.getFormatCode()) {
 					case BINARY:
-						value = new DefaultValue(field, buffer.getInt());
+						value = new IntValue(field, buffer.getInt());
 						break;
 					case TEXT:
-						strVal = buffer.getString(valueLength, decoder);
-						value = new DefaultValue(field, Integer.valueOf(strVal));
+						value = new IntValue(field, decodeInt(buffer, valueLength));
 						break;
 					default:
 						throw new IllegalStateException("Unable to decode format of " + field.getFormatCode());
@@ -249,8 +285,7 @@ public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 					break;
 				case VARCHAR:
 					// TODO Modify to use getString that doesn't terminate on null
-					strVal = buffer.getString(valueLength, decoder);
-					value = new DefaultValue(field, strVal);
+					value = new StringValue(field, buffer.getString(valueLength, decoder));
 					break;
 				default:
 					// Advance buffer
@@ -264,6 +299,103 @@ public class PgBackendMessageDecoder extends CumulativeProtocolDecoder {
 		out.write(new DataRowMessage(values));
 	}
 
+	/**
+	 * Fails the active request with the failure of one of its typed rows, now that its command has completed.
+	 */
+	private void failRow(IoSession session, ProtocolDecoderOutput out) {
+		RuntimeException failure = rowFailure;
+		rowFailure = null;
+		// Deliver the messages decoded ahead of the failure first
+		out.flush();
+		PgConnection connection = IoSessionUtil.getConnection(session);
+		Request<Object> request = connection.getActiveRequest();
+		if (request != null) {
+			request.error(DbException.wrap(connection, failure));
+		}
+	}
+
+	private <T> void decodeDataRow(IoBuffer buffer, PgField[] fields, TypedResultEventHandler<T> eventHandler,
+			T accumulator) {
+		eventHandler.startRow(accumulator);
+		int fieldCount = buffer.getUnsignedShort();
+		for (int i = 0; i < fieldCount; i++) {
+			int valueLength = buffer.getInt();
+			PgField field = fields[i];
+			if (valueLength < 0) {
+				eventHandler.nullValue(i, accumulator);
+				continue;
+			}
+			switch (field.getColumnType()) {
+			case INTEGER:
+				switch (field.getFormatCode()) {
+				case BINARY:
+					eventHandler.intValue(i, buffer.getInt(), accumulator);
+					break;
+				case TEXT:
+					eventHandler.intValue(i, decodeInt(buffer, valueLength), accumulator);
+					break;
+				default:
+					throw new IllegalStateException("Unable to decode format of " + field.getFormatCode());
+				}
+				break;
+			case VARCHAR:
+				if (buffer.hasArray()) {
+					eventHandler.bytesValue(i, buffer.array(), buffer.arrayOffset() + buffer.position(), valueLength,
+							accumulator);
+					buffer.skip(valueLength);
+				} else {
+					if (scratch.length < valueLength) {
+						scratch = new byte[Math.max(valueLength, scratch.length * 2)];
+					}
+					buffer.get(scratch, 0, valueLength);
+					eventHandler.bytesValue(i, scratch, 0, valueLength, accumulator);
+				}
+				break;
+			default:
+				// TODO Handle remaining ADBCJ types
+				throw new IllegalStateException("Unable to decode column of type " + field.getColumnType());
+			}
+		}
+		eventHandler.endRow(accumulator);
+	}
+
+	/**
+	 * Parses an integer sent as text without creating a string.  Values that do not fit in an int are rejected
+	 * rather than wrapped.
+	 */
+	private static int decodeInt(IoBuffer buffer, int length) {
+		if (length == 0) {
+			throw new IllegalStateException("Received an empty integer value");
+		}
+		boolean negative = false;
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get();
+			if (i == 0 && b == '-') {
+				negative = true;
+			} else if (b >= '0' && b <= '9') {
+				// Accumulate negatively so Integer.MIN_VALUE can be parsed
+				int digit = b - '0';
+				if (value < (Integer.MIN_VALUE + digit) / 10) {
+					throw new IllegalStateException("Received an integer value out of range");
+				}
+				value = value * 10 - digit;
+			} else {
+				throw new IllegalStateException("Received an invalid integer value");
+			}
+		}
+		if (negative) {
+			if (length == 1) {
+				throw new IllegalStateException("Received an invalid integer value");
+			}
+			return value;
+		}
+		if (value == Integer.MIN_VALUE) {
+			throw new IllegalStateException("Received an integer value out of range");
+		}
+		return -value;
+	}
+
 	private void decodeError(IoSession session, IoBuffer buffer, ProtocolDecoderOutput out) throws CharacterCodingException {
 		PgConnection connection = IoSessionUtil.getConnection(session);
 		
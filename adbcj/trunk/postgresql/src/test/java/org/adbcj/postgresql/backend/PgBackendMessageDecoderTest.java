@@ -0,0 +1,273 @@
+/*
+ *   Copyright (c) 2007 Mike Heath.  All rights reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.adbcj.postgresql.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.adbcj.DbException;
+import org.adbcj.DbSessionFuture;
+import org.adbcj.Field;
+import org.adbcj.ResultEventHandler;
+import org.adbcj.Type;
+import org.adbcj.TypedResultEventHandler;
+import org.adbcj.Value;
+import org.adbcj.postgresql.FormatCode;
+import org.adbcj.postgresql.IoSessionUtil;
+import org.adbcj.postgresql.PgConnection;
+import org.adbcj.postgresql.PgConnectionManager;
+import org.adbcj.postgresql.PgField;
+import org.apache.mina.common.DummySession;
+import org.apache.mina.common.IoBuffer;
+import org.apache.mina.filter.codec.AbstractProtocolDecoderOutput;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class PgBackendMessageDecoderTest {
+
+	private PgConnectionManager connectionManager;
+	private PgConnection connection;
+	private DummySession session;
+	private PgBackendMessageDecoder decoder;
+	private AbstractProtocolDecoderOutput out;
+	private DbSessionFuture<List<String>> future;
+
+	/**
+	 * Records the callbacks of the typed row events as strings.
+	 */
+	static class RecordingHandler implements TypedResultEventHandler<List<String>> {
+		public void startFields(List<String> accumulator) {
+		}
+		public void field(Field field, List<String> accumulator) {
+		}
+		public void endFields(List<String> accumulator) {
+		}
+		public void startResults(List<String> accumulator) {
+		}
+		public void startRow(List<String> accumulator) {
+		}
+		public void value(Value value, List<String> accumulator) {
+			accumulator.add("value " + value.getValue());
+		}
+		public void endRow(List<String> accumulator) {
+			accumulator.add("|");
+		}
+		public void endResults(List<String> accumulator) {
+		}
+		public void exception(Throwable t, List<String> accumulator) {
+		}
+		public void nullValue(int column, List<String> accumulator) {
+			accumulator.add("null");
+		}
+		public void intValue(int column, int value, List<String> accumulator) {
+			accumulator.add("int " + value);
+		}
+		public void longValue(int column, long value, List<String> accumulator) {
+			accumulator.add("long " + value);
+		}
+		public void bytesValue(int column, byte[] buffer, int offset, int length, List<String> accumulator) {
+			accumulator.add("bytes " + new String(buffer, offset, length));
+		}
+	}
+
+	@BeforeMethod
+	public void setUp() {
+		connectionManager = new PgConnectionManager("localhost", 5432, "test", "test", "test", new Properties());
+		session = new DummySession();
+		connection = new PgConnection(connectionManager, null, session);
+		IoSessionUtil.setConnection(session, connection);
+		decoder = new PgBackendMessageDecoder();
+		out = new AbstractProtocolDecoderOutput() {
+			public void flush() {
+			}
+		};
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		connectionManager.close(true);
+	}
+
+	/**
+	 * Starts a query whose result has columns of the given types, as described by a row description.
+	 */
+	private void query(ResultEventHandler<List<String>> eventHandler, List<String> events, Object... columns) {
+		future = connection.executeQuery("SELECT", eventHandler, events);
+		PgField[] fields = new PgField[columns.length / 2];
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = new PgField(i, "test", (Type)columns[2 * i], "c" + i, 0, i, (FormatCode)columns[2 * i + 1], 4, 0);
+		}
+		connection.getActiveRequest().setPayload(fields);
+	}
+
+	private List<String> query(Object... columns) {
+		List<String> events = new ArrayList<String>();
+		query(new RecordingHandler(), events, columns);
+		return events;
+	}
+
+	/**
+	 * Decodes a data row whose values are either null, a string sent as text or an integer sent as binary.
+	 */
+	private void row(boolean direct, Object... values) throws Exception {
+		IoBuffer row = IoBuffer.allocate(256, direct);
+		row.setAutoExpand(true);
+		row.put((byte)'D');
+		row.putInt(0);
+		row.putShort((short)values.length);
+		for (Object value : values) {
+			if (value == null) {
+				row.putInt(-1);
+			} else if (value instanceof Integer) {
+				row.putInt(4);
+				row.putInt((Integer)value);
+			} else {
+				byte[] bytes = ((String)value).getBytes();
+				row.putInt(bytes.length);
+				row.put(bytes);
+			}
+		}
+		row.flip();
+		row.putInt(1, row.limit() - 1);
+		decoder.doDecode(session, row, out);
+		Assert.assertFalse(row.hasRemaining());
+	}
+
+	private void commandComplete() throws Exception {
+		IoBuffer message = IoBuffer.allocate(32);
+		message.put((byte)'C');
+		message.putInt(0);
+		message.put("SELECT 1".getBytes()).put((byte)0);
+		message.flip();
+		message.putInt(1, message.limit() - 1);
+		decoder.doDecode(session, message, out);
+		Assert.assertFalse(message.hasRemaining());
+	}
+
+	/**
+	 * Returns the failure of the last query, unwrapped from the {@link DbException}s it was reported with.
+	 */
+	private Throwable getFailure() {
+		Assert.assertTrue(future.isDone(), "The query should have completed");
+		try {
+			future.getUninterruptably();
+			Assert.fail("The query should have failed");
+		} catch (DbException e) {
+			Throwable failure = e;
+			while (failure instanceof DbException && failure.getCause() != null) {
+				failure = failure.getCause();
+			}
+			return failure;
+		}
+		return null;
+	}
+
+	public void testTypedRow() throws Exception {
+		List<String> events = query(Type.INTEGER, FormatCode.TEXT, Type.INTEGER, FormatCode.BINARY, Type.VARCHAR,
+				FormatCode.TEXT);
+		row(false, "-42", -7, "abc");
+		row(false, null, null, null);
+		row(false, "2147483647", Integer.MIN_VALUE, "");
+		row(false, "-2147483648", Integer.MAX_VALUE, "x");
+		Assert.assertEquals(events.toString(), "[int -42, int -7, bytes abc, |, null, null, null, |, "
+				+ "int 2147483647, int -2147483648, bytes , |, int -2147483648, int 2147483647, bytes x, |]");
+	}
+
+	public void testTypedRowWithoutBackingArray() throws Exception {
+		List<String> events = query(Type.INTEGER, FormatCode.TEXT, Type.VARCHAR, FormatCode.TEXT);
+		StringBuilder longString = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			longString.append((char)('a' + i % 26));
+		}
+		// Longer than the initial scratch array so it has to grow
+		row(true, "7", longString.toString());
+		row(true, "8", "xyz");
+		Assert.assertEquals(events.toString(), "[int 7, bytes " + longString + ", |, int 8, bytes xyz, |]");
+	}
+
+	public void testOverflowRejected() throws Exception {
+		for (String value : new String[] { "2147483648", "-2147483649", "99999999999", "-" }) {
+			List<String> events = query(Type.INTEGER, FormatCode.TEXT);
+			row(false, value);
+			row(false, "1");
+			Assert.assertFalse(future.isDone(), "The query should fail once its command has completed");
+			commandComplete();
+			Assert.assertTrue(getFailure() instanceof IllegalStateException, "Expected " + value + " to be rejected");
+			Assert.assertEquals(events.size(), 0);
+		}
+	}
+
+	public void testThrowingHandlerFailsQuery() throws Exception {
+		final IllegalArgumentException failure = new IllegalArgumentException();
+		List<String> events = new ArrayList<String>();
+		query(new RecordingHandler() {
+			@Override
+			public void intValue(int column, int value, List<String> accumulator) {
+				if (value == 2) {
+					throw failure;
+				}
+				super.intValue(column, value, accumulator);
+			}
+		}, events, Type.INTEGER, FormatCode.BINARY, Type.VARCHAR, FormatCode.TEXT);
+		row(false, 1, "a");
+		row(false, 2, "b");
+		row(false, 3, "c");
+		commandComplete();
+		Assert.assertSame(getFailure(), failure);
+		Assert.assertEquals(events.toString(), "[int 1, bytes a, |]", "No callbacks should follow the failure");
+
+		// The next result is decoded in step
+		events = query(Type.INTEGER, FormatCode.BINARY);
+		row(false, 4);
+		Assert.assertEquals(events.toString(), "[int 4, |]");
+	}
+
+	public void testValueRowOverflowRejected() throws Exception {
+		query(new ResultEventHandler<List<String>>() {
+			public void startFields(List<String> accumulator) {
+			}
+			public void field(Field field, List<String> accumulator) {
+			}
+			public void endFields(List<String> accumulator) {
+			}
+			public void startResults(List<String> accumulator) {
+			}
+			public void startRow(List<String> accumulator) {
+			}
+			public void value(Value value, List<String> accumulator) {
+			}
+			public void endRow(List<String> accumulator) {
+			}
+			public void endResults(List<String> accumulator) {
+			}
+			public void exception(Throwable t, List<String> accumulator) {
+			}
+		}, null, Type.INTEGER, FormatCode.TEXT);
+		row(false, "-2147483648");
+		try {
+			row(false, "2147483648");
+			Assert.fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+}